@@ -50,6 +50,26 @@ public class Config {
   @ConfigType(type = ConfigType.INT, mandatory = true, doc = "The amount of time tasks sleep before trying to acquire locks again.")
   public static final String TR_RETRY_MS = "TR_RETRY_MS";
 
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The memory budget of a hash join in megabytes, larger joins are partitioned to disk.")
+  public static final String JOIN_MEMORY_MB = "JOIN_MEMORY_MB";
+
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The memory budget of a sort in megabytes, larger sorts are merged from disk.")
+  public static final String SORT_MEMORY_MB = "SORT_MEMORY_MB";
+
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The memory budget of a group by or a distinct in megabytes, larger ones are partitioned to disk.")
+  public static final String GROUP_MEMORY_MB = "GROUP_MEMORY_MB";
+
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The number of threads aggregating the rows of a group by, shared by all queries, defaults to 1.")
+  public static final String AGGR_NUM_THREADS = "AGGR_NUM_THREADS";
+
+  public static final int DEFAULT_AGGR_NUM_THREADS = 1;
+
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The number of rows sampled by analyze for the histograms.")
+  public static final String STATS_SAMPLE_SIZE = "STATS_SAMPLE_SIZE";
+
+  @ConfigType(type = ConfigType.INT, mandatory = false, doc = "The percentage of rows changed after which analyzed tables are analyzed again.")
+  public static final String STATS_REFRESH_PERCENT = "STATS_REFRESH_PERCENT";
+
   private final String confDir;
   private final Properties props;
 
@@ -93,6 +113,10 @@ public class Config {
     return props.getProperty(DATA_DIR) + File.separator + "backup";
   }
 
+  public String tempDir() {
+    return props.getProperty(DATA_DIR) + File.separator + "temp";
+  }
+
   public String dataDir() {
     return props.getProperty(DATA_DIR);
   }
@@ -143,4 +167,11 @@ public class Config {
     }
     return integer(props.getProperty(key));
   }
+
+  public int getInt(String key, int defaultValue) throws ConfigException {
+    if (!props.containsKey(key)) {
+      return defaultValue;
+    }
+    return integer(props.getProperty(key));
+  }
 }
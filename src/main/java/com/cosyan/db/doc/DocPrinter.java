@@ -197,7 +197,11 @@ public class DocPrinter {
       throw new RuntimeException(function.getName());
     }
     StringBuilder sb = new StringBuilder();
-    sb.append(" * `").append(function.getName()).append("(arg)").append("`<br/>\n");
+    sb.append(" * `").append(function.getName()).append("(arg");
+    for (String param : function.params()) {
+      sb.append(", ").append(param);
+    }
+    sb.append(")").append("`<br/>\n");
     String doc = ann.doc();
     sb.append("   " + doc + "\n\n");
     funcMap.put(function.getName(), sb.toString());
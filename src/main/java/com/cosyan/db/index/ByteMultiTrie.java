@@ -15,9 +15,12 @@
  */
 package com.cosyan.db.index;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -30,7 +33,11 @@ import java.util.List;
 import java.util.Map;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
+import com.cosyan.db.index.ByteTrie.Leaf;
+import com.cosyan.db.index.ByteTrie.LeafIterator;
 import com.cosyan.db.index.ByteTrie.RuntimeIndexException;
+import com.cosyan.db.index.IndexEntrySorter.Entry;
+import com.cosyan.db.index.IndexEntrySorter.EntryIterator;
 import com.cosyan.db.index.IndexStat.ByteMultiTrieStat;
 import com.cosyan.db.index.IndexStat.ByteTrieStat;
 import com.cosyan.db.io.Serializer;
@@ -145,6 +152,90 @@ public abstract class ByteMultiTrie<T> {
     trie.rollback();
     filePointer = stableFilePointer;
     pendingNodes.clear();
+    try {
+      if (raf.length() > stableFilePointer) {
+        // Drop the chain nodes of an uncommitted bulk load.
+        raf.setLength(stableFilePointer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeIndexException(e.getMessage());
+    }
+  }
+
+  public boolean isEmpty() throws IOException {
+    return pendingNodes.isEmpty() && raf.length() == 1 && trie.isEmpty();
+  }
+
+  /**
+   * Builds the index from entries sorted by key and then by value. The chain
+   * nodes of every key are written sequentially after the end of the file, and
+   * the trie is bulk loaded from the resulting leaves in the same pass.
+   *
+   * Falls back to inserting the entries one by one if the index is not empty.
+   */
+  @SuppressWarnings("unchecked")
+  public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+    if (!isEmpty()) {
+      Entry entry;
+      while ((entry = entries.next()) != null) {
+        put((T) entry.getKey(), entry.getValue());
+      }
+      return;
+    }
+    raf.seek(filePointer);
+    // Do not close the stream, it would close the underlying file.
+    DataOutputStream stream = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+    trie.load(new ChainWriter(entries, stream));
+    stream.flush();
+    if (filePointer != raf.length()) {
+      throw new RuntimeIndexException("Inconsistent state.");
+    }
+  }
+
+  private class ChainWriter implements LeafIterator<T, MultiLeaf> {
+    private final EntryIterator entries;
+    private final DataOutputStream stream;
+    private Entry entry;
+
+    private ChainWriter(EntryIterator entries, DataOutputStream stream) throws IOException {
+      this.entries = entries;
+      this.stream = stream;
+      this.entry = entries.next();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Leaf<T, MultiLeaf> next() throws IOException {
+      if (entry == null) {
+        return null;
+      }
+      T key = (T) entry.getKey();
+      long firstIndex = filePointer;
+      long[] values = new long[POINTERS_PER_NODE];
+      Arrays.fill(values, NULL_VALUE);
+      int i = 0;
+      while (entry != null && entry.getKey().equals(key)) {
+        if (i == POINTERS_PER_NODE) {
+          writeNode(filePointer + NODE_SIZE, values);
+          Arrays.fill(values, NULL_VALUE);
+          i = 0;
+        }
+        values[i++] = entry.getValue();
+        entry = entries.next();
+      }
+      long lastIndex = filePointer;
+      writeNode(0L, values);
+      return new Leaf<T, MultiLeaf>(key, new MultiLeaf(firstIndex, lastIndex));
+    }
+
+    private void writeNode(long nextPointer, long[] values) throws IOException {
+      stream.writeLong(nextPointer);
+      for (long value : values) {
+        stream.writeLong(value);
+      }
+      filePointer += NODE_SIZE;
+    }
   }
 
   private ChainNode loadNode(long id) throws IOException {
@@ -152,9 +243,8 @@ public abstract class ByteMultiTrie<T> {
     if (pendingNode != null) {
       return pendingNode;
     }
-    raf.seek(id);
     ByteBuffer bb = ByteBuffer.allocate(NODE_SIZE);
-    raf.read(bb.array());
+    ByteTrie.readFully(raf.getChannel(), bb, id);
     LongBuffer lb = bb.asLongBuffer();
     long[] values = new long[POINTERS_PER_NODE];
     long nextPointer = lb.get();
@@ -162,8 +252,23 @@ public abstract class ByteMultiTrie<T> {
     return new ImmutableNode(nextPointer, values);
   }
 
+  /**
+   * Looks up multiple keys with one walk of the trie, see {@link ByteTrie#getAll}.
+   */
+  public long[][] getAll(List<T> keys) throws IOException {
+    List<MultiLeaf> leaves = trie.getAll(keys);
+    long[][] result = new long[leaves.size()][];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values(leaves.get(i));
+    }
+    return result;
+  }
+
   public long[] get(T key) throws IOException {
-    MultiLeaf leaf = trie.get(key);
+    return values(trie.get(key));
+  }
+
+  private long[] values(MultiLeaf leaf) throws IOException {
     if (leaf == null) {
       return EMPTY;
     }
@@ -293,22 +398,17 @@ public abstract class ByteMultiTrie<T> {
     }
 
     @Override
-    protected Leaf<Long, MultiLeaf> loadLeaf(long filePointer) throws IOException {
-      raf.seek(filePointer);
+    protected Leaf<Long, MultiLeaf> readLeaf(DataInput input) throws IOException {
       return new Leaf<Long, MultiLeaf>(
-          (Long) Serializer.readColumn(DataTypes.LongType, raf),
-          new MultiLeaf(raf.readLong(), raf.readLong()));
+          (Long) Serializer.readColumn(DataTypes.LongType, input),
+          new MultiLeaf(input.readLong(), input.readLong()));
     }
 
     @Override
-    protected void saveLeaf(long filePointer, Leaf<Long, MultiLeaf> leaf) throws IOException {
-      raf.seek(filePointer);
-      ByteArrayOutputStream b = new ByteArrayOutputStream(leafSize(leaf));
-      DataOutputStream stream = new DataOutputStream(b);
+    protected void writeLeaf(Leaf<Long, MultiLeaf> leaf, DataOutput stream) throws IOException {
       Serializer.writeColumn(leaf.key(), DataTypes.LongType, stream);
       stream.writeLong(leaf.value().getFirstIndex());
       stream.writeLong(leaf.value().getLastIndex());
-      raf.write(b.toByteArray());
     }
 
     @Override
@@ -331,22 +431,17 @@ public abstract class ByteMultiTrie<T> {
     }
 
     @Override
-    protected Leaf<String, MultiLeaf> loadLeaf(long filePointer) throws IOException {
-      raf.seek(filePointer);
+    protected Leaf<String, MultiLeaf> readLeaf(DataInput input) throws IOException {
       return new Leaf<String, MultiLeaf>(
-          (String) Serializer.readColumn(DataTypes.StringType, raf),
-          new MultiLeaf(raf.readLong(), raf.readLong()));
+          (String) Serializer.readColumn(DataTypes.StringType, input),
+          new MultiLeaf(input.readLong(), input.readLong()));
     }
 
     @Override
-    protected void saveLeaf(long filePointer, Leaf<String, MultiLeaf> leaf) throws IOException {
-      raf.seek(filePointer);
-      ByteArrayOutputStream b = new ByteArrayOutputStream(leafSize(leaf));
-      DataOutputStream stream = new DataOutputStream(b);
+    protected void writeLeaf(Leaf<String, MultiLeaf> leaf, DataOutput stream) throws IOException {
       Serializer.writeColumn(leaf.key(), DataTypes.StringType, stream);
       stream.writeLong(leaf.value().getFirstIndex());
       stream.writeLong(leaf.value().getLastIndex());
-      raf.write(b.toByteArray());
     }
 
     @Override
@@ -15,18 +15,31 @@
  */
 package com.cosyan.db.index;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.cosyan.db.index.IndexEntrySorter.Entry;
+import com.cosyan.db.index.IndexEntrySorter.EntryIterator;
 import com.cosyan.db.index.IndexStat.ByteTrieStat;
 import com.cosyan.db.io.Serializer;
 import com.cosyan.db.model.DataTypes;
@@ -40,6 +53,11 @@ import com.cosyan.db.model.DataTypes;
  * keys. In addition, every middle "index" node can store a key too, if the
  * bytes of the key exactly add up to the prefix.
  * 
+ * Lookups can run from multiple threads at once. Committed nodes are immutable
+ * and shared through a concurrent cache, and nodes are loaded with positional
+ * reads which do not move the file pointer. Modifications are single threaded,
+ * they are only visible to the modifying thread until commit.
+ * 
  * Subclass this class for to implement for various key types.
  * 
  * @author gsvigruha
@@ -56,6 +74,7 @@ public abstract class ByteTrie<K, V> {
   private static final int KEYS_SIZE = 257;
 
   public static class Node<K, V> {
+    // Approximate, concurrent lookups can lose increments.
     protected int accesses = 0;
 
     public int getAccesses() {
@@ -116,7 +135,7 @@ public abstract class ByteTrie<K, V> {
   private long filePointer;
   private long stableFilePointer;
 
-  private final HashMap<Long, Node<K, V>> trie = new HashMap<>();
+  private final ConcurrentHashMap<Long, Node<K, V>> trie = new ConcurrentHashMap<>();
   private final LinkedHashMap<Long, Node<K, V>> pendingNodes = new LinkedHashMap<>();
 
   protected ByteTrie(String fileName) throws IOException {
@@ -151,6 +170,57 @@ public abstract class ByteTrie<K, V> {
     return get(getIndex(0L).keys(), toByteArray(key), 0, key);
   }
 
+  /**
+   * Looks up multiple keys, returns <code>null</code> for missing keys.
+   * Consecutive keys reuse the index nodes along their common prefix, so the
+   * shared part of the path is walked only once if the keys are sorted.
+   */
+  public List<V> getAll(List<K> keys) throws IOException {
+    ArrayList<V> result = new ArrayList<>(keys.size());
+    // The index nodes along the path of the previous key, the root is the first one.
+    ArrayList<long[]> path = new ArrayList<>();
+    path.add(getIndex(0L).keys());
+    byte[] prevKeyBytes = new byte[0];
+    for (K key : keys) {
+      byte[] keyBytes = toByteArray(key);
+      int prefix = commonPrefix(prevKeyBytes, keyBytes);
+      while (path.size() > prefix + 1) {
+        path.remove(path.size() - 1);
+      }
+      result.add(getFrom(path, keyBytes, key));
+      prevKeyBytes = keyBytes;
+    }
+    return result;
+  }
+
+  private V getFrom(ArrayList<long[]> path, byte[] keyBytes, K keyObject) throws IOException {
+    int keyBytesIndex = path.size() - 1;
+    long[] pointers = path.get(keyBytesIndex);
+    while (keyBytesIndex < keyBytes.length) {
+      long pointer = pointers[keyBytes[keyBytesIndex] - Byte.MIN_VALUE];
+      if (pointer == 0) {
+        return null;
+      } else if (pointer > 0) {
+        Leaf<K, V> leaf = getLeaf(pointer);
+        return keyObject.equals(leaf.key()) ? leaf.value() : null;
+      }
+      pointers = getIndex(pointer).keys();
+      path.add(pointers);
+      keyBytesIndex++;
+    }
+    // Check current node.
+    long currentKey = pointers[256];
+    if (currentKey > 0) {
+      Leaf<K, V> leaf = getLeaf(currentKey);
+      if (keyObject.equals(leaf.key())) {
+        return leaf.value();
+      } else {
+        throw new RuntimeIndexException("Inconsistent state.");
+      }
+    }
+    return null;
+  }
+
   public void put(K key, V value) throws IOException, IndexException {
     put(0, getIndex(0L).keys(), toByteArray(key), 0, key, value);
   }
@@ -178,11 +248,115 @@ public abstract class ByteTrie<K, V> {
   public void rollback() {
     filePointer = stableFilePointer;
     pendingNodes.clear();
+    try {
+      if (raf.length() > stableFilePointer) {
+        // Drop the nodes of an uncommitted bulk load.
+        raf.setLength(stableFilePointer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeIndexException(e.getMessage());
+    }
+  }
+
+  public boolean isEmpty() throws IOException {
+    return pendingNodes.isEmpty()
+        && raf.length() == KEYS_SIZE * Long.BYTES
+        && Arrays.stream(getIndex(0L).keys).allMatch(p -> p == 0);
+  }
+
+  protected static interface LeafIterator<K, V> {
+    /**
+     * Returns the next leaf or <code>null</code> if there are no more leaves.
+     */
+    public Leaf<K, V> next() throws IOException, IndexException;
+  }
+
+  /**
+   * Builds the trie from leaves sorted by their keys. Every node is written
+   * exactly once, in one sequential pass after the end of the file. Leaves are
+   * written as they arrive, index nodes are written bottom-up as soon as the
+   * sorted keys leave their prefix. The root node is only modified in memory,
+   * so the result becomes visible on commit and is discarded on rollback.
+   *
+   * Falls back to inserting the leaves one by one if the trie is not empty.
+   */
+  protected void load(LeafIterator<K, V> leaves) throws IOException, IndexException {
+    if (!isEmpty()) {
+      Leaf<K, V> leaf;
+      while ((leaf = leaves.next()) != null) {
+        put(leaf.key(), leaf.value());
+      }
+      return;
+    }
+    // The open index nodes along the path of the current key, the root is the first one.
+    ArrayList<long[]> path = new ArrayList<>();
+    path.add(new long[KEYS_SIZE]);
+    long pointer = filePointer;
+    raf.seek(pointer);
+    // Do not close the stream, it would close the underlying file.
+    DataOutputStream stream = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+    Leaf<K, V> leaf = leaves.next();
+    byte[] keyBytes = leaf == null ? null : toByteArray(leaf.key());
+    int prevPrefix = 0;
+    while (leaf != null) {
+      Leaf<K, V> nextLeaf = leaves.next();
+      byte[] nextKeyBytes = null;
+      int nextPrefix = 0;
+      if (nextLeaf != null) {
+        if (leaf.key().equals(nextLeaf.key())) {
+          throw new IndexException("Key '" + leaf.key() + "' already present in index.");
+        }
+        nextKeyBytes = toByteArray(nextLeaf.key());
+        nextPrefix = commonPrefix(keyBytes, nextKeyBytes);
+      }
+      // The leaf goes to the deepest index node shared with any of its neighbors.
+      int depth = Math.max(prevPrefix, nextPrefix);
+      while (path.size() <= depth) {
+        path.add(new long[KEYS_SIZE]);
+      }
+      writeLeaf(leaf, stream);
+      path.get(depth)[depth < keyBytes.length ? keyBytes[depth] - Byte.MIN_VALUE : 256] = pointer;
+      pointer += leafSize(leaf);
+      // Close the index nodes not shared with the next key.
+      while (path.size() - 1 > nextPrefix) {
+        long[] keys = path.remove(path.size() - 1);
+        for (long key : keys) {
+          stream.writeLong(key);
+        }
+        path.get(path.size() - 1)[keyBytes[path.size() - 1] - Byte.MIN_VALUE] = -pointer;
+        pointer += KEYS_SIZE * Long.BYTES;
+      }
+      leaf = nextLeaf;
+      keyBytes = nextKeyBytes;
+      prevPrefix = nextPrefix;
+    }
+    stream.flush();
+    filePointer = pointer;
+    if (filePointer != raf.length()) {
+      throw new RuntimeIndexException("Inconsistent state.");
+    }
+    pendingNodes.put(0L, new Index<K, V>(path.get(0)));
   }
 
-  protected abstract Leaf<K, V> loadLeaf(long filePointer) throws IOException;
+  private static int commonPrefix(byte[] a, byte[] b) {
+    int i = 0;
+    while (i < a.length && i < b.length && a[i] == b[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  protected abstract Leaf<K, V> readLeaf(DataInput input) throws IOException;
 
-  protected abstract void saveLeaf(long filePointer, Leaf<K, V> leaf) throws IOException;
+  protected abstract void writeLeaf(Leaf<K, V> leaf, DataOutput stream) throws IOException;
+
+  private void saveLeaf(long filePointer, Leaf<K, V> leaf) throws IOException {
+    raf.seek(filePointer);
+    ByteArrayOutputStream b = new ByteArrayOutputStream(leafSize(leaf));
+    writeLeaf(leaf, new DataOutputStream(b));
+    raf.write(b.toByteArray());
+  }
 
   protected abstract int leafSize(Leaf<K, V> leaf);
 
@@ -199,8 +373,12 @@ public abstract class ByteTrie<K, V> {
       if (id >= raf.length()) {
         throw new RuntimeIndexException("Inconsistent state.");
       }
-      leafNode = loadLeaf(id);
-      trie.put(id, leafNode);
+      leafNode = readLeaf(new DataInputStream(new BufferedInputStream(
+          new ChannelInputStream(raf.getChannel(), id), 256)));
+      Node<K, V> cachedNode = trie.putIfAbsent(id, leafNode);
+      if (cachedNode != null) {
+        return (Leaf<K, V>) cachedNode;
+      }
     }
     return leafNode;
   }
@@ -217,18 +395,64 @@ public abstract class ByteTrie<K, V> {
       if (fileIndex >= raf.length()) {
         throw new RuntimeIndexException("Inconsistent state.");
       }
-      raf.seek(fileIndex);
       ByteBuffer bb = ByteBuffer.allocate(KEYS_SIZE * Long.BYTES);
-      raf.read(bb.array());
+      readFully(raf.getChannel(), bb, fileIndex);
       long[] keysToLoad = new long[KEYS_SIZE];
       bb.asLongBuffer().get(keysToLoad);
 
       indexNode = new Index<K, V>(keysToLoad);
-      trie.put(id, indexNode);
+      Node<K, V> cachedNode = trie.putIfAbsent(id, indexNode);
+      if (cachedNode != null) {
+        return (Index<K, V>) cachedNode;
+      }
     }
     return indexNode;
   }
 
+  /**
+   * Reads <code>bb.remaining()</code> bytes starting at <code>position</code>
+   * without using the file pointer of the channel.
+   */
+  protected static void readFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+    while (bb.hasRemaining()) {
+      int read = channel.read(bb, position);
+      if (read < 0) {
+        throw new RuntimeIndexException("Inconsistent state.");
+      }
+      position += read;
+    }
+    bb.flip();
+  }
+
+  /**
+   * An input stream reading a channel from a given position with positional
+   * reads, so multiple streams can read the same channel concurrently.
+   */
+  private static class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+
+    private ChannelInputStream(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+  }
+
   private void modifyIndex(long parentPointer, long[] pointers, int i, long fileIndex) {
     long[] newPointers = pointers.clone();
     newPointers[i] = fileIndex;
@@ -410,6 +634,13 @@ public abstract class ByteTrie<K, V> {
       super(fileName);
     }
 
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      load(() -> {
+        Entry entry = entries.next();
+        return entry == null ? null : new Leaf<Long, Long>((Long) entry.getKey(), entry.getValue());
+      });
+    }
+
     @Override
     protected byte[] toByteArray(Long key) {
       ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
@@ -418,19 +649,14 @@ public abstract class ByteTrie<K, V> {
     }
 
     @Override
-    protected Leaf<Long, Long> loadLeaf(long filePointer) throws IOException {
-      raf.seek(filePointer);
-      return new Leaf<Long, Long>((Long) Serializer.readColumn(DataTypes.LongType, raf), raf.readLong());
+    protected Leaf<Long, Long> readLeaf(DataInput input) throws IOException {
+      return new Leaf<Long, Long>((Long) Serializer.readColumn(DataTypes.LongType, input), input.readLong());
     }
 
     @Override
-    protected void saveLeaf(long filePointer, Leaf<Long, Long> leaf) throws IOException {
-      raf.seek(filePointer);
-      ByteArrayOutputStream b = new ByteArrayOutputStream(leafSize(leaf));
-      DataOutputStream stream = new DataOutputStream(b);
+    protected void writeLeaf(Leaf<Long, Long> leaf, DataOutput stream) throws IOException {
       Serializer.writeColumn(leaf.key(), DataTypes.LongType, stream);
       stream.writeLong(leaf.value());
-      raf.write(b.toByteArray());
     }
 
     @Override
@@ -445,6 +671,13 @@ public abstract class ByteTrie<K, V> {
       super(fileName);
     }
 
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      load(() -> {
+        Entry entry = entries.next();
+        return entry == null ? null : new Leaf<String, Long>((String) entry.getKey(), entry.getValue());
+      });
+    }
+
     @Override
     protected byte[] toByteArray(String key) {
       ByteBuffer buffer = ByteBuffer.allocate(Character.BYTES * key.length());
@@ -453,19 +686,14 @@ public abstract class ByteTrie<K, V> {
     }
 
     @Override
-    protected Leaf<String, Long> loadLeaf(long filePointer) throws IOException {
-      raf.seek(filePointer);
-      return new Leaf<String, Long>((String) Serializer.readColumn(DataTypes.StringType, raf), raf.readLong());
+    protected Leaf<String, Long> readLeaf(DataInput input) throws IOException {
+      return new Leaf<String, Long>((String) Serializer.readColumn(DataTypes.StringType, input), input.readLong());
     }
 
     @Override
-    protected void saveLeaf(long filePointer, Leaf<String, Long> leaf) throws IOException {
-      raf.seek(filePointer);
-      ByteArrayOutputStream b = new ByteArrayOutputStream(leafSize(leaf));
-      DataOutputStream stream = new DataOutputStream(b);
+    protected void writeLeaf(Leaf<String, Long> leaf, DataOutput stream) throws IOException {
       Serializer.writeColumn(leaf.key(), DataTypes.StringType, stream);
       stream.writeLong(leaf.value());
-      raf.write(b.toByteArray());
     }
 
     @Override
@@ -16,26 +16,38 @@
 package com.cosyan.db.index;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.LongBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.TreeMap;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
 import com.cosyan.db.index.IndexStat.ByteTrieStat;
 
+/**
+ * An index of dense IDs. The value of every ID is stored at a fixed offset of
+ * the index file, so lookups are O(1).
+ *
+ * Committed segments are read directly from memory mapped views of the file,
+ * only the segments modified by the current transaction are copied to the
+ * heap. Dirty segments are written back on commit and discarded on rollback.
+ *
+ * @author gsvigruha
+ */
 public class IDIndex {
 
   private static final int SIZE = 4096;
   private static final int BYTE_SIZE = SIZE * 8;
+  private static final int SEGMENTS_PER_REGION = 1024;
+  private static final long REGION_BYTE_SIZE = (long) BYTE_SIZE * SEGMENTS_PER_REGION;
 
-  private final TreeMap<Long, long[]> cachedIndices = new TreeMap<>();
-  private final HashSet<Long> dirty = new HashSet<>();
+  private final ArrayList<LongBuffer> regions = new ArrayList<>();
+  private final TreeMap<Long, long[]> dirty = new TreeMap<>();
 
   private final String fileName;
 
@@ -47,126 +59,142 @@ public class IDIndex {
     this.fileName = fileName;
     this.raf = new RandomAccessFile(fileName, "rw");
     filePointer = raf.length();
+    map();
 
+    lastID = -1L;
     if (filePointer > 0) {
       long lastSegmentID = (filePointer / BYTE_SIZE) - 1;
-      long[] lastSegment = read(lastSegmentID);
-      for (int i = 0; i < lastSegment.length; i++) {
-        if (lastSegment[i] > -1) {
+      for (int i = 0; i < SIZE; i++) {
+        if (read(lastSegmentID * SIZE + i) > -1) {
           lastID = lastSegmentID * SIZE + i;
         }
       }
-    } else {
-      lastID = -1L;
     }
   }
 
+  /**
+   * Maps the file in regions. Only the last region can be partial, it is
+   * remapped when the file grows.
+   */
+  private void map() throws IOException {
+    if (!regions.isEmpty()) {
+      regions.remove(regions.size() - 1);
+    }
+    for (long start = regions.size() * REGION_BYTE_SIZE; start < filePointer; start += REGION_BYTE_SIZE) {
+      long size = Math.min(REGION_BYTE_SIZE, filePointer - start);
+      regions.add(raf.getChannel().map(MapMode.READ_WRITE, start, size).asLongBuffer());
+    }
+  }
+
+  private long read(long key) {
+    return regions.get((int) (key / (SIZE * SEGMENTS_PER_REGION))).get((int) (key % (SIZE * SEGMENTS_PER_REGION)));
+  }
+
   public void close() throws IOException {
     cleanUp();
     raf.close();
   }
 
   public void cleanUp() {
-    cachedIndices.clear();
+    dirty.clear();
   }
 
   public void drop() throws IOException {
     close();
+    regions.clear();
     new File(fileName).delete();
   }
 
-  public void reOpen() throws FileNotFoundException {
+  public void reOpen() throws IOException {
     this.raf = new RandomAccessFile(fileName, "rw");
+    regions.clear();
+    map();
   }
 
   public Long get(long key) throws IOException {
-    long segment = key / SIZE;
-    long[] cachedValues = cachedIndices.get(segment);
-    if (cachedValues == null) {
-      if (key * 8 >= filePointer) {
-        return null;
-      }
-      cachedValues = read(segment);
+    long[] dirtyValues = dirty.get(key / SIZE);
+    long value;
+    if (dirtyValues != null) {
+      value = dirtyValues[(int) (key % SIZE)];
+    } else if (key * 8 >= filePointer) {
+      return null;
+    } else {
+      value = read(key);
     }
-    long cachedValue = cachedValues[(int) (key % SIZE)];
-    return cachedValue == -1 ? null : cachedValue;
+    return value == -1 ? null : value;
   }
 
-  private long[] read(long segment) throws IOException {
-    ByteBuffer bb = ByteBuffer.allocate(BYTE_SIZE);
-    raf.seek(segment * BYTE_SIZE);
-    raf.read(bb.array());
-    LongBuffer lb = bb.asLongBuffer();
-    long[] cachedValues = new long[lb.capacity()];
-    lb.get(cachedValues);
-    return cachedValues;
+  /**
+   * Looks up multiple keys, returns <code>-1</code> for missing keys.
+   */
+  public long[] getAll(long[] keys) throws IOException {
+    long[] result = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      Long value = get(keys[i]);
+      result[i] = value == null ? -1 : value;
+    }
+    return result;
   }
 
-  public void put(long key, long value) throws IOException, IndexException {
-    long segment = key / SIZE;
-    long[] cachedValues = cachedIndices.get(segment);
-    if (cachedValues == null) {
-      if (key * 8 >= filePointer) {
-        for (long i = filePointer / BYTE_SIZE; i <= segment; i++) {
-          if (!cachedIndices.containsKey(i)) {
-            cachedValues = new long[SIZE];
-            Arrays.fill(cachedValues, -1);
-            cachedIndices.put(i, cachedValues);
-            dirty.add(i);
-          }
+  /**
+   * Returns the heap copy of the segment to modify. Creates the copy from the
+   * mapped file or, if the segment is beyond the end of the file, creates it
+   * together with all missing segments before it.
+   */
+  private long[] dirtySegment(long segment) {
+    long[] values = dirty.get(segment);
+    if (values != null) {
+      return values;
+    }
+    if (segment * BYTE_SIZE >= filePointer) {
+      for (long i = filePointer / BYTE_SIZE; i <= segment; i++) {
+        if (!dirty.containsKey(i)) {
+          long[] newValues = new long[SIZE];
+          Arrays.fill(newValues, -1);
+          dirty.put(i, newValues);
         }
-      } else {
-        cachedValues = read(segment);
-        cachedIndices.put(segment, cachedValues);
       }
+      return dirty.get(segment);
     }
-    if (cachedValues[(int) (key % SIZE)] != -1) {
+    values = new long[SIZE];
+    LongBuffer region = regions.get((int) (segment / SEGMENTS_PER_REGION));
+    LongBuffer view = region.duplicate();
+    view.position((int) (segment % SEGMENTS_PER_REGION) * SIZE);
+    view.get(values);
+    dirty.put(segment, values);
+    return values;
+  }
+
+  public void put(long key, long value) throws IOException, IndexException {
+    if (get(key) != null) {
       throw new IndexException("Key '" + key + "' already present in index.");
     }
-    dirty.add(segment);
-    cachedValues[(int) (key % SIZE)] = value;
+    dirtySegment(key / SIZE)[(int) (key % SIZE)] = value;
     lastID = Math.max(lastID, key);
   }
 
   public boolean delete(long key) throws IOException {
-    long segment = key / SIZE;
-    long[] cachedValues = cachedIndices.get(segment);
-    long blockStart = segment * SIZE;
-    if (cachedValues == null) {
-      if (key * 8 >= filePointer) {
-        return false;
-      }
-      cachedValues = read(segment);
-      cachedIndices.put(segment, cachedValues);
-    }
-    int idx = (int) (key - blockStart);
-    long cachedValue = cachedValues[idx];
-    if (cachedValue == -1) {
+    if (get(key) == null) {
       return false;
-    } else {
-      dirty.add(segment);
-      cachedValues[idx] = -1;
-      return true;
     }
+    dirtySegment(key / SIZE)[(int) (key % SIZE)] = -1;
+    return true;
   }
 
   public void commit() throws IOException {
-    for (Map.Entry<Long, long[]> e : cachedIndices.entrySet()) {
-      long i = e.getKey();
-      if (dirty.contains(i)) {
-        long[] values = e.getValue();
-        raf.seek(i * BYTE_SIZE);
-        ByteBuffer lb = ByteBuffer.allocate(BYTE_SIZE);
-        lb.asLongBuffer().put(values);
-        raf.write(lb.array());
-      }
+    for (Map.Entry<Long, long[]> e : dirty.entrySet()) {
+      ByteBuffer bb = ByteBuffer.allocate(BYTE_SIZE);
+      bb.asLongBuffer().put(e.getValue());
+      raf.getChannel().write(bb, e.getKey() * BYTE_SIZE);
     }
-    filePointer = raf.length();
     dirty.clear();
+    if (raf.length() != filePointer) {
+      filePointer = raf.length();
+      map();
+    }
   }
 
   public void rollback() {
-    cachedIndices.clear();
     dirty.clear();
   }
 
@@ -175,6 +203,6 @@ public class IDIndex {
   }
 
   public ByteTrieStat stats() throws IOException {
-    return new ByteTrieStat(raf.length(), cachedIndices.size(), dirty.size());
+    return new ByteTrieStat(raf.length(), regions.size(), dirty.size());
   }
 }
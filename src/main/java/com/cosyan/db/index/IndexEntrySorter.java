@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.cosyan.db.model.DataTypes.DataType;
+
+import lombok.Data;
+
+/**
+ * Collects <code>(key, filePointer)</code> pairs and returns them sorted by key
+ * and then by file pointer. Entries are sorted in memory in runs of a fixed
+ * size, full runs are spilled to temporary files and merged on read.
+ *
+ * @author gsvigruha
+ */
+public class IndexEntrySorter implements Closeable {
+
+  private static final int DEFAULT_RUN_SIZE = 1 << 20;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static final Comparator<Entry> COMPARATOR = (e1, e2) -> {
+    int c = ((Comparable) e1.getKey()).compareTo(e2.getKey());
+    return c != 0 ? c : Long.compare(e1.getValue(), e2.getValue());
+  };
+
+  @Data
+  public static class Entry {
+    private final Object key;
+    private final long value;
+  }
+
+  public static interface EntryIterator {
+    /**
+     * Returns the next entry or <code>null</code> if there are no more entries.
+     */
+    public Entry next() throws IOException;
+  }
+
+  private final DataType<?> keyType;
+  private final File tempDir;
+  private final int runSize;
+  private final List<File> runs = new ArrayList<>();
+  private ArrayList<Entry> entries = new ArrayList<>();
+
+  public IndexEntrySorter(DataType<?> keyType, String tempDir) {
+    this(keyType, tempDir, DEFAULT_RUN_SIZE);
+  }
+
+  public IndexEntrySorter(DataType<?> keyType, String tempDir, int runSize) {
+    this.keyType = keyType;
+    this.tempDir = new File(tempDir);
+    this.runSize = runSize;
+  }
+
+  public void add(Object key, long value) throws IOException {
+    entries.add(new Entry(key, value));
+    if (entries.size() >= runSize) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    entries.sort(COMPARATOR);
+    File run = File.createTempFile("index", ".run", tempDir);
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+      for (Entry entry : entries) {
+        keyType.write(entry.getKey(), out);
+        out.writeLong(entry.getValue());
+      }
+    }
+    entries = new ArrayList<>();
+  }
+
+  public EntryIterator sorted() throws IOException {
+    if (runs.isEmpty()) {
+      entries.sort(COMPARATOR);
+      return new EntryIterator() {
+        private int i = 0;
+
+        @Override
+        public Entry next() {
+          return i < entries.size() ? entries.get(i++) : null;
+        }
+      };
+    }
+    if (!entries.isEmpty()) {
+      spill();
+    }
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(
+        runs.size(), (r1, r2) -> COMPARATOR.compare(r1.head, r2.head));
+    for (File run : runs) {
+      RunReader reader = new RunReader(run);
+      if (reader.advance()) {
+        queue.add(reader);
+      }
+    }
+    return () -> {
+      RunReader reader = queue.poll();
+      if (reader == null) {
+        return null;
+      }
+      Entry entry = reader.head;
+      if (reader.advance()) {
+        queue.add(reader);
+      }
+      return entry;
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    entries.clear();
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+  }
+
+  private class RunReader {
+    private final DataInputStream in;
+    private Entry head;
+
+    private RunReader(File run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+    }
+
+    private boolean advance() throws IOException {
+      Object key;
+      try {
+        key = keyType.read(in);
+      } catch (EOFException e) {
+        in.close();
+        head = null;
+        return false;
+      }
+      head = new Entry(key, in.readLong());
+      return true;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Persists the state of an index relative to its table. The index is marked
+ * dirty before the table is committed and marked clean with the length of the
+ * table file after the index is committed. The index is consistent with the
+ * table if the stored LSN equals the length of the table file.
+ *
+ * @author gsvigruha
+ */
+public class IndexLSN {
+
+  public static final long DIRTY = -1L;
+
+  private final String fileName;
+  private final RandomAccessFile raf;
+  private long lsn;
+
+  public IndexLSN(String fileName) throws IOException {
+    this.fileName = fileName + "#lsn";
+    this.raf = new RandomAccessFile(this.fileName, "rw");
+    if (raf.length() >= Long.BYTES) {
+      lsn = raf.readLong();
+    } else {
+      lsn = DIRTY;
+    }
+  }
+
+  public long get() {
+    return lsn;
+  }
+
+  public void set(long lsn) throws IOException {
+    if (this.lsn != lsn) {
+      raf.seek(0);
+      raf.writeLong(lsn);
+      this.lsn = lsn;
+    }
+  }
+
+  public void drop() throws IOException {
+    raf.close();
+    new File(fileName).delete();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.io;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.cosyan.db.io.RecordProvider.Record;
+import com.cosyan.db.io.TableReader.SeekableTableReader;
+import com.cosyan.db.meta.MetaRepo.RuleException;
+import com.cosyan.db.model.Rule.BooleanRule;
+import com.cosyan.db.transaction.Resources;
+
+/**
+ * The referencing rules to check at the end of a statement. A rule is checked
+ * once per record no matter how many changes of the statement referenced it,
+ * the records of a table are read in file order. Records deleted later in the
+ * statement are skipped, their new versions are checked when inserted.
+ *
+ * @author gsvigruha
+ */
+public class DeferredRuleChecks {
+
+  // Rules by name per file pointer per table.
+  private final TreeMap<String, TreeMap<Long, Map<String, BooleanRule>>> checks = new TreeMap<>();
+
+  public void add(BooleanRule rule, long filePointer) {
+    checks
+        .computeIfAbsent(rule.getTable().tableName(), t -> new TreeMap<>())
+        .computeIfAbsent(filePointer, p -> new LinkedHashMap<>())
+        .putIfAbsent(rule.name(), rule);
+  }
+
+  public boolean isEmpty() {
+    return checks.isEmpty();
+  }
+
+  public void clear() {
+    checks.clear();
+  }
+
+  public void check(Resources resources) throws IOException, RuleException {
+    try {
+      for (Map.Entry<String, TreeMap<Long, Map<String, BooleanRule>>> table : checks.entrySet()) {
+        SeekableTableReader reader = resources.reader(table.getKey());
+        for (Map.Entry<Long, Map<String, BooleanRule>> pointer : table.getValue().entrySet()) {
+          if (reader.isDeleted(pointer.getKey())) {
+            continue;
+          }
+          Record record = reader.get(pointer.getKey());
+          for (BooleanRule rule : pointer.getValue().values()) {
+            if (!rule.check(resources, record.getValues())) {
+              throw new RuleException(
+                  String.format("Referencing constraint check %s.%s failed.",
+                      rule.getTable().tableName(), rule.name()));
+            }
+          }
+        }
+      }
+    } finally {
+      checks.clear();
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.cosyan.db.io;
 import java.io.IOException;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
+import com.cosyan.db.index.IndexEntrySorter.Entry;
+import com.cosyan.db.index.IndexEntrySorter.EntryIterator;
 import com.cosyan.db.model.DataTypes.DataType;
 
 public class Indexes {
@@ -27,7 +29,31 @@ public class Indexes {
     public boolean contains(Object key) throws IOException;
 
     public long[] get(Object key) throws IOException;
-    
+
+    /**
+     * Returns the file pointers for every key. Keys should be sorted so
+     * implementations can share the lookup work between neighboring keys.
+     */
+    public default long[][] getAll(Object[] keys) throws IOException {
+      long[][] result = new long[keys.length][];
+      for (int i = 0; i < keys.length; i++) {
+        result[i] = get(keys[i]);
+      }
+      return result;
+    }
+
+    /**
+     * Returns whether the index contains each of the keys, see {@link #getAll}.
+     */
+    public default boolean[] containsAll(Object[] keys) throws IOException {
+      long[][] pointers = getAll(keys);
+      boolean[] result = new boolean[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        result[i] = pointers[i].length > 0;
+      }
+      return result;
+    }
+
     public DataType<?> keyDataType();
   }
 
@@ -37,5 +63,15 @@ public class Indexes {
 
     public abstract boolean delete(Object key) throws IOException;
 
+    /**
+     * Adds entries sorted by key and then by file index. Implementations can
+     * override this to build the index in one pass.
+     */
+    public default void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      Entry entry;
+      while ((entry = entries.next()) != null) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
   }
 }
@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.util.Set;
 
 import com.cosyan.db.model.BasicColumn;
+import com.cosyan.db.model.DataTypes.DataType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
@@ -77,6 +78,16 @@ public interface RecordProvider {
       this(columns, inputStream, ImmutableSet.of());
     }
 
+    /**
+     * The types of the values of the records, deleted columns are skipped.
+     */
+    public ImmutableList<DataType<?>> columnTypes() {
+      return columns.stream()
+          .filter(column -> !column.isDeleted())
+          .map(BasicColumn::getType)
+          .collect(ImmutableList.toImmutableList());
+    }
+
     @Override
     public Record read() throws IOException {
       do {
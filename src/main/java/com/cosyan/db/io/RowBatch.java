@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.io;
+
+import java.util.List;
+
+import com.cosyan.db.model.DataTypes.DataType;
+
+/**
+ * A batch of rows stored column by column. Integer, float and boolean columns
+ * are stored in primitive arrays with a separate null mask, other columns in
+ * object arrays. Batches returned by readers contain at most {@link #SIZE}
+ * rows.
+ *
+ * @author gsvigruha
+ */
+public class RowBatch {
+
+  public static final int SIZE = 1024;
+
+  private final ColumnVector[] columns;
+  private int size;
+
+  public RowBatch(ColumnVector[] columns, int size) {
+    this.columns = columns;
+    this.size = size;
+  }
+
+  /**
+   * Returns an empty batch with typed column vectors.
+   */
+  public static RowBatch of(List<? extends DataType<?>> types) {
+    ColumnVector[] columns = new ColumnVector[types.size()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = ColumnVector.of(types.get(i), SIZE);
+    }
+    return new RowBatch(columns, 0);
+  }
+
+  /**
+   * Returns an empty batch with untyped column vectors.
+   */
+  public static RowBatch untyped(int width) {
+    ColumnVector[] columns = new ColumnVector[width];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = ColumnVector.of(null, SIZE);
+    }
+    return new RowBatch(columns, 0);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int width() {
+    return columns.length;
+  }
+
+  public ColumnVector column(int i) {
+    return columns[i];
+  }
+
+  public Object[] row(int row) {
+    Object[] values = new Object[columns.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = columns[i].get(row);
+    }
+    return values;
+  }
+
+  public void add(Object[] row) {
+    for (int i = 0; i < columns.length; i++) {
+      columns[i].set(size, row[i]);
+    }
+    size++;
+  }
+
+  /**
+   * Keeps only the rows where the condition is <code>true</code>, the order of
+   * the rows is preserved.
+   */
+  public void filter(ColumnVector condition) {
+    int kept = 0;
+    for (int row = 0; row < size; row++) {
+      if (!condition.isNull(row) && condition.getBoolean(row)) {
+        if (kept < row) {
+          for (ColumnVector column : columns) {
+            column.move(row, kept);
+          }
+        }
+        kept++;
+      }
+    }
+    size = kept;
+  }
+
+  /**
+   * The values of a column. Exactly one of the value arrays is used depending
+   * on the type of the column, the null mask is only used for primitive
+   * arrays.
+   */
+  public static class ColumnVector {
+    private final long[] longs;
+    private final double[] doubles;
+    private final boolean[] booleans;
+    private final Object[] objects;
+    private final boolean[] nulls;
+
+    private ColumnVector(long[] longs, double[] doubles, boolean[] booleans, Object[] objects, int capacity) {
+      this.longs = longs;
+      this.doubles = doubles;
+      this.booleans = booleans;
+      this.objects = objects;
+      this.nulls = objects == null ? new boolean[capacity] : null;
+    }
+
+    /**
+     * Returns a vector for values of the type, or an object vector if the type
+     * is <code>null</code>.
+     */
+    public static ColumnVector of(DataType<?> type, int capacity) {
+      if (type != null && type.isLong()) {
+        return new ColumnVector(new long[capacity], null, null, null, capacity);
+      } else if (type != null && type.isDouble()) {
+        return new ColumnVector(null, new double[capacity], null, null, capacity);
+      } else if (type != null && type.isBool()) {
+        return new ColumnVector(null, null, new boolean[capacity], null, capacity);
+      } else {
+        return new ColumnVector(null, null, null, new Object[capacity], capacity);
+      }
+    }
+
+    public int capacity() {
+      return objects != null ? objects.length : nulls.length;
+    }
+
+    public boolean isLong() {
+      return longs != null;
+    }
+
+    public boolean isDouble() {
+      return doubles != null;
+    }
+
+    public boolean isBoolean() {
+      return booleans != null;
+    }
+
+    public boolean isNull(int i) {
+      return objects != null ? objects[i] == null : nulls[i];
+    }
+
+    public long getLong(int i) {
+      return longs != null ? longs[i] : (Long) objects[i];
+    }
+
+    public double getDouble(int i) {
+      return doubles != null ? doubles[i] : (Double) objects[i];
+    }
+
+    public boolean getBoolean(int i) {
+      return booleans != null ? booleans[i] : (Boolean) objects[i];
+    }
+
+    public long[] longs() {
+      return longs;
+    }
+
+    public double[] doubles() {
+      return doubles;
+    }
+
+    public boolean[] booleans() {
+      return booleans;
+    }
+
+    public boolean[] nulls() {
+      return nulls;
+    }
+
+    public Object get(int i) {
+      if (objects != null) {
+        return objects[i];
+      } else if (nulls[i]) {
+        return null;
+      } else if (longs != null) {
+        return longs[i];
+      } else if (doubles != null) {
+        return doubles[i];
+      } else {
+        return booleans[i];
+      }
+    }
+
+    public void set(int i, Object value) {
+      if (objects != null) {
+        objects[i] = value;
+      } else if (value == null) {
+        nulls[i] = true;
+      } else {
+        nulls[i] = false;
+        if (longs != null) {
+          longs[i] = (Long) value;
+        } else if (doubles != null) {
+          doubles[i] = (Double) value;
+        } else {
+          booleans[i] = (Boolean) value;
+        }
+      }
+    }
+
+    private void move(int from, int to) {
+      if (objects != null) {
+        objects[to] = objects[from];
+        return;
+      }
+      nulls[to] = nulls[from];
+      if (longs != null) {
+        longs[to] = longs[from];
+      } else if (doubles != null) {
+        doubles[to] = doubles[from];
+      } else {
+        booleans[to] = booleans[from];
+      }
+    }
+  }
+}
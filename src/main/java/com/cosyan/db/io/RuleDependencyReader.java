@@ -16,7 +16,10 @@
 package com.cosyan.db.io;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
 
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.RecordProvider.Record;
@@ -27,6 +30,7 @@ import com.cosyan.db.meta.MetaRepo.RuleException;
 import com.cosyan.db.model.Keys.Ref;
 import com.cosyan.db.model.Rule.BooleanRule;
 import com.cosyan.db.transaction.Resources;
+import com.google.common.collect.ImmutableList;
 
 public class RuleDependencyReader {
 
@@ -40,28 +44,48 @@ public class RuleDependencyReader {
 
   public void checkReferencingRules(Record record)
       throws IOException, RuleException {
-    checkReferencingRules(reverseRules.getDeps().values(), record);
+    checkReferencingRules(ImmutableList.of(record));
   }
 
-  private void checkReferencingRules(Collection<ReverseRuleDependency> collection, Record record)
+  /**
+   * Collects the rules referencing any of the records, they are checked when
+   * the transaction commits. The referencing records are looked up with one
+   * batch index lookup per reference.
+   */
+  public void checkReferencingRules(List<Record> records)
       throws IOException, RuleException {
+    checkReferencingRules(reverseRules.getDeps().values(), records);
+  }
+
+  private void checkReferencingRules(Collection<ReverseRuleDependency> collection, List<Record> records)
+      throws IOException, RuleException {
+    if (records.isEmpty()) {
+      return;
+    }
     for (ReverseRuleDependency dep : collection) {
       Ref ref = dep.getKey();
-      Object[] newSourceValues = record.getValues();
-      Object key = newSourceValues[ref.getColumn().getIndex()];
+      TreeSet<Object> keys = new TreeSet<>();
+      for (Record record : records) {
+        Object key = record.getValues()[ref.getColumn().getIndex()];
+        if (key != null) {
+          keys.add(key);
+        }
+      }
       IndexReader index = resources.getIndex(ref);
-      long[] pointers = index.get(key);
-      for (long pointer : pointers) {
-        for (BooleanRule rule : dep.rules()) {
-          if (!rule.check(resources, pointer)) {
-            throw new RuleException(
-                String.format("Referencing constraint check %s.%s failed.",
-                    rule.getTable().tableName(), rule.name()));
+      long[][] pointerss = index.getAll(keys.toArray());
+      List<Record> referencingRecords = new ArrayList<>();
+      SeekableTableReader reader = resources.reader(ref.getRefTable().tableName());
+      for (long[] pointers : pointerss) {
+        for (long pointer : pointers) {
+          for (BooleanRule rule : dep.rules()) {
+            resources.deferredRuleChecks().add(rule, pointer);
+          }
+          if (!dep.getDeps().isEmpty()) {
+            referencingRecords.add(reader.get(pointer));
           }
         }
-        SeekableTableReader reader = resources.reader(ref.getRefTable().tableName());
-        checkReferencingRules(dep.getDeps().values(), reader.get(pointer));
       }
+      checkReferencingRules(dep.getDeps().values(), referencingRecords);
     }
   }
 }
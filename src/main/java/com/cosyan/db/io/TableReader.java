@@ -65,6 +65,27 @@ public abstract class TableReader implements TableIO {
 
     public abstract Object[] next() throws IOException;
 
+    /**
+     * Returns the next batch of at most {@link RowBatch#SIZE} rows, or
+     * <code>null</code> if there are no more rows. A reader has to be consumed
+     * either row by row or batch by batch. By default the batch is assembled
+     * from the rows returned by {@link #next()}.
+     */
+    public RowBatch nextBatch() throws IOException {
+      RowBatch batch = null;
+      while ((batch == null || batch.size() < RowBatch.SIZE) && !cancelled.get()) {
+        Object[] values = next();
+        if (values == null) {
+          break;
+        }
+        if (batch == null) {
+          batch = RowBatch.untyped(values.length);
+        }
+        batch.add(values);
+      }
+      return batch;
+    }
+
     public abstract void close() throws IOException;
 
     public void cancel() {
@@ -86,6 +107,39 @@ public abstract class TableReader implements TableIO {
     }
   }
 
+  /**
+   * Reads the records of a table file sequentially, batches are read directly
+   * into typed column vectors.
+   */
+  public static class RecordTableReader extends IterableTableReader {
+
+    private final RecordReader reader;
+
+    public RecordTableReader(RecordReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Object[] next() throws IOException {
+      return reader.read().getValues();
+    }
+
+    @Override
+    public RowBatch nextBatch() throws IOException {
+      RowBatch batch = RowBatch.of(reader.columnTypes());
+      Record record;
+      while (batch.size() < RowBatch.SIZE && !cancelled.get() && (record = reader.read()) != RecordReader.EMPTY) {
+        batch.add(record.getValues());
+      }
+      return batch.size() == 0 ? null : batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
   public static abstract class SeekableTableReader implements TableIO {
 
     protected final MaterializedTable tableMeta;
@@ -98,6 +152,13 @@ public abstract class TableReader implements TableIO {
 
     public abstract Record get(long position) throws IOException;
 
+    /**
+     * Whether the record at the position was deleted in the current transaction.
+     */
+    public boolean isDeleted(long position) {
+      return false;
+    }
+
     public abstract Record get(Object key, Resources resources) throws IOException;
 
     public abstract IterableTableReader iterableReader() throws IOException;
@@ -157,20 +218,8 @@ public abstract class TableReader implements TableIO {
 
     @Override
     public IterableTableReader iterableReader() throws IOException {
-      RecordReader reader = new RecordReader(columns,
-          new BufferedInputStream(new FileInputStream(fileName)));
-      return new IterableTableReader() {
-
-        @Override
-        public Object[] next() throws IOException {
-          return reader.read().getValues();
-        }
-
-        @Override
-        public void close() throws IOException {
-          reader.close();
-        }
-      };
+      return new RecordTableReader(new RecordReader(columns,
+          new BufferedInputStream(new FileInputStream(fileName))));
     }
 
     @Override
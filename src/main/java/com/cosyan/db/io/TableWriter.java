@@ -21,14 +21,20 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.function.Predicate;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
+import com.cosyan.db.index.IndexEntrySorter;
+import com.cosyan.db.index.IndexLSN;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.Indexes.IndexWriter;
 import com.cosyan.db.io.RecordProvider.Record;
@@ -37,6 +43,7 @@ import com.cosyan.db.io.RecordProvider.SeekableRecordReader;
 import com.cosyan.db.io.SeekableInputStream.SeekableSequenceInputStream;
 import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.io.TableReader.MultiFilteredTableReader;
+import com.cosyan.db.io.TableReader.RecordTableReader;
 import com.cosyan.db.io.TableReader.SeekableTableReader;
 import com.cosyan.db.logic.PredicateHelper.VariableEquals;
 import com.cosyan.db.meta.Dependencies.ReverseRuleDependencies;
@@ -130,58 +137,89 @@ public class TableWriter extends SeekableTableReader implements TableIO {
 
   public void insert(Resources resources, Object[] rawValues, boolean checkReferencingRules)
       throws IOException, RuleException {
-    long fileIndex = actFileIndex;
-    Object[] values = new Object[rawValues.length];
-    for (int i = 0; i < rawValues.length; i++) {
-      BasicColumn column = activeColumns.get(i);
-      values[i] = check(column, rawValues[i]);
-      Object value = values[i];
-      column.getType().check(value);
-      if (!column.isNullable() && value == null) {
-        throw new RuleException("Column is not nullable (mandatory).");
-      }
-      if (value != null) {
-        if (column.isUnique()) {
-          try {
-            uniqueIndexes.get(column.getName()).put(value, fileIndex);
-          } catch (IndexException e) {
-            throw new RuleException(e);
-          }
+    insert(resources, ImmutableList.<Object[]>of(rawValues), checkReferencingRules);
+  }
+
+  /**
+   * Inserts the records of a statement. Foreign keys are looked up in one batch
+   * per column after all the records are added, then the rules are checked.
+   */
+  public void insert(Resources resources, List<Object[]> rawValuess, boolean checkReferencingRules)
+      throws IOException, RuleException {
+    Map<String, TreeSet<Object>> foreignKeys = new HashMap<>();
+    List<Record> records = new ArrayList<>(rawValuess.size());
+    for (Object[] rawValues : rawValuess) {
+      long fileIndex = actFileIndex;
+      Object[] values = new Object[rawValues.length];
+      for (int i = 0; i < rawValues.length; i++) {
+        BasicColumn column = activeColumns.get(i);
+        values[i] = check(column, rawValues[i]);
+        Object value = values[i];
+        column.getType().check(value);
+        if (!column.isNullable() && value == null) {
+          throw new RuleException("Column is not nullable (mandatory).");
         }
-        if (multiIndexes.containsKey(column.getName())) {
-          try {
-            multiIndexes.get(column.getName()).put(value, fileIndex);
-          } catch (IndexException e) {
-            throw new RuleException(e);
+        if (value != null) {
+          if (column.isUnique()) {
+            try {
+              uniqueIndexes.get(column.getName()).put(value, fileIndex);
+            } catch (IndexException e) {
+              throw new RuleException(e);
+            }
           }
-        }
-        if (foreignIndexes.containsKey(column.getName())) {
-          for (IndexReader foreignIndex : foreignIndexes.get(column.getName())) {
-            if (!foreignIndex.contains(value)) {
-              throw new RuleException(String.format(
-                  "Foreign key violation, value '%s' not present.", value));
+          if (multiIndexes.containsKey(column.getName())) {
+            try {
+              multiIndexes.get(column.getName()).put(value, fileIndex);
+            } catch (IndexException e) {
+              throw new RuleException(e);
             }
           }
+          if (foreignIndexes.containsKey(column.getName())) {
+            foreignKeys.computeIfAbsent(column.getName(), c -> new TreeSet<>()).add(value);
+          }
         }
       }
+      byte[] data = Serializer.serialize(values, allColumns);
+      recordsToInsert.put(fileIndex, data);
+      actFileIndex += data.length;
+      records.add(new Record(fileIndex, values));
     }
-    byte[] data = Serializer.serialize(values, allColumns);
-    recordsToInsert.put(fileIndex, data);
-    actFileIndex += data.length;
-    for (Map.Entry<String, BooleanRule> rule : rules.entrySet()) {
-      if (!rule.getValue().check(resources, fileIndex)) {
-        throw new RuleException(
-            "Constraint check " + rule.getKey() + " failed.");
+    for (Map.Entry<String, TreeSet<Object>> keys : foreignKeys.entrySet()) {
+      Object[] sortedKeys = keys.getValue().toArray();
+      for (IndexReader foreignIndex : foreignIndexes.get(keys.getKey())) {
+        boolean[] present = foreignIndex.containsAll(sortedKeys);
+        for (int i = 0; i < sortedKeys.length; i++) {
+          if (!present[i]) {
+            throw new RuleException(String.format(
+                "Foreign key violation, value '%s' not present.", sortedKeys[i]));
+          }
+        }
+      }
+    }
+    for (Record record : records) {
+      for (Map.Entry<String, BooleanRule> rule : rules.entrySet()) {
+        // The values are checked in memory, the record is not read back from the buffer.
+        if (!rule.getValue().check(resources, record.getValues())) {
+          throw new RuleException(
+              "Constraint check " + rule.getKey() + " failed.");
+        }
       }
     }
     if (checkReferencingRules) {
       RuleDependencyReader ruleDependencyReader = new RuleDependencyReader(resources, reverseRules);
-      ruleDependencyReader.checkReferencingRules(new Record(fileIndex, values));
+      ruleDependencyReader.checkReferencingRules(records);
     }
   }
 
   public void commit() throws IOException {
     try {
+      // Indexes stay dirty until they are committed, so a crash in between is detected on restart.
+      for (TableUniqueIndex index : uniqueIndexes.values()) {
+        index.lsn().set(IndexLSN.DIRTY);
+      }
+      for (TableMultiIndex index : multiIndexes.values()) {
+        index.lsn().set(IndexLSN.DIRTY);
+      }
       int delta = 0;
       if (recordsToInsert.size() > 1) {
         ByteArrayOutputStream finalBuffer = new ByteArrayOutputStream(1024);
@@ -212,6 +250,9 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     for (TableUniqueIndex index : uniqueIndexes.values()) {
       try {
         index.commit();
+        if (index.isValid()) {
+          index.lsn().set(fileIndex0);
+        }
       } catch (IOException e) {
         index.invalidate();
       }
@@ -219,6 +260,9 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     for (TableMultiIndex index : multiIndexes.values()) {
       try {
         index.commit();
+        if (index.isValid()) {
+          index.lsn().set(fileIndex0);
+        }
       } catch (IOException e) {
         index.invalidate();
       }
@@ -245,9 +289,8 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     this.cancelled = true;
   }
 
-  private void delete(Record record, Resources resources, Predicate<Integer> checkReversedForeignIndex,
-      boolean checkReverseRuleDependencies)
-      throws IOException, RuleException {
+  private void delete(Record record, Predicate<Integer> checkReversedForeignIndex,
+      Map<String, TreeSet<Object>> reverseForeignKeys) throws IOException {
     recordsToDelete.add(record.getFilePointer());
     for (BasicColumn column : activeColumns) {
       Object value = record.getValues()[column.getIndex()];
@@ -260,37 +303,53 @@ public class TableWriter extends SeekableTableReader implements TableIO {
         }
         if (checkReversedForeignIndex.test(column.getIndex())) {
           if (reversedForeignIndexes.containsKey(column.getName())) {
-            for (IndexReader reverseForeignIndex : reversedForeignIndexes.get(column.getName())) {
-              if (reverseForeignIndex.contains(value)) {
-                throw new RuleException(String.format(
-                    "Foreign key violation, key value '%s' has references.", value));
-              }
-            }
+            reverseForeignKeys.computeIfAbsent(column.getName(), c -> new TreeSet<>()).add(value);
           }
         }
       }
     }
-    if (checkReverseRuleDependencies) {
-      RuleDependencyReader ruleDependencyReader = new RuleDependencyReader(resources, reverseRules);
-      ruleDependencyReader.checkReferencingRules(record);
+  }
+
+  /**
+   * Checks that none of the deleted keys are referenced, with one batch lookup
+   * per column.
+   */
+  private void checkReverseForeignKeys(Map<String, TreeSet<Object>> reverseForeignKeys)
+      throws IOException, RuleException {
+    for (Map.Entry<String, TreeSet<Object>> keys : reverseForeignKeys.entrySet()) {
+      Object[] sortedKeys = keys.getValue().toArray();
+      for (IndexReader reverseForeignIndex : reversedForeignIndexes.get(keys.getKey())) {
+        boolean[] present = reverseForeignIndex.containsAll(sortedKeys);
+        for (int i = 0; i < sortedKeys.length; i++) {
+          if (present[i]) {
+            throw new RuleException(String.format(
+                "Foreign key violation, key value '%s' has references.", sortedKeys[i]));
+          }
+        }
+      }
     }
   }
 
   private long delete(RecordProvider recordProvider, Resources resources, ColumnMeta whereColumn)
       throws IOException, RuleException {
-    long deletedLines = 0L;
+    Map<String, TreeSet<Object>> reverseForeignKeys = new HashMap<>();
+    List<Record> deletedRecords = new ArrayList<>();
     do {
       Record record = recordProvider.read();
       if (record == RecordReader.EMPTY || cancelled) {
         recordProvider.close();
-        return deletedLines;
+        break;
       }
       if (!recordsToDelete.contains(record.getFilePointer())
           && (boolean) whereColumn.value(record.getValues(), resources, TableContext.EMPTY)) {
-        delete(record, resources, Predicates.alwaysTrue(), /* checkReverseRuleDependencies= */true);
-        deletedLines++;
+        delete(record, Predicates.alwaysTrue(), reverseForeignKeys);
+        deletedRecords.add(record);
       }
     } while (true);
+    checkReverseForeignKeys(reverseForeignKeys);
+    RuleDependencyReader ruleDependencyReader = new RuleDependencyReader(resources, reverseRules);
+    ruleDependencyReader.checkReferencingRules(deletedRecords);
+    return deletedRecords.size();
   }
 
   public long delete(Resources resources, ColumnMeta whereColumn) throws IOException, RuleException {
@@ -314,19 +373,20 @@ public class TableWriter extends SeekableTableReader implements TableIO {
       ImmutableMap<Integer, ColumnMeta> updateExprs,
       ColumnMeta whereColumn) throws IOException, RuleException {
     ImmutableList.Builder<Object[]> updatedRecords = ImmutableList.builder();
+    Map<String, TreeSet<Object>> reverseForeignKeys = new HashMap<>();
     do {
       Record record = recordProvider.read();
       if (record == RecordReader.EMPTY || cancelled) {
         recordProvider.close();
+        checkReverseForeignKeys(reverseForeignKeys);
         return updatedRecords.build();
       }
       Object[] values = record.getValues();
       if (!recordsToDelete.contains(record.getFilePointer()) && (boolean) whereColumn.value(values, resources, TableContext.EMPTY)) {
         delete(
             record,
-            resources,
             (columnIndex) -> updateExprs.containsKey(columnIndex),
-            /* checkReverseRuleDependencies= */false);
+            reverseForeignKeys);
         Object[] newValues = new Object[values.length];
         System.arraycopy(values, 0, newValues, 0, values.length);
         for (Map.Entry<Integer, ColumnMeta> updateExpr : updateExprs.entrySet()) {
@@ -342,12 +402,10 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     RecordReader reader = recordReader();
     try {
       ImmutableList<Object[]> valuess = deleteAndCollectUpdated(reader, resources, columnExprs, whereColumn);
-      for (Object[] values : valuess) {
-        insert(resources, values, /* checkReferencingRules= */true);
-        if (cancelled) {
-          return -1;
-        }
+      if (cancelled) {
+        return -1;
       }
+      insert(resources, valuess, /* checkReferencingRules= */true);
       return valuess.size();
     } finally {
       reader.close();
@@ -361,12 +419,10 @@ public class TableWriter extends SeekableTableReader implements TableIO {
       VariableEquals clause) throws IOException, RuleException {
     MultiFilteredTableReader reader = indexFilteredReader(resources, whereColumn, clause);
     ImmutableList<Object[]> valuess = deleteAndCollectUpdated(reader, resources, columnExprs, whereColumn);
-    for (Object[] values : valuess) {
-      insert(resources, values, /* checkReferencingRules= */true);
-      if (cancelled) {
-        return -1;
-      }
+    if (cancelled) {
+      return -1;
     }
+    insert(resources, valuess, /* checkReferencingRules= */true);
     return valuess.size();
   }
 
@@ -397,6 +453,11 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     return reader.read();
   }
 
+  @Override
+  public boolean isDeleted(long position) {
+    return recordsToDelete.contains(position);
+  }
+
   @Override
   public Record get(Object key, Resources resources) throws IOException {
     IndexReader index = resources.getPrimaryKeyIndex(tableMeta.tableName());
@@ -425,38 +486,33 @@ public class TableWriter extends SeekableTableReader implements TableIO {
 
   @Override
   public IterableTableReader iterableReader() throws IOException {
-    RecordReader reader = recordReader();
-    return new IterableTableReader() {
-
-      @Override
-      public Object[] next() throws IOException {
-        return reader.read().getValues();
-      }
-
-      @Override
-      public void close() throws IOException {
-        reader.close();
-      }
-    };
+    return new RecordTableReader(recordReader());
   }
 
   public void buildIndex(String column, IndexWriter indexWriter) throws IOException, RuleException {
     RecordReader reader = recordReader();
     int columnIndex = tableMeta.columnNames().asList().indexOf(column);
+    DataType<?> keyType = tableMeta.columns().get(column).getType();
     Record record;
-    try {
-      while ((record = reader.read()) != RecordReader.EMPTY && !cancelled) {
-        Object key = record.getValues()[columnIndex];
-        if (key != null) {
-          try {
-            indexWriter.put(key, record.getFilePointer());
-          } catch (IndexException e) {
-            throw new RuleException(e);
+    try (IndexEntrySorter sorter = new IndexEntrySorter(keyType, tableMeta.tempDir())) {
+      try {
+        while ((record = reader.read()) != RecordReader.EMPTY && !cancelled) {
+          Object key = record.getValues()[columnIndex];
+          if (key != null) {
+            sorter.add(key, record.getFilePointer());
           }
         }
+      } finally {
+        reader.close();
+      }
+      if (cancelled) {
+        return;
+      }
+      try {
+        indexWriter.bulkLoad(sorter.sorted());
+      } catch (IndexException e) {
+        throw new RuleException(e);
       }
-    } finally {
-      reader.close();
     }
   }
 
@@ -488,7 +544,7 @@ public class TableWriter extends SeekableTableReader implements TableIO {
     Record record;
     try {
       while ((record = reader.read()) != RecordReader.EMPTY && !cancelled) {
-        if (!rule.check(resources, record.getFilePointer())) {
+        if (!rule.check(resources, record.getValues())) {
           throw new RuleException(String.format("Constraint check %s failed.", rule.getName()));
         }
       }
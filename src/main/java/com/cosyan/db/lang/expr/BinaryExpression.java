@@ -17,7 +17,11 @@ package com.cosyan.db.lang.expr;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
 
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
 import com.cosyan.db.lang.sql.Tokens;
 import com.cosyan.db.lang.sql.Tokens.Loc;
 import com.cosyan.db.lang.sql.Tokens.Token;
@@ -31,6 +35,7 @@ import com.cosyan.db.model.TableContext;
 import com.cosyan.db.model.TableMeta;
 import com.cosyan.db.transaction.MetaResources;
 import com.cosyan.db.transaction.Resources;
+import com.google.common.collect.ImmutableList;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -93,14 +98,199 @@ public class BinaryExpression extends Expression {
       return deps;
     }
 
+    @Override
+    public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      ColumnVector l = leftColumn.values(batch, resources, context);
+      ColumnVector r = rightColumn.values(batch, resources, context);
+      ColumnVector result = ColumnVector.of(type, batch.size());
+      valuesImpl(l, r, result, batch.size());
+      return result;
+    }
+
+    protected void valuesImpl(ColumnVector l, ColumnVector r, ColumnVector result, int size) {
+      for (int i = 0; i < size; i++) {
+        Object lv = l.get(i);
+        Object rv = r.get(i);
+        result.set(i, lv == null || rv == null ? null : getValueImpl(lv, rv));
+      }
+    }
+
     protected abstract Object getValueImpl(Object left, Object right);
+
+    Token token() {
+      return token;
+    }
+
+    ColumnMeta leftColumn() {
+      return leftColumn;
+    }
+
+    ColumnMeta rightColumn() {
+      return rightColumn;
+    }
+  }
+
+  protected interface LongComparison {
+    public boolean test(long left, long right);
+  }
+
+  protected interface DoubleComparison {
+    public boolean test(double left, double right);
+  }
+
+  protected class LongArithmeticColumn extends BinaryColumn {
+    private final LongBinaryOperator operator;
+
+    public LongArithmeticColumn(ColumnMeta leftColumn, ColumnMeta rightColumn, LongBinaryOperator operator) {
+      super(DataTypes.LongType, leftColumn, rightColumn);
+      this.operator = operator;
+    }
+
+    @Override
+    protected Object getValueImpl(Object l, Object r) {
+      return operator.applyAsLong((Long) l, (Long) r);
+    }
+
+    @Override
+    protected void valuesImpl(ColumnVector l, ColumnVector r, ColumnVector result, int size) {
+      if (!l.isLong() || !r.isLong()) {
+        super.valuesImpl(l, r, result, size);
+        return;
+      }
+      long[] lv = l.longs();
+      long[] rv = r.longs();
+      long[] values = result.longs();
+      boolean[] ln = l.nulls();
+      boolean[] rn = r.nulls();
+      boolean[] nulls = result.nulls();
+      for (int i = 0; i < size; i++) {
+        nulls[i] = ln[i] || rn[i];
+        if (!nulls[i]) {
+          values[i] = operator.applyAsLong(lv[i], rv[i]);
+        }
+      }
+    }
+  }
+
+  protected class DoubleArithmeticColumn extends BinaryColumn {
+    private final DoubleBinaryOperator operator;
+
+    public DoubleArithmeticColumn(ColumnMeta leftColumn, ColumnMeta rightColumn, DoubleBinaryOperator operator) {
+      super(DataTypes.DoubleType, leftColumn, rightColumn);
+      this.operator = operator;
+    }
+
+    @Override
+    protected Object getValueImpl(Object l, Object r) {
+      return operator.applyAsDouble((Double) l, (Double) r);
+    }
+
+    @Override
+    protected void valuesImpl(ColumnVector l, ColumnVector r, ColumnVector result, int size) {
+      if (!l.isDouble() || !r.isDouble()) {
+        super.valuesImpl(l, r, result, size);
+        return;
+      }
+      double[] lv = l.doubles();
+      double[] rv = r.doubles();
+      double[] values = result.doubles();
+      boolean[] ln = l.nulls();
+      boolean[] rn = r.nulls();
+      boolean[] nulls = result.nulls();
+      for (int i = 0; i < size; i++) {
+        nulls[i] = ln[i] || rn[i];
+        values[i] = operator.applyAsDouble(lv[i], rv[i]);
+      }
+    }
+  }
+
+  protected class LongComparisonColumn extends BinaryColumn {
+    private final LongComparison comparison;
+
+    public LongComparisonColumn(ColumnMeta leftColumn, ColumnMeta rightColumn, LongComparison comparison) {
+      super(DataTypes.BoolType, leftColumn, rightColumn);
+      this.comparison = comparison;
+    }
+
+    @Override
+    protected Object getValueImpl(Object l, Object r) {
+      return comparison.test((Long) l, (Long) r);
+    }
+
+    @Override
+    protected void valuesImpl(ColumnVector l, ColumnVector r, ColumnVector result, int size) {
+      if (!l.isLong() || !r.isLong()) {
+        super.valuesImpl(l, r, result, size);
+        return;
+      }
+      long[] lv = l.longs();
+      long[] rv = r.longs();
+      boolean[] values = result.booleans();
+      boolean[] ln = l.nulls();
+      boolean[] rn = r.nulls();
+      boolean[] nulls = result.nulls();
+      for (int i = 0; i < size; i++) {
+        nulls[i] = ln[i] || rn[i];
+        values[i] = comparison.test(lv[i], rv[i]);
+      }
+    }
+  }
+
+  protected class DoubleComparisonColumn extends BinaryColumn {
+    private final DoubleComparison comparison;
+
+    public DoubleComparisonColumn(ColumnMeta leftColumn, ColumnMeta rightColumn, DoubleComparison comparison) {
+      super(DataTypes.BoolType, leftColumn, rightColumn);
+      this.comparison = comparison;
+    }
+
+    @Override
+    protected Object getValueImpl(Object l, Object r) {
+      return comparison.test((Double) l, (Double) r);
+    }
+
+    @Override
+    protected void valuesImpl(ColumnVector l, ColumnVector r, ColumnVector result, int size) {
+      if (!l.isDouble() || !r.isDouble()) {
+        super.valuesImpl(l, r, result, size);
+        return;
+      }
+      double[] lv = l.doubles();
+      double[] rv = r.doubles();
+      boolean[] values = result.booleans();
+      boolean[] ln = l.nulls();
+      boolean[] rn = r.nulls();
+      boolean[] nulls = result.nulls();
+      for (int i = 0; i < size; i++) {
+        nulls[i] = ln[i] || rn[i];
+        values[i] = comparison.test(lv[i], rv[i]);
+      }
+    }
   }
 
   @Override
-  public DerivedColumn compile(TableMeta sourceTable) throws ModelException {
-    final ColumnMeta leftColumn = left.compileColumn(sourceTable);
-    final ColumnMeta rightColumn = right.compileColumn(sourceTable);
+  public ColumnMeta compile(TableMeta sourceTable) throws ModelException {
+    ColumnMeta leftColumn = left.compileColumn(sourceTable);
+    ColumnMeta rightColumn = right.compileColumn(sourceTable);
+    DerivedColumn column = binaryColumn(leftColumn, rightColumn);
+    // Null inputs result in null, so only the identities can be removed.
+    if (token.is(Tokens.AND)) {
+      if (ExpressionOptimizer.isTrue(leftColumn)) {
+        return rightColumn;
+      } else if (ExpressionOptimizer.isTrue(rightColumn)) {
+        return leftColumn;
+      }
+    } else if (token.is(Tokens.OR)) {
+      if (ExpressionOptimizer.isFalse(leftColumn)) {
+        return rightColumn;
+      } else if (ExpressionOptimizer.isFalse(rightColumn)) {
+        return leftColumn;
+      }
+    }
+    return ExpressionOptimizer.fold(this, column, ImmutableList.of(leftColumn, rightColumn));
+  }
 
+  private DerivedColumn binaryColumn(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (token.is(Tokens.AND)) {
       assertType(DataTypes.BoolType, leftColumn.getType(), token.getLoc());
       assertType(DataTypes.BoolType, rightColumn.getType(), token.getLoc());
@@ -168,19 +358,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn asteriskExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.LongType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Long) l * (Long) r;
-        }
-      };
+      return new LongArithmeticColumn(leftColumn, rightColumn, (l, r) -> l * r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Double) l * (Double) r;
-        }
-      };
+      return new DoubleArithmeticColumn(leftColumn, rightColumn, (l, r) -> l * r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
         @Override
@@ -203,19 +383,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn plusExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.LongType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Long) l + (Long) r;
-        }
-      };
+      return new LongArithmeticColumn(leftColumn, rightColumn, (l, r) -> l + r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Double) l + (Double) r;
-        }
-      };
+      return new DoubleArithmeticColumn(leftColumn, rightColumn, (l, r) -> l + r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
         @Override
@@ -245,19 +415,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn minusExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.LongType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Long) l - (Long) r;
-        }
-      };
+      return new LongArithmeticColumn(leftColumn, rightColumn, (l, r) -> l - r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Double) l - (Double) r;
-        }
-      };
+      return new DoubleArithmeticColumn(leftColumn, rightColumn, (l, r) -> l - r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
         @Override
@@ -287,19 +447,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn divExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.LongType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Long) l / (Long) r;
-        }
-      };
+      return new LongArithmeticColumn(leftColumn, rightColumn, (l, r) -> l / r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Double) l / (Double) r;
-        }
-      };
+      return new DoubleArithmeticColumn(leftColumn, rightColumn, (l, r) -> l / r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
         @Override
@@ -322,19 +472,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn modExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.LongType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Long) l % (Long) r;
-        }
-      };
+      return new LongArithmeticColumn(leftColumn, rightColumn, (l, r) -> l % r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (Double) l % (Double) r;
-        }
-      };
+      return new DoubleArithmeticColumn(leftColumn, rightColumn, (l, r) -> l % r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.DoubleType, leftColumn, rightColumn) {
         @Override
@@ -357,19 +497,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn eqExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (long) l == (long) r;
-        }
-      };
+      return new LongComparisonColumn(leftColumn, rightColumn, (l, r) -> l == r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (double) l == (double) r;
-        }
-      };
+      return new DoubleComparisonColumn(leftColumn, rightColumn, (l, r) -> l == r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
         @Override
@@ -406,19 +536,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn lessExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (long) l < (long) r;
-        }
-      };
+      return new LongComparisonColumn(leftColumn, rightColumn, (l, r) -> l < r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (double) l < (double) r;
-        }
-      };
+      return new DoubleComparisonColumn(leftColumn, rightColumn, (l, r) -> l < r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
         @Override
@@ -455,19 +575,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn greaterExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (long) l > (long) r;
-        }
-      };
+      return new LongComparisonColumn(leftColumn, rightColumn, (l, r) -> l > r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (double) l > (double) r;
-        }
-      };
+      return new DoubleComparisonColumn(leftColumn, rightColumn, (l, r) -> l > r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
         @Override
@@ -504,19 +614,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn leqExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (long) l <= (long) r;
-        }
-      };
+      return new LongComparisonColumn(leftColumn, rightColumn, (l, r) -> l <= r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (double) l <= (double) r;
-        }
-      };
+      return new DoubleComparisonColumn(leftColumn, rightColumn, (l, r) -> l <= r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
         @Override
@@ -553,19 +653,9 @@ public class BinaryExpression extends Expression {
 
   private DerivedColumn geqExpression(ColumnMeta leftColumn, ColumnMeta rightColumn) throws ModelException {
     if (leftColumn.getType().isLong() && rightColumn.getType().isLong()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (long) l >= (long) r;
-        }
-      };
+      return new LongComparisonColumn(leftColumn, rightColumn, (l, r) -> l >= r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isDouble()) {
-      return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
-        @Override
-        public Object getValueImpl(Object l, Object r) {
-          return (double) l >= (double) r;
-        }
-      };
+      return new DoubleComparisonColumn(leftColumn, rightColumn, (l, r) -> l >= r);
     } else if (leftColumn.getType().isDouble() && rightColumn.getType().isLong()) {
       return new BinaryColumn(DataTypes.BoolType, leftColumn, rightColumn) {
         @Override
@@ -43,13 +43,11 @@ public class CaseExpression extends Expression {
   private final Loc loc;
 
   @Override
-  public DerivedColumn compile(TableMeta sourceTable) throws ModelException {
-
-    final TableDependencies deps = new TableDependencies();
-    MetaResources resources = MetaResources.empty();
+  public ColumnMeta compile(TableMeta sourceTable) throws ModelException {
     ImmutableList.Builder<ColumnMeta> conditionColsBuilder = ImmutableList.builder();
     ImmutableList.Builder<ColumnMeta> valueColsBuilder = ImmutableList.builder();
     DataType<?> type = null;
+    ColumnMeta constantCol = null;
     for (int i = 0; i < conditions.size(); i++) {
       Expression conditionExpr = conditions.get(i);
       ColumnMeta condition = conditionExpr.compileColumn(sourceTable);
@@ -57,9 +55,6 @@ public class CaseExpression extends Expression {
         throw new ModelException(String.format(
             "Expected 'boolean' type but got '%s'.", condition.getType()), conditionExpr);
       }
-      conditionColsBuilder.add(condition);
-      deps.addToThis(condition.tableDependencies());
-      resources = resources.merge(condition.readResources());
       Expression valueExpr = values.get(i);
       ColumnMeta value = valueExpr.compileColumn(sourceTable);
       if (type == null) {
@@ -68,15 +63,35 @@ public class CaseExpression extends Expression {
         throw new ModelException(String.format(
             "Inconsistent types for case expression '%s' and '%s'.", type, value.getType()), valueExpr);
       }
+      if (constantCol != null || ExpressionOptimizer.isConstant(condition)) {
+        // Constant false or null conditions are never taken, constant true
+        // conditions are always taken, the branches after them are never reached.
+        if (constantCol == null && ExpressionOptimizer.isTrue(condition)) {
+          constantCol = value;
+        }
+        continue;
+      }
+      conditionColsBuilder.add(condition);
       valueColsBuilder.add(value);
-      deps.addToThis(value.tableDependencies());
-      resources = resources.merge(value.readResources());
     }
-    ColumnMeta elseCol = elseValue.compileColumn(sourceTable);
-    deps.addToThis(elseCol.tableDependencies());
-    final MetaResources metaResources = resources.merge(elseCol.readResources());
+    ColumnMeta elseValueCol = elseValue.compileColumn(sourceTable);
+    final ColumnMeta elseCol = constantCol != null ? constantCol : elseValueCol;
     final ImmutableList<ColumnMeta> conditionCols = conditionColsBuilder.build();
     final ImmutableList<ColumnMeta> valueCols = valueColsBuilder.build();
+    if (conditionCols.isEmpty() && elseCol.getType() == type) {
+      return elseCol;
+    }
+
+    final TableDependencies deps = new TableDependencies();
+    MetaResources resources = MetaResources.empty();
+    for (int i = 0; i < conditionCols.size(); i++) {
+      deps.addToThis(conditionCols.get(i).tableDependencies());
+      resources = resources.merge(conditionCols.get(i).readResources());
+      deps.addToThis(valueCols.get(i).tableDependencies());
+      resources = resources.merge(valueCols.get(i).readResources());
+    }
+    deps.addToThis(elseCol.tableDependencies());
+    final MetaResources metaResources = resources.merge(elseCol.readResources());
 
     return new DerivedColumn(type) {
 
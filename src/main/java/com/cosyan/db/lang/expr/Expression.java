@@ -28,6 +28,7 @@ import com.cosyan.db.model.DataTypes;
 import com.cosyan.db.model.TableContext;
 import com.cosyan.db.model.TableMeta;
 import com.cosyan.db.transaction.Resources;
+import com.google.common.collect.ImmutableList;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -37,8 +38,7 @@ import lombok.EqualsAndHashCode;
 public abstract class Expression extends Node {
 
   public ColumnMeta compileColumn(TableMeta sourceTable) throws ModelException {
-    CompiledObject obj = compile(sourceTable);
-    return (ColumnMeta) obj;
+    return ExpressionOptimizer.compileShared(this, sourceTable);
   }
 
   public abstract CompiledObject compile(TableMeta sourceTable) throws ModelException;
@@ -64,33 +64,24 @@ public abstract class Expression extends Node {
     private final Loc loc;
 
     @Override
-    public DerivedColumn compile(TableMeta sourceTable) throws ModelException {
+    public ColumnMeta compile(TableMeta sourceTable) throws ModelException {
+      ColumnMeta exprColumn = expr.compileColumn(sourceTable);
+      ColumnMeta column = compileUnary(exprColumn);
+      if (type == Type.ASC || type == Type.DESC) {
+        return column;
+      }
+      return ExpressionOptimizer.fold(this, column, ImmutableList.of(exprColumn));
+    }
+
+    private DerivedColumn compileUnary(ColumnMeta exprColumn) throws ModelException {
       if (type == Type.NOT) {
-        ColumnMeta exprColumn = expr.compileColumn(sourceTable);
         Node.assertType(DataTypes.BoolType, exprColumn.getType(), expr.loc());
-        return new DerivedColumnWithDeps(
-            DataTypes.BoolType,
-            exprColumn.tableDependencies(),
-            exprColumn.readResources()) {
-
-          @Override
-          public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
-            return !((Boolean) exprColumn.value(values, resources, context));
-          }
-
-          @Override
-          public String print(Object[] values, Resources resources, TableContext context) throws IOException {
-            return "not " + exprColumn.print(values, resources, context);
-          }
-        };
+        return new NotColumn(exprColumn);
       } else if (type == Type.ASC) {
-        ColumnMeta exprColumn = expr.compileColumn(sourceTable);
         return new OrderColumn(exprColumn, true);
       } else if (type == Type.DESC) {
-        ColumnMeta exprColumn = expr.compileColumn(sourceTable);
         return new OrderColumn(exprColumn, false);
       } else if (type == Type.IS_NOT_NULL) {
-        ColumnMeta exprColumn = expr.compileColumn(sourceTable);
         return new DerivedColumnWithDeps(
             DataTypes.BoolType,
             exprColumn.tableDependencies(),
@@ -107,7 +98,6 @@ public abstract class Expression extends Node {
           }
         };
       } else if (type == Type.IS_NULL) {
-        ColumnMeta exprColumn = expr.compileColumn(sourceTable);
         return new DerivedColumnWithDeps(
             DataTypes.BoolType,
             exprColumn.tableDependencies(),
@@ -128,6 +118,29 @@ public abstract class Expression extends Node {
       }
     }
 
+    static class NotColumn extends DerivedColumnWithDeps {
+      private final ColumnMeta exprColumn;
+
+      NotColumn(ColumnMeta exprColumn) {
+        super(DataTypes.BoolType, exprColumn.tableDependencies(), exprColumn.readResources());
+        this.exprColumn = exprColumn;
+      }
+
+      @Override
+      public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
+        return !((Boolean) exprColumn.value(values, resources, context));
+      }
+
+      @Override
+      public String print(Object[] values, Resources resources, TableContext context) throws IOException {
+        return "not " + exprColumn.print(values, resources, context);
+      }
+
+      ColumnMeta exprColumn() {
+        return exprColumn;
+      }
+    }
+
     @Override
     public String print() {
       return type.name().toLowerCase() + " " + expr.print();
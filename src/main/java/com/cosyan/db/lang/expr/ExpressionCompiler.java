@@ -0,0 +1,724 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.expr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
+import com.cosyan.db.lang.expr.BinaryExpression.BinaryColumn;
+import com.cosyan.db.lang.expr.Expression.UnaryExpression.NotColumn;
+import com.cosyan.db.lang.expr.Literals.LiteralColumn;
+import com.cosyan.db.lang.sql.Tokens;
+import com.cosyan.db.lang.sql.Tokens.Token;
+import com.cosyan.db.meta.Dependencies.TableDependencies;
+import com.cosyan.db.model.ColumnMeta;
+import com.cosyan.db.model.ColumnMeta.DerivedColumn;
+import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.ColumnMeta.SharedColumn;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.cosyan.db.model.TableContext;
+import com.cosyan.db.model.TableMeta.IterableTableMeta;
+import com.cosyan.db.transaction.MetaResources;
+import com.cosyan.db.transaction.Resources;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Compiles trees of boolean, integer and float operators into generated
+ * classes. The generated code evaluates every leaf of the tree first, in the
+ * same order as the interpreted columns, returns <code>null</code> if any of
+ * them is <code>null</code> and computes the result on primitive values
+ * without boxing or virtual calls. Leaves are columns of the input row,
+ * literals or any other column, which is evaluated by calling its
+ * {@link ColumnMeta#value}. Generated classes are cached by the shape of the
+ * tree.
+ *
+ * @author gsvigruha
+ */
+public class ExpressionCompiler {
+
+  public static interface Evaluator {
+    public Object value(Object[] values, Resources resources, TableContext context) throws IOException;
+  }
+
+  private static final int MAX_LEAVES = 200;
+  private static final int MAX_CACHED_CLASSES = 1024;
+  // Leaves are stored in locals after this, values, resources and context.
+  private static final int FIRST_LEAF_LOCAL = 4;
+
+  private static final String COLUMN_META = "com/cosyan/db/model/ColumnMeta";
+  private static final String LEAVES_DESC = "[L" + COLUMN_META + ";";
+  private static final String VALUE_DESC = "([Ljava/lang/Object;Lcom/cosyan/db/transaction/Resources;"
+      + "Lcom/cosyan/db/model/TableContext;)Ljava/lang/Object;";
+
+  private static final AtomicLong counter = new AtomicLong();
+  private static final Cache<String, Class<?>> classes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_CLASSES)
+      .build();
+
+  /**
+   * Returns a column evaluated by generated code, or the column itself if it is
+   * not an operator which can be compiled.
+   */
+  public static ColumnMeta compile(ColumnMeta column) {
+    if (!isOperator(column)) {
+      return column;
+    }
+    Tree tree = new Tree();
+    tree.add(column);
+    if (tree.leaves.size() > MAX_LEAVES) {
+      return column;
+    }
+    try {
+      Class<?> clss = classes.get(tree.shape.toString(), () -> generate(column, tree));
+      Evaluator evaluator = (Evaluator) clss
+          .getConstructor(ColumnMeta[].class)
+          .newInstance((Object) tree.leaves.toArray(new ColumnMeta[tree.leaves.size()]));
+      return new CompiledColumn(column, evaluator);
+    } catch (ExecutionException | ReflectiveOperationException e) {
+      throw new RuntimeException(e); // This should not happen.
+    }
+  }
+
+  private static boolean isNumeric(DataType<?> type) {
+    return type.isLong() || type.isDouble();
+  }
+
+  private static boolean isLogical(Token token) {
+    return token.is(Tokens.AND) || token.is(Tokens.OR) || token.is(Tokens.XOR) || token.is(Tokens.IMPL);
+  }
+
+  private static boolean isArithmetic(Token token) {
+    return token.is(Tokens.ASTERISK) || token.is(Tokens.PLUS) || token.is(Tokens.MINUS)
+        || token.is(Tokens.DIV) || token.is(Tokens.MOD);
+  }
+
+  private static boolean isComparison(Token token) {
+    return token.is(Tokens.EQ) || token.is(Tokens.LESS) || token.is(Tokens.GREATER)
+        || token.is(Tokens.LEQ) || token.is(Tokens.GEQ);
+  }
+
+  /**
+   * Shared operators are compiled inline, computing them is cheaper than
+   * looking up the shared value.
+   */
+  private static ColumnMeta unwrap(ColumnMeta column) {
+    if (column instanceof SharedColumn && isOperatorNode(((SharedColumn) column).column())) {
+      return ((SharedColumn) column).column();
+    }
+    return column;
+  }
+
+  static boolean isOperator(ColumnMeta column) {
+    return isOperatorNode(unwrap(column));
+  }
+
+  private static boolean isOperatorNode(ColumnMeta column) {
+    if (column instanceof NotColumn) {
+      return true;
+    }
+    if (!(column instanceof BinaryColumn)) {
+      return false;
+    }
+    BinaryColumn binaryColumn = (BinaryColumn) column;
+    DataType<?> leftType = binaryColumn.leftColumn().getType();
+    DataType<?> rightType = binaryColumn.rightColumn().getType();
+    Token token = binaryColumn.token();
+    if (isLogical(token)) {
+      return leftType.isBool() && rightType.isBool();
+    }
+    return (isArithmetic(token) || isComparison(token)) && isNumeric(leftType) && isNumeric(rightType);
+  }
+
+  private static boolean isRowColumn(ColumnMeta column) {
+    return column instanceof IndexColumn && ((IndexColumn) column).sourceTable() instanceof IterableTableMeta;
+  }
+
+  private static boolean isConstant(ColumnMeta column) {
+    return column instanceof LiteralColumn && ((LiteralColumn) column).literal().getValue() != null;
+  }
+
+  private static char kind(DataType<?> type) {
+    return type.isLong() ? 'J' : type.isDouble() ? 'D' : 'Z';
+  }
+
+  /**
+   * The leaves of an operator tree in evaluation order and the shape of the
+   * tree, which determines the generated code.
+   */
+  private static class Tree {
+    private final List<ColumnMeta> leaves = new ArrayList<>();
+    // The next leaf to emit, leaves are emitted in the same order as added.
+    private int next = 0;
+    private final StringBuilder shape = new StringBuilder();
+
+    private void add(ColumnMeta column) {
+      column = unwrap(column);
+      if (column instanceof NotColumn) {
+        shape.append("(not ");
+        add(((NotColumn) column).exprColumn());
+        shape.append(")");
+      } else if (isOperator(column)) {
+        BinaryColumn binaryColumn = (BinaryColumn) column;
+        shape.append("(").append(binaryColumn.token()).append(" ");
+        add(binaryColumn.leftColumn());
+        shape.append(" ");
+        add(binaryColumn.rightColumn());
+        shape.append(")");
+      } else if (isConstant(column)) {
+        Object value = ((LiteralColumn) column).literal().getValue();
+        shape.append(kind(column.getType())).append("#").append(
+            value instanceof Double ? Double.doubleToLongBits((Double) value) : value);
+      } else {
+        if (isRowColumn(column)) {
+          shape.append(kind(column.getType())).append("$").append(((IndexColumn) column).index());
+        } else {
+          shape.append(kind(column.getType())).append("?");
+        }
+        leaves.add(column);
+      }
+    }
+  }
+
+  private static Class<?> generate(ColumnMeta column, Tree tree) throws IOException {
+    String className = "com/cosyan/db/lang/expr/gen/Expression" + counter.incrementAndGet();
+    ClassFile classFile = new ClassFile(className, "com/cosyan/db/lang/expr/ExpressionCompiler$Evaluator");
+    classFile.field("leaves", LEAVES_DESC);
+
+    Code init = new Code(classFile);
+    init.aload(0);
+    init.invoke(Code.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", -1);
+    init.aload(0);
+    init.aload(1);
+    init.field(Code.PUTFIELD, className, "leaves", LEAVES_DESC, -2);
+    init.op(Code.RETURN, 0);
+    classFile.method("<init>", "(" + LEAVES_DESC + ")V", init, 2);
+
+    Code code = new Code(classFile);
+    for (int i = 0; i < tree.leaves.size(); i++) {
+      ColumnMeta leaf = tree.leaves.get(i);
+      if (isRowColumn(leaf)) {
+        code.aload(1);
+        code.push(((IndexColumn) leaf).index());
+        code.op(Code.AALOAD, -1);
+      } else {
+        code.aload(0);
+        code.field(Code.GETFIELD, className, "leaves", LEAVES_DESC, 0);
+        code.push(i);
+        code.op(Code.AALOAD, -1);
+        code.aload(1);
+        code.aload(2);
+        code.aload(3);
+        code.invoke(Code.INVOKEVIRTUAL, COLUMN_META, "value", VALUE_DESC, -3);
+      }
+      code.astore(FIRST_LEAF_LOCAL + i);
+    }
+    Label nullLabel = new Label();
+    for (int i = 0; i < tree.leaves.size(); i++) {
+      code.aload(FIRST_LEAF_LOCAL + i);
+      code.jump(Code.IFNULL, nullLabel, -1);
+    }
+    char kind = emit(code, column, tree);
+    if (kind == 'J') {
+      code.invoke(Code.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", -1);
+    } else if (kind == 'D') {
+      code.invoke(Code.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", -1);
+    } else {
+      code.invoke(Code.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", 0);
+    }
+    code.op(Code.ARETURN, -1);
+    code.mark(nullLabel);
+    code.op(Code.ACONST_NULL, 1);
+    code.op(Code.ARETURN, -1);
+    classFile.method("value", VALUE_DESC, code, FIRST_LEAF_LOCAL + tree.leaves.size());
+
+    return new Loader().define(className.replace('/', '.'), classFile.toByteArray());
+  }
+
+  private static char emit(Code code, ColumnMeta column, Tree tree) {
+    column = unwrap(column);
+    if (column instanceof NotColumn) {
+      emit(code, ((NotColumn) column).exprColumn(), tree);
+      code.op(Code.ICONST_1, 1);
+      code.op(Code.IXOR, -1);
+      return 'Z';
+    } else if (isOperator(column)) {
+      BinaryColumn binaryColumn = (BinaryColumn) column;
+      Token token = binaryColumn.token();
+      ColumnMeta left = binaryColumn.leftColumn();
+      ColumnMeta right = binaryColumn.rightColumn();
+      if (isLogical(token)) {
+        emit(code, left, tree);
+        if (token.is(Tokens.IMPL)) {
+          code.op(Code.ICONST_1, 1);
+          code.op(Code.IXOR, -1);
+        }
+        emit(code, right, tree);
+        code.op(token.is(Tokens.AND) ? Code.IAND : token.is(Tokens.XOR) ? Code.IXOR : Code.IOR, -1);
+        return 'Z';
+      }
+      char kind = left.getType().isLong() && right.getType().isLong() ? 'J' : 'D';
+      emitAs(code, left, tree, kind);
+      emitAs(code, right, tree, kind);
+      boolean isLong = kind == 'J';
+      if (token.is(Tokens.ASTERISK)) {
+        code.op(isLong ? Code.LMUL : Code.DMUL, -2);
+      } else if (token.is(Tokens.PLUS)) {
+        code.op(isLong ? Code.LADD : Code.DADD, -2);
+      } else if (token.is(Tokens.MINUS)) {
+        code.op(isLong ? Code.LSUB : Code.DSUB, -2);
+      } else if (token.is(Tokens.DIV)) {
+        code.op(isLong ? Code.LDIV : Code.DDIV, -2);
+      } else if (token.is(Tokens.MOD)) {
+        code.op(isLong ? Code.LREM : Code.DREM, -2);
+      } else {
+        // Same instructions as javac, comparisons with NaN are false.
+        if (isLong) {
+          code.op(Code.LCMP, -3);
+        } else {
+          code.op(token.is(Tokens.LESS) || token.is(Tokens.LEQ) ? Code.DCMPG : Code.DCMPL, -3);
+        }
+        int jumpIfFalse;
+        if (token.is(Tokens.EQ)) {
+          jumpIfFalse = Code.IFNE;
+        } else if (token.is(Tokens.LESS)) {
+          jumpIfFalse = Code.IFGE;
+        } else if (token.is(Tokens.GREATER)) {
+          jumpIfFalse = Code.IFLE;
+        } else if (token.is(Tokens.LEQ)) {
+          jumpIfFalse = Code.IFGT;
+        } else {
+          jumpIfFalse = Code.IFLT;
+        }
+        Label falseLabel = new Label();
+        Label endLabel = new Label();
+        code.jump(jumpIfFalse, falseLabel, -1);
+        code.op(Code.ICONST_1, 1);
+        code.jump(Code.GOTO, endLabel, 0);
+        code.mark(falseLabel);
+        // Only one of the two constants is on the stack.
+        code.op(Code.ICONST_0, 0);
+        code.mark(endLabel);
+        return 'Z';
+      }
+      return kind;
+    } else if (isConstant(column)) {
+      Object value = ((LiteralColumn) column).literal().getValue();
+      if (value instanceof Long) {
+        code.ldc2(code.classFile.constant((Long) value));
+      } else if (value instanceof Double) {
+        code.ldc2(code.classFile.constant((Double) value));
+      } else {
+        code.op((Boolean) value ? Code.ICONST_1 : Code.ICONST_0, 1);
+      }
+      return kind(column.getType());
+    } else {
+      code.aload(FIRST_LEAF_LOCAL + tree.next++);
+      if (column.getType().isLong()) {
+        code.type(Code.CHECKCAST, "java/lang/Long");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/Long", "longValue", "()J", 1);
+      } else if (column.getType().isDouble()) {
+        code.type(Code.CHECKCAST, "java/lang/Double");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D", 1);
+      } else {
+        code.type(Code.CHECKCAST, "java/lang/Boolean");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z", 0);
+      }
+      return kind(column.getType());
+    }
+  }
+
+  private static void emitAs(Code code, ColumnMeta column, Tree tree, char kind) {
+    if (emit(code, column, tree) == 'J' && kind == 'D') {
+      code.op(Code.L2D, 0);
+    }
+  }
+
+  /**
+   * A column evaluated by a generated {@link Evaluator}. Everything else is
+   * delegated to the original column.
+   */
+  public static class CompiledColumn extends DerivedColumn {
+    private final ColumnMeta column;
+    private final Evaluator evaluator;
+
+    public CompiledColumn(ColumnMeta column, Evaluator evaluator) {
+      super(column.getType());
+      this.column = column;
+      this.evaluator = evaluator;
+    }
+
+    @Override
+    public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
+      return evaluator.value(values, resources, context);
+    }
+
+    @Override
+    public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      return column.values(batch, resources, context);
+    }
+
+    @Override
+    public String print(Object[] values, Resources resources, TableContext context) throws IOException {
+      return column.print(values, resources, context);
+    }
+
+    @Override
+    public TableDependencies tableDependencies() {
+      return column.tableDependencies();
+    }
+
+    @Override
+    public MetaResources readResources() {
+      return column.readResources();
+    }
+  }
+
+  private static class Loader extends ClassLoader {
+    private Loader() {
+      super(ExpressionCompiler.class.getClassLoader());
+    }
+
+    private Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private static class Label {
+    private int position = -1;
+    private final List<Integer> jumps = new ArrayList<>();
+  }
+
+  /**
+   * A minimal class file writer. Classes are written in version 49, which
+   * does not need stack map frames.
+   */
+  private static class ClassFile {
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolSize = 1;
+
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private final DataOutputStream membersOut = new DataOutputStream(members);
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+    private final int codeName;
+    private int fieldCount = 0;
+    private int methodCount = 0;
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private final DataOutputStream methodsOut = new DataOutputStream(methods);
+
+    private ClassFile(String className, String interfaceName) throws IOException {
+      this.thisClass = classConstant(className);
+      this.superClass = classConstant("java/lang/Object");
+      this.interfaceClass = classConstant(interfaceName);
+      this.codeName = utf8("Code");
+    }
+
+    private int utf8(String value) throws IOException {
+      Integer index = constants.get("U" + value);
+      if (index == null) {
+        poolOut.writeByte(1);
+        poolOut.writeUTF(value);
+        index = poolSize++;
+        constants.put("U" + value, index);
+      }
+      return index;
+    }
+
+    private int constant(String key, int tag, int first, int second, int size) throws IOException {
+      Integer index = constants.get(key);
+      if (index == null) {
+        poolOut.writeByte(tag);
+        poolOut.writeShort(first);
+        if (second >= 0) {
+          poolOut.writeShort(second);
+        }
+        index = poolSize;
+        poolSize += size;
+        constants.put(key, index);
+      }
+      return index;
+    }
+
+    private int classConstant(String name) throws IOException {
+      return constant("C" + name, 7, utf8(name), -1, 1);
+    }
+
+    private int nameAndType(String name, String desc) throws IOException {
+      return constant("N" + name + " " + desc, 12, utf8(name), utf8(desc), 1);
+    }
+
+    private int fieldRef(String owner, String name, String desc) throws IOException {
+      return constant("F" + owner + "." + name, 9, classConstant(owner), nameAndType(name, desc), 1);
+    }
+
+    private int methodRef(String owner, String name, String desc) throws IOException {
+      return constant("M" + owner + "." + name + desc, 10, classConstant(owner), nameAndType(name, desc), 1);
+    }
+
+    private int constant(long value) {
+      return wideConstant("J" + value, 5, value);
+    }
+
+    private int constant(double value) {
+      return wideConstant("D" + Double.doubleToLongBits(value), 6, Double.doubleToLongBits(value));
+    }
+
+    private int wideConstant(String key, int tag, long bits) {
+      Integer index = constants.get(key);
+      if (index == null) {
+        try {
+          poolOut.writeByte(tag);
+          poolOut.writeLong(bits);
+        } catch (IOException e) {
+          throw new IllegalStateException(e); // Writing to a byte array.
+        }
+        index = poolSize;
+        // Long and double constants take two entries.
+        poolSize += 2;
+        constants.put(key, index);
+      }
+      return index;
+    }
+
+    private void field(String name, String desc) throws IOException {
+      membersOut.writeShort(ACC_PRIVATE | ACC_FINAL);
+      membersOut.writeShort(utf8(name));
+      membersOut.writeShort(utf8(desc));
+      membersOut.writeShort(0);
+      fieldCount++;
+    }
+
+    private void method(String name, String desc, Code code, int maxLocals) throws IOException {
+      byte[] bytes = code.toByteArray();
+      methodsOut.writeShort(ACC_PUBLIC);
+      methodsOut.writeShort(utf8(name));
+      methodsOut.writeShort(utf8(desc));
+      methodsOut.writeShort(1);
+      methodsOut.writeShort(codeName);
+      methodsOut.writeInt(12 + bytes.length);
+      methodsOut.writeShort(code.maxStack);
+      methodsOut.writeShort(maxLocals);
+      methodsOut.writeInt(bytes.length);
+      methodsOut.write(bytes);
+      methodsOut.writeShort(0);
+      methodsOut.writeShort(0);
+      methodCount++;
+    }
+
+    private byte[] toByteArray() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolSize);
+      out.write(pool.toByteArray());
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(interfaceClass);
+      out.writeShort(fieldCount);
+      out.write(members.toByteArray());
+      out.writeShort(methodCount);
+      out.write(methods.toByteArray());
+      out.writeShort(0);
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * The bytecode of a method. The maximum stack size is tracked from the stack
+   * effect of the instructions, given in slots.
+   */
+  private static class Code {
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD = 0x19;
+    private static final int AALOAD = 0x32;
+    private static final int ASTORE = 0x3a;
+    private static final int LADD = 0x61;
+    private static final int DADD = 0x63;
+    private static final int LSUB = 0x65;
+    private static final int DSUB = 0x67;
+    private static final int LMUL = 0x69;
+    private static final int DMUL = 0x6b;
+    private static final int LDIV = 0x6d;
+    private static final int DDIV = 0x6f;
+    private static final int LREM = 0x71;
+    private static final int DREM = 0x73;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int L2D = 0x8a;
+    private static final int LCMP = 0x94;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int CHECKCAST = 0xc0;
+    private static final int IFNULL = 0xc6;
+
+    private final ClassFile classFile;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final List<Label> labels = new ArrayList<>();
+    private int stack = 0;
+    private int maxStack = 0;
+
+    private Code(ClassFile classFile) {
+      this.classFile = classFile;
+    }
+
+    private void stack(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u1(int value) {
+      bytes.write(value);
+    }
+
+    private void u2(int value) {
+      bytes.write(value >>> 8);
+      bytes.write(value);
+    }
+
+    private void op(int opcode, int delta) {
+      u1(opcode);
+      stack(delta);
+    }
+
+    private void aload(int local) {
+      u1(ALOAD);
+      u1(local);
+      stack(1);
+    }
+
+    private void astore(int local) {
+      u1(ASTORE);
+      u1(local);
+      stack(-1);
+    }
+
+    private void push(int value) {
+      if (value >= 0 && value <= 5) {
+        u1(ICONST_0 + value);
+      } else if (value < 128) {
+        u1(BIPUSH);
+        u1(value);
+      } else {
+        u1(SIPUSH);
+        u2(value);
+      }
+      stack(1);
+    }
+
+    private void ldc2(int index) {
+      u1(LDC2_W);
+      u2(index);
+      stack(2);
+    }
+
+    private void type(int opcode, String className) {
+      u1(opcode);
+      u2(constant(() -> classFile.classConstant(className)));
+    }
+
+    private void field(int opcode, String owner, String name, String desc, int delta) {
+      u1(opcode);
+      u2(constant(() -> classFile.fieldRef(owner, name, desc)));
+      stack(delta);
+    }
+
+    private void invoke(int opcode, String owner, String name, String desc, int delta) {
+      u1(opcode);
+      u2(constant(() -> classFile.methodRef(owner, name, desc)));
+      stack(delta);
+    }
+
+    private void jump(int opcode, Label label, int delta) {
+      label.jumps.add(bytes.size());
+      if (!labels.contains(label)) {
+        labels.add(label);
+      }
+      u1(opcode);
+      u2(0);
+      stack(delta);
+    }
+
+    private void mark(Label label) {
+      label.position = bytes.size();
+    }
+
+    private interface PoolEntry {
+      int index() throws IOException;
+    }
+
+    private int constant(PoolEntry entry) {
+      try {
+        return entry.index();
+      } catch (IOException e) {
+        throw new IllegalStateException(e); // Writing to a byte array.
+      }
+    }
+
+    private byte[] toByteArray() {
+      byte[] code = bytes.toByteArray();
+      for (Label label : labels) {
+        for (int jump : label.jumps) {
+          int offset = label.position - jump;
+          code[jump + 1] = (byte) (offset >>> 8);
+          code[jump + 2] = (byte) offset;
+        }
+      }
+      return code;
+    }
+  }
+}
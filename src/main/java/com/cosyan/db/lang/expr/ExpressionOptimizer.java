@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.expr;
+
+import java.io.IOException;
+
+import com.cosyan.db.lang.expr.Literals.FoldedLiteral;
+import com.cosyan.db.lang.expr.Literals.LiteralColumn;
+import com.cosyan.db.meta.MetaRepo.ModelException;
+import com.cosyan.db.model.ColumnMeta;
+import com.cosyan.db.model.ColumnMeta.AggrColumn;
+import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.ColumnMeta.OrderColumn;
+import com.cosyan.db.model.ColumnMeta.SharedColumn;
+import com.cosyan.db.model.TableContext;
+import com.cosyan.db.model.TableMeta;
+
+/**
+ * Compile time simplifications of expressions: constant sub-expressions are
+ * computed once and identical sub-expressions compiled against the same table
+ * share one column, which is evaluated once per row.
+ *
+ * @author gsvigruha
+ */
+public class ExpressionOptimizer {
+
+  private static final Object[] NO_VALUES = new Object[0];
+
+  public static boolean isConstant(ColumnMeta column) {
+    return column instanceof LiteralColumn;
+  }
+
+  public static Object constantValue(ColumnMeta column) {
+    return ((LiteralColumn) column).literal().getValue();
+  }
+
+  public static boolean isTrue(ColumnMeta column) {
+    return isConstant(column) && Boolean.TRUE.equals(constantValue(column));
+  }
+
+  public static boolean isFalse(ColumnMeta column) {
+    return isConstant(column) && Boolean.FALSE.equals(constantValue(column));
+  }
+
+  /**
+   * Returns the value of the column as a constant if all the arguments are
+   * constants, otherwise the column itself. Columns failing to evaluate are not
+   * folded, the error is raised when the statement is executed.
+   */
+  static ColumnMeta fold(Expression expr, ColumnMeta column, Iterable<ColumnMeta> args) throws ModelException {
+    for (ColumnMeta arg : args) {
+      if (!isConstant(arg)) {
+        return column;
+      }
+    }
+    Object value;
+    try {
+      value = column.value(NO_VALUES, null, TableContext.EMPTY);
+    } catch (IOException | RuntimeException e) {
+      return column;
+    }
+    return new LiteralColumn(new FoldedLiteral(value, column.getType(), expr));
+  }
+
+  /**
+   * Whether evaluating the column is cheaper than looking up a shared value.
+   */
+  private static boolean isTrivial(ColumnMeta column) {
+    return column instanceof IndexColumn
+        || column instanceof LiteralColumn
+        || column instanceof AggrColumn
+        || column instanceof OrderColumn
+        || column instanceof SharedColumn;
+  }
+
+  /**
+   * Compiles the expression or returns the column already compiled from an
+   * identical expression against the same table.
+   */
+  static ColumnMeta compileShared(Expression expr, TableMeta sourceTable) throws ModelException {
+    String key = expr.print();
+    SharedColumn shared = sourceTable.sharedColumn(key);
+    if (shared != null) {
+      return shared;
+    }
+    ColumnMeta column = (ColumnMeta) expr.compile(sourceTable);
+    if (isTrivial(column)) {
+      return column;
+    }
+    return sourceTable.addSharedColumn(key, column);
+  }
+}
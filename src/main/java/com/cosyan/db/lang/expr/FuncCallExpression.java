@@ -21,6 +21,9 @@ import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
+import com.cosyan.db.lang.expr.Literals.Literal;
 import com.cosyan.db.lang.sql.Tokens;
 import com.cosyan.db.lang.sql.Tokens.Loc;
 import com.cosyan.db.meta.Dependencies.TableDependencies;
@@ -28,6 +31,10 @@ import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.AggrTables;
 import com.cosyan.db.model.AggrTables.NotAggrTableException;
 import com.cosyan.db.model.BuiltinFunctions;
+import com.cosyan.db.model.BuiltinFunctions.DoubleArgs;
+import com.cosyan.db.model.BuiltinFunctions.DoubleFunction1;
+import com.cosyan.db.model.BuiltinFunctions.DoubleFunction2;
+import com.cosyan.db.model.BuiltinFunctions.DoubleToLongFunction1;
 import com.cosyan.db.model.BuiltinFunctions.SimpleFunction;
 import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
 import com.cosyan.db.model.ColumnMeta;
@@ -45,7 +52,6 @@ import com.cosyan.db.transaction.MetaResources;
 import com.cosyan.db.transaction.Resources;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -78,7 +84,7 @@ public class FuncCallExpression extends Expression {
     return object == null && args.size() > 0 && BuiltinFunctions.AGGREGATION_NAMES.contains(ident.getString());
   }
 
-  private DerivedColumnWithDeps simpleFunction(TableMeta sourceTable, @Nullable ColumnMeta objColumn)
+  private ColumnMeta simpleFunction(TableMeta sourceTable, @Nullable ColumnMeta objColumn)
       throws ModelException {
     SimpleFunction<?> function = BuiltinFunctions.simpleFunction(ident);
     ImmutableList.Builder<ColumnMeta> argColumnsBuilder = ImmutableList.builder();
@@ -107,47 +113,154 @@ public class FuncCallExpression extends Expression {
       resources = resources.merge(argColumns.get(i).readResources());
       tableDependencies.addToThis(argColumns.get(i).tableDependencies());
     }
-    return new DerivedColumnWithDeps(function.getReturnType(), tableDependencies, resources) {
+    Object[] constants = new Object[argColumns.size()];
+    for (int i = 0; i < argColumns.size(); i++) {
+      if (ExpressionOptimizer.isConstant(argColumns.get(i))) {
+        constants[i] = ExpressionOptimizer.constantValue(argColumns.get(i));
+      }
+    }
+    ColumnMeta column = new FuncColumn(function.specialize(constants), argColumns, tableDependencies, resources);
+    if (function.isDeterministic()) {
+      return ExpressionOptimizer.fold(this, column, argColumns);
+    }
+    return column;
+  }
 
-      @Override
-      public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
-        ImmutableList.Builder<Object> paramsBuilder = ImmutableList.builder();
-        for (int i = 0; i < function.getArgTypes().size(); i++) {
-          Object value = argColumns.get(i).value(values, resources, context);
-          if (value == null) {
-            return null;
-          }
-          if (function.argType(i) == DataTypes.DoubleType && value instanceof Long) {
-            // Implicit type conversion from Long to Double.
-            value = Double.valueOf((Long) value);
-          }
-          paramsBuilder.add(value);
+  /**
+   * Calls a simple function. Functions of at most three arguments are called
+   * without collecting the arguments into a list, functions of float arguments
+   * are computed on primitives for batches.
+   */
+  private static class FuncColumn extends DerivedColumnWithDeps {
+    private final SimpleFunction<?> function;
+    private final ImmutableList<ColumnMeta> argColumns;
+    // Whether the integer argument has to be converted to float.
+    private final boolean[] toDouble;
+
+    FuncColumn(
+        SimpleFunction<?> function,
+        ImmutableList<ColumnMeta> argColumns,
+        TableDependencies tableDependencies,
+        MetaResources resources) {
+      super(function.getReturnType(), tableDependencies, resources);
+      this.function = function;
+      this.argColumns = argColumns;
+      this.toDouble = new boolean[argColumns.size()];
+      for (int i = 0; i < toDouble.length; i++) {
+        // Functions of float arguments accept integers as well.
+        toDouble[i] = function.argType(i) == DataTypes.DoubleType && !(function instanceof DoubleArgs);
+      }
+    }
+
+    private Object arg(int i, Object[] values, Resources resources, TableContext context) throws IOException {
+      Object value = argColumns.get(i).value(values, resources, context);
+      if (toDouble[i] && value instanceof Long) {
+        // Implicit type conversion from Long to Double.
+        value = Double.valueOf((Long) value);
+      }
+      return value;
+    }
+
+    @Override
+    public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
+      if (toDouble.length == 0) {
+        return function.call(ImmutableList.of());
+      }
+      Object self = arg(0, values, resources, context);
+      if (self == null) {
+        return null;
+      }
+      if (toDouble.length == 1) {
+        return function.call1(self);
+      }
+      Object arg1 = arg(1, values, resources, context);
+      if (arg1 == null) {
+        return null;
+      }
+      if (toDouble.length == 2) {
+        return function.call2(self, arg1);
+      }
+      Object arg2 = arg(2, values, resources, context);
+      if (arg2 == null) {
+        return null;
+      }
+      if (toDouble.length == 3) {
+        return function.call3(self, arg1, arg2);
+      }
+      ImmutableList.Builder<Object> paramsBuilder = ImmutableList.builder();
+      paramsBuilder.add(self, arg1, arg2);
+      for (int i = 3; i < toDouble.length; i++) {
+        Object value = arg(i, values, resources, context);
+        if (value == null) {
+          return null;
         }
-        ImmutableList<Object> params = paramsBuilder.build();
-        return function.call(params);
+        paramsBuilder.add(value);
       }
+      return function.call(paramsBuilder.build());
+    }
+
+    private static boolean isNumeric(ColumnVector vector) {
+      return vector.isLong() || vector.isDouble();
+    }
 
-      @Override
-      public String print(Object[] values, Resources resources, TableContext context) throws IOException {
-        StringJoiner sj = new StringJoiner(", ");
-        for (ColumnMeta column : argColumns) {
-          sj.add(column.print(values, resources, context));
+    private static double getDouble(ColumnVector vector, int i) {
+      return vector.isLong() ? vector.longs()[i] : vector.doubles()[i];
+    }
+
+    @Override
+    public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      if (!(function instanceof DoubleArgs)) {
+        return super.values(batch, resources, context);
+      }
+      ColumnVector self = argColumns.get(0).values(batch, resources, context);
+      ColumnVector arg1 = toDouble.length > 1 ? argColumns.get(1).values(batch, resources, context) : self;
+      if (!isNumeric(self) || !isNumeric(arg1)) {
+        return super.values(batch, resources, context);
+      }
+      ColumnVector result = ColumnVector.of(type, batch.size());
+      boolean[] nulls = result.nulls();
+      for (int i = 0; i < batch.size(); i++) {
+        if (self.isNull(i) || arg1.isNull(i)) {
+          nulls[i] = true;
+        } else if (function instanceof DoubleFunction1) {
+          result.doubles()[i] = ((DoubleFunction1) function).callDouble(getDouble(self, i));
+        } else if (function instanceof DoubleToLongFunction1) {
+          result.longs()[i] = ((DoubleToLongFunction1) function).callLong(getDouble(self, i));
+        } else {
+          result.doubles()[i] = ((DoubleFunction2) function).callDouble(getDouble(self, i), getDouble(arg1, i));
         }
-        return function.getName() + "(" + sj.toString() + ")";
       }
-    };
+      return result;
+    }
+
+    @Override
+    public String print(Object[] values, Resources resources, TableContext context) throws IOException {
+      StringJoiner sj = new StringJoiner(", ");
+      for (ColumnMeta column : argColumns) {
+        sj.add(column.print(values, resources, context));
+      }
+      return function.getName() + "(" + sj.toString() + ")";
+    }
   }
 
-  private AggrColumn aggrFunction(TableMeta sourceTable, Expression arg)
+  private AggrColumn aggrFunction(TableMeta sourceTable, Expression arg, ImmutableList<Expression> paramExprs)
       throws ModelException {
     if (!(sourceTable instanceof AggrTables)) {
       throw new NotAggrTableException(ident);
     }
+    ImmutableList.Builder<Object> params = ImmutableList.builder();
+    for (Expression paramExpr : paramExprs) {
+      if (!(paramExpr instanceof Literal)) {
+        throw new ModelException(
+            String.format("Parameters of aggregator '%s' have to be constants.", ident.getString()), paramExpr.loc());
+      }
+      params.add(((Literal) paramExpr).getValue());
+    }
     AggrTables aggrTable = (AggrTables) sourceTable;
     KeyValueTableMeta keyValueTableMeta = aggrTable.sourceTable();
     int shift = keyValueTableMeta.getKeyColumns().size();
-    ColumnMeta argColumn = arg.compileColumn(keyValueTableMeta.getSourceTable());
-    final TypedAggrFunction<?> function = BuiltinFunctions.aggrFunction(ident, argColumn.getType());
+    ColumnMeta argColumn = ExpressionCompiler.compile(arg.compileColumn(keyValueTableMeta.getSourceTable()));
+    final TypedAggrFunction<?> function = BuiltinFunctions.aggrFunction(ident, argColumn.getType(), params.build());
     AggrColumn aggrColumn = new AggrColumn(
         aggrTable,
         function.getReturnType(),
@@ -170,20 +283,14 @@ public class FuncCallExpression extends Expression {
         }
       } else {
         if (isAggr()) {
-          if (args.size() != 1) {
-            throw new ModelException("Invalid number of arguments for aggregator: " + args.size() + ".", ident);
-          }
-          return aggrFunction(sourceTable, Iterables.getOnlyElement(args));
+          return aggrFunction(sourceTable, args.get(0), args.subList(1, args.size()));
         } else {
           return simpleFunction(sourceTable, null);
         }
       }
     } else {
       if (isAggr()) {
-        if (args.size() > 0) {
-          throw new ModelException("Invalid number of arguments for aggregator: " + args.size() + ".", ident);
-        }
-        return aggrFunction(sourceTable, object);
+        return aggrFunction(sourceTable, object, args);
       } else { // Not aggregator.
         CompiledObject obj = object.compile(sourceTable);
         if (obj instanceof TableMeta) {
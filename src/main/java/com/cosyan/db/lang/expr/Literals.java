@@ -45,7 +45,42 @@ public class Literals {
     public Loc getLoc();
   }
 
-  private static class LiteralColumn extends DerivedColumn {
+  /**
+   * The value of a constant expression computed at compile time.
+   */
+  static class FoldedLiteral implements Literal {
+    private final Object value;
+    private final DataType<?> type;
+    private final Expression expr;
+
+    FoldedLiteral(Object value, DataType<?> type, Expression expr) {
+      this.value = value;
+      this.type = type;
+      this.expr = expr;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public String print() {
+      return expr.print();
+    }
+
+    @Override
+    public DataType<?> getType() {
+      return type;
+    }
+
+    @Override
+    public Loc getLoc() {
+      return expr.loc();
+    }
+  }
+
+  static class LiteralColumn extends DerivedColumn {
 
     private Literal literal;
 
@@ -54,6 +89,10 @@ public class Literals {
       this.literal = literal;
     }
 
+    Literal literal() {
+      return literal;
+    }
+
     @Override
     public Object value(Object[] values, Resources resources, TableContext context) {
       return literal.getValue();
@@ -59,7 +59,7 @@ public class TableDefinition {
 
     public Rule compile(MaterializedTable tableMeta) throws ModelException {
       SeekableTableMeta table = tableMeta.reader();
-      ColumnMeta column = expr.compileColumn(table);
+      ColumnMeta column = ExpressionCompiler.compile(expr.compileColumn(table));
       return new Rule(name.getString(), table, column, expr, nullIsTrue, column.tableDependencies());
     }
   }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.cosyan.db.conf.Config.ConfigException;
+import com.cosyan.db.io.TableReader.IterableTableReader;
+import com.cosyan.db.lang.expr.Statements.Statement;
+import com.cosyan.db.lang.transaction.Result;
+import com.cosyan.db.lang.transaction.Result.StatementResult;
+import com.cosyan.db.meta.MaterializedTable;
+import com.cosyan.db.meta.MetaReader;
+import com.cosyan.db.meta.MetaRepo.ModelException;
+import com.cosyan.db.meta.MetaRepo.RuleException;
+import com.cosyan.db.model.Ident;
+import com.cosyan.db.transaction.MetaResources;
+import com.cosyan.db.transaction.Resources;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class AnalyzeStatement extends Statement {
+
+  private final Optional<Ident> table;
+
+  private List<MaterializedTable> tableMetas;
+
+  @Override
+  public MetaResources compile(MetaReader metaRepo) throws ModelException {
+    tableMetas = new ArrayList<>();
+    if (table.isPresent()) {
+      tableMetas.add(metaRepo.table(table.get()));
+    } else {
+      metaRepo.tables().forEach(tableMetas::add);
+    }
+    MetaResources resources = MetaResources.empty();
+    for (MaterializedTable tableMeta : tableMetas) {
+      resources = resources.merge(MetaResources.readTable(tableMeta));
+    }
+    return resources;
+  }
+
+  @Override
+  public Result execute(Resources resources) throws RuleException, IOException {
+    long rows = 0L;
+    for (MaterializedTable tableMeta : tableMetas) {
+      IterableTableReader reader = resources.createIterableReader(tableMeta.tableName());
+      try {
+        rows += tableMeta.analyze(reader);
+      } catch (ConfigException e) {
+        throw new RuleException(e.getMessage());
+      } finally {
+        reader.close();
+      }
+    }
+    return new StatementResult(rows);
+  }
+
+  @Override
+  public void cancel() {
+  }
+}
@@ -106,6 +106,7 @@ public class CSVStatements {
             break;
           }
           if ((lines - 1) % commitAfterNRecords == 0) {
+            resources.checkDeferredRules();
             writer.commit();
           }
         }
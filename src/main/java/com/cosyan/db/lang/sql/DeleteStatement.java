@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import com.cosyan.db.io.TableWriter;
 import com.cosyan.db.lang.expr.Expression;
+import com.cosyan.db.lang.expr.ExpressionCompiler;
 import com.cosyan.db.lang.expr.Statements.Statement;
 import com.cosyan.db.lang.transaction.Result;
 import com.cosyan.db.lang.transaction.Result.StatementResult;
@@ -70,7 +71,7 @@ public class DeleteStatement {
     public MetaResources compile(MetaReader metaRepo) throws ModelException {
       MaterializedTable materializedTableMeta = metaRepo.table(table);
       tableMeta = materializedTableMeta.reader();
-      whereColumn = where.compileColumn(tableMeta);
+      whereColumn = ExpressionCompiler.compile(where.compileColumn(tableMeta));
       clause = PredicateHelper.getBestClause(tableMeta, where);
       return MetaResources.deleteFromTable(materializedTableMeta);
     }
@@ -17,7 +17,6 @@ package com.cosyan.db.lang.sql;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -77,14 +76,14 @@ public class InsertIntoStatement {
     public Result execute(Resources resources) throws RuleException, IOException {
       ImmutableList<BasicColumn> cols = ImmutableList.copyOf(tableMeta.columns().values());
       boolean hasID = cols.get(0).getType() == DataTypes.IDType;
-      Object[] fullValues = new Object[cols.size()];
 
       long lastID = hasID ? ((IDTableIndex) resources.getPrimaryKeyIndex(table.getString())).getLastID() : -1;
       TableWriter writer = resources.writer(tableMeta.tableName());
       List<Long> newIDs = new ArrayList<>();
+      List<Object[]> fullValuess = new ArrayList<>(valuess.size());
       for (ImmutableList<Literal> values : valuess) {
+        Object[] fullValues = new Object[cols.size()];
         if (columns.isPresent()) {
-          Arrays.fill(fullValues, null);
           if (hasID) {
             fullValues[0] = ++lastID;
             newIDs.add(lastID);
@@ -108,8 +107,9 @@ public class InsertIntoStatement {
             fullValues[i] = values.get(i - offset).getValue();
           }
         }
-        writer.insert(resources, fullValues, /* checkReferencingRules= */true);
+        fullValuess.add(fullValues);
       }
+      writer.insert(resources, fullValuess, /* checkReferencingRules= */true);
       tableMeta.insert(valuess.size());
       return new InsertIntoResult(valuess.size(), newIDs);
     }
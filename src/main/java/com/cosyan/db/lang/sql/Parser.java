@@ -134,6 +134,8 @@ public class Parser implements IParser {
       return parseExport(tokens);
     } else if (token.is(Tokens.WAIT)) {
       return parseWait(tokens);
+    } else if (token.is(Tokens.ANALYZE)) {
+      return parseAnalyze(tokens);
     }
     throw new ParserException("Syntax error, expected select, insert, delete or update.", token);
   }
@@ -194,6 +196,15 @@ public class Parser implements IParser {
     return new WaitStatement(time.getValue(), tag);
   }
 
+  private AnalyzeStatement parseAnalyze(PeekingIterator<Token> tokens) throws ParserException {
+    assertNext(tokens, Tokens.ANALYZE);
+    Optional<Ident> table = Optional.empty();
+    if (!tokens.peek().is(Tokens.COMMA_COLON)) {
+      table = Optional.of(parseIdent(tokens));
+    }
+    return new AnalyzeStatement(table);
+  }
+
   private Delete parseDelete(PeekingIterator<Token> tokens) throws ParserException {
     assertNext(tokens, Tokens.DELETE);
     assertNext(tokens, Tokens.FROM);
@@ -28,6 +28,8 @@ import java.util.stream.Collectors;
 import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.lang.expr.BinaryExpression;
 import com.cosyan.db.lang.expr.Expression;
+import com.cosyan.db.lang.expr.ExpressionCompiler;
+import com.cosyan.db.lang.expr.ExpressionOptimizer;
 import com.cosyan.db.lang.expr.FuncCallExpression;
 import com.cosyan.db.lang.expr.Node;
 import com.cosyan.db.lang.expr.Statements.Statement;
@@ -153,7 +155,7 @@ public class SelectStatement extends Statement {
       ExposedTableMeta orderedTable;
       if (orderBy.isPresent()) {
         ImmutableList<OrderColumn> orderColumns = orderColumns(distinctTable, orderBy.get());
-        orderedTable = new SortedTableMeta(distinctTable, orderColumns);
+        orderedTable = new SortedTableMeta(distinctTable, orderColumns, limit.orElse(-1L));
       } else {
         orderedTable = distinctTable;
       }
@@ -232,14 +234,17 @@ public class SelectStatement extends Statement {
       if (tableColumns.containsKey(columnName)) {
         throw new ModelException(String.format("Duplicate column name '%s'.", columnName), columnExpr);
       }
-      tableColumns.put(columnName, columnMeta);
+      tableColumns.put(columnName, ExpressionCompiler.compile(columnMeta));
     }
 
     public static ExposedTableMeta filteredTable(
         ExposedTableMeta sourceTable, Expression where)
         throws ModelException {
-      ColumnMeta whereColumn = where.compileColumn(sourceTable);
+      ColumnMeta whereColumn = ExpressionCompiler.compile(where.compileColumn(sourceTable));
       Node.assertType(DataTypes.BoolType, whereColumn.getType(), where.loc());
+      if (ExpressionOptimizer.isTrue(whereColumn)) {
+        return sourceTable;
+      }
       if (sourceTable instanceof SeekableTableMeta) {
         SeekableTableMeta tableMeta = (SeekableTableMeta) sourceTable;
         VariableEquals clause = PredicateHelper.getBestClause(tableMeta, where);
@@ -259,7 +264,7 @@ public class SelectStatement extends Statement {
       if (having.isPresent()) {
         ColumnMeta havingColumn = having.get().compileColumn(sourceTable);
         Node.assertType(DataTypes.BoolType, havingColumn.getType(), having.get().loc());
-        return havingColumn;
+        return ExpressionOptimizer.isTrue(havingColumn) ? ColumnMeta.TRUE_COLUMN : havingColumn;
       } else {
         return ColumnMeta.TRUE_COLUMN;
       }
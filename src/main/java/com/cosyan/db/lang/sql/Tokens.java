@@ -238,6 +238,8 @@ public class Tokens {
 
   public static String LIMIT = "limit";
 
+  public static String ANALYZE = "analyze";
+
   public static boolean isDelimiter(char c) {
     return c == SPACE ||
         c == TAB ||
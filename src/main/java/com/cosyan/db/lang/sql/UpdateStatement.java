@@ -20,6 +20,7 @@ import java.util.Optional;
 
 import com.cosyan.db.io.TableWriter;
 import com.cosyan.db.lang.expr.Expression;
+import com.cosyan.db.lang.expr.ExpressionCompiler;
 import com.cosyan.db.lang.expr.Node;
 import com.cosyan.db.lang.expr.Statements.Statement;
 import com.cosyan.db.lang.transaction.Result;
@@ -83,13 +84,13 @@ public class UpdateStatement {
           throw new ModelException(String.format(
               "Column '%s.%s' is immutable.", materializedTableMeta.tableName(), column.getName()), update.getIdent());
         }
-        ColumnMeta columnExpr = update.getValue().compileColumn(tableMeta);
+        ColumnMeta columnExpr = ExpressionCompiler.compile(update.getValue().compileColumn(tableMeta));
         check(column, columnExpr.getType(), update.getIdent());
         columnExprsBuilder.put(tableMeta.column(update.getIdent()).index(), columnExpr);
       }
       columnExprs = columnExprsBuilder.build();
       if (where.isPresent()) {
-        whereColumn = where.get().compileColumn(tableMeta);
+        whereColumn = ExpressionCompiler.compile(where.get().compileColumn(tableMeta));
         clause = PredicateHelper.getBestClause(tableMeta, where.get());
       } else {
         whereColumn = ColumnMeta.TRUE_COLUMN;
@@ -16,7 +16,6 @@
 package com.cosyan.db.lang.transaction;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.StringJoiner;
@@ -289,8 +288,8 @@ public abstract class Result {
       obj.put("type", "statement");
       String tagStr = tag.map(t -> " (" + t + ")").orElse("");
       obj.put("msg", String.format("Statement lasted from %s to %s%s.",
-          DateFunctions.sdf1.format(new Date(startTime)),
-          DateFunctions.sdf1.format(new Date(endTime)),
+          DateFunctions.sdf1.format(startTime),
+          DateFunctions.sdf1.format(endTime),
           tagStr));
       return obj;
     }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.logic;
+
+import com.cosyan.db.logic.PredicateHelper.VariableEquals;
+import com.cosyan.db.meta.MaterializedTable;
+import com.cosyan.db.model.BasicColumn;
+import com.cosyan.db.model.DerivedTables.AliasedTableMeta;
+import com.cosyan.db.model.DerivedTables.DerivedTableMeta;
+import com.cosyan.db.model.DerivedTables.DistinctTableMeta;
+import com.cosyan.db.model.DerivedTables.FilteredTableMeta;
+import com.cosyan.db.model.DerivedTables.IndexFilteredTableMeta;
+import com.cosyan.db.model.DerivedTables.LimitedTableMeta;
+import com.cosyan.db.model.DerivedTables.SortedTableMeta;
+import com.cosyan.db.model.JoinTables.JoinTableMeta;
+import com.cosyan.db.model.SeekableTableMeta;
+import com.cosyan.db.model.TableMeta;
+import com.cosyan.db.model.stat.ColumnStats;
+import com.cosyan.db.model.stat.TableStats;
+
+/**
+ * Estimates the cardinality of tables and the selectivity of predicates from
+ * the table and column statistics. Falls back to fixed default selectivities if
+ * statistics are not available.
+ *
+ * @author gsvigruha
+ */
+public class CostModel {
+
+  public static final double DEFAULT_ROWS = 1000.0;
+  public static final double DEFAULT_INDEX_SELECTIVITY = 0.1;
+  public static final double DEFAULT_FILTER_SELECTIVITY = 0.33;
+  /**
+   * Reading the rows matched by an index costs more per row than a sequential
+   * scan, so above this selectivity a scan is cheaper.
+   */
+  public static final double MAX_INDEX_SELECTIVITY = 0.25;
+
+  public static double rows(MaterializedTable table) {
+    return Math.max(1L, table.stats().rowCount());
+  }
+
+  public static double rows(TableMeta table) {
+    if (table instanceof SeekableTableMeta) {
+      return rows(((SeekableTableMeta) table).tableMeta());
+    } else if (table instanceof IndexFilteredTableMeta) {
+      IndexFilteredTableMeta filtered = (IndexFilteredTableMeta) table;
+      MaterializedTable materializedTable = filtered.getSourceTable().tableMeta();
+      return Math.max(1.0, rows(materializedTable) * selectivity(materializedTable, filtered.getClause()));
+    } else if (table instanceof FilteredTableMeta) {
+      return rows(((FilteredTableMeta) table).getSourceTable()) * DEFAULT_FILTER_SELECTIVITY;
+    } else if (table instanceof DerivedTableMeta) {
+      return rows(((DerivedTableMeta) table).getSourceTable());
+    } else if (table instanceof AliasedTableMeta) {
+      return rows(((AliasedTableMeta) table).getSourceTable());
+    } else if (table instanceof SortedTableMeta) {
+      return rows(((SortedTableMeta) table).getSourceTable());
+    } else if (table instanceof DistinctTableMeta) {
+      return rows(((DistinctTableMeta) table).getSourceTable());
+    } else if (table instanceof LimitedTableMeta) {
+      LimitedTableMeta limited = (LimitedTableMeta) table;
+      return Math.min(limited.getLimit(), rows(limited.getSourceTable()));
+    } else if (table instanceof JoinTableMeta) {
+      JoinTableMeta join = (JoinTableMeta) table;
+      return Math.max(rows(join.getLeftTable()), rows(join.getRightTable()));
+    }
+    return DEFAULT_ROWS;
+  }
+
+  /**
+   * The estimated fraction of the rows of the table matching the clause.
+   */
+  public static double selectivity(MaterializedTable table, VariableEquals clause) {
+    BasicColumn column = table.columns().get(clause.getIdent().getString());
+    if (column.isUnique()) {
+      return 1.0 / rows(table);
+    }
+    TableStats stats = table.stats();
+    ColumnStats columnStats = stats.columnStats(column.getName());
+    if (columnStats != null && columnStats.notNull() > 0) {
+      return Math.min(1.0, columnStats.estimatedCount(clause.getValue()) / columnStats.notNull());
+    }
+    return column.isIndexed() ? DEFAULT_INDEX_SELECTIVITY : DEFAULT_FILTER_SELECTIVITY;
+  }
+}
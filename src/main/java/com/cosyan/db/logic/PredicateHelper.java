@@ -42,13 +42,26 @@ public class PredicateHelper {
     private final Object value;
   }
 
+  /**
+   * Returns the indexed clause matching the fewest rows, or <code>null</code>
+   * if no index is selective enough to be cheaper than a full scan. A unique
+   * index matches at most one row, so it is always preferred.
+   */
   public static VariableEquals getBestClause(SeekableTableMeta tableMeta, Expression where) throws ModelException {
     ImmutableList<VariableEquals> clauses = PredicateHelper.extractClauses(where);
     VariableEquals clause = null;
+    double bestSelectivity = CostModel.MAX_INDEX_SELECTIVITY;
     for (VariableEquals clauseCandidate : clauses) {
       BasicColumn column = tableMeta.tableMeta().column(clauseCandidate.getIdent());
-      if ((clause == null && column.isIndexed()) || column.isUnique()) {
-        clause = clauseCandidate;
+      if (column.isUnique()) {
+        return clauseCandidate;
+      }
+      if (column.isIndexed()) {
+        double selectivity = CostModel.selectivity(tableMeta.tableMeta(), clauseCandidate);
+        if (selectivity < bestSelectivity) {
+          clause = clauseCandidate;
+          bestSelectivity = selectivity;
+        }
       }
     }
     return clause;
@@ -25,8 +25,10 @@ import java.util.Map;
 import java.util.Optional;
 
 import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
 import com.cosyan.db.io.MemoryBufferedSeekableFileStream;
 import com.cosyan.db.io.RAFBufferedInputStream;
+import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.io.SeekableInputStream;
 import com.cosyan.db.io.SeekableOutputStream;
 import com.cosyan.db.io.SeekableOutputStream.RAFSeekableOutputStream;
@@ -131,6 +133,10 @@ public class MaterializedTable {
     return config.tableDir() + File.separator + tableName();
   }
 
+  public String tempDir() {
+    return config.tempDir();
+  }
+
   public Type type() {
     return type;
   }
@@ -153,11 +159,21 @@ public class MaterializedTable {
   }
 
   public void loadStats() throws IOException {
-    stats.load();
+    stats.load(columns());
   }
 
   public void saveStats() throws IOException {
-    stats.save();
+    stats.save(columns());
+  }
+
+  /**
+   * Recomputes and persists the statistics of the table from the records of
+   * the reader.
+   */
+  public long analyze(IterableTableReader reader) throws IOException, ConfigException {
+    long rows = stats.analyze(columns().values(), reader);
+    saveStats();
+    return rows;
   }
 
   public ImmutableList<String> columnNames() {
@@ -587,5 +603,6 @@ public class MaterializedTable {
   public void drop() throws IOException {
     raf.close();
     new File(fileName()).delete();
+    stats.drop();
   }
 }
@@ -22,4 +22,6 @@ public interface MetaReader extends TableProvider {
 
   public MaterializedTable table(Ident ident) throws ModelException;
 
+  public Iterable<MaterializedTable> tables();
+
 }
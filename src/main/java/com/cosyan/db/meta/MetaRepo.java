@@ -20,8 +20,16 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
@@ -32,17 +40,20 @@ import org.json.JSONObject;
 import com.cosyan.db.auth.AuthToken;
 import com.cosyan.db.auth.LocalUsers;
 import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
 import com.cosyan.db.index.ByteMultiTrie.LongMultiIndex;
 import com.cosyan.db.index.ByteMultiTrie.StringMultiIndex;
 import com.cosyan.db.index.ByteTrie.IndexException;
 import com.cosyan.db.index.ByteTrie.LongIndex;
 import com.cosyan.db.index.ByteTrie.StringIndex;
 import com.cosyan.db.index.IDIndex;
+import com.cosyan.db.index.IndexLSN;
 import com.cosyan.db.index.IndexStat.ByteMultiTrieStat;
 import com.cosyan.db.index.IndexStat.ByteTrieStat;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.Indexes.IndexWriter;
 import com.cosyan.db.io.MetaSerializer;
+import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.io.TableReader.MaterializedTableReader;
 import com.cosyan.db.io.TableReader.SeekableTableReader;
 import com.cosyan.db.io.TableWriter;
@@ -72,13 +83,16 @@ import com.cosyan.db.session.ILexer;
 import com.cosyan.db.session.IParser;
 import com.cosyan.db.session.IParser.ParserException;
 import com.cosyan.db.transaction.MetaResources;
+import com.cosyan.db.transaction.MetaResources.Resource;
 import com.cosyan.db.transaction.MetaResources.TableMetaResource;
 import com.cosyan.db.transaction.Resources;
 import com.cosyan.db.util.Util;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class MetaRepo implements MetaRepoExecutor, MetaReader {
 
@@ -91,6 +105,12 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
   private final LockManager lockManager;
   private final MetaSerializer metaSerializer;
 
+  private final ExecutorService backgroundExecutor;
+  private final ExecutorService aggregationExecutor;
+  private final Set<String> rebuildingTables = ConcurrentHashMap.newKeySet();
+  // Running index rebuilds, removed when they complete.
+  private final Set<CompletableFuture<Void>> indexRebuilds = ConcurrentHashMap.newKeySet();
+
   public MetaRepo(Config config, LockManager lockManager, LocalUsers localUsers, ILexer lexer, IParser parser)
       throws IOException, DBException {
     this.config = config;
@@ -100,13 +120,27 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     this.uniqueIndexes = new HashMap<>();
     this.multiIndexes = new HashMap<>();
     this.grants = new Grants(localUsers);
+    try {
+      this.backgroundExecutor = Executors.newFixedThreadPool(
+          config.getInt(Config.DB_NUM_THREADS),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("background-%d").build());
+      // Shared by the parallel aggregations of all the queries.
+      this.aggregationExecutor = Executors.newFixedThreadPool(
+          Math.max(1, config.getInt(Config.AGGR_NUM_THREADS, Config.DEFAULT_AGGR_NUM_THREADS)),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("aggregation-%d").build());
+    } catch (ConfigException e) {
+      throw new DBException(e);
+    }
 
     Files.createDirectories(Paths.get(config.tableDir()));
+    Files.createDirectories(Paths.get(config.statDir()));
     Files.createDirectories(Paths.get(config.indexDir()));
     Files.createDirectories(Paths.get(config.journalDir()));
     Files.createDirectories(Paths.get(config.metaDir()));
+    Files.createDirectories(Paths.get(config.tempDir()));
 
     readTables();
+    recoverIndexes();
   }
 
   public Config config() {
@@ -143,6 +177,8 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     this.uniqueIndexes.clear();
     this.multiIndexes.clear();
     readTables();
+    // All the files are replaced, the indexes are checked like on startup.
+    recoverIndexes();
   }
 
   public void readTables() throws DBException {
@@ -175,6 +211,101 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     }
   }
 
+  /**
+   * Compares the LSN of every index with the length of its table file. Indexes
+   * not consistent with their tables - e.g. because of a crash or a failed index
+   * commit - are recreated empty and rebuilt in the background, tables in
+   * parallel. Transactions using a table with indexes being rebuilt wait until
+   * the rebuild finishes, other tables can be used in the meantime.
+   *
+   * Only called on startup and restore: tables of running transactions can be
+   * in the middle of a commit, with the table file already written but the
+   * index LSNs not yet updated.
+   */
+  private void recoverIndexes() throws DBException {
+    try {
+      recoverIndexesInternal();
+    } catch (IOException e) {
+      throw new DBException(e);
+    }
+  }
+
+  private void recoverIndexesInternal() throws IOException {
+    for (MaterializedTable table : tables.values()) {
+      long tableLength = table.raf().length();
+      List<BasicColumn> invalidColumns = new ArrayList<>();
+      for (BasicColumn column : table.columns().values()) {
+        if (column.isIndexed() && indexLSN(table, column).get() != tableLength) {
+          invalidColumns.add(column);
+        }
+      }
+      if (invalidColumns.isEmpty()) {
+        continue;
+      }
+      for (BasicColumn column : invalidColumns) {
+        if (column.isUnique()) {
+          dropUniqueIndex(table, column);
+        } else {
+          dropMultiIndex(table, column);
+        }
+        registerIndex(table, column);
+      }
+      rebuildingTables.add(table.tableName());
+      CompletableFuture<Void> rebuild = CompletableFuture.runAsync(
+          () -> rebuildIndexes(table, invalidColumns), backgroundExecutor);
+      indexRebuilds.add(rebuild);
+      rebuild.whenComplete((result, error) -> indexRebuilds.remove(rebuild));
+    }
+  }
+
+  private void rebuildIndexes(MaterializedTable table, List<BasicColumn> columns) {
+    MetaResources metaResources = MetaResources.tableMeta(table);
+    try {
+      int retryMS = config.getInt(Config.TR_RETRY_MS);
+      while (!lockManager.tryLock(metaResources)) {
+        Thread.sleep(retryMS);
+      }
+    } catch (ConfigException | InterruptedException e) {
+      rebuildingTables.remove(table.tableName());
+      e.printStackTrace();
+      return;
+    }
+    Resources resources = null;
+    try {
+      resources = resources(metaResources);
+      TableWriter writer = resources.writer(table.tableName());
+      for (BasicColumn column : columns) {
+        writer.buildIndex(column.getName(), writer.getIndexWriter(column.getName()));
+      }
+      resources.commit();
+    } catch (IOException | RuleException e) {
+      // The indexes stay dirty and are rebuilt again on the next start.
+      if (resources != null) {
+        resources.rollback();
+      }
+      e.printStackTrace();
+    } finally {
+      lockManager.unlock(metaResources);
+      rebuildingTables.remove(table.tableName());
+    }
+  }
+
+  @VisibleForTesting
+  public void awaitIndexRebuilds() throws InterruptedException, ExecutionException {
+    for (CompletableFuture<Void> future : ImmutableList.copyOf(indexRebuilds)) {
+      future.get();
+    }
+  }
+
+  private IndexLSN indexLSN(MaterializedTable table, BasicColumn column) {
+    String indexName = table.tableName() + "." + column.getName();
+    if (column.isUnique()) {
+      return uniqueIndexes.get(indexName).lsn();
+    } else {
+      return multiIndexes.get(indexName).lsn();
+    }
+  }
+
   @Override
   public ExposedTableMeta tableMeta(Ident ident) throws ModelException {
     return table(ident).reader();
@@ -185,6 +316,11 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     return table(ident).reader();
   }
 
+  @Override
+  public Iterable<MaterializedTable> tables() {
+    return tables.values();
+  }
+
   public MaterializedTable table(String name) throws ModelException {
     assert tables.containsKey(name) : String.format("Table '%s' does not exist.", name);
     return tables.get(name);
@@ -317,12 +453,13 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     String indexName = table.tableName() + "." + column.getName();
     String path = config.indexDir() + File.separator + indexName;
     if (!uniqueIndexes.containsKey(indexName)) {
+      IndexLSN lsn = newIndexLSN(table, path);
       if (column.getType() == DataTypes.StringType) {
-        uniqueIndexes.put(indexName, new StringTableIndex(new StringIndex(path)));
+        uniqueIndexes.put(indexName, new StringTableIndex(new StringIndex(path), lsn));
       } else if (column.getType() == DataTypes.LongType) {
-        uniqueIndexes.put(indexName, new LongTableIndex(new LongIndex(path)));
+        uniqueIndexes.put(indexName, new LongTableIndex(new LongIndex(path), lsn));
       } else if (column.getType() == DataTypes.IDType) {
-        uniqueIndexes.put(indexName, new IDTableIndex(new IDIndex(path)));
+        uniqueIndexes.put(indexName, new IDTableIndex(new IDIndex(path), lsn));
       }
     }
     return uniqueIndexes.get(indexName);
@@ -333,16 +470,25 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
     String indexName = table.tableName() + "." + column.getName();
     String path = config.indexDir() + File.separator + indexName;
     if (!multiIndexes.containsKey(indexName)) {
-
+      IndexLSN lsn = newIndexLSN(table, path);
       if (column.getType() == DataTypes.StringType) {
-        multiIndexes.put(indexName, new StringTableMultiIndex(new StringMultiIndex(path)));
+        multiIndexes.put(indexName, new StringTableMultiIndex(new StringMultiIndex(path), lsn));
       } else if (column.getType() == DataTypes.LongType || column.getType() == DataTypes.IDType) {
-        multiIndexes.put(indexName, new LongTableMultiIndex(new LongMultiIndex(path)));
+        multiIndexes.put(indexName, new LongTableMultiIndex(new LongMultiIndex(path), lsn));
       }
     }
     return multiIndexes.get(indexName);
   }
 
+  private IndexLSN newIndexLSN(MaterializedTable table, String path) throws IOException {
+    IndexLSN lsn = new IndexLSN(path);
+    if (lsn.get() == IndexLSN.DIRTY && table.raf().length() == 0) {
+      // Indexes of empty tables are consistent.
+      lsn.set(0L);
+    }
+    return lsn;
+  }
+
   @Override
   public IndexWriter registerIndex(MaterializedTable tableMeta, BasicColumn column)
       throws IOException {
@@ -435,7 +581,7 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
         metas.put(resource.getTableMeta().tableName(), tableMeta);
       }
     }
-    return new Resources(readers.build(), writers.build(), metas.build());
+    return new Resources(config, readers.build(), writers.build(), metas.build(), aggregationExecutor);
   }
 
   public ImmutableMap<String, MaterializedTable> getTables(AuthToken authToken) {
@@ -514,11 +660,68 @@ public class MetaRepo implements MetaRepoExecutor, MetaReader {
   }
 
   public boolean tryLock(MetaResources metaResources) {
+    for (Resource resource : metaResources.all()) {
+      if (rebuildingTables.contains(resource.getResourceId())) {
+        return false;
+      }
+    }
     return lockManager.tryLock(metaResources);
   }
 
   public void unlock(MetaResources metaResources) {
     lockManager.unlock(metaResources);
+    for (TableMetaResource resource : metaResources.tables()) {
+      if (resource.write()) {
+        MaterializedTable table = resource.getTableMeta();
+        try {
+          if (table.stats().startRefresh()) {
+            backgroundExecutor.submit(() -> refreshStats(table));
+          }
+        } catch (ConfigException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Analyzes a table again in the background once enough of its rows changed
+   * since the last analyze.
+   */
+  private void refreshStats(MaterializedTable table) {
+    MetaResources metaResources = MetaResources.readTable(table);
+    try {
+      int retryMS = config.getInt(Config.TR_RETRY_MS);
+      while (true) {
+        if (!hasTable(table.tableName())) {
+          // The table was dropped in the meantime.
+          table.stats().finishRefresh();
+          return;
+        }
+        if (tryLock(metaResources)) {
+          break;
+        }
+        Thread.sleep(retryMS);
+      }
+    } catch (ConfigException | InterruptedException e) {
+      table.stats().finishRefresh();
+      e.printStackTrace();
+      return;
+    }
+    try {
+      Resources resources = resources(metaResources);
+      IterableTableReader reader = resources.createIterableReader(table.tableName());
+      try {
+        table.analyze(reader);
+      } finally {
+        reader.close();
+      }
+    } catch (IOException | ConfigException e) {
+      e.printStackTrace();
+    } finally {
+      lockManager.unlock(metaResources);
+      table.stats().finishRefresh();
+    }
   }
 
   public ImmutableMap<String, TableStat> tableStats() throws IOException {
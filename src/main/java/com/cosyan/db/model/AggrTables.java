@@ -17,17 +17,19 @@ package com.cosyan.db.model;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
 import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.meta.Dependencies.TableDependencies;
 import com.cosyan.db.meta.MetaRepo.ModelException;
-import com.cosyan.db.model.Aggregators.Aggregator;
 import com.cosyan.db.model.ColumnMeta.AggrColumn;
 import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.DataTypes.DataType;
 import com.cosyan.db.model.DerivedTables.KeyValueTableMeta;
 import com.cosyan.db.model.TableMeta.IterableTableMeta;
 import com.cosyan.db.transaction.MetaResources;
@@ -36,6 +38,8 @@ import com.google.common.collect.ImmutableList;
 
 public abstract class AggrTables extends IterableTableMeta {
 
+  private static final int DEFAULT_GROUP_MEMORY_MB = 256;
+
   public static class NotAggrTableException extends ModelException {
     private static final long serialVersionUID = 1L;
 
@@ -88,6 +92,23 @@ public abstract class AggrTables extends IterableTableMeta {
 
   public abstract KeyValueTableMeta sourceTable();
 
+  protected HashAggregation hashAggregation(
+      ImmutableList<DataType<?>> keyTypes, Resources resources, AtomicBoolean cancelled) throws IOException {
+    try {
+      return new HashAggregation(
+          keyTypes,
+          aggrColumns.stream().map(AggrColumn::getInnerType).collect(ImmutableList.toImmutableList()),
+          aggrColumns.stream().map(AggrColumn::getFunction).collect(ImmutableList.toImmutableList()),
+          resources.config().getInt(Config.GROUP_MEMORY_MB, DEFAULT_GROUP_MEMORY_MB) * 1024L * 1024L,
+          resources.config().tempDir(),
+          resources.aggregationExecutor(),
+          resources.config().getInt(Config.AGGR_NUM_THREADS, Config.DEFAULT_AGGR_NUM_THREADS),
+          cancelled);
+    } catch (ConfigException e) {
+      throw new IOException(e);
+    }
+  }
+
   public void addAggrColumn(AggrColumn aggrColumn) {
     aggrColumns.add(aggrColumn);
   }
@@ -120,7 +141,11 @@ public abstract class AggrTables extends IterableTableMeta {
     }
 
     public IterableTableReader reader(Resources resources, TableContext context) throws IOException {
+      ImmutableList<? extends ColumnMeta> keyColumns = ImmutableList.copyOf(sourceTable.getKeyColumns().values());
       return new AggrTableReader(sourceTable.reader(resources, context)) {
+
+        private HashAggregation hashAggregation;
+
         @Override
         public Object[] next() throws IOException {
           if (!aggregated) {
@@ -128,67 +153,51 @@ public abstract class AggrTables extends IterableTableMeta {
           }
           Object[] values = null;
           do {
-            if (!iterator.hasNext()) {
+            values = hashAggregation.next();
+            if (values == null) {
               return null;
             }
-            values = iterator.next();
           } while (!(boolean) havingColumn.value(values, resources, context) && !cancelled.get());
           return values;
         }
 
-        private ArrayList<Object> getKeyValues(Object[] sourceValues, Resources resources, TableContext context) throws IOException {
-          ArrayList<Object> keys = new ArrayList<>(sourceTable.getKeyColumns().size());
-          for (Map.Entry<String, ? extends ColumnMeta> entry : sourceTable.getKeyColumns().entrySet()) {
-            keys.add(entry.getValue().value(sourceValues, resources, context));
-          }
-          return keys;
-        }
-
         private void aggregate(Resources resources, TableContext context) throws IOException {
-          HashMap<ArrayList<Object>, Aggregator<?, ?>[]> aggregatedValues = new HashMap<>();
-          while (!cancelled.get()) {
-            Object[] sourceValues = sourceReader.next();
-            if (sourceValues == null) {
-              break;
+          hashAggregation = hashAggregation(
+              keyColumns.stream().map(ColumnMeta::getType).collect(ImmutableList.toImmutableList()),
+              resources,
+              cancelled);
+          Object[] key = new Object[keyColumns.size()];
+          Object[] values = new Object[aggrColumns.size()];
+          ColumnVector[] keyVectors = new ColumnVector[key.length];
+          ColumnVector[] valueVectors = new ColumnVector[values.length];
+          RowBatch batch;
+          while (!cancelled.get() && (batch = sourceReader.nextBatch()) != null) {
+            for (int i = 0; i < key.length; i++) {
+              keyVectors[i] = keyColumns.get(i).values(batch, resources, context);
             }
-            ArrayList<Object> keyValues = getKeyValues(sourceValues, resources, context);
-            if (!aggregatedValues.containsKey(keyValues)) {
-              Aggregator<?, ?>[] aggrValues = new Aggregator[aggrColumns.size()];
-              int i = 0;
-              for (AggrColumn column : aggrColumns) {
-                aggrValues[i++] = column.getFunction().create();
-              }
-              aggregatedValues.put(keyValues, aggrValues);
-            }
-            Aggregator<?, ?>[] aggrValues = aggregatedValues.get(keyValues);
-            int i = 0;
-            for (AggrColumn column : aggrColumns) {
-              aggrValues[i++].add(column.getInnerValue(sourceValues, resources, context));
-            }
-          }
-          final Iterator<Entry<ArrayList<Object>, Aggregator<?, ?>[]>> innerIterator = aggregatedValues.entrySet()
-              .iterator();
-          iterator = new Iterator<Object[]>() {
-
-            @Override
-            public boolean hasNext() {
-              return innerIterator.hasNext();
+            for (int i = 0; i < values.length; i++) {
+              valueVectors[i] = aggrColumns.get(i).getInnerValues(batch, resources, context);
             }
-
-            @Override
-            public Object[] next() {
-              Object[] result = new Object[size()];
-              Entry<ArrayList<Object>, Aggregator<?, ?>[]> item = innerIterator.next();
-              Object[] keys = item.getKey().toArray();
-              System.arraycopy(keys, 0, result, 0, keys.length);
-              for (int i = 0; i < item.getValue().length; i++) {
-                result[keys.length + i] = item.getValue()[i].finish();
+            for (int row = 0; row < batch.size(); row++) {
+              for (int i = 0; i < key.length; i++) {
+                key[i] = keyVectors[i].get(row);
               }
-              return result;
+              for (int i = 0; i < values.length; i++) {
+                values[i] = valueVectors[i].get(row);
+              }
+              hashAggregation.add(key, values);
             }
-          };
+          }
           aggregated = true;
         }
+
+        @Override
+        public void close() throws IOException {
+          super.close();
+          if (hashAggregation != null) {
+            hashAggregation.close();
+          }
+        }
       };
     }
   }
@@ -210,6 +219,8 @@ public abstract class AggrTables extends IterableTableMeta {
     public IterableTableReader reader(Resources resources, TableContext context) throws IOException {
       return new AggrTableReader(sourceTable.reader(resources, context)) {
 
+        private HashAggregation hashAggregation;
+
         @Override
         public Object[] next() throws IOException {
           if (!aggregated) {
@@ -226,29 +237,40 @@ public abstract class AggrTables extends IterableTableMeta {
         }
 
         protected void aggregate() throws IOException {
-          Aggregator<?, ?>[] aggrValues = new Aggregator[size()];
-          int i = 1;
-          for (AggrColumn column : aggrColumns) {
-            aggrValues[i++] = column.getFunction().create();
-          }
-          while (!cancelled.get()) {
-            Object[] sourceValues = sourceReader.next();
-            if (sourceValues == null) {
-              break;
+          hashAggregation = hashAggregation(ImmutableList.of(), resources, cancelled);
+          Object[] key = new Object[0];
+          Object[] values = new Object[aggrColumns.size()];
+          ColumnVector[] valueVectors = new ColumnVector[values.length];
+          RowBatch batch;
+          while (!cancelled.get() && (batch = sourceReader.nextBatch()) != null) {
+            for (int i = 0; i < values.length; i++) {
+              valueVectors[i] = aggrColumns.get(i).getInnerValues(batch, resources, context);
             }
-            i = 1;
-            for (AggrColumn column : aggrColumns) {
-              aggrValues[i++].add(column.getInnerValue(sourceValues, resources, context));
+            for (int row = 0; row < batch.size(); row++) {
+              for (int i = 0; i < values.length; i++) {
+                values[i] = valueVectors[i].get(row);
+              }
+              hashAggregation.add(key, values);
             }
           }
+          Object[] aggrValues = hashAggregation.next();
           Object[] result = new Object[size()];
           for (int j = 0; j < aggrColumns.size(); j++) {
-            result[j + 1] = aggrValues[j + 1].finish();
+            // Aggregators without any values if the table is empty.
+            result[j + 1] = aggrValues == null ? aggrColumns.get(j).getFunction().create().finish() : aggrValues[j];
           }
 
           iterator = ImmutableList.of(result).iterator();
           aggregated = true;
         }
+
+        @Override
+        public void close() throws IOException {
+          super.close();
+          if (hashAggregation != null) {
+            hashAggregation.close();
+          }
+        }
       };
     }
   }
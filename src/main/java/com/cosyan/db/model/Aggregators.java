@@ -15,8 +15,13 @@
  */
 package com.cosyan.db.model;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
 
 import com.cosyan.db.doc.FunctionDocumentation.Func;
 import com.cosyan.db.doc.FunctionDocumentation.FuncCat;
@@ -24,10 +29,27 @@ import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.BuiltinFunctions.AggrFunction;
 import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
 import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import net.agkn.hll.HLL;
 
 @FuncCat(name = "aggr", doc = "General aggregators")
 public class Aggregators {
 
+  // Estimated memory of a collection entry and of a boxed value or string.
+  static final int ENTRY_OVERHEAD = 48;
+  static final int VALUE_OVERHEAD = 16;
+  static final int STRING_OVERHEAD = 40;
+
+  static long valueSize(Object x) {
+    if (x instanceof String) {
+      return STRING_OVERHEAD + 2L * ((String) x).length();
+    } else {
+      return VALUE_OVERHEAD;
+    }
+  }
+
   public static abstract class Aggregator<T, U> {
 
     @SuppressWarnings("unchecked")
@@ -39,6 +61,13 @@ public class Aggregators {
 
     public abstract void addImpl(U x);
 
+    /**
+     * Merges the state of an other aggregator of the same function into this
+     * one, as if the values of the other aggregator were added after the values
+     * of this one.
+     */
+    public abstract void merge(Aggregator<?, ?> other);
+
     public Object finish() {
       if (isNull()) {
         return null;
@@ -50,6 +79,412 @@ public class Aggregators {
     public abstract T finishImpl();
 
     public abstract boolean isNull();
+
+    /**
+     * The estimated memory used by the state beyond the fixed size of the
+     * aggregator, aggregators with a state growing with the values override it.
+     */
+    public long size() {
+      return 0L;
+    }
+  }
+
+  /**
+   * Aggregates the values of many groups at once. The state of the groups is
+   * stored in arrays indexed by the group id instead of one object per group.
+   */
+  public static abstract class GroupAggregator {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    protected int capacity = 0;
+
+    /**
+     * Adds the value to the group, <code>null</code> values are ignored.
+     */
+    public void add(int group, Object x) {
+      ensureCapacity(group);
+      if (x != null) {
+        addImpl(group, x);
+      }
+    }
+
+    /**
+     * Merges the state of a group of an other aggregator of the same function
+     * into the group of this one.
+     */
+    public void merge(int group, GroupAggregator other, int otherGroup) {
+      ensureCapacity(group);
+      if (otherGroup < other.capacity) {
+        mergeImpl(group, other, otherGroup);
+      }
+    }
+
+    private void ensureCapacity(int group) {
+      if (group >= capacity) {
+        capacity = Math.max(INITIAL_CAPACITY, Math.max(group + 1, capacity * 2));
+        grow(capacity);
+      }
+    }
+
+    protected abstract void grow(int capacity);
+
+    protected abstract void addImpl(int group, Object x);
+
+    protected abstract void mergeImpl(int group, GroupAggregator other, int otherGroup);
+
+    public abstract Object finish(int group);
+
+    /**
+     * The estimated memory used by the state of all the groups beyond the fixed
+     * size per group, aggregators with a state growing with the values override
+     * it.
+     */
+    public long size() {
+      return 0L;
+    }
+  }
+
+  /**
+   * Keeps one {@link Aggregator} per group, used by aggregators without a
+   * specialized implementation.
+   */
+  public static class ObjectGroupAggregator extends GroupAggregator {
+
+    private final TypedAggrFunction<?> function;
+    private Aggregator<?, ?>[] aggregators = new Aggregator[0];
+    private long size = 0L;
+
+    public ObjectGroupAggregator(TypedAggrFunction<?> function) {
+      this.function = function;
+    }
+
+    @Override
+    protected void grow(int capacity) {
+      aggregators = Arrays.copyOf(aggregators, capacity);
+    }
+
+    @Override
+    protected void addImpl(int group, Object x) {
+      aggregator(group).add(x);
+      size += aggregators[group].size();
+    }
+
+    /**
+     * Returns the aggregator of the group, its size is removed from the size of
+     * the state until the caller adds it back.
+     */
+    private Aggregator<?, ?> aggregator(int group) {
+      if (aggregators[group] == null) {
+        aggregators[group] = function.create();
+      } else {
+        size -= aggregators[group].size();
+      }
+      return aggregators[group];
+    }
+
+    @Override
+    protected void mergeImpl(int group, GroupAggregator other, int otherGroup) {
+      Aggregator<?, ?> otherAggregator = ((ObjectGroupAggregator) other).aggregators[otherGroup];
+      if (otherAggregator == null) {
+        return;
+      }
+      aggregator(group).merge(otherAggregator);
+      size += aggregators[group].size();
+    }
+
+    @Override
+    public Object finish(int group) {
+      if (group >= capacity || aggregators[group] == null) {
+        return function.create().finish();
+      }
+      return aggregators[group].finish();
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+  }
+
+  public static class CountGroupAggregator extends GroupAggregator {
+
+    private long[] counts = new long[0];
+
+    @Override
+    protected void grow(int capacity) {
+      counts = Arrays.copyOf(counts, capacity);
+    }
+
+    @Override
+    protected void addImpl(int group, Object x) {
+      counts[group]++;
+    }
+
+    @Override
+    protected void mergeImpl(int group, GroupAggregator other, int otherGroup) {
+      counts[group] += ((CountGroupAggregator) other).counts[otherGroup];
+    }
+
+    @Override
+    public Object finish(int group) {
+      return group < capacity ? counts[group] : 0L;
+    }
+  }
+
+  /**
+   * Combines integer values with an operator, the result is <code>null</code>
+   * for groups without values.
+   */
+  public static class LongGroupAggregator extends GroupAggregator {
+
+    private final LongBinaryOperator operator;
+    private long[] values = new long[0];
+    private boolean[] present = new boolean[0];
+
+    public LongGroupAggregator(LongBinaryOperator operator) {
+      this.operator = operator;
+    }
+
+    @Override
+    protected void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+      present = Arrays.copyOf(present, capacity);
+    }
+
+    @Override
+    protected void addImpl(int group, Object x) {
+      addValue(group, (Long) x);
+    }
+
+    private void addValue(int group, long value) {
+      if (present[group]) {
+        values[group] = operator.applyAsLong(values[group], value);
+      } else {
+        values[group] = value;
+        present[group] = true;
+      }
+    }
+
+    @Override
+    protected void mergeImpl(int group, GroupAggregator other, int otherGroup) {
+      LongGroupAggregator otherAggregator = (LongGroupAggregator) other;
+      if (otherAggregator.present[otherGroup]) {
+        addValue(group, otherAggregator.values[otherGroup]);
+      }
+    }
+
+    @Override
+    public Object finish(int group) {
+      return group < capacity && present[group] ? values[group] : null;
+    }
+  }
+
+  /**
+   * Combines float values with an operator, the result is <code>null</code>
+   * for groups without values.
+   */
+  public static class DoubleGroupAggregator extends GroupAggregator {
+
+    private final DoubleBinaryOperator operator;
+    private double[] values = new double[0];
+    private boolean[] present = new boolean[0];
+
+    public DoubleGroupAggregator(DoubleBinaryOperator operator) {
+      this.operator = operator;
+    }
+
+    @Override
+    protected void grow(int capacity) {
+      values = Arrays.copyOf(values, capacity);
+      present = Arrays.copyOf(present, capacity);
+    }
+
+    @Override
+    protected void addImpl(int group, Object x) {
+      addValue(group, (Double) x);
+    }
+
+    private void addValue(int group, double value) {
+      if (present[group]) {
+        values[group] = operator.applyAsDouble(values[group], value);
+      } else {
+        values[group] = value;
+        present[group] = true;
+      }
+    }
+
+    @Override
+    protected void mergeImpl(int group, GroupAggregator other, int otherGroup) {
+      DoubleGroupAggregator otherAggregator = (DoubleGroupAggregator) other;
+      if (otherAggregator.present[otherGroup]) {
+        addValue(group, otherAggregator.values[otherGroup]);
+      }
+    }
+
+    @Override
+    public Object finish(int group) {
+      return group < capacity && present[group] ? values[group] : null;
+    }
+  }
+
+  public static class CountAggregator extends Aggregator<Long, Object> {
+
+    private long count = 0L;
+
+    @Override
+    public void addImpl(Object x) {
+      count++;
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      count += ((CountAggregator) other).count;
+    }
+
+    @Override
+    public Long finishImpl() {
+      return count;
+    }
+
+    @Override
+    public boolean isNull() {
+      return false;
+    }
+  }
+
+  public static class CountDistinctAggregator extends Aggregator<Long, Object> {
+
+    private HashSet<Object> set = new HashSet<>();
+    private long size = 0L;
+
+    @Override
+    public void addImpl(Object x) {
+      if (set.add(x)) {
+        size += ENTRY_OVERHEAD + valueSize(x);
+      }
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      for (Object x : ((CountDistinctAggregator) other).set) {
+        addImpl(x);
+      }
+    }
+
+    @Override
+    public Long finishImpl() {
+      return (long) set.size();
+    }
+
+    @Override
+    public boolean isNull() {
+      return false;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+  }
+
+  /**
+   * Estimates the number of distinct values with a HyperLogLog sketch of fixed
+   * size.
+   */
+  public static class HllAggregator extends Aggregator<Long, Object> {
+
+    private static final int LOG2M = 14;
+    private static final int REGWIDTH = 5;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    // The sparse representation is charged as much as the full registers.
+    private static final int FULL_SIZE = (1 << LOG2M) * REGWIDTH / 8;
+
+    private final HLL hll = new HLL(LOG2M, REGWIDTH);
+
+    private static long hash(Object x) {
+      if (x instanceof Long) {
+        return HASH.hashLong((Long) x).asLong();
+      } else if (x instanceof Double) {
+        return HASH.hashLong(Double.doubleToLongBits((Double) x)).asLong();
+      } else if (x instanceof Date) {
+        return HASH.hashLong(((Date) x).getTime()).asLong();
+      } else {
+        return HASH.hashUnencodedChars(x.toString()).asLong();
+      }
+    }
+
+    @Override
+    public void addImpl(Object x) {
+      hll.addRaw(hash(x));
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      hll.union(((HllAggregator) other).hll);
+    }
+
+    @Override
+    public Long finishImpl() {
+      return hll.cardinality();
+    }
+
+    @Override
+    public boolean isNull() {
+      return false;
+    }
+
+    @Override
+    public long size() {
+      switch (hll.getType()) {
+      case EMPTY:
+        return 0L;
+      case EXPLICIT:
+        // The cardinality of the explicit representation is the size of the set.
+        return hll.cardinality() * ENTRY_OVERHEAD;
+      default:
+        return FULL_SIZE;
+      }
+    }
+  }
+
+  /**
+   * Combines the values with an operator, the result is <code>null</code> if
+   * there are no values.
+   */
+  public static class ReduceAggregator<T> extends Aggregator<T, T> {
+
+    private final BinaryOperator<T> operator;
+    private T value = null;
+
+    public ReduceAggregator(BinaryOperator<T> operator) {
+      this.operator = operator;
+    }
+
+    @Override
+    public void addImpl(T x) {
+      if (value == null) {
+        value = x;
+      } else {
+        value = operator.apply(value, x);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      add(((ReduceAggregator<T>) other).value);
+    }
+
+    @Override
+    public T finishImpl() {
+      return value;
+    }
+
+    @Override
+    public boolean isNull() {
+      return value == null;
+    }
   }
 
   @Func(doc = "Counts the non `null` elements.")
@@ -63,26 +498,13 @@ public class Aggregators {
       return new TypedAggrFunction<Long>(name, DataTypes.LongType) {
 
         @Override
-        public Aggregator<Long, Object> create() {
-          return new Aggregator<Long, Object>() {
-
-            private long sum = 0L;
-
-            @Override
-            public void addImpl(Object x) {
-              sum++;
-            }
-
-            @Override
-            public Long finishImpl() {
-              return sum;
-            }
+        public GroupAggregator createGroupAggregator() {
+          return new CountGroupAggregator();
+        }
 
-            @Override
-            public boolean isNull() {
-              return false;
-            }
-          };
+        @Override
+        public Aggregator<Long, Object> create() {
+          return new CountAggregator();
         }
       };
     }
@@ -100,25 +522,25 @@ public class Aggregators {
 
         @Override
         public Aggregator<Long, Object> create() {
-          return new Aggregator<Long, Object>() {
-
-            private HashSet<Object> set = new HashSet<>();
+          return new CountDistinctAggregator();
+        }
+      };
+    }
+  }
 
-            @Override
-            public void addImpl(Object x) {
-              set.add(x);
-            }
+  @Func(doc = "Estimates the number of distinct non `null` elements with a HyperLogLog sketch, the error is about 1%.")
+  public static class ApproxCountDistinct extends AggrFunction {
+    public ApproxCountDistinct() {
+      super("approx_count_distinct");
+    }
 
-            @Override
-            public Long finishImpl() {
-              return (long) set.size();
-            }
+    @Override
+    public TypedAggrFunction<?> compile(Ident ident, DataType<?> argType) throws ModelException {
+      return new TypedAggrFunction<Long>(name, DataTypes.LongType) {
 
-            @Override
-            public boolean isNull() {
-              return false;
-            }
-          };
+        @Override
+        public Aggregator<Long, Object> create() {
+          return new HllAggregator();
         }
       };
     }
@@ -135,61 +557,27 @@ public class Aggregators {
       if (argType.isDouble()) {
         return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
 
+          @Override
+          public GroupAggregator createGroupAggregator() {
+            return new DoubleGroupAggregator(Math::max);
+          }
+
           @Override
           public Aggregator<Double, Double> create() {
-            return new Aggregator<Double, Double>() {
-
-              private Double max = null;
-
-              @Override
-              public void addImpl(Double x) {
-                if (max == null) {
-                  max = x;
-                } else {
-                  max = Math.max(max, x);
-                }
-              }
-
-              @Override
-              public Double finishImpl() {
-                return max;
-              }
-
-              @Override
-              public boolean isNull() {
-                return max == null;
-              }
-            };
+            return new ReduceAggregator<Double>(Math::max);
           }
         };
       } else if (argType.isLong()) {
         return new TypedAggrFunction<Long>(name, DataTypes.LongType) {
 
+          @Override
+          public GroupAggregator createGroupAggregator() {
+            return new LongGroupAggregator(Math::max);
+          }
+
           @Override
           public Aggregator<Long, Long> create() {
-            return new Aggregator<Long, Long>() {
-
-              private Long max = null;
-
-              @Override
-              public void addImpl(Long x) {
-                if (max == null) {
-                  max = x;
-                } else {
-                  max = Math.max(max, x);
-                }
-              }
-
-              @Override
-              public Long finishImpl() {
-                return max;
-              }
-
-              @Override
-              public boolean isNull() {
-                return max == null;
-              }
-            };
+            return new ReduceAggregator<Long>(Math::max);
           }
         };
       } else if (argType.isString()) {
@@ -197,29 +585,7 @@ public class Aggregators {
 
           @Override
           public Aggregator<String, String> create() {
-            return new Aggregator<String, String>() {
-
-              private String max = null;
-
-              @Override
-              public void addImpl(String x) {
-                if (max == null) {
-                  max = x;
-                } else {
-                  max = max.compareTo(x) < 0 ? x : max;
-                }
-              }
-
-              @Override
-              public String finishImpl() {
-                return max;
-              }
-
-              @Override
-              public boolean isNull() {
-                return max == null;
-              }
-            };
+            return new ReduceAggregator<String>(BinaryOperator.maxBy(Comparator.naturalOrder()));
           }
         };
       } else if (argType.isDate()) {
@@ -227,29 +593,7 @@ public class Aggregators {
 
           @Override
           public Aggregator<Date, Date> create() {
-            return new Aggregator<Date, Date>() {
-
-              private Date max = null;
-
-              @Override
-              public void addImpl(Date x) {
-                if (max == null) {
-                  max = x;
-                } else {
-                  max = max.compareTo(x) < 0 ? x : max;
-                }
-              }
-
-              @Override
-              public Date finishImpl() {
-                return max;
-              }
-
-              @Override
-              public boolean isNull() {
-                return max == null;
-              }
-            };
+            return new ReduceAggregator<Date>(BinaryOperator.maxBy(Comparator.naturalOrder()));
           }
         };
       } else {
@@ -269,61 +613,27 @@ public class Aggregators {
       if (argType.isDouble()) {
         return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
 
+          @Override
+          public GroupAggregator createGroupAggregator() {
+            return new DoubleGroupAggregator(Math::min);
+          }
+
           @Override
           public Aggregator<Double, Double> create() {
-            return new Aggregator<Double, Double>() {
-
-              private Double min = null;
-
-              @Override
-              public void addImpl(Double x) {
-                if (min == null) {
-                  min = x;
-                } else {
-                  min = Math.min(min, x);
-                }
-              }
-
-              @Override
-              public Double finishImpl() {
-                return min;
-              }
-
-              @Override
-              public boolean isNull() {
-                return min == null;
-              }
-            };
+            return new ReduceAggregator<Double>(Math::min);
           }
         };
       } else if (argType.isLong()) {
         return new TypedAggrFunction<Long>(name, DataTypes.LongType) {
 
+          @Override
+          public GroupAggregator createGroupAggregator() {
+            return new LongGroupAggregator(Math::min);
+          }
+
           @Override
           public Aggregator<Long, Long> create() {
-            return new Aggregator<Long, Long>() {
-
-              private Long min = null;
-
-              @Override
-              public void addImpl(Long x) {
-                if (min == null) {
-                  min = x;
-                } else {
-                  min = Math.min(min, x);
-                }
-              }
-
-              @Override
-              public Long finishImpl() {
-                return min;
-              }
-
-              @Override
-              public boolean isNull() {
-                return min == null;
-              }
-            };
+            return new ReduceAggregator<Long>(Math::min);
           }
         };
       } else if (argType.isString()) {
@@ -331,29 +641,7 @@ public class Aggregators {
 
           @Override
           public Aggregator<String, String> create() {
-            return new Aggregator<String, String>() {
-
-              private String min = null;
-
-              @Override
-              public void addImpl(String x) {
-                if (min == null) {
-                  min = x;
-                } else {
-                  min = min.compareTo(x) > 0 ? x : min;
-                }
-              }
-
-              @Override
-              public String finishImpl() {
-                return min;
-              }
-
-              @Override
-              public boolean isNull() {
-                return min == null;
-              }
-            };
+            return new ReduceAggregator<String>(BinaryOperator.minBy(Comparator.naturalOrder()));
           }
         };
       } else if (argType.isDate()) {
@@ -361,29 +649,7 @@ public class Aggregators {
 
           @Override
           public Aggregator<Date, Date> create() {
-            return new Aggregator<Date, Date>() {
-
-              private Date min = null;
-
-              @Override
-              public void addImpl(Date x) {
-                if (min == null) {
-                  min = x;
-                } else {
-                  min = min.compareTo(x) > 0 ? x : min;
-                }
-              }
-
-              @Override
-              public Date finishImpl() {
-                return min;
-              }
-
-              @Override
-              public boolean isNull() {
-                return min == null;
-              }
-            };
+            return new ReduceAggregator<Date>(BinaryOperator.minBy(Comparator.naturalOrder()));
           }
         };
       } else {
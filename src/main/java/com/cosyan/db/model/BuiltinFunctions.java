@@ -20,6 +20,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.Aggregators.Aggregator;
+import com.cosyan.db.model.Aggregators.GroupAggregator;
+import com.cosyan.db.model.Aggregators.ObjectGroupAggregator;
 import com.cosyan.db.model.DataTypes.DataType;
 import com.cosyan.db.model.DateFunctions.AddDays;
 import com.cosyan.db.model.DateFunctions.AddHours;
@@ -106,6 +108,138 @@ public class BuiltinFunctions {
     }
 
     public abstract Object call(ImmutableList<Object> argValues);
+
+    /**
+     * Calls the function with one argument. Functions of one argument override
+     * this to avoid collecting the argument into a list.
+     */
+    public Object call1(Object self) {
+      return call(ImmutableList.of(self));
+    }
+
+    public Object call2(Object self, Object arg1) {
+      return call(ImmutableList.of(self, arg1));
+    }
+
+    public Object call3(Object self, Object arg1, Object arg2) {
+      return call(ImmutableList.of(self, arg1, arg2));
+    }
+
+    /**
+     * Whether the function always returns the same value for the same
+     * arguments. Calls of deterministic functions with constant arguments are
+     * computed at compile time.
+     */
+    public boolean isDeterministic() {
+      return true;
+    }
+
+    /**
+     * Returns the function to call when some of the arguments are constants,
+     * e.g. with a precomputed state derived from them. The array holds the
+     * values of the constant arguments and <code>null</code> for the others.
+     */
+    public SimpleFunction<T> specialize(Object[] constants) {
+      return this;
+    }
+  }
+
+  public static abstract class SimpleFunction1<T> extends SimpleFunction<T> {
+
+    public SimpleFunction1(String ident, DataType<T> returnType, ImmutableMap<String, DataType<?>> argTypes) {
+      super(ident, returnType, argTypes);
+    }
+
+    @Override
+    public abstract T call1(Object self);
+
+    @Override
+    public T call(ImmutableList<Object> argValues) {
+      return call1(argValues.get(0));
+    }
+  }
+
+  public static abstract class SimpleFunction2<T> extends SimpleFunction<T> {
+
+    public SimpleFunction2(String ident, DataType<T> returnType, ImmutableMap<String, DataType<?>> argTypes) {
+      super(ident, returnType, argTypes);
+    }
+
+    @Override
+    public abstract T call2(Object self, Object arg1);
+
+    @Override
+    public T call(ImmutableList<Object> argValues) {
+      return call2(argValues.get(0), argValues.get(1));
+    }
+  }
+
+  public static abstract class SimpleFunction3<T> extends SimpleFunction<T> {
+
+    public SimpleFunction3(String ident, DataType<T> returnType, ImmutableMap<String, DataType<?>> argTypes) {
+      super(ident, returnType, argTypes);
+    }
+
+    @Override
+    public abstract T call3(Object self, Object arg1, Object arg2);
+
+    @Override
+    public T call(ImmutableList<Object> argValues) {
+      return call3(argValues.get(0), argValues.get(1), argValues.get(2));
+    }
+  }
+
+  /**
+   * Functions of float arguments computed on primitives. Integer arguments are
+   * accepted without converting them to boxed floats first.
+   */
+  public static interface DoubleArgs {
+  }
+
+  private static double toDouble(Object value) {
+    return value instanceof Long ? (Long) value : (Double) value;
+  }
+
+  public static abstract class DoubleFunction1 extends SimpleFunction1<Double> implements DoubleArgs {
+
+    public DoubleFunction1(String ident) {
+      super(ident, DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+    }
+
+    public abstract double callDouble(double self);
+
+    @Override
+    public Double call1(Object self) {
+      return callDouble(toDouble(self));
+    }
+  }
+
+  public static abstract class DoubleToLongFunction1 extends SimpleFunction1<Long> implements DoubleArgs {
+
+    public DoubleToLongFunction1(String ident) {
+      super(ident, DataTypes.LongType, ImmutableMap.of("self", DataTypes.DoubleType));
+    }
+
+    public abstract long callLong(double self);
+
+    @Override
+    public Long call1(Object self) {
+      return callLong(toDouble(self));
+    }
+  }
+
+  public static abstract class DoubleFunction2 extends SimpleFunction2<Double> implements DoubleArgs {
+
+    public DoubleFunction2(String ident, String arg1) {
+      super(ident, DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType, arg1, DataTypes.DoubleType));
+    }
+
+    public abstract double callDouble(double self, double arg1);
+
+    @Override
+    public Double call2(Object self, Object arg1) {
+      return callDouble(toDouble(self), toDouble(arg1));
+    }
   }
 
   @Data
@@ -120,6 +254,13 @@ public class BuiltinFunctions {
     }
 
     public abstract Aggregator<T, ?> create();
+
+    /**
+     * Creates an aggregator computing the values of many groups at once.
+     */
+    public GroupAggregator createGroupAggregator() {
+      return new ObjectGroupAggregator(this);
+    }
   }
 
   @Data
@@ -133,6 +274,21 @@ public class BuiltinFunctions {
     }
 
     public abstract TypedAggrFunction<?> compile(Ident ident, DataType<?> argType) throws ModelException;
+
+    /**
+     * The names of the constant parameters following the aggregated argument.
+     */
+    public ImmutableList<String> params() {
+      return ImmutableList.of();
+    }
+
+    public TypedAggrFunction<?> compile(Ident ident, DataType<?> argType, ImmutableList<Object> params)
+        throws ModelException {
+      if (!params.isEmpty()) {
+        throw new ModelException("Invalid number of arguments for aggregator: " + (params.size() + 1) + ".", ident);
+      }
+      return compile(ident, argType);
+    }
   }
 
   public static final ImmutableList<AggrFunction> AGGREGATIONS = ImmutableList.<AggrFunction>builder()
@@ -144,6 +300,9 @@ public class BuiltinFunctions {
       .add(new StatAggregators.Skewness())
       .add(new StatAggregators.Kurtosis())
       .add(new Aggregators.CountDistinct())
+      .add(new Aggregators.ApproxCountDistinct())
+      .add(new StatAggregators.ApproxPercentile())
+      .add(new StatAggregators.ApproxMedian())
       .add(new Aggregators.Max())
       .add(new Aggregators.Min())
       .add(new ListAggregator())
@@ -234,10 +393,15 @@ public class BuiltinFunctions {
   }
 
   public static TypedAggrFunction<?> aggrFunction(Ident ident, DataType<?> argType) throws ModelException {
+    return aggrFunction(ident, argType, ImmutableList.of());
+  }
+
+  public static TypedAggrFunction<?> aggrFunction(Ident ident, DataType<?> argType, ImmutableList<Object> params)
+      throws ModelException {
     String name = ident.getString();
     if (!aggrFunctions.containsKey(name)) {
       throw new ModelException("Function " + name + " does not exist.", ident);
     }
-    return aggrFunctions.get(name).compile(ident, argType);
+    return aggrFunctions.get(name).compile(ident, argType, params);
   }
 }
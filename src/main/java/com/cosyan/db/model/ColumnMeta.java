@@ -17,9 +17,12 @@ package com.cosyan.db.model;
 
 import java.io.IOException;
 
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
 import com.cosyan.db.meta.Dependencies.TableDependencies;
 import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
 import com.cosyan.db.model.DataTypes.DataType;
+import com.cosyan.db.model.TableMeta.IterableTableMeta;
 import com.cosyan.db.transaction.MetaResources;
 import com.cosyan.db.transaction.Resources;
 
@@ -34,6 +37,18 @@ public abstract class ColumnMeta implements CompiledObject {
 
   public abstract String print(Object[] values, Resources resources, TableContext context) throws IOException;
 
+  /**
+   * Evaluates the column on every row of the batch. By default the rows are
+   * evaluated one by one.
+   */
+  public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+    ColumnVector result = ColumnVector.of(type, batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      result.set(i, value(batch.row(i), resources, context));
+    }
+    return result;
+  }
+
   public abstract TableDependencies tableDependencies();
 
   public abstract MetaResources readResources();
@@ -64,6 +79,15 @@ public abstract class ColumnMeta implements CompiledObject {
       return String.valueOf(sourceTable.values(values, resources, context)[index]);
     }
 
+    @Override
+    public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      if (sourceTable instanceof IterableTableMeta) {
+        // The values of iterable tables are the rows themselves.
+        return batch.column(index);
+      }
+      return super.values(batch, resources, context);
+    }
+
     @Override
     public MetaResources readResources() {
       return sourceTable.readResources();
@@ -78,6 +102,10 @@ public abstract class ColumnMeta implements CompiledObject {
       return index;
     }
 
+    public TableMeta sourceTable() {
+      return sourceTable;
+    }
+
     public IndexColumn shift(TableMeta sourceTable, int shift) {
       return new IndexColumn(sourceTable, index + shift, type, tableDependencies);
     }
@@ -137,8 +165,12 @@ public abstract class ColumnMeta implements CompiledObject {
       return String.valueOf(sourceTable.values(values, resources, context)[index]);
     }
 
-    public Object getInnerValue(Object[] values, Resources resources, TableContext context) throws IOException {
-      return baseColumn.value(values, resources, context);
+    public ColumnVector getInnerValues(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      return baseColumn.values(batch, resources, context);
+    }
+
+    public DataType<?> getInnerType() {
+      return baseColumn.getType();
     }
 
     public TypedAggrFunction<?> getFunction() {
@@ -185,6 +217,14 @@ public abstract class ColumnMeta implements CompiledObject {
       return baseColumn.readResources();
     }
 
+    public ColumnMeta baseColumn() {
+      return baseColumn;
+    }
+
+    public boolean isAsc() {
+      return asc;
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public int compare(Object x, Object y) {
       return asc ? ((Comparable) x).compareTo(y) : ((Comparable) y).compareTo(x);
@@ -196,6 +236,83 @@ public abstract class ColumnMeta implements CompiledObject {
     }
   }
 
+  /**
+   * A column used at multiple places of a statement. Once shared, the value is
+   * computed only once per row: the last row and value are kept and reused as
+   * long as the same row is evaluated.
+   */
+  public static class SharedColumn extends ColumnMeta {
+
+    private static class LastValue {
+      private final Object[] values;
+      private final TableContext context;
+      private final Object value;
+
+      private LastValue(Object[] values, TableContext context, Object value) {
+        this.values = values;
+        this.context = context;
+        this.value = value;
+      }
+    }
+
+    private final ColumnMeta column;
+    private volatile boolean shared = false;
+    // Replaced as a whole, so concurrent readers always see a consistent row and value.
+    private volatile LastValue lastValue;
+
+    public SharedColumn(ColumnMeta column) {
+      super(column.getType());
+      this.column = column;
+    }
+
+    public ColumnMeta column() {
+      return column;
+    }
+
+    public boolean isShared() {
+      return shared;
+    }
+
+    public SharedColumn share() {
+      shared = true;
+      return this;
+    }
+
+    @Override
+    public Object value(Object[] values, Resources resources, TableContext context) throws IOException {
+      if (!shared) {
+        return column.value(values, resources, context);
+      }
+      LastValue last = lastValue;
+      if (last != null && last.values == values && last.context == context) {
+        return last.value;
+      }
+      Object value = column.value(values, resources, context);
+      lastValue = new LastValue(values, context, value);
+      return value;
+    }
+
+    @Override
+    public ColumnVector values(RowBatch batch, Resources resources, TableContext context) throws IOException {
+      return column.values(batch, resources, context);
+    }
+
+    @Override
+    public String print(Object[] values, Resources resources, TableContext context) throws IOException {
+      return column.print(values, resources, context);
+    }
+
+    @Override
+    public TableDependencies tableDependencies() {
+      return column.tableDependencies();
+    }
+
+    @Override
+    public MetaResources readResources() {
+      return column.readResources();
+    }
+  }
+
   public static final DerivedColumn TRUE_COLUMN = new DerivedColumn(DataTypes.BoolType) {
 
     @Override
@@ -20,7 +20,6 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -32,6 +31,7 @@ import org.json.JSONObject;
 
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.meta.MetaRepo.RuleException;
+import com.cosyan.db.model.DateFunctions.TimestampFormat;
 import com.google.common.collect.ImmutableMap;
 
 import lombok.Data;
@@ -280,7 +280,7 @@ public class DataTypes {
   }
 
   public static DataType<Date> dateType(String format) {
-    SimpleDateFormat sdf = new SimpleDateFormat(format);
+    TimestampFormat timestampFormat = DateFunctions.TimestampFormat.of(format);
     return new DataType<Date>("timestamp") {
       @Override
       public Class<Date> javaClass() {
@@ -305,7 +305,7 @@ public class DataTypes {
       @Override
       public Object fromString(String string) throws RuleException {
         try {
-          return sdf.parse(string);
+          return timestampFormat.parse(string);
         } catch (ParseException e) {
           throw new RuleException(String.format("Invalid timestamp '%s'.", string));
         }
@@ -320,7 +320,7 @@ public class DataTypes {
 
       @Override
       public String toString(Object obj) {
-        return sdf.format((Date) obj);
+        return timestampFormat.format((Date) obj);
       }
     };
   }
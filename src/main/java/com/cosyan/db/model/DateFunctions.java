@@ -16,20 +16,106 @@
 package com.cosyan.db.model;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.time.temporal.WeekFields;
+import java.time.zone.ZoneRules;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.cosyan.db.doc.FunctionDocumentation.Func;
 import com.cosyan.db.doc.FunctionDocumentation.FuncCat;
-import com.cosyan.db.model.BuiltinFunctions.SimpleFunction;
-import com.google.common.collect.ImmutableList;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction1;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction2;
 import com.google.common.collect.ImmutableMap;
 
 @FuncCat(name = "date", doc = "Date functions")
 public class DateFunctions {
 
-  public static final SimpleDateFormat sdf1 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-  public static final SimpleDateFormat sdf2 = new SimpleDateFormat("yyyy-MM-dd");
+  private static final long MILLIS_PER_SECOND = 1000L;
+  private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+  private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+  private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+  // Timestamps are interpreted in the default time zone of the JVM.
+  private static final ZoneId ZONE = ZoneId.systemDefault();
+  private static final WeekFields WEEK_FIELDS = WeekFields.of(Locale.getDefault(Locale.Category.FORMAT));
+  private static final LocalCalendar CALENDAR = new LocalCalendar(ZONE);
+
+  private static final ConcurrentHashMap<String, TimestampFormat> formats = new ConcurrentHashMap<>();
+
+  public static final TimestampFormat sdf1 = TimestampFormat.of("yyyy-MM-dd HH:mm:ss");
+  public static final TimestampFormat sdf2 = TimestampFormat.of("yyyy-MM-dd");
+
+  /**
+   * A thread safe timestamp format of a {@link java.text.SimpleDateFormat}
+   * pattern. Parsing is lenient and ignores trailing text, missing months and
+   * days default to the first, missing times of day to midnight.
+   */
+  public static class TimestampFormat {
+    private final DateTimeFormatter formatter;
+
+    private TimestampFormat(String pattern) {
+      DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder()
+          .parseCaseInsensitive()
+          .parseLenient();
+      if (!SimpleDatePattern.append(builder, pattern)) {
+        builder
+            .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+            .parseDefaulting(ChronoField.DAY_OF_MONTH, 1);
+      }
+      this.formatter = builder
+          .toFormatter()
+          .withResolverStyle(ResolverStyle.LENIENT)
+          .withZone(ZONE);
+    }
+
+    /**
+     * Returns the format of the pattern, formats are created once per pattern.
+     */
+    public static TimestampFormat of(String pattern) {
+      return formats.computeIfAbsent(pattern, TimestampFormat::new);
+    }
+
+    public long parseMillis(String string) throws ParseException {
+      TemporalAccessor parsed;
+      try {
+        parsed = formatter.parse(string, new ParsePosition(0));
+      } catch (DateTimeParseException e) {
+        throw new ParseException(e.getMessage(), e.getErrorIndex());
+      }
+      LocalDate date = parsed.query(TemporalQueries.localDate());
+      if (date == null) {
+        throw new ParseException(String.format("Incomplete date '%s'.", string), 0);
+      }
+      LocalTime time = parsed.query(TemporalQueries.localTime());
+      return date.atTime(time == null ? LocalTime.MIDNIGHT : time).atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    public java.util.Date parse(String string) throws ParseException {
+      return new java.util.Date(parseMillis(string));
+    }
+
+    public String format(long millis) {
+      return formatter.format(Instant.ofEpochMilli(millis));
+    }
+
+    public String format(java.util.Date date) {
+      return format(date.getTime());
+    }
+  }
 
   public static java.util.Date convert(Object arg) {
     if (arg == null) {
@@ -48,263 +134,356 @@ public class DateFunctions {
   }
 
   @Func(doc = "Converts self to a date.")
-  public static class Date extends SimpleFunction<java.util.Date> {
+  public static class Date extends SimpleFunction1<java.util.Date> {
 
     public Date() {
       super("date", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.StringType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      String arg = (String) argValues.get(0);
-      return convert(arg);
+    public java.util.Date call1(Object self) {
+      return convert(self);
     }
   }
 
-  private static Object add(ImmutableList<Object> argValues, int unit) {
-    Calendar cal = Calendar.getInstance();
-    cal.setTime((java.util.Date) argValues.get(0));
-    cal.add(unit, ((Long) argValues.get(1)).intValue());
-    return cal.getTime();
+  private static long millis(Object date) {
+    return ((java.util.Date) date).getTime();
   }
 
-  private static long get(ImmutableList<Object> argValues, int unit) {
-    Calendar cal = Calendar.getInstance();
-    cal.setTime((java.util.Date) argValues.get(0));
-    return (long) cal.get(unit);
+  /**
+   * Adds a fixed duration, independent of the time zone.
+   */
+  private static java.util.Date addMillis(Object date, Object n, long unitMillis) {
+    return new java.util.Date(millis(date) + (Long) n * unitMillis);
+  }
+
+  /**
+   * The fields of timestamps and the calendar arithmetic in a time zone. The
+   * functions use the default time zone of the JVM, other zones are used in
+   * tests.
+   */
+  static class LocalCalendar {
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private final boolean fixedOffset;
+
+    LocalCalendar(ZoneId zone) {
+      this.zone = zone;
+      this.rules = zone.getRules();
+      this.fixedOffset = rules.isFixedOffset();
+    }
+
+    private long offsetMillis(long millis) {
+      ZoneOffset offset = fixedOffset ? rules.getOffset(Instant.EPOCH) : rules.getOffset(Instant.ofEpochMilli(millis));
+      return offset.getTotalSeconds() * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * The number of days since 1970-01-01 in the local time zone.
+     */
+    long localDays(Object date) {
+      long millis = millis(date);
+      return Math.floorDiv(millis + offsetMillis(millis), MILLIS_PER_DAY);
+    }
+
+    long localMillisOfDay(Object date) {
+      long millis = millis(date);
+      return Math.floorMod(millis + offsetMillis(millis), MILLIS_PER_DAY);
+    }
+
+    LocalDate localDate(Object date) {
+      return LocalDate.ofEpochDay(localDays(date));
+    }
+
+    /**
+     * Adds calendar units keeping the local time of day. Local times falling
+     * into a daylight saving gap are shifted forward, ambiguous local times
+     * keep the original offset if possible.
+     */
+    java.util.Date addLocal(Object date, Object n, ChronoUnit unit) {
+      if (fixedOffset && unit == ChronoUnit.DAYS) {
+        return addMillis(date, n, MILLIS_PER_DAY);
+      } else if (fixedOffset && unit == ChronoUnit.WEEKS) {
+        return addMillis(date, n, 7 * MILLIS_PER_DAY);
+      }
+      return new java.util.Date(
+          Instant.ofEpochMilli(millis(date)).atZone(zone).plus((Long) n, unit).toInstant().toEpochMilli());
+    }
+
+    long year(Object date) {
+      return localDate(date).getYear();
+    }
+
+    long month(Object date) {
+      return localDate(date).getMonthValue();
+    }
+
+    long weekOfYear(Object date) {
+      return localDate(date).get(WEEK_FIELDS.weekOfWeekBasedYear());
+    }
+
+    long weekOfMonth(Object date) {
+      return localDate(date).get(WEEK_FIELDS.weekOfMonth());
+    }
+
+    long day(Object date) {
+      return localDate(date).getDayOfMonth();
+    }
+
+    long dayOfYear(Object date) {
+      return localDate(date).getDayOfYear();
+    }
+
+    long dayOfWeek(Object date) {
+      // Sunday is 1 and Saturday is 7, 1970-01-01 was a Thursday.
+      return Math.floorMod(localDays(date) + 4, 7) + 1;
+    }
+
+    long hour(Object date) {
+      // Hour of the half day, between 0 and 11.
+      return localMillisOfDay(date) / MILLIS_PER_HOUR % 12;
+    }
+
+    long minute(Object date) {
+      return localMillisOfDay(date) / MILLIS_PER_MINUTE % 60;
+    }
+
+    long second(Object date) {
+      return localMillisOfDay(date) / MILLIS_PER_SECOND % 60;
+    }
   }
 
   @Func(doc = "Adds n years to self.")
-  public static class AddYears extends SimpleFunction<java.util.Date> {
+  public static class AddYears extends SimpleFunction2<java.util.Date> {
 
     public AddYears() {
       super("add_years", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.YEAR);
+    public java.util.Date call2(Object self, Object n) {
+      return CALENDAR.addLocal(self, n, ChronoUnit.YEARS);
     }
   }
 
   @Func(doc = "Adds n months to self.")
-  public static class AddMonths extends SimpleFunction<java.util.Date> {
+  public static class AddMonths extends SimpleFunction2<java.util.Date> {
 
     public AddMonths() {
       super("add_months", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.MONTH);
+    public java.util.Date call2(Object self, Object n) {
+      return CALENDAR.addLocal(self, n, ChronoUnit.MONTHS);
     }
   }
 
   @Func(doc = "Adds n days to self.")
-  public static class AddDays extends SimpleFunction<java.util.Date> {
+  public static class AddDays extends SimpleFunction2<java.util.Date> {
 
     public AddDays() {
       super("add_days", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.DAY_OF_YEAR);
+    public java.util.Date call2(Object self, Object n) {
+      return CALENDAR.addLocal(self, n, ChronoUnit.DAYS);
     }
   }
 
   @Func(doc = "Adds n weeks to self.")
-  public static class AddWeeks extends SimpleFunction<java.util.Date> {
+  public static class AddWeeks extends SimpleFunction2<java.util.Date> {
 
     public AddWeeks() {
       super("add_weeks", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.WEEK_OF_YEAR);
+    public java.util.Date call2(Object self, Object n) {
+      return CALENDAR.addLocal(self, n, ChronoUnit.WEEKS);
     }
   }
 
   @Func(doc = "Adds n hours to self.")
-  public static class AddHours extends SimpleFunction<java.util.Date> {
+  public static class AddHours extends SimpleFunction2<java.util.Date> {
 
     public AddHours() {
       super("add_hours", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.HOUR);
+    public java.util.Date call2(Object self, Object n) {
+      return addMillis(self, n, MILLIS_PER_HOUR);
     }
   }
 
   @Func(doc = "Adds n minutes to self.")
-  public static class AddMinutes extends SimpleFunction<java.util.Date> {
+  public static class AddMinutes extends SimpleFunction2<java.util.Date> {
 
     public AddMinutes() {
       super("add_minutes", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.MINUTE);
+    public java.util.Date call2(Object self, Object n) {
+      return addMillis(self, n, MILLIS_PER_MINUTE);
     }
   }
 
   @Func(doc = "Adds n seconds to self.")
-  public static class AddSeconds extends SimpleFunction<java.util.Date> {
+  public static class AddSeconds extends SimpleFunction2<java.util.Date> {
 
     public AddSeconds() {
       super("add_seconds", DataTypes.dateType(), ImmutableMap.of("self", DataTypes.dateType(), "n", DataTypes.LongType));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return add(argValues, Calendar.SECOND);
+    public java.util.Date call2(Object self, Object n) {
+      return addMillis(self, n, MILLIS_PER_SECOND);
     }
   }
 
   @Func(doc = "Returns the year of self.")
-  public static class GetYear extends SimpleFunction<Long> {
+  public static class GetYear extends SimpleFunction1<Long> {
 
     public GetYear() {
       super("get_year", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.YEAR);
+    public Long call1(Object self) {
+      return CALENDAR.year(self);
     }
   }
 
   @Func(doc = "Returns the month of self.")
-  public static class GetMonth extends SimpleFunction<Long> {
+  public static class GetMonth extends SimpleFunction1<Long> {
 
     public GetMonth() {
       super("get_month", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.MONTH) + 1;
+    public Long call1(Object self) {
+      return CALENDAR.month(self);
     }
   }
 
   @Func(doc = "Returns the week of year of self.")
-  public static class GetWeekOfYear extends SimpleFunction<Long> {
+  public static class GetWeekOfYear extends SimpleFunction1<Long> {
 
     public GetWeekOfYear() {
       super("get_week_of_year", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.WEEK_OF_YEAR);
+    public Long call1(Object self) {
+      return CALENDAR.weekOfYear(self);
     }
   }
 
   @Func(doc = "Returns the week of month of self.")
-  public static class GetWeekOfMonth extends SimpleFunction<Long> {
+  public static class GetWeekOfMonth extends SimpleFunction1<Long> {
 
     public GetWeekOfMonth() {
       super("get_week_of_month", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.WEEK_OF_MONTH);
+    public Long call1(Object self) {
+      return CALENDAR.weekOfMonth(self);
     }
   }
 
   @Func(doc = "Returns the day of month of self.")
-  public static class GetDay extends SimpleFunction<Long> {
+  public static class GetDay extends SimpleFunction1<Long> {
 
     public GetDay() {
       super("get_day", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.DAY_OF_MONTH);
+    public Long call1(Object self) {
+      return CALENDAR.day(self);
     }
   }
 
   @Func(doc = "Returns the day of year of self.")
-  public static class GetDayOfYear extends SimpleFunction<Long> {
+  public static class GetDayOfYear extends SimpleFunction1<Long> {
 
     public GetDayOfYear() {
       super("get_day_of_year", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.DAY_OF_YEAR);
+    public Long call1(Object self) {
+      return CALENDAR.dayOfYear(self);
     }
   }
 
   @Func(doc = "Returns the day of month of self.")
-  public static class GetDayOfMonth extends SimpleFunction<Long> {
+  public static class GetDayOfMonth extends SimpleFunction1<Long> {
 
     public GetDayOfMonth() {
       super("get_day_of_month", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.DAY_OF_MONTH);
+    public Long call1(Object self) {
+      return CALENDAR.day(self);
     }
   }
 
   @Func(doc = "Returns the day of week of self.")
-  public static class GetDayOfWeek extends SimpleFunction<Long> {
+  public static class GetDayOfWeek extends SimpleFunction1<Long> {
 
     public GetDayOfWeek() {
       super("get_day_of_week", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.DAY_OF_WEEK);
+    public Long call1(Object self) {
+      return CALENDAR.dayOfWeek(self);
     }
   }
 
   @Func(doc = "Returns the hours of self.")
-  public static class GetHour extends SimpleFunction<Long> {
+  public static class GetHour extends SimpleFunction1<Long> {
 
     public GetHour() {
       super("get_hour", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.HOUR);
+    public Long call1(Object self) {
+      return CALENDAR.hour(self);
     }
   }
 
   @Func(doc = "Returns the minutes of self.")
-  public static class GetMinute extends SimpleFunction<Long> {
+  public static class GetMinute extends SimpleFunction1<Long> {
 
     public GetMinute() {
       super("get_minute", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.MINUTE);
+    public Long call1(Object self) {
+      return CALENDAR.minute(self);
     }
   }
 
   @Func(doc = "Returns the seconds of self.")
-  public static class GetSecond extends SimpleFunction<Long> {
+  public static class GetSecond extends SimpleFunction1<Long> {
 
     public GetSecond() {
       super("get_second", DataTypes.LongType, ImmutableMap.of("self", DataTypes.dateType()));
     }
 
     @Override
-    public Object call(ImmutableList<Object> argValues) {
-      return get(argValues, Calendar.SECOND);
+    public Long call1(Object self) {
+      return CALENDAR.second(self);
     }
   }
 }
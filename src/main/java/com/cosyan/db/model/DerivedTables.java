@@ -31,14 +31,15 @@
 package com.cosyan.db.model;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.TreeMap;
 
+import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
 import com.cosyan.db.io.Indexes.IndexReader;
+import com.cosyan.db.io.RowBatch;
+import com.cosyan.db.io.RowBatch.ColumnVector;
 import com.cosyan.db.io.TableReader.DerivedIterableTableReader;
 import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.io.TableReader.MultiFilteredTableReader;
@@ -49,6 +50,8 @@ import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.ColumnMeta.IndexColumn;
 import com.cosyan.db.model.ColumnMeta.OrderColumn;
 import com.cosyan.db.model.DataTypes.DataType;
+import com.cosyan.db.model.RowSorter.RowIterator;
+import com.cosyan.db.model.RowSorter.TopN;
 import com.cosyan.db.model.TableMeta.ExposedTableMeta;
 import com.cosyan.db.model.TableMeta.IterableTableMeta;
 import com.cosyan.db.transaction.MetaResources;
@@ -61,6 +64,12 @@ import lombok.EqualsAndHashCode;
 
 public class DerivedTables {
 
+  private static final int DEFAULT_SORT_MEMORY_MB = 256;
+  private static final int DEFAULT_DISTINCT_MEMORY_MB = 256;
+
+  // Larger limits are sorted with the external sort instead of a heap.
+  private static final int MAX_TOP_N = 100000;
+
   public static MetaResources resourcesFromColumns(Iterable<? extends ColumnMeta> columns) {
     MetaResources resources = MetaResources.empty();
     for (ColumnMeta columnMeta : columns) {
@@ -127,6 +136,20 @@ public class DerivedTables {
           }
           return values;
         }
+
+        @Override
+        public RowBatch nextBatch() throws IOException {
+          RowBatch sourceBatch = sourceReader.nextBatch();
+          if (sourceBatch == null) {
+            return null;
+          }
+          ColumnVector[] vectors = new ColumnVector[columns.size()];
+          int i = 0;
+          for (ColumnMeta column : columns.values()) {
+            vectors[i++] = column.values(sourceBatch, resources, context);
+          }
+          return new RowBatch(vectors, sourceBatch.size());
+        }
       };
     }
 
@@ -188,6 +211,18 @@ public class DerivedTables {
           } while (values == null && !cancelled.get());
           return values;
         }
+
+        @Override
+        public RowBatch nextBatch() throws IOException {
+          RowBatch batch;
+          while (!cancelled.get() && (batch = sourceReader.nextBatch()) != null) {
+            batch.filter(whereColumn.values(batch, resources, context));
+            if (batch.size() > 0) {
+              return batch;
+            }
+          }
+          return null;
+        }
       };
     }
 
@@ -302,10 +337,8 @@ public class DerivedTables {
   public static class SortedTableMeta extends ExposedTableMeta {
     private final ExposedTableMeta sourceTable;
     private final ImmutableList<OrderColumn> orderColumns;
-
-    private Object[] values;
-    private boolean sorted;
-    private Iterator<Object[]> iterator;
+    // The number of rows needed, or -1 if all of them.
+    private final long limit;
 
     @Override
     public ImmutableList<String> columnNames() {
@@ -333,56 +366,58 @@ public class DerivedTables {
     }
 
     public IterableTableReader reader(Resources resources, TableContext context) throws IOException {
+      final long memoryBudget;
+      try {
+        memoryBudget = resources.config().getInt(Config.SORT_MEMORY_MB, DEFAULT_SORT_MEMORY_MB) * 1024L * 1024L;
+      } catch (ConfigException e) {
+        throw new IOException(e);
+      }
       return new DerivedIterableTableReader(sourceTable.reader(resources, context)) {
 
+        private RowSorter sorter;
+        private RowIterator iterator;
+
+        private Object[] key(Object[] sourceValues) throws IOException {
+          Object[] key = new Object[orderColumns.size()];
+          for (int i = 0; i < key.length; i++) {
+            key[i] = orderColumns.get(i).value(sourceValues, resources, context);
+          }
+          return key;
+        }
+
         private void sort() throws IOException {
-          TreeMap<ArrayList<Object>, Object[]> values = new TreeMap<>(new Comparator<ArrayList<Object>>() {
-            @Override
-            public int compare(ArrayList<Object> x, ArrayList<Object> y) {
-              for (int i = 0; i < orderColumns.size(); i++) {
-                if (x.get(i) == null) {
-                  if (y.get(i) == null) {
-                    return 0;
-                  } else {
-                    return -1;
-                  }
-                } else if (y.get(i) == null) {
-                  return 1;
-                }
-                int result = orderColumns.get(i).compare(x.get(i), y.get(i));
-                if (result != 0) {
-                  return result;
-                }
-              }
-              return 0;
-            }
-          });
-          while (!cancelled.get()) {
-            Object[] sourceValues = sourceReader.next();
-            if (sourceValues == null) {
-              break;
-            }
-            ArrayList<Object> list = new ArrayList<>();
-            for (OrderColumn column : orderColumns) {
-              Object key = column.value(sourceValues, resources, context);
-              list.add(key);
+          if (limit >= 0 && limit <= MAX_TOP_N) {
+            TopN topN = new TopN(orderColumns, (int) limit);
+            Object[] sourceValues;
+            while (!cancelled.get() && (sourceValues = sourceReader.next()) != null) {
+              topN.add(key(sourceValues), sourceValues);
             }
-            values.put(list, sourceValues);
+            iterator = topN.sorted();
+            return;
           }
-          iterator = values.values().iterator();
-          sorted = true;
+          sorter = new RowSorter(orderColumns, sourceTable.columnTypes(), memoryBudget, resources.config().tempDir());
+          Object[] sourceValues;
+          while (!cancelled.get() && (sourceValues = sourceReader.next()) != null) {
+            sorter.add(key(sourceValues), sourceValues);
+          }
+          iterator = sorter.sorted();
         }
 
         @Override
         public Object[] next() throws IOException {
-          if (!sorted) {
+          if (iterator == null) {
             sort();
           }
-          if (!iterator.hasNext()) {
-            return null;
-          }
           return iterator.next();
         }
+
+        @Override
+        public void close() throws IOException {
+          super.close();
+          if (sorter != null) {
+            sorter.close();
+          }
+        }
       };
     }
 
@@ -397,10 +432,6 @@ public class DerivedTables {
   public static class DistinctTableMeta extends ExposedTableMeta {
     private final ExposedTableMeta sourceTable;
 
-    private Object[] values;
-    private boolean distinct;
-    private Iterator<Object[]> iterator;
-
     @Override
     public ImmutableList<String> columnNames() {
       return sourceTable.columnNames();
@@ -426,32 +457,112 @@ public class DerivedTables {
       return sourceTable.readResources();
     }
 
+    /**
+     * Whether equal rows of the source table are adjacent, i.e. the source table
+     * selects columns of a sorted table which is sorted on exactly those columns
+     * first.
+     */
+    public boolean isSourceSorted() {
+      if (!(sourceTable instanceof DerivedTableMeta)) {
+        return false;
+      }
+      DerivedTableMeta derivedTable = (DerivedTableMeta) sourceTable;
+      TableMeta table = derivedTable.getSourceTable();
+      while (true) {
+        if (table instanceof AliasedTableMeta) {
+          table = ((AliasedTableMeta) table).getSourceTable();
+        } else if (table instanceof FilteredTableMeta) {
+          table = ((FilteredTableMeta) table).getSourceTable();
+        } else if (table instanceof LimitedTableMeta) {
+          table = ((LimitedTableMeta) table).getSourceTable();
+        } else {
+          break;
+        }
+      }
+      if (!(table instanceof SortedTableMeta)) {
+        return false;
+      }
+      ImmutableList<OrderColumn> orderColumns = ((SortedTableMeta) table).getOrderColumns();
+      TableMeta rowTable = null;
+      HashSet<Integer> indexes = new HashSet<>();
+      for (ColumnMeta column : derivedTable.getColumns().values()) {
+        if (!(column instanceof IndexColumn)) {
+          return false;
+        }
+        IndexColumn indexColumn = (IndexColumn) column;
+        if (rowTable != null && rowTable != indexColumn.sourceTable()) {
+          return false;
+        }
+        rowTable = indexColumn.sourceTable();
+        indexes.add(indexColumn.index());
+      }
+      if (orderColumns.size() < indexes.size()) {
+        return false;
+      }
+      HashSet<Integer> orderIndexes = new HashSet<>();
+      for (OrderColumn orderColumn : orderColumns.subList(0, indexes.size())) {
+        if (!(orderColumn.baseColumn() instanceof IndexColumn)
+            || ((IndexColumn) orderColumn.baseColumn()).sourceTable() != rowTable) {
+          return false;
+        }
+        orderIndexes.add(((IndexColumn) orderColumn.baseColumn()).index());
+      }
+      return indexes.equals(orderIndexes);
+    }
+
     @Override
     public IterableTableReader reader(Resources resources, TableContext context) throws IOException {
+      if (isSourceSorted()) {
+        return new DerivedIterableTableReader(sourceTable.reader(resources, context)) {
+
+          private Object[] lastValues;
+
+          @Override
+          public Object[] next() throws IOException {
+            Object[] sourceValues;
+            while (!cancelled.get() && (sourceValues = sourceReader.next()) != null) {
+              if (!Arrays.equals(sourceValues, lastValues)) {
+                lastValues = sourceValues;
+                return sourceValues;
+              }
+            }
+            return null;
+          }
+        };
+      }
+      final long memoryBudget;
+      try {
+        memoryBudget = resources.config().getInt(Config.GROUP_MEMORY_MB, DEFAULT_DISTINCT_MEMORY_MB) * 1024L * 1024L;
+      } catch (ConfigException e) {
+        throw new IOException(e);
+      }
       return new DerivedIterableTableReader(sourceTable.reader(resources, context)) {
 
-        private void distinct() throws IOException {
-          LinkedHashSet<ImmutableList<Object>> values = new LinkedHashSet<>();
-          while (!cancelled.get()) {
+        private HashDistinct distinct;
+        private boolean exhausted;
+
+        @Override
+        public Object[] next() throws IOException {
+          if (distinct == null) {
+            distinct = new HashDistinct(columnTypes(), memoryBudget, resources.config().tempDir(), cancelled);
+          }
+          while (!exhausted && !cancelled.get()) {
             Object[] sourceValues = sourceReader.next();
             if (sourceValues == null) {
-              break;
+              exhausted = true;
+            } else if (distinct.add(sourceValues)) {
+              return sourceValues;
             }
-            values.add(ImmutableList.copyOf(sourceValues));
           }
-          iterator = values.stream().map(list -> list.toArray()).iterator();
-          distinct = true;
+          return distinct.next();
         }
 
         @Override
-        public Object[] next() throws IOException {
-          if (!distinct) {
-            distinct();
-          }
-          if (!iterator.hasNext()) {
-            return null;
+        public void close() throws IOException {
+          super.close();
+          if (distinct != null) {
+            distinct.close();
           }
-          return iterator.next();
         }
       };
     }
@@ -571,10 +682,13 @@ public class DerivedTables {
       final IterableTableReader reader = sourceTable.reader(resources, context);
       return new IterableTableReader() {
         private int i = 0;
+        private boolean closed;
 
         @Override
         public Object[] next() throws IOException {
           if (i >= limit) {
+            // Release the upstream readers as soon as the limit is reached.
+            close();
             return null;
           }
           i++;
@@ -583,7 +697,10 @@ public class DerivedTables {
 
         @Override
         public void close() throws IOException {
-          reader.close();
+          if (!closed) {
+            closed = true;
+            reader.close();
+          }
         }
       };
     }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An open addressing hash table assigning consecutive group ids to the
+ * distinct keys of a group by, in the order the keys are first seen. The state
+ * of the groups can be stored in arrays indexed by the group id. Keys can
+ * contain <code>null</code>.
+ *
+ * @author gsvigruha
+ */
+public abstract class GroupHashTable {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  public static final int NONE = -1;
+
+  // Group id per slot.
+  protected int[] slots = newSlots(INITIAL_CAPACITY);
+  protected int size = 0;
+
+  public static GroupHashTable create(ImmutableList<DataType<?>> keyTypes) {
+    if (keyTypes.size() == 1 && keyTypes.get(0) == DataTypes.LongType) {
+      return new LongGroupHashTable();
+    }
+    return new ObjectGroupHashTable(keyTypes.size());
+  }
+
+  private static int[] newSlots(int capacity) {
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, NONE);
+    return slots;
+  }
+
+  protected static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the id of the group of the key, creates a new group if the key is
+   * new. The key array can be reused by the caller.
+   */
+  public abstract int group(Object[] key);
+
+  /**
+   * Returns the id of the group of the key or {@link #NONE} if the key is new.
+   */
+  public abstract int find(Object[] key);
+
+  /**
+   * Returns the key of the group.
+   */
+  public abstract Object[] key(int group);
+
+  /**
+   * The number of groups.
+   */
+  public int size() {
+    return size;
+  }
+
+  protected void rehashIfNeeded() {
+    if (size * 2 <= slots.length) {
+      return;
+    }
+    slots = newSlots(slots.length * 2);
+    for (int group = 0; group < size; group++) {
+      if (hashed(group)) {
+        int slot = slotOf(group);
+        while (slots[slot] != NONE) {
+          slot = (slot + 1) & (slots.length - 1);
+        }
+        slots[slot] = group;
+      }
+    }
+  }
+
+  /**
+   * Whether the group is stored in the slots.
+   */
+  protected boolean hashed(int group) {
+    return true;
+  }
+
+  /**
+   * Returns the initial slot of an existing group.
+   */
+  protected abstract int slotOf(int group);
+
+  /**
+   * Single column integer keys stored in a primitive array.
+   */
+  public static class LongGroupHashTable extends GroupHashTable {
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int nullGroup = NONE;
+
+    private int probe(long value) {
+      int mask = slots.length - 1;
+      int slot = mix(Long.hashCode(value)) & mask;
+      while (slots[slot] != NONE && keys[slots[slot]] != value) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    @Override
+    public int group(Object[] key) {
+      if (key[0] == null) {
+        if (nullGroup == NONE) {
+          nullGroup = newGroup(0L);
+        }
+        return nullGroup;
+      }
+      long value = (Long) key[0];
+      int slot = probe(value);
+      if (slots[slot] != NONE) {
+        return slots[slot];
+      }
+      int group = newGroup(value);
+      slots[slot] = group;
+      rehashIfNeeded();
+      return group;
+    }
+
+    @Override
+    public int find(Object[] key) {
+      if (key[0] == null) {
+        return nullGroup;
+      }
+      return slots[probe((Long) key[0])];
+    }
+
+    private int newGroup(long value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+      }
+      keys[size] = value;
+      return size++;
+    }
+
+    @Override
+    protected boolean hashed(int group) {
+      return group != nullGroup;
+    }
+
+    @Override
+    protected int slotOf(int group) {
+      return mix(Long.hashCode(keys[group])) & (slots.length - 1);
+    }
+
+    @Override
+    public Object[] key(int group) {
+      return new Object[] { group == nullGroup ? null : keys[group] };
+    }
+  }
+
+  /**
+   * Arbitrary keys stored in a flat array with a fixed number of values per
+   * group.
+   */
+  public static class ObjectGroupHashTable extends GroupHashTable {
+
+    private final int width;
+    private Object[] keys;
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    public ObjectGroupHashTable(int width) {
+      this.width = width;
+      this.keys = new Object[INITIAL_CAPACITY * width];
+    }
+
+    private int hash(Object[] key) {
+      int hash = 1;
+      for (int i = 0; i < width; i++) {
+        hash = 31 * hash + Objects.hashCode(key[i]);
+      }
+      return mix(hash);
+    }
+
+    private boolean equals(int group, Object[] key) {
+      int start = group * width;
+      for (int i = 0; i < width; i++) {
+        if (!Objects.equals(keys[start + i], key[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int probe(int hash, Object[] key) {
+      int mask = slots.length - 1;
+      int slot = hash & mask;
+      int group;
+      while ((group = slots[slot]) != NONE && (hashes[group] != hash || !equals(group, key))) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    @Override
+    public int group(Object[] key) {
+      int hash = hash(key);
+      int slot = probe(hash, key);
+      if (slots[slot] != NONE) {
+        return slots[slot];
+      }
+      if (size == hashes.length) {
+        hashes = Arrays.copyOf(hashes, size * 2);
+        keys = Arrays.copyOf(keys, size * 2 * width);
+      }
+      int group = size++;
+      hashes[group] = hash;
+      System.arraycopy(key, 0, keys, group * width, width);
+      slots[slot] = group;
+      rehashIfNeeded();
+      return group;
+    }
+
+    @Override
+    public int find(Object[] key) {
+      return slots[probe(hash(key), key)];
+    }
+
+    @Override
+    protected int slotOf(int group) {
+      return hashes[group] & (slots.length - 1);
+    }
+
+    @Override
+    public Object[] key(int group) {
+      return Arrays.copyOfRange(keys, group * width, (group + 1) * width);
+    }
+  }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.cosyan.db.io.Serializer;
+import com.cosyan.db.model.Aggregators.GroupAggregator;
+import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * A memory bounded hash aggregation. Groups are aggregated in a
+ * {@link GroupHashTable} until the keys and the state of the aggregators exceed
+ * the memory budget. After that rows with new keys are partitioned by the hash
+ * of the key into temporary files. Rows of the existing groups are still
+ * aggregated in memory as long as the state of the aggregators does not grow,
+ * otherwise they are partitioned too and the state of their group is merged
+ * into the partition when it is loaded. Every key is returned from exactly one
+ * place, so the partitions are aggregated one by one after the groups in
+ * memory are returned. Partitions which are still too large are partitioned
+ * again with a different hash, up to {@link #MAX_DEPTH} times.
+ * <p>
+ * With a parallelism above one the input is split into batches which are
+ * aggregated into partial states on the shared executor. The partial states
+ * are merged into the final groups in the order of the batches, so the result
+ * is deterministic for a given parallelism. It can differ from the result of a
+ * serial aggregation where the order of evaluation matters, e.g. float sums or
+ * quantile sketches. Once the groups are partitioned the pending batches are
+ * merged before the following rows are added. The caller still scans
+ * the input and merges every batch, so this only pays off when batches have
+ * few groups and expensive aggregators.
+ *
+ * @author gsvigruha
+ */
+public class HashAggregation implements Closeable {
+
+  public static final int FANOUT = 16;
+  public static final int MAX_DEPTH = 4;
+  public static final int BATCH_SIZE = 4096;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  // Estimated memory overhead of a group, of a key value and of an aggregator.
+  private static final int GROUP_OVERHEAD = 48;
+  private static final int VALUE_OVERHEAD = 16;
+  private static final int AGGREGATOR_OVERHEAD = 16;
+
+  @Data
+  private static class Partition {
+    private final File file;
+    private final int depth;
+    // The groups aggregated in memory before their rows were partitioned.
+    private final GroupHashTable parentGroups;
+    private final GroupAggregator[] parentAggregators;
+    private final List<Integer> parentGroupIds;
+  }
+
+  private final ImmutableList<DataType<?>> keyTypes;
+  private final ImmutableList<DataType<?>> valueTypes;
+  private final ImmutableList<TypedAggrFunction<?>> functions;
+  private final long memoryBudget;
+  private final File tempDir;
+  private final ExecutorService executor;
+  private final int parallelism;
+  private final AtomicBoolean cancelled;
+
+  private final Deque<Partition> partitions = new ArrayDeque<>();
+  private final List<File> files = new ArrayList<>();
+  private final Deque<Future<Batch>> batches = new ArrayDeque<>();
+
+  private Batch batch;
+
+  private GroupHashTable groups;
+  private GroupAggregator[] aggregators;
+  private BitSet spilledGroups;
+  private PartitionWriter partitionWriter;
+  private long spillSize;
+  private long size;
+  private int depth;
+  private int group;
+
+  public HashAggregation(
+      ImmutableList<DataType<?>> keyTypes,
+      ImmutableList<DataType<?>> valueTypes,
+      ImmutableList<TypedAggrFunction<?>> functions,
+      long memoryBudget,
+      String tempDir,
+      ExecutorService executor,
+      int parallelism,
+      AtomicBoolean cancelled) {
+    this.keyTypes = keyTypes;
+    this.valueTypes = valueTypes;
+    this.functions = functions;
+    this.memoryBudget = memoryBudget;
+    this.tempDir = new File(tempDir);
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.cancelled = cancelled;
+    reset(0);
+  }
+
+  private GroupAggregator[] createAggregators() {
+    GroupAggregator[] aggregators = new GroupAggregator[functions.size()];
+    for (int i = 0; i < aggregators.length; i++) {
+      aggregators[i] = functions.get(i).createGroupAggregator();
+    }
+    return aggregators;
+  }
+
+  private void reset(int depth) {
+    this.groups = GroupHashTable.create(keyTypes);
+    this.aggregators = createAggregators();
+    this.spilledGroups = new BitSet();
+    this.size = 0;
+    this.depth = depth;
+    this.group = 0;
+  }
+
+  /**
+   * Adds the values of the aggregators to the group of the key. The arrays can
+   * be reused by the caller. All rows have to be added before the first call of
+   * {@link #next()}.
+   */
+  public void add(Object[] key, Object[] values) throws IOException {
+    if (parallelism > 1 && partitionWriter == null && depth == 0) {
+      if (batch == null) {
+        batch = new Batch();
+      }
+      batch.add(key.clone(), values.clone());
+      if (batch.size == BATCH_SIZE) {
+        Batch submitted = batch;
+        batch = null;
+        batches.add(executor.submit(submitted::aggregate));
+        while (batches.size() > parallelism) {
+          merge(batches.poll());
+        }
+      }
+      return;
+    }
+    if (!batches.isEmpty() || batch != null) {
+      // A merged batch started partitioning, the earlier rows have to come first.
+      finishBatches();
+    }
+    addRow(key, values);
+  }
+
+  private void addRow(Object[] key, Object[] values) throws IOException {
+    int group;
+    if (partitionWriter == null) {
+      int groupCount = groups.size();
+      group = groups.group(key);
+      if (groups.size() > groupCount) {
+        size += size(key);
+      }
+    } else {
+      group = groups.find(key);
+      if (group == GroupHashTable.NONE || spilledGroups.get(group) || memorySize() > spillSize) {
+        if (group != GroupHashTable.NONE) {
+          // All the later rows of the group have to end up in the same partition.
+          spilledGroups.set(group);
+        }
+        partitionWriter.write(key, values);
+        return;
+      }
+    }
+    for (int i = 0; i < aggregators.length; i++) {
+      aggregators[i].add(group, values[i]);
+    }
+    if (partitionWriter == null && depth < MAX_DEPTH && !keyTypes.isEmpty()) {
+      long memorySize = memorySize();
+      if (memorySize > memoryBudget) {
+        partitionWriter = new PartitionWriter(depth);
+        spillSize = memorySize;
+      }
+    }
+  }
+
+  /**
+   * Merges the partial state of a batch into the groups. Batches which could
+   * exceed the memory budget are added row by row, so that new keys can be
+   * partitioned to disk.
+   */
+  private void merge(Future<Batch> future) throws IOException {
+    Batch merged;
+    try {
+      merged = future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    }
+    if (partitionWriter == null && memorySize() + merged.memorySize() <= memoryBudget) {
+      for (int batchGroup = 0; batchGroup < merged.groups.size(); batchGroup++) {
+        Object[] key = merged.groups.key(batchGroup);
+        int groupCount = groups.size();
+        int group = groups.group(key);
+        if (groups.size() > groupCount) {
+          size += size(key);
+        }
+        for (int i = 0; i < aggregators.length; i++) {
+          aggregators[i].merge(group, merged.aggregators[i], batchGroup);
+        }
+      }
+    } else {
+      for (int i = 0; i < merged.size; i++) {
+        addRow(merged.keys[i], merged.values[i]);
+      }
+    }
+  }
+
+  private void finishBatches() throws IOException {
+    while (!batches.isEmpty()) {
+      merge(batches.poll());
+    }
+    if (batch != null) {
+      // The last batch is usually small, so it is aggregated by the caller.
+      for (int i = 0; i < batch.size; i++) {
+        addRow(batch.keys[i], batch.values[i]);
+      }
+      batch = null;
+    }
+  }
+
+  /**
+   * The estimated memory used by the groups and the state of the aggregators.
+   */
+  private long memorySize() {
+    long memorySize = size;
+    for (GroupAggregator aggregator : aggregators) {
+      memorySize += aggregator.size();
+    }
+    return memorySize;
+  }
+
+  private long size(Object[] key) {
+    long size = GROUP_OVERHEAD + key.length * VALUE_OVERHEAD + aggregators.length * AGGREGATOR_OVERHEAD;
+    for (int i = 0; i < key.length; i++) {
+      size += Serializer.size(keyTypes.get(i), key[i]);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the next group, the key values followed by the aggregated values,
+   * or <code>null</code> if there are no more groups.
+   */
+  public Object[] next() throws IOException {
+    finishBatches();
+    while (true) {
+      if (group < groups.size() && spilledGroups.get(group)) {
+        // Returned from the partition of the key.
+        group++;
+        continue;
+      }
+      if (group < groups.size()) {
+        Object[] key = groups.key(group);
+        Object[] result = Arrays.copyOf(key, key.length + aggregators.length);
+        for (int i = 0; i < aggregators.length; i++) {
+          result[key.length + i] = aggregators[i].finish(group);
+        }
+        group++;
+        return result;
+      }
+      if (partitionWriter != null) {
+        partitionWriter.close();
+        List<List<Integer>> parentGroupIds = new ArrayList<>();
+        for (int i = 0; i < FANOUT; i++) {
+          parentGroupIds.add(new ArrayList<>());
+        }
+        for (int g = spilledGroups.nextSetBit(0); g >= 0; g = spilledGroups.nextSetBit(g + 1)) {
+          parentGroupIds.get(partition(groups.key(g), depth)).add(g);
+        }
+        for (int i = 0; i < FANOUT; i++) {
+          // Depth first, so only one level of partitions is kept on disk at a time.
+          partitions.push(new Partition(
+              partitionWriter.files[i], depth + 1, groups, aggregators, parentGroupIds.get(i)));
+        }
+        partitionWriter = null;
+      }
+      if (!partitions.isEmpty() && !cancelled.get()) {
+        load(partitions.pop());
+      } else {
+        return null;
+      }
+    }
+  }
+
+  private void load(Partition partition) throws IOException {
+    reset(partition.getDepth());
+    for (int parentGroup : partition.getParentGroupIds()) {
+      Object[] parentKey = partition.getParentGroups().key(parentGroup);
+      int group = groups.group(parentKey);
+      size += size(parentKey);
+      for (int i = 0; i < aggregators.length; i++) {
+        aggregators[i].merge(group, partition.getParentAggregators()[i], parentGroup);
+      }
+    }
+    Object[] key = new Object[keyTypes.size()];
+    Object[] values = new Object[valueTypes.size()];
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(partition.getFile()), BUFFER_SIZE))) {
+      while (!cancelled.get()) {
+        try {
+          key[0] = Serializer.readColumn(keyTypes.get(0), in);
+        } catch (EOFException e) {
+          break;
+        }
+        for (int i = 1; i < key.length; i++) {
+          key[i] = Serializer.readColumn(keyTypes.get(i), in);
+        }
+        for (int i = 0; i < values.length; i++) {
+          values[i] = Serializer.readColumn(valueTypes.get(i), in);
+        }
+        add(key, values);
+      }
+    }
+    partition.getFile().delete();
+  }
+
+  /**
+   * Whether the aggregation had to spill partitions to disk.
+   */
+  public boolean spilled() {
+    return !files.isEmpty();
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Future<Batch> future : batches) {
+      future.cancel(false);
+    }
+    batches.clear();
+    batch = null;
+    if (partitionWriter != null) {
+      partitionWriter.close();
+      partitionWriter = null;
+    }
+    partitions.clear();
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  static int partition(Object[] key, int depth) {
+    int h = Arrays.hashCode(key) + depth * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % FANOUT;
+  }
+
+  /**
+   * A batch of input rows and their partial aggregation.
+   */
+  private class Batch {
+    private final Object[][] keys = new Object[BATCH_SIZE][];
+    private final Object[][] values = new Object[BATCH_SIZE][];
+    private int size = 0;
+
+    private GroupHashTable groups;
+    private GroupAggregator[] aggregators;
+    private long groupsSize = 0;
+
+    private void add(Object[] key, Object[] value) {
+      keys[size] = key;
+      values[size] = value;
+      size++;
+    }
+
+    private Batch aggregate() {
+      groups = GroupHashTable.create(keyTypes);
+      aggregators = createAggregators();
+      for (int row = 0; row < size && !cancelled.get(); row++) {
+        int groupCount = groups.size();
+        int group = groups.group(keys[row]);
+        if (groups.size() > groupCount) {
+          groupsSize += size(keys[row]);
+        }
+        for (int i = 0; i < aggregators.length; i++) {
+          aggregators[i].add(group, values[row][i]);
+        }
+      }
+      return this;
+    }
+
+    private long memorySize() {
+      long memorySize = groupsSize;
+      for (GroupAggregator aggregator : aggregators) {
+        memorySize += aggregator.size();
+      }
+      return memorySize;
+    }
+  }
+
+  private class PartitionWriter implements Closeable {
+    private final int depth;
+    private final File[] files = new File[FANOUT];
+    private final DataOutputStream[] streams = new DataOutputStream[FANOUT];
+
+    private PartitionWriter(int depth) throws IOException {
+      this.depth = depth;
+      for (int i = 0; i < FANOUT; i++) {
+        files[i] = File.createTempFile("group", ".part", tempDir);
+        HashAggregation.this.files.add(files[i]);
+        streams[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), BUFFER_SIZE));
+      }
+    }
+
+    private void write(Object[] key, Object[] values) throws IOException {
+      DataOutputStream stream = streams[partition(key, depth)];
+      for (int i = 0; i < key.length; i++) {
+        Serializer.writeColumn(key[i], keyTypes.get(i), stream);
+      }
+      for (int i = 0; i < values.length; i++) {
+        Serializer.writeColumn(values[i], valueTypes.get(i), stream);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (DataOutputStream stream : streams) {
+        stream.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.cosyan.db.io.Serializer;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * A memory bounded streaming distinct. The first occurrence of a row is
+ * reported as soon as it is added, the rows seen so far are kept in a
+ * {@link GroupHashTable}. Once the rows exceed the memory budget duplicates of
+ * the rows in memory are still dropped, but new rows are partitioned by their
+ * hash into temporary files like in {@link HashAggregation}. After the input
+ * is exhausted the distinct rows of the partitions are returned one partition
+ * at a time.
+ *
+ * @author gsvigruha
+ */
+public class HashDistinct implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  // Estimated memory overhead of a row and of a value.
+  private static final int ROW_OVERHEAD = 48;
+  private static final int VALUE_OVERHEAD = 16;
+
+  @Data
+  private static class Partition {
+    private final File file;
+    private final int depth;
+  }
+
+  private final ImmutableList<DataType<?>> types;
+  private final long memoryBudget;
+  private final File tempDir;
+  private final AtomicBoolean cancelled;
+
+  private final Deque<Partition> partitions = new ArrayDeque<>();
+  private final List<File> files = new ArrayList<>();
+
+  private GroupHashTable rows;
+  private PartitionWriter partitionWriter;
+  private long size;
+  private int depth;
+  private Partition partition;
+  private DataInputStream in;
+
+  public HashDistinct(
+      ImmutableList<DataType<?>> types,
+      long memoryBudget,
+      String tempDir,
+      AtomicBoolean cancelled) {
+    this.types = types;
+    this.memoryBudget = memoryBudget;
+    this.tempDir = new File(tempDir);
+    this.cancelled = cancelled;
+    reset(0);
+  }
+
+  private void reset(int depth) {
+    this.rows = GroupHashTable.create(types);
+    this.size = 0;
+    this.depth = depth;
+  }
+
+  /**
+   * Returns whether the row is the first occurrence of its values and has to be
+   * returned immediately. Rows which are spilled to disk are returned later by
+   * {@link #next()}. The row array can be reused by the caller.
+   */
+  public boolean add(Object[] row) throws IOException {
+    if (partitionWriter == null) {
+      int rowCount = rows.size();
+      rows.group(row);
+      if (rows.size() == rowCount) {
+        return false;
+      }
+      size += size(row);
+      if (size > memoryBudget && depth < HashAggregation.MAX_DEPTH) {
+        partitionWriter = new PartitionWriter(depth);
+      }
+      return true;
+    }
+    if (rows.find(row) == GroupHashTable.NONE) {
+      partitionWriter.write(row);
+    }
+    return false;
+  }
+
+  private long size(Object[] row) {
+    long size = ROW_OVERHEAD + row.length * VALUE_OVERHEAD;
+    for (int i = 0; i < row.length; i++) {
+      size += Serializer.size(types.get(i), row[i]);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the next distinct row spilled to disk, or <code>null</code> if there
+   * are no more rows. All rows have to be added before the first call.
+   */
+  public Object[] next() throws IOException {
+    while (!cancelled.get()) {
+      if (in != null) {
+        Object[] row = read();
+        if (row == null) {
+          in.close();
+          in = null;
+          partition.getFile().delete();
+        } else if (add(row)) {
+          return row;
+        }
+        continue;
+      }
+      if (partitionWriter != null) {
+        partitionWriter.close();
+        for (int i = 0; i < HashAggregation.FANOUT; i++) {
+          // Depth first, so only one level of partitions is kept on disk at a time.
+          partitions.push(new Partition(partitionWriter.files[i], depth + 1));
+        }
+        partitionWriter = null;
+      }
+      if (partitions.isEmpty()) {
+        return null;
+      }
+      partition = partitions.pop();
+      reset(partition.getDepth());
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(partition.getFile()), BUFFER_SIZE));
+    }
+    return null;
+  }
+
+  private Object[] read() throws IOException {
+    Object[] row = new Object[types.size()];
+    try {
+      row[0] = Serializer.readColumn(types.get(0), in);
+    } catch (EOFException e) {
+      return null;
+    }
+    for (int i = 1; i < row.length; i++) {
+      row[i] = Serializer.readColumn(types.get(i), in);
+    }
+    return row;
+  }
+
+  /**
+   * Whether the distinct had to spill partitions to disk.
+   */
+  public boolean spilled() {
+    return !files.isEmpty();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+    if (partitionWriter != null) {
+      partitionWriter.close();
+      partitionWriter = null;
+    }
+    partitions.clear();
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  private class PartitionWriter implements Closeable {
+    private final int depth;
+    private final File[] files = new File[HashAggregation.FANOUT];
+    private final DataOutputStream[] streams = new DataOutputStream[HashAggregation.FANOUT];
+
+    private PartitionWriter(int depth) throws IOException {
+      this.depth = depth;
+      for (int i = 0; i < HashAggregation.FANOUT; i++) {
+        files[i] = File.createTempFile("distinct", ".part", tempDir);
+        HashDistinct.this.files.add(files[i]);
+        streams[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), BUFFER_SIZE));
+      }
+    }
+
+    private void write(Object[] row) throws IOException {
+      DataOutputStream stream = streams[HashAggregation.partition(row, depth)];
+      for (int i = 0; i < row.length; i++) {
+        Serializer.writeColumn(row[i], types.get(i), stream);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (DataOutputStream stream : streams) {
+        stream.close();
+      }
+    }
+  }
+}
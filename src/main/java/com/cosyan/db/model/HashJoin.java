@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.cosyan.db.io.Serializer;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * A memory bounded hash join. The build side is kept in a
+ * {@link JoinHashTable} if it fits into the memory budget. Otherwise both
+ * sides are partitioned by the hash of the join key into temporary files and
+ * joined partition by partition. Partitions which are still too large are
+ * partitioned again with a different hash, up to {@link #MAX_DEPTH} times.
+ *
+ * @author gsvigruha
+ */
+public class HashJoin implements Closeable {
+
+  public static final int FANOUT = 16;
+  public static final int MAX_DEPTH = 4;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  // Estimated memory overhead of a row and of a value in the hash table.
+  private static final int ROW_OVERHEAD = 48;
+  private static final int VALUE_OVERHEAD = 16;
+
+  /**
+   * A source of rows with their join keys.
+   */
+  public static interface KeyedRowReader extends Closeable {
+    /**
+     * Moves to the next row, returns <code>false</code> if there are no more
+     * rows.
+     */
+    public boolean next() throws IOException;
+
+    public Object[] key();
+
+    public Object[] row();
+  }
+
+  @Data
+  public static class Side {
+    private final ImmutableList<DataType<?>> keyTypes;
+    private final ImmutableList<DataType<?>> rowTypes;
+  }
+
+  @Data
+  private static class Partition {
+    private final File build;
+    private final File probe;
+    private final int depth;
+  }
+
+  private final Side buildSide;
+  private final Side probeSide;
+  private final boolean innerJoin;
+  private final long memoryBudget;
+  private final File tempDir;
+  private final AtomicBoolean cancelled;
+
+  private final Deque<Partition> partitions = new ArrayDeque<>();
+  private final List<File> files = new ArrayList<>();
+
+  private JoinHashTable table;
+  private KeyedRowReader probeReader;
+  private int joinRowIndex = JoinHashTable.NONE;
+  private boolean nullRowPending;
+
+  public HashJoin(
+      Side buildSide,
+      Side probeSide,
+      boolean innerJoin,
+      long memoryBudget,
+      String tempDir,
+      AtomicBoolean cancelled) {
+    this.buildSide = buildSide;
+    this.probeSide = probeSide;
+    this.innerJoin = innerJoin;
+    this.memoryBudget = memoryBudget;
+    this.tempDir = new File(tempDir);
+    this.cancelled = cancelled;
+  }
+
+  /**
+   * Starts the join, the readers are consumed and closed by this object.
+   */
+  public void open(KeyedRowReader buildReader, KeyedRowReader probeReader) throws IOException {
+    load(buildReader, probeReader, 0);
+  }
+
+  /**
+   * Returns the next matching pair of probe and build rows or
+   * <code>null</code> if there are no more matches. The build row is
+   * <code>null</code> for unmatched probe rows of outer joins.
+   */
+  public Object[][] next() throws IOException {
+    while (true) {
+      if (nullRowPending) {
+        nullRowPending = false;
+        return new Object[][] { probeReader.row(), null };
+      }
+      if (joinRowIndex != JoinHashTable.NONE) {
+        Object[] buildRow = table.row(joinRowIndex);
+        joinRowIndex = table.next(joinRowIndex);
+        return new Object[][] { probeReader.row(), buildRow };
+      }
+      if (probeReader != null) {
+        if (probeReader.next()) {
+          joinRowIndex = table.first(probeReader.key());
+          nullRowPending = joinRowIndex == JoinHashTable.NONE && !innerJoin;
+        } else {
+          probeReader.close();
+          probeReader = null;
+          table = null;
+        }
+      } else if (!partitions.isEmpty() && !cancelled.get()) {
+        Partition partition = partitions.poll();
+        load(
+            new FileReader(partition.getBuild(), buildSide),
+            new FileReader(partition.getProbe(), probeSide),
+            partition.getDepth());
+        partition.getBuild().delete();
+        partition.getProbe().delete();
+      } else {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Whether the join had to spill partitions to disk.
+   */
+  public boolean spilled() {
+    return !files.isEmpty();
+  }
+
+  private long size(Side side, Object[] key, Object[] row) {
+    long size = ROW_OVERHEAD + (key.length + row.length) * VALUE_OVERHEAD;
+    for (int i = 0; i < key.length; i++) {
+      size += Serializer.size(side.getKeyTypes().get(i), key[i]);
+    }
+    for (int i = 0; i < row.length; i++) {
+      size += Serializer.size(side.getRowTypes().get(i), row[i]);
+    }
+    return size;
+  }
+
+  private void load(KeyedRowReader buildReader, KeyedRowReader probeReader, int depth) throws IOException {
+    List<Object[]> keys = new ArrayList<>();
+    List<Object[]> rows = new ArrayList<>();
+    long size = 0;
+    PartitionWriter buildPartitions = null;
+    try {
+      while (!cancelled.get() && buildReader.next()) {
+        if (buildPartitions != null) {
+          buildPartitions.write(buildReader.key(), buildReader.row());
+          continue;
+        }
+        keys.add(buildReader.key().clone());
+        rows.add(buildReader.row());
+        size += size(buildSide, buildReader.key(), buildReader.row());
+        if (size > memoryBudget && depth < MAX_DEPTH) {
+          buildPartitions = new PartitionWriter(buildSide, depth);
+          for (int i = 0; i < keys.size(); i++) {
+            buildPartitions.write(keys.get(i), rows.get(i));
+          }
+          keys = null;
+          rows = null;
+        }
+      }
+    } finally {
+      buildReader.close();
+      if (buildPartitions != null) {
+        buildPartitions.close();
+      }
+    }
+
+    if (buildPartitions == null) {
+      table = JoinHashTable.create(buildSide.getKeyTypes(), probeSide.getKeyTypes());
+      for (int i = 0; i < keys.size(); i++) {
+        table.put(keys.get(i), rows.get(i));
+      }
+      this.probeReader = probeReader;
+      return;
+    }
+
+    PartitionWriter probePartitions = new PartitionWriter(probeSide, depth);
+    try {
+      while (!cancelled.get() && probeReader.next()) {
+        probePartitions.write(probeReader.key(), probeReader.row());
+      }
+    } finally {
+      probeReader.close();
+      probePartitions.close();
+    }
+    for (int i = 0; i < FANOUT; i++) {
+      // Depth first, so only one level of partitions is kept on disk at a time.
+      partitions.push(new Partition(buildPartitions.files[i], probePartitions.files[i], depth + 1));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (probeReader != null) {
+      probeReader.close();
+      probeReader = null;
+    }
+    table = null;
+    partitions.clear();
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  private static int partition(Object[] key, int depth) {
+    int h = Arrays.hashCode(key) + depth * 0x9E3779B9;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % FANOUT;
+  }
+
+  private class PartitionWriter implements Closeable {
+    private final Side side;
+    private final int depth;
+    private final File[] files = new File[FANOUT];
+    private final DataOutputStream[] streams = new DataOutputStream[FANOUT];
+
+    private PartitionWriter(Side side, int depth) throws IOException {
+      this.side = side;
+      this.depth = depth;
+      for (int i = 0; i < FANOUT; i++) {
+        files[i] = File.createTempFile("join", ".part", tempDir);
+        HashJoin.this.files.add(files[i]);
+        streams[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), BUFFER_SIZE));
+      }
+    }
+
+    private void write(Object[] key, Object[] row) throws IOException {
+      DataOutputStream stream = streams[partition(key, depth)];
+      for (int i = 0; i < key.length; i++) {
+        Serializer.writeColumn(key[i], side.getKeyTypes().get(i), stream);
+      }
+      for (int i = 0; i < row.length; i++) {
+        Serializer.writeColumn(row[i], side.getRowTypes().get(i), stream);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (DataOutputStream stream : streams) {
+        stream.close();
+      }
+    }
+  }
+
+  private static class FileReader implements KeyedRowReader {
+    private final Side side;
+    private final DataInputStream stream;
+    private Object[] key;
+    private Object[] row;
+
+    private FileReader(File file, Side side) throws IOException {
+      this.side = side;
+      this.stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      Object[] key = new Object[side.getKeyTypes().size()];
+      Object[] row = new Object[side.getRowTypes().size()];
+      try {
+        key[0] = Serializer.readColumn(side.getKeyTypes().get(0), stream);
+      } catch (EOFException e) {
+        return false;
+      }
+      for (int i = 1; i < key.length; i++) {
+        key[i] = Serializer.readColumn(side.getKeyTypes().get(i), stream);
+      }
+      for (int i = 0; i < row.length; i++) {
+        row[i] = Serializer.readColumn(side.getRowTypes().get(i), stream);
+      }
+      this.key = key;
+      this.row = row;
+      return true;
+    }
+
+    @Override
+    public Object[] key() {
+      return key;
+    }
+
+    @Override
+    public Object[] row() {
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.util.Arrays;
+
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An open addressing hash table for the build side of a hash join. Rows with
+ * the same key are chained in insertion order. Keys containing
+ * <code>null</code> never match.
+ *
+ * @author gsvigruha
+ */
+public abstract class JoinHashTable {
+
+  public static final int NONE = -1;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  protected Object[][] rows = new Object[INITIAL_CAPACITY][];
+  protected int[] next = new int[INITIAL_CAPACITY];
+  protected int size = 0;
+
+  // Every slot stores the first and the last row of its key.
+  protected int[] heads = newSlots(INITIAL_CAPACITY * 2);
+  protected int[] tails = new int[INITIAL_CAPACITY * 2];
+  protected int numKeys = 0;
+
+  public static JoinHashTable create(ImmutableList<DataType<?>> buildKeyTypes,
+      ImmutableList<DataType<?>> probeKeyTypes) {
+    if (buildKeyTypes.size() == 1
+        && buildKeyTypes.get(0) == DataTypes.LongType
+        && probeKeyTypes.get(0) == DataTypes.LongType) {
+      return new LongJoinHashTable();
+    }
+    return new ObjectJoinHashTable(buildKeyTypes.size());
+  }
+
+  private static int[] newSlots(int capacity) {
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, NONE);
+    return slots;
+  }
+
+  protected static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Adds the row with the key. The key array can be reused by the caller.
+   */
+  public void put(Object[] key, Object[] row) {
+    if (hasNull(key)) {
+      return;
+    }
+    if (size == rows.length) {
+      rows = Arrays.copyOf(rows, size * 2);
+      next = Arrays.copyOf(next, size * 2);
+    }
+    int rowIndex = size++;
+    rows[rowIndex] = row;
+    next[rowIndex] = NONE;
+
+    int slot = findSlot(key);
+    if (heads[slot] == NONE) {
+      heads[slot] = rowIndex;
+      tails[slot] = rowIndex;
+      storeKey(slot, key);
+      if (++numKeys * 2 > heads.length) {
+        rehash(heads.length * 2);
+      }
+    } else {
+      next[tails[slot]] = rowIndex;
+      tails[slot] = rowIndex;
+    }
+  }
+
+  /**
+   * Returns the index of the first row with the key or {@link #NONE}.
+   */
+  public int first(Object[] key) {
+    if (hasNull(key)) {
+      return NONE;
+    }
+    return heads[findSlot(key)];
+  }
+
+  public int next(int rowIndex) {
+    return next[rowIndex];
+  }
+
+  public Object[] row(int rowIndex) {
+    return rows[rowIndex];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private static boolean hasNull(Object[] key) {
+    for (Object value : key) {
+      if (value == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldHeads = heads;
+    int[] oldTails = tails;
+    Object oldKeys = keys();
+    heads = newSlots(capacity);
+    tails = new int[capacity];
+    resizeKeys(capacity);
+    for (int oldSlot = 0; oldSlot < oldHeads.length; oldSlot++) {
+      if (oldHeads[oldSlot] != NONE) {
+        int slot = moveKey(oldKeys, oldSlot);
+        heads[slot] = oldHeads[oldSlot];
+        tails[slot] = oldTails[oldSlot];
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of the key, or the empty slot where it should be stored.
+   */
+  protected abstract int findSlot(Object[] key);
+
+  protected abstract void storeKey(int slot, Object[] key);
+
+  protected abstract Object keys();
+
+  protected abstract void resizeKeys(int capacity);
+
+  /**
+   * Moves the key from the old key storage to the current one, returns the new
+   * slot.
+   */
+  protected abstract int moveKey(Object oldKeys, int oldSlot);
+
+  /**
+   * Single column integer keys stored in a primitive array.
+   */
+  public static class LongJoinHashTable extends JoinHashTable {
+
+    private long[] keys = new long[heads.length];
+
+    private int findSlot(long key) {
+      int mask = heads.length - 1;
+      int slot = mix(Long.hashCode(key)) & mask;
+      while (heads[slot] != NONE && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    @Override
+    protected int findSlot(Object[] key) {
+      return findSlot((long) (Long) key[0]);
+    }
+
+    @Override
+    protected void storeKey(int slot, Object[] key) {
+      keys[slot] = (Long) key[0];
+    }
+
+    @Override
+    protected Object keys() {
+      return keys;
+    }
+
+    @Override
+    protected void resizeKeys(int capacity) {
+      keys = new long[capacity];
+    }
+
+    @Override
+    protected int moveKey(Object oldKeys, int oldSlot) {
+      long key = ((long[]) oldKeys)[oldSlot];
+      int slot = findSlot(key);
+      keys[slot] = key;
+      return slot;
+    }
+  }
+
+  /**
+   * Arbitrary keys stored in a flat array with a fixed number of values per
+   * slot.
+   */
+  public static class ObjectJoinHashTable extends JoinHashTable {
+
+    private final int width;
+    private Object[] keys;
+    private int[] hashes;
+
+    public ObjectJoinHashTable(int width) {
+      this.width = width;
+      this.keys = new Object[heads.length * width];
+      this.hashes = new int[heads.length];
+    }
+
+    private static int hash(Object[] key, int offset, int width) {
+      int hash = 1;
+      for (int i = 0; i < width; i++) {
+        hash = 31 * hash + key[offset + i].hashCode();
+      }
+      return mix(hash);
+    }
+
+    private boolean equals(int slot, Object[] key, int offset) {
+      int start = slot * width;
+      for (int i = 0; i < width; i++) {
+        if (!keys[start + i].equals(key[offset + i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int findSlot(Object[] key, int offset, int hash) {
+      int mask = heads.length - 1;
+      int slot = hash & mask;
+      while (heads[slot] != NONE && (hashes[slot] != hash || !equals(slot, key, offset))) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    @Override
+    protected int findSlot(Object[] key) {
+      return findSlot(key, 0, hash(key, 0, width));
+    }
+
+    @Override
+    protected void storeKey(int slot, Object[] key) {
+      System.arraycopy(key, 0, keys, slot * width, width);
+      hashes[slot] = hash(key, 0, width);
+    }
+
+    @Override
+    protected Object keys() {
+      return new Object[] { keys, hashes };
+    }
+
+    @Override
+    protected void resizeKeys(int capacity) {
+      keys = new Object[capacity * width];
+      hashes = new int[capacity];
+    }
+
+    @Override
+    protected int moveKey(Object oldKeys, int oldSlot) {
+      Object[] old = (Object[]) ((Object[]) oldKeys)[0];
+      int hash = ((int[]) ((Object[]) oldKeys)[1])[oldSlot];
+      int slot = findSlot(old, oldSlot * width, hash);
+      System.arraycopy(old, oldSlot * width, keys, slot * width, width);
+      hashes[slot] = hash;
+      return slot;
+    }
+  }
+}
@@ -16,21 +16,32 @@
 package com.cosyan.db.model;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
+import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.TableReader.IterableTableReader;
+import com.cosyan.db.io.TableReader.SeekableTableReader;
+import com.cosyan.db.logic.CostModel;
 import com.cosyan.db.meta.Dependencies.TableDependencies;
+import com.cosyan.db.meta.MaterializedTable;
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.ColumnMeta.IndexColumn;
 import com.cosyan.db.model.DataTypes.DataType;
+import com.cosyan.db.model.DerivedTables.AliasedTableMeta;
 import com.cosyan.db.model.DerivedTables.ShiftedTableMeta;
+import com.cosyan.db.model.HashJoin.KeyedRowReader;
 import com.cosyan.db.model.TableMeta.ExposedTableMeta;
 import com.cosyan.db.transaction.MetaResources;
 import com.cosyan.db.transaction.Resources;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.LinkedListMultimap;
 
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -41,6 +52,23 @@ public class JoinTables {
     INNER, LEFT, RIGHT
   }
 
+  /**
+   * Inner joins swap the build side only if the left table is estimated to be
+   * clearly smaller, since swapping changes the order of the result.
+   */
+  private static final double BUILD_SIDE_RATIO = 0.5;
+
+  private static final int DEFAULT_JOIN_MEMORY_MB = 256;
+
+  /**
+   * The estimated cost of an index lookup relative to reading a row. Indexed
+   * tables are joined by looking up the rows matching the other side if that
+   * is cheaper than reading the whole table.
+   */
+  private static final int INDEX_LOOKUP_COST = 4;
+
+  private static final int LOOKUP_BATCH_SIZE = 1024;
+
   @Data
   @EqualsAndHashCode(callSuper = true)
   public static class JoinTableMeta extends ExposedTableMeta {
@@ -56,6 +84,8 @@ public class JoinTables {
     private final ImmutableList<ColumnMeta> joinTableJoinColumns;
     private final boolean mainTableFirst;
     private final boolean innerJoin;
+    // The join column used to look up the rows of the join table in its index, or -1 for a hash join.
+    private final int lookupColumn;
 
     public JoinTableMeta(JoinType joinType, ExposedTableMeta leftTable, ExposedTableMeta rightTable,
         ImmutableList<ColumnMeta> leftTableJoinColumns, ImmutableList<ColumnMeta> rightTableJoinColumns) {
@@ -65,7 +95,21 @@ public class JoinTables {
       this.leftTableJoinColumns = leftTableJoinColumns;
       this.rightTableJoinColumns = rightTableJoinColumns;
 
-      if (joinType == JoinType.INNER) {
+      ExposedTableMeta mainTable;
+      ExposedTableMeta joinTable;
+      ImmutableList<ColumnMeta> mainTableJoinColumns;
+      ImmutableList<ColumnMeta> joinTableJoinColumns;
+      boolean mainTableFirst;
+      if (joinType == JoinType.INNER
+          && CostModel.rows(leftTable) < CostModel.rows(rightTable) * BUILD_SIDE_RATIO) {
+        // Build the hash table from the smaller table.
+        mainTable = rightTable;
+        joinTable = leftTable;
+        mainTableJoinColumns = rightTableJoinColumns;
+        joinTableJoinColumns = leftTableJoinColumns;
+        mainTableFirst = false;
+        innerJoin = true;
+      } else if (joinType == JoinType.INNER) {
         mainTable = leftTable;
         joinTable = rightTable;
         mainTableJoinColumns = leftTableJoinColumns;
@@ -90,6 +134,67 @@ public class JoinTables {
         // TODO remove this and resolve in compilation time.
         throw new RuntimeException("Unknown join type '" + joinType.name() + "'.");
       }
+
+      int lookupColumn = lookupColumn(joinTable, joinTableJoinColumns, mainTableJoinColumns);
+      if (innerJoin && lookupColumn < 0) {
+        int swappedLookupColumn = lookupColumn(mainTable, mainTableJoinColumns, joinTableJoinColumns);
+        if (swappedLookupColumn >= 0
+            && CostModel.rows(joinTable) * INDEX_LOOKUP_COST < CostModel.rows(mainTable)) {
+          // Only inner joins can look up the rows of either side.
+          ExposedTableMeta table = mainTable;
+          mainTable = joinTable;
+          joinTable = table;
+          ImmutableList<ColumnMeta> columns = mainTableJoinColumns;
+          mainTableJoinColumns = joinTableJoinColumns;
+          joinTableJoinColumns = columns;
+          mainTableFirst = !mainTableFirst;
+          lookupColumn = swappedLookupColumn;
+        }
+      }
+      if (lookupColumn >= 0
+          && CostModel.rows(mainTable) * INDEX_LOOKUP_COST >= CostModel.rows(joinTable)) {
+        lookupColumn = -1;
+      }
+      this.mainTable = mainTable;
+      this.joinTable = joinTable;
+      this.mainTableJoinColumns = mainTableJoinColumns;
+      this.joinTableJoinColumns = joinTableJoinColumns;
+      this.mainTableFirst = mainTableFirst;
+      this.lookupColumn = lookupColumn;
+    }
+
+    /**
+     * Returns the position of a join column which is an indexed column of the
+     * table with the same type as the corresponding column of the other side,
+     * or -1 if there is no such column.
+     */
+    private static int lookupColumn(ExposedTableMeta table, ImmutableList<ColumnMeta> joinColumns,
+        ImmutableList<ColumnMeta> otherJoinColumns) {
+      table = unalias(table);
+      if (!(table instanceof SeekableTableMeta)) {
+        return -1;
+      }
+      MaterializedTable tableMeta = ((SeekableTableMeta) table).tableMeta();
+      for (int i = 0; i < joinColumns.size(); i++) {
+        ColumnMeta column = joinColumns.get(i);
+        if (column instanceof IndexColumn
+            && ((IndexColumn) column).sourceTable() == table
+            && column.getType() == otherJoinColumns.get(i).getType()) {
+          BasicColumn basicColumn = tableMeta.columns().get(
+              tableMeta.columnNames().get(((IndexColumn) column).index()));
+          if (basicColumn.isIndexed()) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+    private static ExposedTableMeta unalias(ExposedTableMeta table) {
+      while (table instanceof AliasedTableMeta) {
+        table = ((AliasedTableMeta) table).getSourceTable();
+      }
+      return table;
     }
 
     @Override
@@ -148,91 +253,210 @@ public class JoinTables {
           .merge(DerivedTables.resourcesFromColumns(rightTableJoinColumns));
     }
 
+    private Object[] match(Object[] mainTableValues, Object[] joinTableValues) {
+      Object[] result = new Object[mainTable.columnNames().size() + joinTable.columnNames().size()];
+      if (mainTableFirst) {
+        System.arraycopy(mainTableValues, 0, result, 0, mainTableValues.length);
+        System.arraycopy(joinTableValues, 0, result, mainTableValues.length, joinTableValues.length);
+      } else {
+        System.arraycopy(joinTableValues, 0, result, 0, joinTableValues.length);
+        System.arraycopy(mainTableValues, 0, result, joinTableValues.length, mainTableValues.length);
+      }
+      return result;
+    }
+
     @Override
     public IterableTableReader reader(Resources resources, TableContext context) throws IOException {
+      if (lookupColumn >= 0) {
+        return lookupReader(resources, context);
+      }
       final IterableTableReader mainReader = mainTable.reader(resources, context);
       final IterableTableReader joinReader = joinTable.reader(resources, context);
+      final long memoryBudget;
+      try {
+        memoryBudget = resources.config().getInt(Config.JOIN_MEMORY_MB, DEFAULT_JOIN_MEMORY_MB) * 1024L * 1024L;
+      } catch (ConfigException e) {
+        throw new IOException(e);
+      }
       return new IterableTableReader() {
 
-        private boolean joined;
-        private LinkedListMultimap<ImmutableList<Object>, Object[]> joinValues;
-        private Iterator<Object[]> joinValuesForCurrentKey;
-        private Object[] mainTableValues;
+        private HashJoin hashJoin;
 
         @Override
         public void close() throws IOException {
           mainReader.close();
           joinReader.close();
+          if (hashJoin != null) {
+            hashJoin.close();
+          }
         }
 
         @Override
         public Object[] next() throws IOException {
-          if (!joined) {
-            join();
+          if (hashJoin == null) {
+            hashJoin = new HashJoin(
+                new HashJoin.Side(types(joinTableJoinColumns), joinTable.columnTypes()),
+                new HashJoin.Side(types(mainTableJoinColumns), mainTable.columnTypes()),
+                innerJoin,
+                memoryBudget,
+                resources.config().tempDir(),
+                cancelled);
+            hashJoin.open(
+                keyedReader(joinReader, joinTableJoinColumns, resources, context),
+                keyedReader(mainReader, mainTableJoinColumns, resources, context));
           }
-          Object[] result = null;
-          do {
-            while (joinValuesForCurrentKey == null || !joinValuesForCurrentKey.hasNext()) {
-              List<Object[]> values = null;
-              mainTableValues = mainReader.next();
-              if (mainTableValues == null) {
-                return null;
-              }
-              ImmutableList.Builder<Object> builder = ImmutableList.builder();
-              for (ColumnMeta column : mainTableJoinColumns) {
-                Object key = column.value(mainTableValues, resources, context);
-                builder.add(key);
-              }
-              values = joinValues.get(builder.build());
-              if (values != null && !values.isEmpty()) {
-                joinValuesForCurrentKey = values.iterator();
-              } else if (!innerJoin) {
-                Object[] nullValues = new Object[joinTable.columnNames().size()];
-                Arrays.fill(nullValues, null);
-                joinValuesForCurrentKey = ImmutableList.of(nullValues).iterator();
-              }
-            }
+          Object[][] pair = hashJoin.next();
+          if (pair == null) {
+            return null;
+          }
+          Object[] mainTableValues = pair[0];
+          Object[] joinTableValues = pair[1];
+          if (joinTableValues == null) {
+            joinTableValues = new Object[joinTable.columnNames().size()];
+          }
+          return match(mainTableValues, joinTableValues);
+        }
+      };
+    }
+
+    /**
+     * Reads the main table in batches and looks up the matching rows of the
+     * join table in the index of the lookup column. Keys are looked up sorted
+     * and rows are read in file order.
+     */
+    private IterableTableReader lookupReader(Resources resources, TableContext context) throws IOException {
+      MaterializedTable tableMeta = ((SeekableTableMeta) unalias(joinTable)).tableMeta();
+      String columnName = tableMeta.columnNames().get(((IndexColumn) joinTableJoinColumns.get(lookupColumn)).index());
+      final SeekableTableReader joinReader = resources.reader(tableMeta.tableName());
+      final IndexReader index = joinReader.getIndex(columnName);
+      final IterableTableReader mainReader = mainTable.reader(resources, context);
+      return new IterableTableReader() {
 
-            result = match(mainTableValues, joinValuesForCurrentKey.next());
-          } while (result == null);
+        private final ArrayDeque<Object[]> results = new ArrayDeque<>();
+        private boolean finished;
 
-          return result;
+        @Override
+        public void close() throws IOException {
+          mainReader.close();
         }
 
-        private Object[] match(Object[] mainTableValues, Object[] joinTableValues) {
-          Object[] result = new Object[mainTable.columnNames().size() + joinTable.columnNames().size()];
-          if (joinTableValues == null) {
-            return null;
-          }
-          if (mainTableFirst) {
-            System.arraycopy(mainTableValues, 0, result, 0, mainTableValues.length);
-            System.arraycopy(joinTableValues, 0, result, mainTableValues.length, joinTableValues.length);
-          } else {
-            System.arraycopy(joinTableValues, 0, result, 0, joinTableValues.length);
-            System.arraycopy(mainTableValues, 0, result, joinTableValues.length, mainTableValues.length);
+        @Override
+        public Object[] next() throws IOException {
+          while (results.isEmpty()) {
+            if (finished || cancelled.get()) {
+              return null;
+            }
+            lookupBatch();
           }
-          return result;
+          return results.poll();
         }
 
-        private void join() throws IOException {
-          joinValues = LinkedListMultimap.create();
-          while (!cancelled.get()) {
-            Object[] joinSourceValues = joinReader.next();
-            if (joinSourceValues == null) {
+        private void lookupBatch() throws IOException {
+          List<Object[]> mainRows = new ArrayList<>();
+          List<Object[]> mainKeys = new ArrayList<>();
+          TreeSet<Object> lookupKeys = new TreeSet<>();
+          while (mainRows.size() < LOOKUP_BATCH_SIZE) {
+            Object[] mainTableValues = mainReader.next();
+            if (mainTableValues == null) {
+              finished = true;
               break;
             }
-            ImmutableList.Builder<Object> builder = ImmutableList.builder();
-            for (ColumnMeta column : joinTableJoinColumns) {
-              Object key = column.value(joinSourceValues, resources, context);
-              builder.add(key);
+            Object[] key = new Object[mainTableJoinColumns.size()];
+            for (int i = 0; i < key.length; i++) {
+              key[i] = mainTableJoinColumns.get(i).value(mainTableValues, resources, context);
+            }
+            if (key[lookupColumn] != null) {
+              lookupKeys.add(key[lookupColumn]);
+            }
+            mainRows.add(mainTableValues);
+            mainKeys.add(key);
+          }
+
+          Object[] keys = lookupKeys.toArray();
+          long[][] positions = index.getAll(keys);
+          HashMap<Object, long[]> positionsByKey = new HashMap<>();
+          TreeMap<Long, Object[]> joinRows = new TreeMap<>();
+          for (int i = 0; i < keys.length; i++) {
+            positionsByKey.put(keys[i], positions[i]);
+            for (long position : positions[i]) {
+              joinRows.put(position, null);
+            }
+          }
+          for (Map.Entry<Long, Object[]> entry : joinRows.entrySet()) {
+            entry.setValue(joinReader.get(entry.getKey()).getValues());
+          }
+
+          for (int i = 0; i < mainRows.size(); i++) {
+            Object[] key = mainKeys.get(i);
+            boolean matched = false;
+            if (key[lookupColumn] != null) {
+              for (long position : positionsByKey.get(key[lookupColumn])) {
+                Object[] joinTableValues = joinRows.get(position);
+                if (matches(key, joinTableValues)) {
+                  results.add(match(mainRows.get(i), joinTableValues));
+                  matched = true;
+                }
+              }
+            }
+            if (!matched && !innerJoin) {
+              results.add(match(mainRows.get(i), new Object[joinTable.columnNames().size()]));
+            }
+          }
+        }
+
+        private boolean matches(Object[] key, Object[] joinTableValues) throws IOException {
+          for (int i = 0; i < key.length; i++) {
+            if (i != lookupColumn) {
+              Object value = joinTableJoinColumns.get(i).value(joinTableValues, resources, context);
+              if (key[i] == null || !key[i].equals(value)) {
+                return false;
+              }
             }
-            joinValues.put(builder.build(), joinSourceValues);
           }
-          joined = true;
+          return true;
+        }
+      };
+    }
+
+    private static KeyedRowReader keyedReader(IterableTableReader reader, ImmutableList<ColumnMeta> columns,
+        Resources resources, TableContext context) {
+      return new KeyedRowReader() {
+        private final Object[] key = new Object[columns.size()];
+        private Object[] row;
+
+        @Override
+        public boolean next() throws IOException {
+          row = reader.next();
+          if (row == null) {
+            return false;
+          }
+          for (int i = 0; i < key.length; i++) {
+            key[i] = columns.get(i).value(row, resources, context);
+          }
+          return true;
+        }
+
+        @Override
+        public Object[] key() {
+          return key;
+        }
+
+        @Override
+        public Object[] row() {
+          return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+          reader.close();
         }
       };
     }
 
+    private static ImmutableList<DataType<?>> types(ImmutableList<ColumnMeta> columns) {
+      return columns.stream().map(ColumnMeta::getType).collect(ImmutableList.toImmutableList());
+    }
+
     @Override
     public TableDependencies tableDependencies() {
       TableDependencies deps = new TableDependencies();
@@ -17,6 +17,7 @@ package com.cosyan.db.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashSet;
 
@@ -31,6 +32,53 @@ import com.cosyan.db.model.DataTypes.DataType;
 @FuncCat(name = "list", doc = "List aggregators")
 public class ListAggregators {
 
+  /**
+   * Collects the elements into a collection and returns them as an array.
+   */
+  public static class CollectingAggregator<T> extends Aggregator<T[], Object> {
+
+    private final Collection<T> values;
+    private final Class<T[]> arrayClass;
+    private long size = 0L;
+
+    public CollectingAggregator(Collection<T> values, Class<T[]> arrayClass) {
+      this.values = values;
+      this.arrayClass = arrayClass;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void addImpl(Object x) {
+      if (values.add((T) arrayClass.getComponentType().cast(x))) {
+        size += Aggregators.ENTRY_OVERHEAD + Aggregators.valueSize(x);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      for (T x : ((CollectingAggregator<T>) other).values) {
+        addImpl(x);
+      }
+    }
+
+    @Override
+    public T[] finishImpl() {
+      Object[] array = values.toArray();
+      return Arrays.copyOf(array, array.length, arrayClass);
+    }
+
+    @Override
+    public boolean isNull() {
+      return false;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+  }
+
   @Func(doc = "Aggregates the elements into a list.")
   public static class ListAggregator extends AggrFunction {
     public ListAggregator() {
@@ -44,26 +92,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<String[], Object> create() {
-            return new Aggregator<String[], Object>() {
-
-              private ArrayList<String> list = new ArrayList<>();
-
-              @Override
-              public void addImpl(Object x) {
-                list.add((String) x);
-              }
-
-              @Override
-              public String[] finishImpl() {
-                Object[] array = list.toArray();
-                return Arrays.copyOf(array, array.length, String[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<String>(new ArrayList<>(), String[].class);
           }
         };
       } else if (argType.isDouble()) {
@@ -71,26 +100,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Double[], Object> create() {
-            return new Aggregator<Double[], Object>() {
-
-              private ArrayList<Double> list = new ArrayList<>();
-
-              @Override
-              public void addImpl(Object x) {
-                list.add((Double) x);
-              }
-
-              @Override
-              public Double[] finishImpl() {
-                Object[] array = list.toArray();
-                return Arrays.copyOf(array, array.length, Double[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Double>(new ArrayList<>(), Double[].class);
           }
         };
       } else if (argType.isLong()) {
@@ -98,26 +108,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Long[], Object> create() {
-            return new Aggregator<Long[], Object>() {
-
-              private ArrayList<Long> list = new ArrayList<>();
-
-              @Override
-              public void addImpl(Object x) {
-                list.add((Long) x);
-              }
-
-              @Override
-              public Long[] finishImpl() {
-                Object[] array = list.toArray();
-                return Arrays.copyOf(array, array.length, Long[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Long>(new ArrayList<>(), Long[].class);
           }
         };
       } else if (argType.isDate()) {
@@ -125,26 +116,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Date[], Object> create() {
-            return new Aggregator<Date[], Object>() {
-
-              private ArrayList<Date> list = new ArrayList<>();
-
-              @Override
-              public void addImpl(Object x) {
-                list.add((Date) x);
-              }
-
-              @Override
-              public Date[] finishImpl() {
-                Object[] array = list.toArray();
-                return Arrays.copyOf(array, array.length, Date[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Date>(new ArrayList<>(), Date[].class);
           }
         };
       } else if (argType.isBool()) {
@@ -152,26 +124,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Boolean[], Object> create() {
-            return new Aggregator<Boolean[], Object>() {
-
-              private ArrayList<Boolean> list = new ArrayList<>();
-
-              @Override
-              public void addImpl(Object x) {
-                list.add((Boolean) x);
-              }
-
-              @Override
-              public Boolean[] finishImpl() {
-                Object[] array = list.toArray();
-                return Arrays.copyOf(array, array.length, Boolean[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Boolean>(new ArrayList<>(), Boolean[].class);
           }
         };
       } else {
@@ -193,26 +146,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<String[], Object> create() {
-            return new Aggregator<String[], Object>() {
-
-              private LinkedHashSet<String> set = new LinkedHashSet<>();
-
-              @Override
-              public void addImpl(Object x) {
-                set.add((String) x);
-              }
-
-              @Override
-              public String[] finishImpl() {
-                Object[] array = set.toArray();
-                return Arrays.copyOf(array, array.length, String[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<String>(new LinkedHashSet<>(), String[].class);
           }
         };
       } else if (argType.isDouble()) {
@@ -220,26 +154,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Double[], Object> create() {
-            return new Aggregator<Double[], Object>() {
-
-              private LinkedHashSet<Double> set = new LinkedHashSet<>();
-
-              @Override
-              public void addImpl(Object x) {
-                set.add((Double) x);
-              }
-
-              @Override
-              public Double[] finishImpl() {
-                Object[] array = set.toArray();
-                return Arrays.copyOf(array, array.length, Double[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Double>(new LinkedHashSet<>(), Double[].class);
           }
         };
       } else if (argType.isLong()) {
@@ -247,26 +162,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Long[], Object> create() {
-            return new Aggregator<Long[], Object>() {
-
-              private LinkedHashSet<Long> set = new LinkedHashSet<>();
-
-              @Override
-              public void addImpl(Object x) {
-                set.add((Long) x);
-              }
-
-              @Override
-              public Long[] finishImpl() {
-                Object[] array = set.toArray();
-                return Arrays.copyOf(array, array.length, Long[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Long>(new LinkedHashSet<>(), Long[].class);
           }
         };
       } else if (argType.isDate()) {
@@ -274,26 +170,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Date[], Object> create() {
-            return new Aggregator<Date[], Object>() {
-
-              private LinkedHashSet<Date> set = new LinkedHashSet<>();
-
-              @Override
-              public void addImpl(Object x) {
-                set.add((Date) x);
-              }
-
-              @Override
-              public Date[] finishImpl() {
-                Object[] array = set.toArray();
-                return Arrays.copyOf(array, array.length, Date[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Date>(new LinkedHashSet<>(), Date[].class);
           }
         };
       } else if (argType.isBool()) {
@@ -301,26 +178,7 @@ public class ListAggregators {
 
           @Override
           public Aggregator<Boolean[], Object> create() {
-            return new Aggregator<Boolean[], Object>() {
-
-              private LinkedHashSet<Boolean> set = new LinkedHashSet<>();
-
-              @Override
-              public void addImpl(Object x) {
-                set.add((Boolean) x);
-              }
-
-              @Override
-              public Boolean[] finishImpl() {
-                Object[] array = set.toArray();
-                return Arrays.copyOf(array, array.length, Boolean[].class);
-              }
-
-              @Override
-              public boolean isNull() {
-                return false;
-              }
-            };
+            return new CollectingAggregator<Boolean>(new LinkedHashSet<>(), Boolean[].class);
           }
         };
       } else {
@@ -328,4 +186,4 @@ public class ListAggregators {
       }
     }
   }
-}
\ No newline at end of file
+}
@@ -17,215 +17,217 @@ package com.cosyan.db.model;
 
 import com.cosyan.db.doc.FunctionDocumentation.Func;
 import com.cosyan.db.doc.FunctionDocumentation.FuncCat;
-import com.cosyan.db.model.BuiltinFunctions.SimpleFunction;
-import com.google.common.collect.ImmutableList;
+import com.cosyan.db.model.BuiltinFunctions.DoubleFunction1;
+import com.cosyan.db.model.BuiltinFunctions.DoubleFunction2;
+import com.cosyan.db.model.BuiltinFunctions.DoubleToLongFunction1;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction2;
 import com.google.common.collect.ImmutableMap;
 
 @FuncCat(name = "math", doc = "Arithmetic functions")
 public class MathFunctions {
 
   @Func(doc = "Returns self raised to the power of x.")
-  public static class Power extends SimpleFunction<Double> {
+  public static class Power extends DoubleFunction2 {
     public Power() {
-      super("pow", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType, "x", DataTypes.DoubleType));
+      super("pow", "x");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.pow((Double) argValues.get(0), (Double) argValues.get(1));
+    public double callDouble(double self, double x) {
+      return Math.pow(self, x);
     }
   }
 
   @Func(doc = "Returns Euler's number raised to the power of self.")
-  public static class Exp extends SimpleFunction<Double> {
+  public static class Exp extends DoubleFunction1 {
     public Exp() {
-      super("exp", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("exp");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.exp((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.exp(self);
     }
   }
 
   @Func(doc = "Returns the base 2 logarithm of self.")
-  public static class Log2 extends SimpleFunction<Double> {
+  public static class Log2 extends DoubleFunction1 {
     public Log2() {
-      super("log2", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("log2");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.log((Double) argValues.get(0)) / Math.log(2);
+    public double callDouble(double self) {
+      return Math.log(self) / Math.log(2);
     }
   }
 
   @Func(doc = "Returns the base e logarithm of self.")
-  public static class LogE extends SimpleFunction<Double> {
+  public static class LogE extends DoubleFunction1 {
     public LogE() {
-      super("loge", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("loge");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.log((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.log(self);
     }
   }
 
   @Func(doc = "Returns the base 10 logarithm of self.")
-  public static class Log10 extends SimpleFunction<Double> {
+  public static class Log10 extends DoubleFunction1 {
     public Log10() {
-      super("log10", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("log10");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.log10((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.log10(self);
     }
   }
 
   @Func(doc = "Returns the base self logarithm of x.")
-  public static class Log extends SimpleFunction<Double> {
+  public static class Log extends DoubleFunction2 {
     public Log() {
-      super("log", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType, "x", DataTypes.DoubleType));
+      super("log", "x");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.log((Double) argValues.get(0)) / Math.log((Double) argValues.get(1));
+    public double callDouble(double self, double x) {
+      return Math.log(self) / Math.log(x);
     }
   }
 
   @Func(doc = "Rounds self to the nearest integer number.")
-  public static class Round extends SimpleFunction<Long> {
+  public static class Round extends DoubleToLongFunction1 {
     public Round() {
-      super("round", DataTypes.LongType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("round");
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      return Math.round((Double) argValues.get(0));
+    public long callLong(double self) {
+      return Math.round(self);
     }
   }
 
   @Func(doc = "Rounds self to d digits.")
-  public static class RoundTo extends SimpleFunction<Double> {
+  public static class RoundTo extends SimpleFunction2<Double> {
     public RoundTo() {
       super("round_to", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType, "d", DataTypes.LongType));
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      double exp = Math.pow(10, (Long) argValues.get(1));
-      return Math.round((Double) argValues.get(0) * exp) / exp;
+    public Double call2(Object self, Object d) {
+      double exp = Math.pow(10, (Long) d);
+      return Math.round((Double) self * exp) / exp;
     }
   }
 
   @Func(doc = "Returns the closest integer larger than self.")
-  public static class Ceil extends SimpleFunction<Long> {
+  public static class Ceil extends DoubleToLongFunction1 {
     public Ceil() {
-      super("ceil", DataTypes.LongType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("ceil");
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      return (long) Math.ceil((Double) argValues.get(0));
+    public long callLong(double self) {
+      return (long) Math.ceil(self);
     }
   }
 
   @Func(doc = "Returns the closest integer smaller than self.")
-  public static class Floor extends SimpleFunction<Long> {
+  public static class Floor extends DoubleToLongFunction1 {
     public Floor() {
-      super("floor", DataTypes.LongType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("floor");
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      return (long) Math.floor((Double) argValues.get(0));
+    public long callLong(double self) {
+      return (long) Math.floor(self);
     }
   }
 
   @Func(doc = "The absolute value of self.")
-  public static class Abs extends SimpleFunction<Double> {
+  public static class Abs extends DoubleFunction1 {
     public Abs() {
-      super("abs", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("abs");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.abs((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.abs(self);
     }
   }
 
   @Func(doc = "Sine of self.")
-  public static class Sin extends SimpleFunction<Double> {
+  public static class Sin extends DoubleFunction1 {
     public Sin() {
-      super("sin", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("sin");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.sin((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.sin(self);
     }
   }
 
   @Func(doc = "Hyperbolic sine of self.")
-  public static class SinH extends SimpleFunction<Double> {
+  public static class SinH extends DoubleFunction1 {
     public SinH() {
-      super("sinh", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("sinh");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.sinh((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.sinh(self);
     }
   }
 
   @Func(doc = "Cosine of self.")
-  public static class Cos extends SimpleFunction<Double> {
+  public static class Cos extends DoubleFunction1 {
     public Cos() {
-      super("cos", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("cos");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.cos((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.cos(self);
     }
   }
 
   @Func(doc = "Hyperbolic cosine of self.")
-  public static class CosH extends SimpleFunction<Double> {
+  public static class CosH extends DoubleFunction1 {
     public CosH() {
-      super("cosh", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("cosh");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.cosh((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.cosh(self);
     }
   }
 
   @Func(doc = "Tangent of self.")
-  public static class Tan extends SimpleFunction<Double> {
+  public static class Tan extends DoubleFunction1 {
     public Tan() {
-      super("tan", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("tan");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.tan((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.tan(self);
     }
   }
 
   @Func(doc = "Hyperbolic tangent of self.")
-  public static class TanH extends SimpleFunction<Double> {
+  public static class TanH extends DoubleFunction1 {
     public TanH() {
-      super("tanh", DataTypes.DoubleType, ImmutableMap.of("self", DataTypes.DoubleType));
+      super("tanh");
     }
 
     @Override
-    public Double call(ImmutableList<Object> argValues) {
-      return Math.tanh((Double) argValues.get(0));
+    public double callDouble(double self) {
+      return Math.tanh(self);
     }
   }
 }
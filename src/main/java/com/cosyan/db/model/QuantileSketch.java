@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.util.Arrays;
+
+/**
+ * A KLL quantile sketch. Values are kept in a hierarchy of compactors, a value
+ * on level <code>h</code> represents <code>2^h</code> input values. Full
+ * compactors are sorted and every other value is promoted to the next level.
+ * The capacities of the levels decrease geometrically from the top, so the
+ * size of the sketch grows only logarithmically with the number of values. The
+ * rank error is about <code>1.65 / k</code> with high probability. Sketches can
+ * be merged.
+ *
+ * @author gsvigruha
+ */
+public class QuantileSketch {
+
+  public static final int DEFAULT_K = 200;
+
+  private static final double CAPACITY_DECAY = 2.0 / 3.0;
+  private static final int MIN_CAPACITY = 2;
+
+  private final int k;
+  private double[][] levels = new double[1][];
+  private int[] sizes = new int[1];
+  private long count = 0L;
+  private long random = 0x2545F4914F6CDD1DL;
+
+  public QuantileSketch(int k) {
+    this.k = k;
+    this.levels[0] = new double[capacity(0)];
+  }
+
+  public QuantileSketch() {
+    this(DEFAULT_K);
+  }
+
+  private int capacity(int level) {
+    int depth = levels.length - level - 1;
+    return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+  }
+
+  private boolean nextBit() {
+    random ^= random << 13;
+    random ^= random >>> 7;
+    random ^= random << 17;
+    return (random & 1L) == 1L;
+  }
+
+  private void append(int level, double value) {
+    if (sizes[level] == levels[level].length) {
+      levels[level] = Arrays.copyOf(levels[level], Math.max(MIN_CAPACITY, levels[level].length * 2));
+    }
+    levels[level][sizes[level]++] = value;
+  }
+
+  public void add(double value) {
+    append(0, value);
+    count++;
+    compress();
+  }
+
+  public long count() {
+    return count;
+  }
+
+  /**
+   * The estimated memory used by the levels of the sketch.
+   */
+  public long size() {
+    long size = 0L;
+    for (double[] values : levels) {
+      size += Double.BYTES * values.length;
+    }
+    return size;
+  }
+
+  private void addLevel() {
+    levels = Arrays.copyOf(levels, levels.length + 1);
+    sizes = Arrays.copyOf(sizes, sizes.length + 1);
+    levels[levels.length - 1] = new double[MIN_CAPACITY];
+  }
+
+  private void compress() {
+    for (int level = 0; level < levels.length; level++) {
+      if (sizes[level] < capacity(level)) {
+        continue;
+      }
+      if (level + 1 == levels.length) {
+        addLevel();
+      }
+      double[] values = levels[level];
+      int size = sizes[level];
+      Arrays.sort(values, 0, size);
+      // An odd value out stays on this level.
+      int start = size % 2;
+      int offset = nextBit() ? 1 : 0;
+      for (int i = start + offset; i < size; i += 2) {
+        append(level + 1, values[i]);
+      }
+      sizes[level] = start;
+    }
+  }
+
+  /**
+   * Merges the other sketch into this one.
+   */
+  public void merge(QuantileSketch other) {
+    while (levels.length < other.levels.length) {
+      addLevel();
+    }
+    for (int level = 0; level < other.levels.length; level++) {
+      for (int i = 0; i < other.sizes[level]; i++) {
+        append(level, other.levels[level][i]);
+      }
+    }
+    count += other.count;
+    compress();
+  }
+
+  /**
+   * Returns the approximate value at rank <code>q * count</code>, or
+   * <code>NaN</code> if the sketch is empty.
+   */
+  public double quantile(double q) {
+    int total = 0;
+    for (int level = 0; level < levels.length; level++) {
+      total += sizes[level];
+    }
+    if (total == 0) {
+      return Double.NaN;
+    }
+    double[] values = new double[total];
+    long[] weights = new long[total];
+    int n = 0;
+    for (int level = 0; level < levels.length; level++) {
+      for (int i = 0; i < sizes[level]; i++) {
+        values[n] = levels[level][i];
+        weights[n] = 1L << level;
+        n++;
+      }
+    }
+    Integer[] order = new Integer[total];
+    for (int i = 0; i < total; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (i, j) -> Double.compare(values[i], values[j]));
+    long totalWeight = 0L;
+    for (long weight : weights) {
+      totalWeight += weight;
+    }
+    double rank = q * totalWeight;
+    long cumulative = 0L;
+    for (int i = 0; i < total; i++) {
+      cumulative += weights[order[i]];
+      if (cumulative >= rank) {
+        return values[order[i]];
+      }
+    }
+    return values[order[total - 1]];
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Matches strings against a compiled regular expression. Literal patterns,
+ * optionally starting or ending with <code>.*</code>, are matched with
+ * equality, prefix, suffix or substring checks instead of the regex engine.
+ * Compiled patterns are cached.
+ *
+ * @author gsvigruha
+ */
+public abstract class RegexMatcher {
+
+  private static final int MAX_CACHED_PATTERNS = 1024;
+  private static final String ANY = ".*";
+  private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+  private static final Cache<String, RegexMatcher> cache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_PATTERNS)
+      .build();
+
+  protected final Pattern pattern;
+
+  private RegexMatcher(Pattern pattern) {
+    this.pattern = pattern;
+  }
+
+  /**
+   * Whether the whole string matches the pattern.
+   */
+  public abstract boolean matches(String str);
+
+  /**
+   * Returns the matcher of the regex from the cache, compiles it if needed.
+   */
+  public static RegexMatcher cached(String regex) {
+    RegexMatcher matcher = cache.getIfPresent(regex);
+    if (matcher == null) {
+      matcher = compile(regex);
+      cache.put(regex, matcher);
+    }
+    return matcher;
+  }
+
+  public static RegexMatcher compile(String regex) {
+    // Compiling validates the regex, the pattern is also used as a fallback.
+    Pattern pattern = Pattern.compile(regex);
+    String literal = regex;
+    boolean anyPrefix = literal.startsWith(ANY);
+    if (anyPrefix) {
+      literal = literal.substring(ANY.length());
+    }
+    boolean anySuffix = literal.endsWith(ANY);
+    if (anySuffix) {
+      literal = literal.substring(0, literal.length() - ANY.length());
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (META_CHARS.indexOf(literal.charAt(i)) >= 0) {
+        return new PatternMatcher(pattern);
+      }
+    }
+    if (anyPrefix && anySuffix) {
+      return new ContainsMatcher(pattern, literal);
+    } else if (anyPrefix) {
+      return new SuffixMatcher(pattern, literal);
+    } else if (anySuffix) {
+      return new PrefixMatcher(pattern, literal);
+    } else {
+      return new EqualsMatcher(pattern, literal);
+    }
+  }
+
+  /**
+   * The dot does not match line terminators, strings containing them are
+   * matched with the regex engine.
+   */
+  protected static boolean hasLineTerminator(String str) {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class PatternMatcher extends RegexMatcher {
+    private PatternMatcher(Pattern pattern) {
+      super(pattern);
+    }
+
+    @Override
+    public boolean matches(String str) {
+      return pattern.matcher(str).matches();
+    }
+  }
+
+  private static class EqualsMatcher extends RegexMatcher {
+    private final String literal;
+
+    private EqualsMatcher(Pattern pattern, String literal) {
+      super(pattern);
+      this.literal = literal;
+    }
+
+    @Override
+    public boolean matches(String str) {
+      return str.equals(literal);
+    }
+  }
+
+  private static class PrefixMatcher extends RegexMatcher {
+    private final String literal;
+
+    private PrefixMatcher(Pattern pattern, String literal) {
+      super(pattern);
+      this.literal = literal;
+    }
+
+    @Override
+    public boolean matches(String str) {
+      if (hasLineTerminator(str)) {
+        return pattern.matcher(str).matches();
+      }
+      return str.startsWith(literal);
+    }
+  }
+
+  private static class SuffixMatcher extends RegexMatcher {
+    private final String literal;
+
+    private SuffixMatcher(Pattern pattern, String literal) {
+      super(pattern);
+      this.literal = literal;
+    }
+
+    @Override
+    public boolean matches(String str) {
+      if (hasLineTerminator(str)) {
+        return pattern.matcher(str).matches();
+      }
+      return str.endsWith(literal);
+    }
+  }
+
+  private static class ContainsMatcher extends RegexMatcher {
+    private final String literal;
+
+    private ContainsMatcher(Pattern pattern, String literal) {
+      super(pattern);
+      this.literal = literal;
+    }
+
+    @Override
+    public boolean matches(String str) {
+      if (hasLineTerminator(str)) {
+        return pattern.matcher(str).matches();
+      }
+      return str.contains(literal);
+    }
+  }
+}
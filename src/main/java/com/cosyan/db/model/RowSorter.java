@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.cosyan.db.io.Serializer;
+import com.cosyan.db.model.ColumnMeta.OrderColumn;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * Sorts rows by their keys. Rows are sorted in memory in runs, runs exceeding
+ * the memory budget are spilled to temporary files and merged on read. The sort
+ * is stable, rows with equal keys are returned in the order they were added.
+ * <code>null</code> keys come first. There has to be at least one key column.
+ *
+ * @author gsvigruha
+ */
+public class RowSorter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  // Estimated memory overhead of a row and of a value.
+  private static final int ROW_OVERHEAD = 64;
+  private static final int VALUE_OVERHEAD = 16;
+
+  @Data
+  public static class Entry {
+    private final Object[] key;
+    private final Object[] row;
+  }
+
+  public static interface RowIterator {
+    /**
+     * Returns the next row or <code>null</code> if there are no more rows.
+     */
+    public Object[] next() throws IOException;
+  }
+
+  private final ImmutableList<DataType<?>> keyTypes;
+  private final ImmutableList<DataType<?>> rowTypes;
+  private final Comparator<Object[]> comparator;
+  private final long memoryBudget;
+  private final File tempDir;
+
+  private final List<File> runs = new ArrayList<>();
+  private ArrayList<Entry> entries = new ArrayList<>();
+  private long size = 0;
+
+  public RowSorter(
+      ImmutableList<OrderColumn> orderColumns,
+      ImmutableList<DataType<?>> rowTypes,
+      long memoryBudget,
+      String tempDir) {
+    this.keyTypes = orderColumns.stream().map(ColumnMeta::getType).collect(ImmutableList.toImmutableList());
+    this.rowTypes = rowTypes;
+    this.comparator = keyComparator(orderColumns);
+    this.memoryBudget = memoryBudget;
+    this.tempDir = new File(tempDir);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Comparator<Object> valueComparator(OrderColumn column) {
+    Comparator<Object> comparator;
+    if (column.getType() == DataTypes.LongType || column.getType() == DataTypes.IDType) {
+      comparator = (x, y) -> Long.compare((Long) x, (Long) y);
+    } else if (column.getType() == DataTypes.DoubleType) {
+      comparator = (x, y) -> Double.compare((Double) x, (Double) y);
+    } else if (column.getType() == DataTypes.StringType) {
+      comparator = (x, y) -> ((String) x).compareTo((String) y);
+    } else {
+      comparator = (x, y) -> ((Comparable) x).compareTo(y);
+    }
+    return column.isAsc() ? comparator : comparator.reversed();
+  }
+
+  /**
+   * Returns a comparator of sort keys derived from the order columns.
+   */
+  public static Comparator<Object[]> keyComparator(ImmutableList<OrderColumn> orderColumns) {
+    @SuppressWarnings("unchecked")
+    Comparator<Object>[] comparators = new Comparator[orderColumns.size()];
+    for (int i = 0; i < comparators.length; i++) {
+      comparators[i] = valueComparator(orderColumns.get(i));
+    }
+    return (x, y) -> {
+      for (int i = 0; i < comparators.length; i++) {
+        if (x[i] == null) {
+          if (y[i] != null) {
+            return -1;
+          }
+        } else if (y[i] == null) {
+          return 1;
+        } else {
+          int result = comparators[i].compare(x[i], y[i]);
+          if (result != 0) {
+            return result;
+          }
+        }
+      }
+      return 0;
+    };
+  }
+
+  public void add(Object[] key, Object[] row) throws IOException {
+    entries.add(new Entry(key, row));
+    size += ROW_OVERHEAD + (key.length + row.length) * VALUE_OVERHEAD;
+    for (int i = 0; i < key.length; i++) {
+      size += Serializer.size(keyTypes.get(i), key[i]);
+    }
+    for (int i = 0; i < row.length; i++) {
+      size += Serializer.size(rowTypes.get(i), row[i]);
+    }
+    if (size > memoryBudget) {
+      spill();
+    }
+  }
+
+  private void sortEntries() {
+    // List.sort is a stable merge sort.
+    entries.sort((e1, e2) -> comparator.compare(e1.getKey(), e2.getKey()));
+  }
+
+  private void spill() throws IOException {
+    sortEntries();
+    File run = File.createTempFile("sort", ".run", tempDir);
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+      for (Entry entry : entries) {
+        for (int i = 0; i < keyTypes.size(); i++) {
+          Serializer.writeColumn(entry.getKey()[i], keyTypes.get(i), out);
+        }
+        for (int i = 0; i < rowTypes.size(); i++) {
+          Serializer.writeColumn(entry.getRow()[i], rowTypes.get(i), out);
+        }
+      }
+    }
+    entries = new ArrayList<>();
+    size = 0;
+  }
+
+  /**
+   * Whether some of the rows were spilled to disk.
+   */
+  public boolean spilled() {
+    return !runs.isEmpty();
+  }
+
+  public RowIterator sorted() throws IOException {
+    if (runs.isEmpty()) {
+      sortEntries();
+      return new RowIterator() {
+        private int i = 0;
+
+        @Override
+        public Object[] next() {
+          return i < entries.size() ? entries.get(i++).getRow() : null;
+        }
+      };
+    }
+    if (!entries.isEmpty()) {
+      spill();
+    }
+    // Earlier runs contain earlier rows, ties are broken by the run index.
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(), (r1, r2) -> {
+      int result = comparator.compare(r1.head.getKey(), r2.head.getKey());
+      return result != 0 ? result : Integer.compare(r1.index, r2.index);
+    });
+    for (int i = 0; i < runs.size(); i++) {
+      RunReader reader = new RunReader(runs.get(i), i);
+      if (reader.advance()) {
+        queue.add(reader);
+      }
+    }
+    return () -> {
+      RunReader reader = queue.poll();
+      if (reader == null) {
+        return null;
+      }
+      Object[] row = reader.head.getRow();
+      if (reader.advance()) {
+        queue.add(reader);
+      }
+      return row;
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    entries.clear();
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+  }
+
+  /**
+   * Keeps the first <code>n</code> rows by their keys in a bounded heap. Like
+   * {@link RowSorter} it is stable, from rows with equal keys the ones added
+   * first are kept.
+   */
+  public static class TopN {
+
+    @Data
+    private static class HeapEntry {
+      private final Object[] key;
+      private final Object[] row;
+      private final long seq;
+    }
+
+    private final int n;
+    private final Comparator<HeapEntry> comparator;
+    // The worst entry is at the head of the heap.
+    private final PriorityQueue<HeapEntry> heap;
+    private long seq = 0;
+
+    public TopN(ImmutableList<OrderColumn> orderColumns, int n) {
+      this.n = n;
+      Comparator<Object[]> keyComparator = keyComparator(orderColumns);
+      this.comparator = (e1, e2) -> {
+        int result = keyComparator.compare(e1.getKey(), e2.getKey());
+        return result != 0 ? result : Long.compare(e1.getSeq(), e2.getSeq());
+      };
+      this.heap = new PriorityQueue<>(Math.max(1, n), comparator.reversed());
+    }
+
+    public void add(Object[] key, Object[] row) {
+      HeapEntry entry = new HeapEntry(key, row, seq++);
+      if (heap.size() < n) {
+        heap.add(entry);
+      } else if (n > 0 && comparator.compare(entry, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(entry);
+      }
+    }
+
+    public RowIterator sorted() {
+      ArrayList<HeapEntry> entries = new ArrayList<>(heap);
+      entries.sort(comparator);
+      heap.clear();
+      return new RowIterator() {
+        private int i = 0;
+
+        @Override
+        public Object[] next() {
+          return i < entries.size() ? entries.get(i++).getRow() : null;
+        }
+      };
+    }
+  }
+
+  private class RunReader {
+    private final DataInputStream in;
+    private final int index;
+    private Entry head;
+
+    private RunReader(File run, int index) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+      this.index = index;
+    }
+
+    private boolean advance() throws IOException {
+      Object[] key = new Object[keyTypes.size()];
+      Object[] row = new Object[rowTypes.size()];
+      try {
+        key[0] = Serializer.readColumn(keyTypes.get(0), in);
+      } catch (EOFException e) {
+        in.close();
+        head = null;
+        return false;
+      }
+      for (int i = 1; i < key.length; i++) {
+        key[i] = Serializer.readColumn(keyTypes.get(i), in);
+      }
+      for (int i = 0; i < row.length; i++) {
+        row[i] = Serializer.readColumn(rowTypes.get(i), in);
+      }
+      head = new Entry(key, row);
+      return true;
+    }
+  }
+}
@@ -94,8 +94,11 @@ public class Rule {
       assert column.getType() == DataTypes.BoolType;
     }
 
-    public boolean check(Resources resources, long fileIndex) throws IOException {
-      Object[] values = table.get(resources, fileIndex).getValues();
+    /**
+     * Evaluates the rule on the values of a record, only the columns referenced
+     * by the rule are read.
+     */
+    public boolean check(Resources resources, Object[] values) throws IOException {
       Object check = column.value(values, resources, TableContext.EMPTY);
       if (check == null) {
         return nullIsTrue;
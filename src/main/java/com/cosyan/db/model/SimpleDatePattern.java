@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Appends a {@link java.text.SimpleDateFormat} pattern to a
+ * {@link DateTimeFormatterBuilder}. The formats of the timestamp columns are
+ * stored with the <code>SimpleDateFormat</code> letters, which differ from the
+ * <code>DateTimeFormatter</code> ones: <code>u</code> is the day of week,
+ * <code>S</code> is milliseconds, <code>yy</code> is relative to the current
+ * century and <code>[</code> is a literal. Like <code>SimpleDateFormat</code>
+ * a number is parsed with exactly as many digits as the letters if it is
+ * directly followed by an other number.
+ *
+ * @author gsvigruha
+ */
+public class SimpleDatePattern {
+
+  private static final int MAX_WIDTH = 10;
+  // Two digit years are parsed between 80 years before and 20 years after the
+  // current year, SimpleDateFormat uses the current date instead.
+  private static final int PIVOT_YEARS = 80;
+
+  private static final String NUMERIC_LETTERS = "yYwWDdFuHkKhmsS";
+
+  private final DateTimeFormatterBuilder builder;
+  private final WeekFields weekFields;
+  private final Set<TemporalField> fields = new HashSet<>();
+
+  private SimpleDatePattern(DateTimeFormatterBuilder builder, WeekFields weekFields) {
+    this.builder = builder;
+    this.weekFields = weekFields;
+  }
+
+  /**
+   * Appends the pattern to the builder, returns whether the date is given by a
+   * day of year or a week instead of a month and a day.
+   */
+  public static boolean append(DateTimeFormatterBuilder builder, String pattern) {
+    WeekFields weekFields = WeekFields.of(Locale.getDefault(Locale.Category.FORMAT));
+    SimpleDatePattern simpleDatePattern = new SimpleDatePattern(builder, weekFields);
+    simpleDatePattern.append(pattern);
+    Set<TemporalField> fields = simpleDatePattern.fields;
+    return fields.contains(ChronoField.DAY_OF_YEAR) || fields.contains(weekFields.weekOfWeekBasedYear());
+  }
+
+  private void append(String pattern) {
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        i = appendQuoted(pattern, i);
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        int end = end(pattern, i);
+        appendField(c, end - i, isNumber(pattern, end));
+        i = end;
+      } else {
+        builder.appendLiteral(c);
+        i++;
+      }
+    }
+  }
+
+  private static int end(String pattern, int start) {
+    int end = start;
+    while (end < pattern.length() && pattern.charAt(end) == pattern.charAt(start)) {
+      end++;
+    }
+    return end;
+  }
+
+  private static boolean isNumber(String pattern, int start) {
+    if (start == pattern.length()) {
+      return false;
+    }
+    char c = pattern.charAt(start);
+    if (c == 'M' || c == 'L') {
+      return end(pattern, start) - start <= 2;
+    }
+    return NUMERIC_LETTERS.indexOf(c) >= 0;
+  }
+
+  private int appendQuoted(String pattern, int start) {
+    if (start + 1 < pattern.length() && pattern.charAt(start + 1) == '\'') {
+      builder.appendLiteral('\'');
+      return start + 2;
+    }
+    StringBuilder literal = new StringBuilder();
+    int i = start + 1;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+          literal.append(c);
+          i += 2;
+          continue;
+        }
+        builder.appendLiteral(literal.toString());
+        return i + 1;
+      }
+      literal.append(c);
+      i++;
+    }
+    throw new IllegalArgumentException(String.format("Unterminated quote in pattern '%s'.", pattern));
+  }
+
+  private void appendNumber(TemporalField field, int count, boolean adjacent) {
+    fields.add(field);
+    if (adjacent) {
+      builder.appendValue(field, count);
+    } else {
+      builder.appendValue(field, count, Math.max(count, MAX_WIDTH), SignStyle.NORMAL);
+    }
+  }
+
+  private void appendYear(TemporalField field, int count, boolean adjacent) {
+    if (count == 2) {
+      LocalDate base = LocalDate.now().minusYears(PIVOT_YEARS);
+      // Lenient parsing takes more than two digits literally.
+      builder.appendValueReduced(field, 2, 2, base);
+    } else {
+      appendNumber(field, count, adjacent);
+    }
+  }
+
+  private void appendField(char letter, int count, boolean adjacent) {
+    switch (letter) {
+    case 'G':
+      builder.appendText(ChronoField.ERA, count < 4 ? TextStyle.SHORT : TextStyle.FULL);
+      break;
+    case 'y':
+      appendYear(ChronoField.YEAR_OF_ERA, count, adjacent);
+      break;
+    case 'Y':
+      appendYear(weekFields.weekBasedYear(), count, adjacent);
+      break;
+    case 'M':
+    case 'L':
+      if (count <= 2) {
+        appendNumber(ChronoField.MONTH_OF_YEAR, count, adjacent);
+      } else {
+        builder.appendText(ChronoField.MONTH_OF_YEAR, count == 3 ? TextStyle.SHORT : TextStyle.FULL);
+      }
+      break;
+    case 'w':
+      appendNumber(weekFields.weekOfWeekBasedYear(), count, adjacent);
+      break;
+    case 'W':
+      appendNumber(weekFields.weekOfMonth(), count, adjacent);
+      break;
+    case 'D':
+      appendNumber(ChronoField.DAY_OF_YEAR, count, adjacent);
+      break;
+    case 'd':
+      appendNumber(ChronoField.DAY_OF_MONTH, count, adjacent);
+      break;
+    case 'F':
+      appendNumber(ChronoField.ALIGNED_WEEK_OF_MONTH, count, adjacent);
+      break;
+    case 'E':
+      builder.appendText(ChronoField.DAY_OF_WEEK, count < 4 ? TextStyle.SHORT : TextStyle.FULL);
+      break;
+    case 'u':
+      appendNumber(ChronoField.DAY_OF_WEEK, count, adjacent);
+      break;
+    case 'a':
+      builder.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT);
+      break;
+    case 'H':
+      appendNumber(ChronoField.HOUR_OF_DAY, count, adjacent);
+      break;
+    case 'k':
+      appendNumber(ChronoField.CLOCK_HOUR_OF_DAY, count, adjacent);
+      break;
+    case 'K':
+      appendNumber(ChronoField.HOUR_OF_AMPM, count, adjacent);
+      break;
+    case 'h':
+      appendNumber(ChronoField.CLOCK_HOUR_OF_AMPM, count, adjacent);
+      break;
+    case 'm':
+      appendNumber(ChronoField.MINUTE_OF_HOUR, count, adjacent);
+      break;
+    case 's':
+      appendNumber(ChronoField.SECOND_OF_MINUTE, count, adjacent);
+      break;
+    case 'S':
+      appendNumber(ChronoField.MILLI_OF_SECOND, count, adjacent);
+      break;
+    case 'z':
+      builder.appendZoneText(count < 4 ? TextStyle.SHORT : TextStyle.FULL);
+      break;
+    case 'Z':
+      builder.appendOffset("+HHMM", "+0000");
+      break;
+    case 'X':
+      if (count > 3) {
+        throw new IllegalArgumentException("Invalid ISO 8601 format: length=" + count);
+      }
+      builder.appendOffset(count == 1 ? "+HH" : count == 2 ? "+HHMM" : "+HH:MM", "Z");
+      break;
+    default:
+      throw new IllegalArgumentException(String.format("Illegal pattern character '%s'.", letter));
+    }
+  }
+}
@@ -15,14 +15,21 @@
  */
 package com.cosyan.db.model;
 
+import java.util.Arrays;
+
 import com.cosyan.db.doc.FunctionDocumentation.Func;
 import com.cosyan.db.doc.FunctionDocumentation.FuncCat;
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.Aggregators.Aggregator;
+import com.cosyan.db.model.Aggregators.DoubleGroupAggregator;
+import com.cosyan.db.model.Aggregators.GroupAggregator;
+import com.cosyan.db.model.Aggregators.LongGroupAggregator;
+import com.cosyan.db.model.Aggregators.ReduceAggregator;
 import com.cosyan.db.model.BuiltinFunctions.AggrFunction;
 import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
 import com.cosyan.db.model.DataTypes.DataType;
 import com.cosyan.db.model.StatAggregators.Skewness.SkewnessAggregator;
+import com.google.common.collect.ImmutableList;
 
 @FuncCat(name = "stats", doc = "Statistical functions")
 public class StatAggregators {
@@ -39,60 +46,26 @@ public class StatAggregators {
         return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
 
           @Override
-          public Aggregator<Double, Double> create() {
-            return new Aggregator<Double, Double>() {
-
-              private Double sum = null;
-
-              @Override
-              public void addImpl(Double x) {
-                if (sum == null) {
-                  sum = x;
-                } else {
-                  sum += x;
-                }
-              }
-
-              @Override
-              public Double finishImpl() {
-                return sum;
-              }
+          public GroupAggregator createGroupAggregator() {
+            return new DoubleGroupAggregator(Double::sum);
+          }
 
-              @Override
-              public boolean isNull() {
-                return sum == null;
-              }
-            };
+          @Override
+          public Aggregator<Double, Double> create() {
+            return new ReduceAggregator<Double>(Double::sum);
           }
         };
       } else if (argType.isLong()) {
         return new TypedAggrFunction<Long>(name, DataTypes.LongType) {
 
           @Override
-          public Aggregator<Long, Long> create() {
-            return new Aggregator<Long, Long>() {
-
-              private Long sum = null;
-
-              @Override
-              public void addImpl(Long x) {
-                if (sum == null) {
-                  sum = x;
-                } else {
-                  sum += x;
-                }
-              }
-
-              @Override
-              public Long finishImpl() {
-                return sum;
-              }
+          public GroupAggregator createGroupAggregator() {
+            return new LongGroupAggregator(Long::sum);
+          }
 
-              @Override
-              public boolean isNull() {
-                return sum == null;
-              }
-            };
+          @Override
+          public Aggregator<Long, Long> create() {
+            return new ReduceAggregator<Long>(Long::sum);
           }
         };
       } else {
@@ -113,64 +86,26 @@ public class StatAggregators {
         return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
 
           @Override
-          public Aggregator<Double, Double> create() {
-            return new Aggregator<Double, Double>() {
-
-              private Double sum = null;
-              private Long cnt = 0L;
-
-              @Override
-              public void addImpl(Double x) {
-                if (sum == null) {
-                  sum = x;
-                } else {
-                  sum += x;
-                }
-                cnt++;
-              }
-
-              @Override
-              public Double finishImpl() {
-                return sum / cnt;
-              }
+          public GroupAggregator createGroupAggregator() {
+            return new AvgGroupAggregator();
+          }
 
-              @Override
-              public boolean isNull() {
-                return sum == null;
-              }
-            };
+          @Override
+          public Aggregator<Double, Double> create() {
+            return new AvgAggregator<Double>();
           }
         };
       } else if (argType.isLong()) {
         return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
 
           @Override
-          public Aggregator<Double, Long> create() {
-            return new Aggregator<Double, Long>() {
-
-              private Double sum = null;
-              private Long cnt = 0L;
-
-              @Override
-              public void addImpl(Long x) {
-                if (sum == null) {
-                  sum = (double) x;
-                } else {
-                  sum += x;
-                }
-                cnt++;
-              }
-
-              @Override
-              public Double finishImpl() {
-                return sum / cnt;
-              }
+          public GroupAggregator createGroupAggregator() {
+            return new AvgGroupAggregator();
+          }
 
-              @Override
-              public boolean isNull() {
-                return sum == null;
-              }
-            };
+          @Override
+          public Aggregator<Double, Long> create() {
+            return new AvgAggregator<Long>();
           }
         };
       } else {
@@ -179,30 +114,133 @@ public class StatAggregators {
     }
   }
 
+  public static class AvgAggregator<T extends Number> extends Aggregator<Double, T> {
+
+    private double sum = 0.0;
+    private long cnt = 0L;
+
+    @Override
+    public void addImpl(T x) {
+      sum += x.doubleValue();
+      cnt++;
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      AvgAggregator<?> otherAggregator = (AvgAggregator<?>) other;
+      sum += otherAggregator.sum;
+      cnt += otherAggregator.cnt;
+    }
+
+    @Override
+    public Double finishImpl() {
+      return sum / cnt;
+    }
+
+    @Override
+    public boolean isNull() {
+      return cnt == 0;
+    }
+  }
+
+  public static class AvgGroupAggregator extends GroupAggregator {
+
+    private double[] sums = new double[0];
+    private long[] counts = new long[0];
+
+    @Override
+    protected void grow(int capacity) {
+      sums = Arrays.copyOf(sums, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+
+    @Override
+    protected void addImpl(int group, Object x) {
+      sums[group] += ((Number) x).doubleValue();
+      counts[group]++;
+    }
+
+    @Override
+    protected void mergeImpl(int group, GroupAggregator other, int otherGroup) {
+      AvgGroupAggregator otherAggregator = (AvgGroupAggregator) other;
+      sums[group] += otherAggregator.sums[otherGroup];
+      counts[group] += otherAggregator.counts[otherGroup];
+    }
+
+    @Override
+    public Object finish(int group) {
+      return group < capacity && counts[group] > 0 ? sums[group] / counts[group] : null;
+    }
+  }
+
+  /**
+   * Keeps the count, the mean and the sums of the powers of the differences from
+   * the mean, updated with Welford's method. Partial states are merged with the
+   * pairwise formulas of Chan et al. extended to the third and fourth moments,
+   * which stay numerically stable unlike sums of raw powers.
+   */
   public static abstract class StdDevAggregator<T> extends Aggregator<Double, T> {
 
-    protected Double sum1 = null;
-    protected Double sum2 = null;
-    protected Double sum0 = null;
+    protected long n = 0;
+    protected double mean = 0.0;
+    protected double m2 = 0.0;
+    protected double m3 = 0.0;
+    protected double m4 = 0.0;
 
     protected void addItem(Double x) {
-      if (sum1 == null) {
-        sum1 = 0.0;
-        sum2 = 0.0;
-        sum0 = 0.0;
+      long n1 = n;
+      n++;
+      double delta = x - mean;
+      double deltaN = delta / n;
+      double deltaN2 = deltaN * deltaN;
+      double term1 = delta * deltaN * n1;
+      mean += deltaN;
+      m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+      m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+      m2 += term1;
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      StdDevAggregator<?> o = (StdDevAggregator<?>) other;
+      if (o.n == 0) {
+        return;
       }
-      sum1 += x;
-      sum2 += x * x;
-      sum0++;
+      if (n == 0) {
+        n = o.n;
+        mean = o.mean;
+        m2 = o.m2;
+        m3 = o.m3;
+        m4 = o.m4;
+        return;
+      }
+      double na = n;
+      double nb = o.n;
+      double nx = na + nb;
+      double delta = o.mean - mean;
+      double delta2 = delta * delta;
+      double newM2 = m2 + o.m2 + delta2 * na * nb / nx;
+      double newM3 = m3 + o.m3
+          + delta2 * delta * na * nb * (na - nb) / (nx * nx)
+          + 3 * delta * (na * o.m2 - nb * m2) / nx;
+      double newM4 = m4 + o.m4
+          + delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) / (nx * nx * nx)
+          + 6 * delta2 * (na * na * o.m2 + nb * nb * m2) / (nx * nx)
+          + 4 * delta * (na * o.m3 - nb * m3) / nx;
+      n += o.n;
+      mean += delta * nb / nx;
+      m2 = newM2;
+      m3 = newM3;
+      m4 = newM4;
     }
 
     @Override
     public boolean isNull() {
-      return sum1 == null;
+      return n == 0;
     }
 
     protected double sampleMoment2() {
-      return (sum0 * sum2 - sum1 * sum1) / (sum0 * (sum0 - 1));
+      return m2 / (n - 1);
     }
 
     protected double sampleDev() {
@@ -210,11 +248,110 @@ public class StatAggregators {
     }
 
     protected double popDev() {
-      return Math.sqrt(sum0 * sum2 - sum1 * sum1) / sum0;
+      return Math.sqrt(m2 / n);
+    }
+  }
+
+  /**
+   * Estimates a quantile of the elements with a {@link QuantileSketch}.
+   */
+  public static class QuantileAggregator<T extends Number> extends Aggregator<Double, T> {
+
+    private final double quantile;
+    private final QuantileSketch sketch = new QuantileSketch();
+
+    public QuantileAggregator(double quantile) {
+      this.quantile = quantile;
+    }
+
+    @Override
+    public void addImpl(T x) {
+      sketch.add(x.doubleValue());
+    }
+
+    @Override
+    public void merge(Aggregator<?, ?> other) {
+      sketch.merge(((QuantileAggregator<?>) other).sketch);
+    }
+
+    @Override
+    public Double finishImpl() {
+      return sketch.quantile(quantile);
+    }
+
+    @Override
+    public boolean isNull() {
+      return sketch.count() == 0;
     }
 
-    protected double popToSampleCoeff() {
-      return (sum0 / (sum0 - 1));
+    @Override
+    public long size() {
+      return sketch.size();
+    }
+  }
+
+  private static TypedAggrFunction<Double> quantileFunction(String name, Ident ident, DataType<?> argType,
+      double quantile) throws ModelException {
+    if (argType.isDouble()) {
+      return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
+
+        @Override
+        public Aggregator<Double, Double> create() {
+          return new QuantileAggregator<Double>(quantile);
+        }
+      };
+    } else if (argType.isLong()) {
+      return new TypedAggrFunction<Double>(name, DataTypes.DoubleType) {
+
+        @Override
+        public Aggregator<Double, Long> create() {
+          return new QuantileAggregator<Long>(quantile);
+        }
+      };
+    } else {
+      throw new ModelException(String.format("Invalid argument type '%s' for aggregator '%s'.", argType, name), ident);
+    }
+  }
+
+  @Func(doc = "Estimates the p quantile of the elements, p has to be a constant between 0 and 1.")
+  public static class ApproxPercentile extends AggrFunction {
+    public ApproxPercentile() {
+      super("approx_percentile");
+    }
+
+    @Override
+    public ImmutableList<String> params() {
+      return ImmutableList.of("p");
+    }
+
+    @Override
+    public TypedAggrFunction<?> compile(Ident ident, DataType<?> argType) throws ModelException {
+      throw new ModelException("Invalid number of arguments for aggregator: 1.", ident);
+    }
+
+    @Override
+    public TypedAggrFunction<?> compile(Ident ident, DataType<?> argType, ImmutableList<Object> params)
+        throws ModelException {
+      if (params.size() != 1) {
+        throw new ModelException("Invalid number of arguments for aggregator: " + (params.size() + 1) + ".", ident);
+      }
+      Object p = params.get(0);
+      if (!(p instanceof Number) || ((Number) p).doubleValue() < 0.0 || ((Number) p).doubleValue() > 1.0) {
+        throw new ModelException(String.format("Invalid quantile '%s', it has to be between 0 and 1.", p), ident);
+      }
+      return quantileFunction(name, ident, argType, ((Number) p).doubleValue());
+    }
+  }
+
+  @Func(doc = "Estimates the median of the elements.")
+  public static class ApproxMedian extends AggrFunction {
+    public ApproxMedian() {
+      super("approx_median");
+    }
+
+    @Override
+    public TypedAggrFunction<?> compile(Ident ident, DataType<?> argType) throws ModelException {
+      return quantileFunction(name, ident, argType, 0.5);
     }
   }
 
@@ -317,20 +454,8 @@ public class StatAggregators {
   public static class Skewness extends AggrFunction {
     public static abstract class SkewnessAggregator<T> extends StdDevAggregator<T> {
 
-      protected Double sum3 = null;
-
-      protected void addItem(Double x) {
-        super.addItem(x);
-        if (sum3 == null) {
-          sum3 = 0.0;
-        }
-        sum3 += x * x * x;
-      }
-
       protected double sampleMoment3() {
-        double mu = sum1 / sum0;
-        double sigmaPop = popDev();
-        return popToSampleCoeff() * (sum3 / sum0 - 3 * mu * sigmaPop * sigmaPop - mu * mu * mu);
+        return m3 / (n - 1);
       }
 
       @Override
@@ -384,23 +509,8 @@ public class StatAggregators {
   public static class Kurtosis extends AggrFunction {
     public static abstract class KurtosisAggregator<T> extends SkewnessAggregator<T> {
 
-      protected Double sum4 = null;
-
-      protected void addItem(Double x) {
-        super.addItem(x);
-        if (sum4 == null) {
-          sum4 = 0.0;
-        }
-        sum4 += x * x * x * x;
-      }
-
       protected double sampleMoment4() {
-        double mu = sum1 / sum0;
-        return popToSampleCoeff() * (sum4 / sum0
-            - 4 * (sum3 / sum0) * mu
-            + 6 * (sum2 / sum0) * mu * mu
-            - 4 * (sum1 / sum0) * mu * mu * mu
-            + mu * mu * mu * mu);
+        return m4 / (n - 1);
       }
 
       @Override
@@ -15,97 +15,117 @@
  */
 package com.cosyan.db.model;
 
+import java.util.regex.PatternSyntaxException;
+
 import com.cosyan.db.doc.FunctionDocumentation.Func;
 import com.cosyan.db.doc.FunctionDocumentation.FuncCat;
 import com.cosyan.db.model.BuiltinFunctions.SimpleFunction;
-import com.google.common.collect.ImmutableList;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction1;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction2;
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction3;
 import com.google.common.collect.ImmutableMap;
 
 @FuncCat(name = "string", doc = "Text functions")
 public class StringFunctions {
   @Func(doc = "Number of characters in self.")
-  public static class Length extends SimpleFunction<Long> {
+  public static class Length extends SimpleFunction1<Long> {
     public Length() {
       super("length", DataTypes.LongType, ImmutableMap.of("self", DataTypes.StringType));
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      return (long) ((String) argValues.get(0)).length();
+    public Long call1(Object self) {
+      return (long) ((String) self).length();
     }
   }
 
   @Func(doc = "Converts all characters of self to uppercase.")
-  public static class Upper extends SimpleFunction<String> {
+  public static class Upper extends SimpleFunction1<String> {
     public Upper() {
       super("upper", DataTypes.StringType, ImmutableMap.of("self", DataTypes.StringType));
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      return ((String) argValues.get(0)).toUpperCase();
+    public String call1(Object self) {
+      return ((String) self).toUpperCase();
     }
   }
 
   @Func(doc = "Converts all characters of self to lowercase.")
-  public static class Lower extends SimpleFunction<String> {
+  public static class Lower extends SimpleFunction1<String> {
     public Lower() {
       super("lower", DataTypes.StringType, ImmutableMap.of("self", DataTypes.StringType));
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      return ((String) argValues.get(0)).toLowerCase();
+    public String call1(Object self) {
+      return ((String) self).toLowerCase();
     }
   }
 
   @Func(doc = "Returns the substring of self between start and end.")
-  public static class Substr extends SimpleFunction<String> {
+  public static class Substr extends SimpleFunction3<String> {
     public Substr() {
       super("substr", DataTypes.StringType,
           ImmutableMap.of("self", DataTypes.StringType, "start", DataTypes.LongType, "end", DataTypes.LongType));
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      int start = ((Long) argValues.get(1)).intValue();
-      int end = start + ((Long) argValues.get(2)).intValue();
-      return ((String) argValues.get(0)).substring(start, end);
+    public String call3(Object self, Object start, Object end) {
+      int startIndex = ((Long) start).intValue();
+      int endIndex = startIndex + ((Long) end).intValue();
+      return ((String) self).substring(startIndex, endIndex);
     }
   }
 
   @Func(doc = "Returns true iff self matches the regular expression regex.")
-  public static class Matches extends SimpleFunction<Boolean> {
+  public static class Matches extends SimpleFunction2<Boolean> {
     public Matches() {
       super("matches", DataTypes.BoolType,
           ImmutableMap.of("self", DataTypes.StringType, "regex", DataTypes.StringType));
     }
 
     @Override
-    public Boolean call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      String regex = (String) argValues.get(1);
-      return str.matches(regex);
+    public Boolean call2(Object self, Object regex) {
+      return RegexMatcher.cached((String) regex).matches((String) self);
+    }
+
+    @Override
+    public SimpleFunction<Boolean> specialize(Object[] constants) {
+      if (!(constants[1] instanceof String)) {
+        return this;
+      }
+      RegexMatcher matcher;
+      try {
+        matcher = RegexMatcher.compile((String) constants[1]);
+      } catch (PatternSyntaxException e) {
+        // Invalid patterns fail when the function is called.
+        return this;
+      }
+      return new Matches() {
+        @Override
+        public Boolean call2(Object self, Object regex) {
+          return matcher.matches((String) self);
+        }
+      };
     }
   }
 
   @Func(doc = "Returns true iff self contains str.")
-  public static class Contains extends SimpleFunction<Boolean> {
+  public static class Contains extends SimpleFunction2<Boolean> {
     public Contains() {
       super("contains", DataTypes.BoolType,
           ImmutableMap.of("self", DataTypes.StringType, "str", DataTypes.StringType));
     }
 
     @Override
-    public Boolean call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      String substring = (String) argValues.get(1);
-      return str.contains(substring);
+    public Boolean call2(Object self, Object str) {
+      return ((String) self).contains((String) str);
     }
   }
 
   @Func(doc = "Replaces every occurrences of target with replacement in self.")
-  public static class Replace extends SimpleFunction<String> {
+  public static class Replace extends SimpleFunction3<String> {
     public Replace() {
       super("replace", DataTypes.StringType, ImmutableMap.of(
           "self", DataTypes.StringType,
@@ -114,67 +134,74 @@ public class StringFunctions {
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      String oldStr = (String) argValues.get(1);
-      String newStr = (String) argValues.get(2);
-      return str.replace(oldStr, newStr);
+    public String call3(Object self, Object target, Object replacement) {
+      String str = (String) self;
+      String targetStr = (String) target;
+      int index = str.indexOf(targetStr);
+      if (index < 0) {
+        return str;
+      }
+      if (targetStr.isEmpty()) {
+        return str.replace(targetStr, (String) replacement);
+      }
+      // String.replace compiles a literal pattern on every call.
+      StringBuilder sb = new StringBuilder(str.length());
+      int from = 0;
+      while (index >= 0) {
+        sb.append(str, from, index).append((String) replacement);
+        from = index + targetStr.length();
+        index = str.indexOf(targetStr, from);
+      }
+      return sb.append(str, from, str.length()).toString();
     }
   }
 
   @Func(doc = "Removes all leading and trailing whitespaces from self.")
-  public static class Trim extends SimpleFunction<String> {
+  public static class Trim extends SimpleFunction1<String> {
     public Trim() {
       super("trim", DataTypes.StringType, ImmutableMap.of("self", DataTypes.StringType));
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      return str.trim();
+    public String call1(Object self) {
+      return ((String) self).trim();
     }
   }
 
   @Func(doc = "Concatenates self with str.")
-  public static class Concat extends SimpleFunction<String> {
+  public static class Concat extends SimpleFunction2<String> {
     public Concat() {
       super("concat", DataTypes.StringType, ImmutableMap.of("self", DataTypes.StringType, "str", DataTypes.StringType));
     }
 
     @Override
-    public String call(ImmutableList<Object> argValues) {
-      String str1 = (String) argValues.get(0);
-      String str2 = (String) argValues.get(1);
-      return str1.concat(str2);
+    public String call2(Object self, Object str) {
+      return ((String) self).concat((String) str);
     }
   }
 
   @Func(doc = "Index of the first occurrence of str in self.")
-  public static class IndexOf extends SimpleFunction<Long> {
+  public static class IndexOf extends SimpleFunction2<Long> {
     public IndexOf() {
       super("index_of", DataTypes.LongType, ImmutableMap.of("self", DataTypes.StringType, "str", DataTypes.StringType));
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      String substr = (String) argValues.get(1);
-      return (long) str.indexOf(substr);
+    public Long call2(Object self, Object str) {
+      return (long) ((String) self).indexOf((String) str);
     }
   }
 
   @Func(doc = "Index of the last occurrence of str in self.")
-  public static class LastIndexOf extends SimpleFunction<Long> {
+  public static class LastIndexOf extends SimpleFunction2<Long> {
     public LastIndexOf() {
       super("last_index_of", DataTypes.LongType,
           ImmutableMap.of("self", DataTypes.StringType, "str", DataTypes.StringType));
     }
 
     @Override
-    public Long call(ImmutableList<Object> argValues) {
-      String str = (String) argValues.get(0);
-      String substr = (String) argValues.get(1);
-      return (long) str.lastIndexOf(substr);
+    public Long call2(Object self, Object str) {
+      return (long) ((String) self).lastIndexOf((String) str);
     }
   }
 }
@@ -16,6 +16,7 @@
 package com.cosyan.db.model;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
@@ -23,6 +24,7 @@ import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.meta.Dependencies.TableDependencies;
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.ColumnMeta.SharedColumn;
 import com.cosyan.db.model.DataTypes.DataType;
 import com.cosyan.db.transaction.MetaResources;
 import com.cosyan.db.transaction.Resources;
@@ -35,6 +37,23 @@ public abstract class TableMeta implements CompiledObject {
   public static final ImmutableMap<String, ColumnMeta> wholeTableKeys = ImmutableMap.of("",
       ColumnMeta.TRUE_COLUMN);
 
+  // Columns compiled from the same expression against this table, by the printed expression.
+  private final ConcurrentHashMap<String, SharedColumn> sharedColumns = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the column previously compiled from the expression against this
+   * table, or <code>null</code>. The returned column is marked as shared.
+   */
+  @Nullable
+  public SharedColumn sharedColumn(String expr) {
+    SharedColumn column = sharedColumns.get(expr);
+    return column == null ? null : column.share();
+  }
+
+  public SharedColumn addSharedColumn(String expr, ColumnMeta column) {
+    return sharedColumns.computeIfAbsent(expr, e -> new SharedColumn(column));
+  }
+
   public IndexColumn column(Ident ident) throws ModelException {
     IndexColumn column = getColumn(ident);
     if (column == null) {
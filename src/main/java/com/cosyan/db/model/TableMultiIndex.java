@@ -16,10 +16,14 @@
 package com.cosyan.db.model;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
 import com.cosyan.db.index.ByteMultiTrie.LongMultiIndex;
 import com.cosyan.db.index.ByteMultiTrie.StringMultiIndex;
 import com.cosyan.db.index.ByteTrie.IndexException;
+import com.cosyan.db.index.IndexEntrySorter.EntryIterator;
+import com.cosyan.db.index.IndexLSN;
 import com.cosyan.db.index.IndexStat.ByteMultiTrieStat;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.Indexes.IndexWriter;
@@ -44,8 +48,13 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
 
   public abstract void drop() throws IOException;
 
+  private final IndexLSN lsn;
   private boolean valid = true;
 
+  protected TableMultiIndex(IndexLSN lsn) {
+    this.lsn = lsn;
+  }
+
   public void invalidate() {
     valid = false;
   }
@@ -54,14 +63,24 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
     return valid;
   }
 
+  public IndexLSN lsn() {
+    return lsn;
+  }
+
   public static class LongTableMultiIndex extends TableMultiIndex {
 
     private LongMultiIndex index;
 
-    public LongTableMultiIndex(LongMultiIndex index) {
+    public LongTableMultiIndex(LongMultiIndex index, IndexLSN lsn) {
+      super(lsn);
       this.index = index;
     }
 
+    @Override
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      index.bulkLoad(entries);
+    }
+
     @Override
     public void put(Object key, long fileIndex) throws IOException, IndexException {
       index.put((Long) key, fileIndex);
@@ -82,6 +101,11 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
       return index.get((Long) key);
     }
 
+    @Override
+    public long[][] getAll(Object[] keys) throws IOException {
+      return index.getAll(Arrays.stream(keys).map(k -> (Long) k).collect(Collectors.toList()));
+    }
+
     @Override
     public void commit() throws IOException {
       index.commit();
@@ -105,6 +129,7 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
     @Override
     public void drop() throws IOException {
       index.drop();
+      lsn().drop();
     }
 
     @Override
@@ -117,10 +142,16 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
 
     private StringMultiIndex index;
 
-    public StringTableMultiIndex(StringMultiIndex index) {
+    public StringTableMultiIndex(StringMultiIndex index, IndexLSN lsn) {
+      super(lsn);
       this.index = index;
     }
 
+    @Override
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      index.bulkLoad(entries);
+    }
+
     @Override
     public void put(Object key, long fileIndex) throws IOException, IndexException {
       index.put((String) key, fileIndex);
@@ -141,6 +172,11 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
       return index.get((String) key);
     }
 
+    @Override
+    public long[][] getAll(Object[] keys) throws IOException {
+      return index.getAll(Arrays.stream(keys).map(k -> (String) k).collect(Collectors.toList()));
+    }
+
     @Override
     public void commit() throws IOException {
       index.commit();
@@ -164,6 +200,7 @@ public abstract class TableMultiIndex implements IndexReader, IndexWriter {
     @Override
     public void drop() throws IOException {
       index.drop();
+      lsn().drop();
     }
     
     @Override
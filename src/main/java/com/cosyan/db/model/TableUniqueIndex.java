@@ -16,11 +16,16 @@
 package com.cosyan.db.model;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
 import com.cosyan.db.index.ByteTrie.LongIndex;
 import com.cosyan.db.index.ByteTrie.StringIndex;
 import com.cosyan.db.index.IDIndex;
+import com.cosyan.db.index.IndexEntrySorter.EntryIterator;
+import com.cosyan.db.index.IndexLSN;
 import com.cosyan.db.index.IndexStat.ByteTrieStat;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.Indexes.IndexWriter;
@@ -34,6 +39,11 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
 
   public abstract long get0(Object key) throws IOException;
 
+  /**
+   * Returns the file pointer for every key or <code>-1</code> for missing keys.
+   */
+  public abstract long[] getAll0(Object[] keys) throws IOException;
+
   public abstract void commit() throws IOException;
 
   public abstract void rollback();
@@ -42,8 +52,13 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
 
   public abstract void drop() throws IOException;
 
+  private final IndexLSN lsn;
   private boolean valid = true;
 
+  protected TableUniqueIndex(IndexLSN lsn) {
+    this.lsn = lsn;
+  }
+
   public void invalidate() {
     valid = false;
   }
@@ -52,14 +67,48 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
     return valid;
   }
 
+  public IndexLSN lsn() {
+    return lsn;
+  }
+
+  @Override
+  public long[][] getAll(Object[] keys) throws IOException {
+    long[] filePointers = getAll0(keys);
+    long[][] result = new long[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      result[i] = filePointers[i] < 0 ? new long[0] : new long[] { filePointers[i] };
+    }
+    return result;
+  }
+
+  @Override
+  public boolean[] containsAll(Object[] keys) throws IOException {
+    long[] filePointers = getAll0(keys);
+    boolean[] result = new boolean[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      result[i] = filePointers[i] >= 0;
+    }
+    return result;
+  }
+
+  private static long[] toFilePointers(List<Long> values) {
+    return values.stream().mapToLong(v -> v == null ? -1 : v).toArray();
+  }
+
   public static class LongTableIndex extends TableUniqueIndex {
 
     private final LongIndex index;
 
-    public LongTableIndex(LongIndex index) {
+    public LongTableIndex(LongIndex index, IndexLSN lsn) {
+      super(lsn);
       this.index = index;
     }
 
+    @Override
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      index.bulkLoad(entries);
+    }
+
     @Override
     public void put(Object key, long fileIndex) throws IOException, IndexException {
       index.put((Long) key, fileIndex);
@@ -90,6 +139,11 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
       }
     }
 
+    @Override
+    public long[] getAll0(Object[] keys) throws IOException {
+      return toFilePointers(index.getAll(Arrays.stream(keys).map(k -> (Long) k).collect(Collectors.toList())));
+    }
+
     @Override
     public void commit() throws IOException {
       index.commit();
@@ -113,6 +167,7 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
     @Override
     public void drop() throws IOException {
       index.drop();
+      lsn().drop();
     }
 
     @Override
@@ -125,10 +180,16 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
 
     private final StringIndex index;
 
-    public StringTableIndex(StringIndex index) {
+    public StringTableIndex(StringIndex index, IndexLSN lsn) {
+      super(lsn);
       this.index = index;
     }
 
+    @Override
+    public void bulkLoad(EntryIterator entries) throws IOException, IndexException {
+      index.bulkLoad(entries);
+    }
+
     @Override
     public void put(Object key, long fileIndex) throws IOException, IndexException {
       index.put((String) key, fileIndex);
@@ -159,6 +220,11 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
       }
     }
 
+    @Override
+    public long[] getAll0(Object[] keys) throws IOException {
+      return toFilePointers(index.getAll(Arrays.stream(keys).map(k -> (String) k).collect(Collectors.toList())));
+    }
+
     @Override
     public void commit() throws IOException {
       index.commit();
@@ -182,6 +248,7 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
     @Override
     public void drop() throws IOException {
       index.drop();
+      lsn().drop();
     }
 
     @Override
@@ -194,7 +261,8 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
 
     private final IDIndex index;
 
-    public IDTableIndex(IDIndex index) {
+    public IDTableIndex(IDIndex index, IndexLSN lsn) {
+      super(lsn);
       this.index = index;
     }
 
@@ -228,6 +296,11 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
       }
     }
 
+    @Override
+    public long[] getAll0(Object[] keys) throws IOException {
+      return index.getAll(Arrays.stream(keys).mapToLong(k -> (Long) k).toArray());
+    }
+
     @Override
     public void commit() throws IOException {
       index.commit();
@@ -251,6 +324,7 @@ public abstract class TableUniqueIndex implements IndexReader, IndexWriter {
     @Override
     public void drop() throws IOException {
       index.drop();
+      lsn().drop();
     }
 
     public long getLastID() {
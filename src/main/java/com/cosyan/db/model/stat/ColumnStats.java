@@ -15,14 +15,25 @@
  */
 package com.cosyan.db.model.stat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 
+import com.cosyan.db.io.Serializer;
+import com.cosyan.db.model.DataTypes.DataType;
+
 import net.agkn.hll.HLL;
 
 public class ColumnStats {
 
   public static final int CNTS_SIZE = 256;
   private long notNull;
+  private long nulls;
+  private Object min;
+  private Object max;
+  private Object[] histogram = new Object[0];
   private final HLL hll;
   private final long[] cnts;
 
@@ -31,19 +42,72 @@ public class ColumnStats {
     hll = new HLL(13, 5);
   }
 
+  private ColumnStats(HLL hll, long[] cnts) {
+    this.cnts = cnts;
+    this.hll = hll;
+  }
+
+  private static long hash(Object obj) {
+    CRC32 crc = new CRC32();
+    crc.update(obj.toString().getBytes());
+    return crc.getValue();
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
   public void add(Object obj) {
     if (obj != null) {
       notNull++;
 
-      CRC32 crc = new CRC32();
-      crc.update(obj.toString().getBytes());
-      long hash32 = crc.getValue();
+      long hash32 = hash(obj);
 
       int address = ((int) hash32) & 0xFF;
       cnts[address]++;
       // TODO: use 64 bit hashing for HLL.
       hll.addRaw(hash32);
+
+      if (obj instanceof Comparable) {
+        if (min == null || ((Comparable) obj).compareTo(min) < 0) {
+          min = obj;
+        }
+        if (max == null || ((Comparable) obj).compareTo(max) > 0) {
+          max = obj;
+        }
+      }
+    } else {
+      nulls++;
+    }
+  }
+
+  /**
+   * Sets the equi-depth histogram: the upper bounds of buckets holding the same
+   * number of values. Frequent values span multiple buckets.
+   */
+  public void setHistogram(Object[] histogram) {
+    this.histogram = histogram;
+  }
+
+  public Object[] histogram() {
+    return histogram;
+  }
+
+  /**
+   * Estimates the number of values equal to <code>obj</code>. Values are
+   * assumed to be uniformly distributed, except that the load of the bucket
+   * of the frequency sketch above the average is attributed to a frequent
+   * value. Values spanning multiple buckets of the histogram are frequent too.
+   */
+  public double estimatedCount(Object obj) {
+    if (notNull == 0) {
+      return 0.0;
     }
+    double average = ((double) notNull) / Math.max(1L, cardinality());
+    long bucket = cnts[((int) hash(obj)) & 0xFF];
+    double excess = Math.max(0.0, bucket - ((double) notNull) / CNTS_SIZE);
+    long histogramBuckets = Arrays.stream(histogram).filter(b -> b.equals(obj)).count();
+    double histogramCount = histogramBuckets > 1
+        ? ((double) (histogramBuckets - 1)) / histogram.length * notNull
+        : 0.0;
+    return Math.min(bucket, Math.max(average + excess, histogramCount));
   }
 
   public double maxRelativeCardinality() {
@@ -61,4 +125,57 @@ public class ColumnStats {
   public long notNull() {
     return notNull;
   }
+
+  public double nullFraction() {
+    return notNull + nulls == 0 ? 0.0 : ((double) nulls) / (notNull + nulls);
+  }
+
+  public Object min() {
+    return min;
+  }
+
+  public Object max() {
+    return max;
+  }
+
+  public void write(DataType<?> type, DataOutput stream) throws IOException {
+    stream.writeLong(notNull);
+    stream.writeLong(nulls);
+    Serializer.writeColumn(min, type, stream);
+    Serializer.writeColumn(max, type, stream);
+    stream.writeInt(histogram.length);
+    for (Object bound : histogram) {
+      Serializer.writeColumn(bound, type, stream);
+    }
+    for (long cnt : cnts) {
+      stream.writeLong(cnt);
+    }
+    byte[] hllBytes = hll.toBytes();
+    stream.writeInt(hllBytes.length);
+    stream.write(hllBytes);
+  }
+
+  public static ColumnStats read(DataType<?> type, DataInput stream) throws IOException {
+    long notNull = stream.readLong();
+    long nulls = stream.readLong();
+    Object min = Serializer.readColumn(type, stream);
+    Object max = Serializer.readColumn(type, stream);
+    Object[] histogram = new Object[stream.readInt()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = Serializer.readColumn(type, stream);
+    }
+    long[] cnts = new long[CNTS_SIZE];
+    for (int i = 0; i < CNTS_SIZE; i++) {
+      cnts[i] = stream.readLong();
+    }
+    byte[] hllBytes = new byte[stream.readInt()];
+    stream.readFully(hllBytes);
+    ColumnStats stats = new ColumnStats(HLL.fromBytes(hllBytes), cnts);
+    stats.notNull = notNull;
+    stats.nulls = nulls;
+    stats.min = min;
+    stats.max = max;
+    stats.histogram = histogram;
+    return stats;
+  }
 }
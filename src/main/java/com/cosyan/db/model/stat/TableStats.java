@@ -15,54 +15,215 @@
  */
 package com.cosyan.db.model.stat;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.cosyan.db.conf.Config;
+import com.cosyan.db.conf.Config.ConfigException;
+import com.cosyan.db.io.TableReader.IterableTableReader;
+import com.cosyan.db.model.BasicColumn;
 
 public class TableStats {
 
+  public static final int HISTOGRAM_BUCKETS = 32;
+  private static final int DEFAULT_SAMPLE_SIZE = 10000;
+  private static final int DEFAULT_REFRESH_PERCENT = 20;
+
   private final Config config;
   private final String tableName;
 
   private long cnt = 0L;
+  private long modified = 0L;
+  private volatile Map<String, ColumnStats> columnStats = Collections.emptyMap();
+  private final AtomicBoolean refreshing = new AtomicBoolean();
 
   public TableStats(Config config, String tableName) throws IOException {
     this.config = config;
     this.tableName = tableName;
   }
 
-  public void load() throws IOException {
-    File statFile = new File(config.statDir() + File.separator + tableName);
+  private File statFile() {
+    return new File(config.statDir() + File.separator + tableName);
+  }
+
+  /**
+   * Loads the persisted statistics. Column statistics are skipped if the
+   * column no longer exists or its type changed.
+   */
+  public void load(Map<String, BasicColumn> columns) throws IOException {
+    File statFile = statFile();
     if (statFile.exists()) {
-      DataInputStream stream = new DataInputStream(new FileInputStream(statFile));
-      cnt = stream.readLong();
-      stream.close();
+      try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(statFile)))) {
+        cnt = stream.readLong();
+        if (stream.available() == 0) {
+          return;
+        }
+        modified = stream.readLong();
+        Map<String, ColumnStats> loadedStats = new HashMap<>();
+        int numColumns = stream.readInt();
+        for (int i = 0; i < numColumns; i++) {
+          String name = stream.readUTF();
+          String typeName = stream.readUTF();
+          int length = stream.readInt();
+          BasicColumn column = columns.get(name);
+          if (column != null && column.getType().getName().equals(typeName)) {
+            loadedStats.put(name, ColumnStats.read(column.getType(), stream));
+          } else {
+            stream.skipBytes(length);
+          }
+        }
+        columnStats = loadedStats;
+      }
     }
   }
 
-  public void save() throws IOException {
-    File statFile = new File(config.statDir() + File.separator + tableName);
-    if (statFile.exists()) {
-      DataOutputStream stream = new DataOutputStream(new FileOutputStream(statFile));
+  public void save(Map<String, BasicColumn> columns) throws IOException {
+    try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(statFile())))) {
       stream.writeLong(cnt);
-      stream.close();
+      stream.writeLong(modified);
+      Map<String, ColumnStats> stats = columnStats;
+      List<BasicColumn> savedColumns = new ArrayList<>();
+      for (BasicColumn column : columns.values()) {
+        if (stats.containsKey(column.getName())) {
+          savedColumns.add(column);
+        }
+      }
+      stream.writeInt(savedColumns.size());
+      for (BasicColumn column : savedColumns) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.get(column.getName()).write(column.getType(), new DataOutputStream(bytes));
+        stream.writeUTF(column.getName());
+        stream.writeUTF(column.getType().getName());
+        stream.writeInt(bytes.size());
+        bytes.writeTo(stream);
+      }
+    }
+  }
+
+  public void drop() {
+    statFile().delete();
+  }
+
+  /**
+   * Scans the table and rebuilds the column statistics. Cardinality, null
+   * fraction, min and max are computed from every row, the histograms from a
+   * uniform reservoir sample of the rows.
+   *
+   * @return the number of rows in the table.
+   */
+  public long analyze(Collection<BasicColumn> columns, IterableTableReader reader)
+      throws IOException, ConfigException {
+    int sampleSize = config.getInt(Config.STATS_SAMPLE_SIZE, DEFAULT_SAMPLE_SIZE);
+    Map<String, ColumnStats> newStats = new HashMap<>();
+    for (BasicColumn column : columns) {
+      newStats.put(column.getName(), new ColumnStats());
+    }
+    Random random = new Random();
+    List<Object[]> sample = new ArrayList<>();
+    long rows = 0L;
+    Object[] values;
+    while ((values = reader.next()) != null) {
+      for (BasicColumn column : columns) {
+        newStats.get(column.getName()).add(values[column.getIndex()]);
+      }
+      if (sample.size() < sampleSize) {
+        sample.add(values);
+      } else {
+        long i = (long) (random.nextDouble() * (rows + 1));
+        if (i < sampleSize) {
+          sample.set((int) i, values);
+        }
+      }
+      rows++;
+    }
+    for (BasicColumn column : columns) {
+      newStats.get(column.getName()).setHistogram(histogram(sample, column.getIndex()));
+    }
+    synchronized (this) {
+      cnt = rows;
+      modified = 0L;
+      columnStats = newStats;
+    }
+    return rows;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object[] histogram(List<Object[]> sample, int index) {
+    List<Comparable> values = new ArrayList<>();
+    for (Object[] row : sample) {
+      if (row[index] instanceof Comparable) {
+        values.add((Comparable) row[index]);
+      }
+    }
+    if (values.isEmpty()) {
+      return new Object[0];
+    }
+    Collections.sort(values);
+    int buckets = Math.min(HISTOGRAM_BUCKETS, values.size());
+    Object[] bounds = new Object[buckets];
+    for (int i = 0; i < buckets; i++) {
+      bounds[i] = values.get((int) ((long) (i + 1) * values.size() / buckets) - 1);
+    }
+    return bounds;
+  }
+
+  /**
+   * Whether the table was analyzed and enough rows changed since to make the
+   * statistics stale. Returns <code>true</code> only once until the refresh
+   * finishes.
+   */
+  public boolean startRefresh() throws ConfigException {
+    int refreshPercent = config.getInt(Config.STATS_REFRESH_PERCENT, DEFAULT_REFRESH_PERCENT);
+    synchronized (this) {
+      if (columnStats.isEmpty() || modified * 100 < Math.max(cnt, 1L) * refreshPercent) {
+        return false;
+      }
     }
+    return refreshing.compareAndSet(false, true);
+  }
+
+  public void finishRefresh() {
+    refreshing.set(false);
+  }
+
+  public long rowCount() {
+    return cnt;
+  }
+
+  /**
+   * Returns the statistics of the column or <code>null</code> if the column
+   * was not analyzed.
+   */
+  public ColumnStats columnStats(String column) {
+    return columnStats.get(column);
   }
 
   public boolean isEmpty() {
     return cnt == 0;
   }
 
-  public void insert(long insertedLines) {
+  public synchronized void insert(long insertedLines) {
     cnt += insertedLines;
+    modified += insertedLines;
   }
 
-  public void delete(long deletedLines) {
+  public synchronized void delete(long deletedLines) {
     cnt -= deletedLines;
+    modified += deletedLines;
   }
 }
@@ -67,6 +67,7 @@ public class AlterTransaction extends Transaction {
       Resources resources = metaRepo.resources(metaResources);
       try {
         result = alterStatement.executeData(metaRepo, resources);
+        resources.checkDeferredRules();
       } catch (RuleException e) {
         resources.rollback();
         metaRepo.readTables();
@@ -60,6 +60,7 @@ public class DataTransaction extends Transaction {
     List<Result> results = new ArrayList<>();
     for (Statement statement : statements) {
       results.add(statement.execute(resources));
+      resources.checkDeferredRules();
     }
     return new TransactionResult(results);
   }
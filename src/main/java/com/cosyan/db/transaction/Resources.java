@@ -16,13 +16,17 @@
 package com.cosyan.db.transaction;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
+import com.cosyan.db.conf.Config;
+import com.cosyan.db.io.DeferredRuleChecks;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.io.Indexes.IndexWriter;
 import com.cosyan.db.io.TableReader.IterableTableReader;
 import com.cosyan.db.io.TableReader.SeekableTableReader;
 import com.cosyan.db.io.TableWriter;
 import com.cosyan.db.meta.MaterializedTable;
+import com.cosyan.db.meta.MetaRepo.RuleException;
 import com.cosyan.db.model.Keys.Ref;
 import com.cosyan.db.model.TableUniqueIndex;
 import com.google.common.collect.ImmutableMap;
@@ -30,26 +34,54 @@ import com.google.common.collect.Sets;
 
 public class Resources {
 
+  private final Config config;
   private final ImmutableMap<String, SeekableTableReader> readers;
   private final ImmutableMap<String, TableWriter> writers;
   private final ImmutableMap<String, MaterializedTable> metas;
+  private final ExecutorService aggregationExecutor;
+  private final DeferredRuleChecks deferredRuleChecks = new DeferredRuleChecks();
 
   public Resources(
+      Config config,
       ImmutableMap<String, SeekableTableReader> readers,
       ImmutableMap<String, TableWriter> writers,
-      ImmutableMap<String, MaterializedTable> metas) {
+      ImmutableMap<String, MaterializedTable> metas,
+      ExecutorService aggregationExecutor) {
     assert Sets.intersection(readers.keySet(), writers.keySet()).isEmpty();
+    this.config = config;
     this.readers = readers;
     this.writers = writers;
     this.metas = metas;
+    this.aggregationExecutor = aggregationExecutor;
+  }
+
+  public Config config() {
+    return config;
+  }
+
+  public ExecutorService aggregationExecutor() {
+    return aggregationExecutor;
   }
 
   public void rollback() {
+    deferredRuleChecks.clear();
     for (TableWriter table : writers.values()) {
       table.rollback();
     }
   }
 
+  public DeferredRuleChecks deferredRuleChecks() {
+    return deferredRuleChecks;
+  }
+
+  /**
+   * Checks the referencing rules collected since the last check, has to be
+   * called at the end of every statement and before committing.
+   */
+  public void checkDeferredRules() throws IOException, RuleException {
+    deferredRuleChecks.check(this);
+  }
+
   public void commit() throws IOException {
     for (TableWriter table : writers.values()) {
       table.commit();
@@ -17,12 +17,15 @@ package com.cosyan.db.index;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.stream.LongStream;
 
 import org.junit.Test;
 
 import com.cosyan.db.index.ByteMultiTrie.LongMultiIndex;
 import com.cosyan.db.index.ByteMultiTrie.StringMultiIndex;
+import com.cosyan.db.model.DataTypes;
 
 public class ByteMultiTrieTest {
 
@@ -157,4 +160,64 @@ public class ByteMultiTrieTest {
     }
     assertEquals(v10L.stream().mapToLong(Long::longValue).toArray(), index.get("a"));
   }
+
+  @Test
+  public void testLongByteTrieBulkLoad() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/longindex3#chain"));
+    Files.deleteIfExists(Paths.get("/tmp/longindex3#index"));
+    LongMultiIndex index = new LongMultiIndex("/tmp/longindex3");
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.LongType, "/tmp", 7)) {
+      for (long i = 1; i <= 100; i++) {
+        sorter.add(i % 3, i);
+      }
+      index.bulkLoad(sorter.sorted());
+    }
+    index.commit();
+    for (long k = 0; k < 3; k++) {
+      final long key = k;
+      assertEquals(
+          LongStream.rangeClosed(1, 100).filter(i -> i % 3 == key).toArray(),
+          index.get(key));
+    }
+    index.put(1L, 1000L);
+    assertEquals(true, index.delete(1L, 1L));
+    index.commit();
+    assertEquals(34, index.get(1L).length);
+    assertEquals(new long[0], index.get(3L));
+  }
+
+  @Test
+  public void testStringByteTrieBulkLoadRollback() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/stringindex3#chain"));
+    Files.deleteIfExists(Paths.get("/tmp/stringindex3#index"));
+    StringMultiIndex index = new StringMultiIndex("/tmp/stringindex3");
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.StringType, "/tmp")) {
+      sorter.add("b", 2L);
+      sorter.add("a", 1L);
+      sorter.add("a", 3L);
+      index.bulkLoad(sorter.sorted());
+    }
+    assertEquals(new long[] { 1L, 3L }, index.get("a"));
+    index.rollback();
+    assertEquals(new long[0], index.get("a"));
+    index.put("a", 4L);
+    index.commit();
+    assertEquals(new long[] { 4L }, index.get("a"));
+  }
+
+  @Test
+  public void testLongByteTrieGetAll() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/longindex#chain"));
+    Files.deleteIfExists(Paths.get("/tmp/longindex#index"));
+    LongMultiIndex index = new LongMultiIndex("/tmp/longindex");
+    index.put(1L, 10L);
+    index.put(1L, 11L);
+    index.put(3L, 30L);
+    index.commit();
+    long[][] result = index.getAll(Arrays.asList(1L, 2L, 3L));
+    assertEquals(3, result.length);
+    assertEquals(new long[] { 10L, 11L }, result[0]);
+    assertEquals(new long[0], result[1]);
+    assertEquals(new long[] { 30L }, result[2]);
+  }
 }
@@ -19,12 +19,19 @@ import static org.junit.Assert.fail;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
 import com.cosyan.db.index.ByteTrie.IndexException;
 import com.cosyan.db.index.ByteTrie.LongIndex;
 import com.cosyan.db.index.ByteTrie.StringIndex;
+import com.cosyan.db.model.DataTypes;
 
 public class ByteTrieTest {
 
@@ -270,4 +277,126 @@ public class ByteTrieTest {
     } catch (IndexException e) {
     }
   }
+
+  @Test
+  public void testLongByteTrieBulkLoad() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/longindex"));
+    LongIndex index = new LongIndex("/tmp/longindex");
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.LongType, "/tmp", 100)) {
+      for (long i = 1000; i > 0; i--) {
+        sorter.add(i * 7919 % 100003 - 50000, i);
+      }
+      index.bulkLoad(sorter.sorted());
+    }
+    index.commit();
+    index.cleanUp();
+    for (long i = 1000; i > 0; i--) {
+      assertEquals(i, index.get(i * 7919 % 100003 - 50000));
+    }
+    assertEquals(null, index.get(1L));
+    index.put(1L, 1L);
+    index.commit();
+    assertEquals(1L, index.get(1L));
+  }
+
+  @Test
+  public void testStringByteTrieBulkLoad() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/stringindex"));
+    StringIndex index = new StringIndex("/tmp/stringindex");
+    String[] keys = new String[] { "", "a", "aa", "aaa", "ab", "b", "xxxxxx", "xy" };
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.StringType, "/tmp", 3)) {
+      for (int i = keys.length - 1; i >= 0; i--) {
+        sorter.add(keys[i], i);
+      }
+      index.bulkLoad(sorter.sorted());
+    }
+    index.commit();
+    index.cleanUp();
+    for (int i = 0; i < keys.length; i++) {
+      assertEquals((long) i, index.get(keys[i]));
+    }
+    assertEquals(null, index.get("x"));
+    assertEquals(null, index.get("aaaa"));
+  }
+
+  @Test
+  public void testByteTrieBulkLoadRollback() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/longindex"));
+    LongIndex index = new LongIndex("/tmp/longindex");
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.LongType, "/tmp")) {
+      sorter.add(1L, 10L);
+      sorter.add(2L, 20L);
+      index.bulkLoad(sorter.sorted());
+    }
+    assertEquals(10L, index.get(1L));
+    index.rollback();
+    assertEquals(null, index.get(1L));
+    index.put(3L, 30L);
+    index.commit();
+    assertEquals(30L, index.get(3L));
+  }
+
+  @Test
+  public void testByteTrieBulkLoadDuplicateKeys() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/longindex"));
+    LongIndex index = new LongIndex("/tmp/longindex");
+    try (IndexEntrySorter sorter = new IndexEntrySorter(DataTypes.LongType, "/tmp")) {
+      sorter.add(1L, 10L);
+      sorter.add(1L, 20L);
+      index.bulkLoad(sorter.sorted());
+      fail();
+    } catch (IndexException e) {
+    }
+    index.rollback();
+    assertEquals(null, index.get(1L));
+  }
+
+  @Test
+  public void testStringByteTrieConcurrentReads() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/stringindex"));
+    StringIndex index = new StringIndex("/tmp/stringindex");
+    for (long i = 0; i < 1000; i++) {
+      index.put("key" + i, i);
+    }
+    index.commit();
+    index.cleanUp();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(() -> {
+          for (long i = 0; i < 1000; i++) {
+            if (index.get("key" + i) != i || index.get("other" + i) != null) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertEquals(true, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testStringByteTrieGetAll() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/stringindex"));
+    StringIndex index = new StringIndex("/tmp/stringindex");
+    index.put("a", 1L);
+    index.put("ab", 2L);
+    index.put("abc", 3L);
+    index.put("b", 4L);
+    index.commit();
+    index.put("abd", 5L);
+    org.junit.Assert.assertEquals(
+        Arrays.asList(1L, 2L, 3L, 5L, null, 4L, null),
+        index.getAll(Arrays.asList("a", "ab", "abc", "abd", "abe", "b", "c")));
+    // Unsorted keys are found too.
+    org.junit.Assert.assertEquals(
+        Arrays.asList(4L, 3L, null, 1L),
+        index.getAll(Arrays.asList("b", "abc", "x", "a")));
+  }
 }
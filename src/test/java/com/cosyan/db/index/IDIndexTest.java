@@ -152,4 +152,29 @@ public class IDIndexTest {
     assertEquals(10L, index.get(0L));
     assertEquals(null, index.get(4096L));
   }
+
+  @Test
+  public void testIDIndexReopen() throws Exception {
+    Files.deleteIfExists(Paths.get("/tmp/idindex"));
+    IDIndex index = new IDIndex("/tmp/idindex");
+    index.put(1L, 10L);
+    index.put(5000000L, 20L);
+    index.commit();
+    index.put(2L, 30L);
+    index.delete(1L);
+    index.close();
+
+    index = new IDIndex("/tmp/idindex");
+    assertEquals(10L, index.get(1L));
+    assertEquals(null, index.get(2L));
+    assertEquals(20L, index.get(5000000L));
+    assertEquals(null, index.get(5000001L));
+    org.junit.Assert.assertEquals(5000000L, index.getLastID());
+
+    index.put(4194304L, 40L);
+    index.commit();
+    assertEquals(40L, index.get(4194304L));
+    assertEquals(20L, index.get(5000000L));
+    index.close();
+  }
 }
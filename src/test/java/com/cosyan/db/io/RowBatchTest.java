@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cosyan.db.io.RowBatch.ColumnVector;
+import com.cosyan.db.model.DataTypes;
+import com.google.common.collect.ImmutableList;
+
+public class RowBatchTest {
+
+  @Test
+  public void testTypedColumns() {
+    RowBatch batch = RowBatch.of(ImmutableList.of(
+        DataTypes.LongType, DataTypes.DoubleType, DataTypes.BoolType, DataTypes.StringType));
+    batch.add(new Object[] { 1L, 2.0, true, "a" });
+    batch.add(new Object[] { null, null, null, null });
+    assertEquals(2, batch.size());
+    assertTrue(batch.column(0).isLong());
+    assertTrue(batch.column(1).isDouble());
+    assertTrue(batch.column(2).isBoolean());
+    assertArrayEquals(new Object[] { 1L, 2.0, true, "a" }, batch.row(0));
+    assertArrayEquals(new Object[] { null, null, null, null }, batch.row(1));
+    assertEquals(1L, batch.column(0).longs()[0]);
+    assertTrue(batch.column(0).nulls()[1]);
+  }
+
+  @Test
+  public void testFilter() {
+    RowBatch batch = RowBatch.of(ImmutableList.of(DataTypes.LongType, DataTypes.StringType));
+    ColumnVector condition = ColumnVector.of(DataTypes.BoolType, RowBatch.SIZE);
+    for (int i = 0; i < 10; i++) {
+      batch.add(new Object[] { (long) i, "s" + i });
+      condition.set(i, i % 3 == 0 ? null : i % 2 == 0);
+    }
+    batch.filter(condition);
+    assertEquals(3, batch.size());
+    assertArrayEquals(new Object[] { 2L, "s2" }, batch.row(0));
+    assertArrayEquals(new Object[] { 4L, "s4" }, batch.row(1));
+    assertArrayEquals(new Object[] { 8L, "s8" }, batch.row(2));
+  }
+
+  @Test
+  public void testUntypedColumns() {
+    RowBatch batch = RowBatch.untyped(2);
+    batch.add(new Object[] { 1L, null });
+    assertFalse(batch.column(0).isLong());
+    assertEquals(1L, batch.column(0).getLong(0));
+    assertTrue(batch.column(1).isNull(0));
+  }
+}
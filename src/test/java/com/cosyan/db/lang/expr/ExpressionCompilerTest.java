@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.expr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cosyan.db.UnitTestBase;
+import com.cosyan.db.lang.expr.ExpressionCompiler.CompiledColumn;
+import com.cosyan.db.lang.sql.Lexer;
+import com.cosyan.db.lang.sql.Parser;
+import com.cosyan.db.lang.transaction.Result.QueryResult;
+import com.cosyan.db.model.ColumnMeta;
+import com.cosyan.db.model.Ident;
+import com.cosyan.db.model.TableContext;
+import com.cosyan.db.model.TableMeta.IterableTableMeta;
+
+public class ExpressionCompilerTest extends UnitTestBase {
+
+  private static final Object[][] ROWS = new Object[][] {
+      { 1L, 2.5, true, 3L, "x" },
+      { -7L, 0.0, false, 2L, "y" },
+      { null, 1.0, true, 1L, "z" },
+      { 4L, null, null, 0L, null },
+      { Long.MAX_VALUE, Double.NaN, false, -1L, "" } };
+
+  private Parser parser = new Parser();
+  private Lexer lexer = new Lexer();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    UnitTestBase.setUp();
+    execute("create table t (a integer, b float, c boolean, d integer, s varchar);");
+  }
+
+  private ColumnMeta column(String expr) throws Exception {
+    IterableTableMeta table = metaRepo.table(new Ident("t")).reader();
+    return parser.parseExpression(lexer.tokenize(expr + ";")).compileColumn(table);
+  }
+
+  private void assertCompiled(String expr) throws Exception {
+    ColumnMeta column = column(expr);
+    ColumnMeta compiled = ExpressionCompiler.compile(column);
+    assertTrue(expr, compiled instanceof CompiledColumn);
+    assertEquals(column.getType(), compiled.getType());
+    for (Object[] row : ROWS) {
+      Object expected;
+      try {
+        expected = column.value(row, null, TableContext.EMPTY);
+      } catch (NullPointerException e) {
+        // Some interpreted columns, e.g. not, do not handle null inputs.
+        continue;
+      }
+      assertEquals(expr, expected, compiled.value(row, null, TableContext.EMPTY));
+    }
+  }
+
+  @Test
+  public void testArithmetic() throws Exception {
+    assertCompiled("a + d");
+    assertCompiled("a * 2 - d");
+    assertCompiled("a + b");
+    assertCompiled("b / 2");
+    assertCompiled("(a + 1) * (b - 1.5)");
+    assertCompiled("a % 3");
+    assertCompiled("b % 2.0");
+    assertCompiled("1 - a * d + 3");
+  }
+
+  @Test
+  public void testComparison() throws Exception {
+    assertCompiled("a = d");
+    assertCompiled("a < d");
+    assertCompiled("a > 1");
+    assertCompiled("a <= d");
+    assertCompiled("a >= d");
+    assertCompiled("b < 1.0");
+    assertCompiled("b > 1.0");
+    assertCompiled("b <= a");
+    assertCompiled("b >= 0.0");
+    assertCompiled("b = 0.0");
+  }
+
+  @Test
+  public void testLogic() throws Exception {
+    assertCompiled("c and a > 0");
+    assertCompiled("c or b > 0.0");
+    assertCompiled("c xor d > 1");
+    assertCompiled("c impl a < 0");
+    assertCompiled("not c");
+    assertCompiled("not (a > 0 and d < 3) or c");
+  }
+
+  @Test
+  public void testOpaqueLeaves() throws Exception {
+    assertCompiled("length(s) + a");
+    assertCompiled("s = 'x' and a > 0");
+    assertCompiled("length(s) > 0 or not c");
+  }
+
+  @Test
+  public void testNotCompiled() throws Exception {
+    ColumnMeta column = column("a");
+    assertSame(column, ExpressionCompiler.compile(column));
+    column = column("s = 'x'");
+    assertSame(column, ExpressionCompiler.compile(column));
+    column = column("length(s)");
+    assertSame(column, ExpressionCompiler.compile(column));
+  }
+
+  @Test
+  public void testQueries() throws Exception {
+    execute("create table t2 (a integer, b float);");
+    execute("insert into t2 values (1, 1.5), (2, 5.0), (3, 3.5);");
+    QueryResult result = query("select a * 2 + 1 as x, b > 2.0 as y from t2 where a >= 1 and b < 4.0;");
+    assertEquals(2, result.getValues().size());
+    assertEquals(3L, result.getValues().get(0)[0]);
+    assertEquals(false, result.getValues().get(0)[1]);
+    assertEquals(7L, result.getValues().get(1)[0]);
+    assertEquals(true, result.getValues().get(1)[1]);
+
+    result = query("select sum(a * 10) as s from t2 where not a = 2;");
+    assertEquals(40L, result.getValues().get(0)[0]);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.expr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cosyan.db.UnitTestBase;
+import com.cosyan.db.lang.expr.BinaryExpression.BinaryColumn;
+import com.cosyan.db.lang.expr.Literals.LiteralColumn;
+import com.cosyan.db.lang.sql.Lexer;
+import com.cosyan.db.lang.sql.Parser;
+import com.cosyan.db.lang.transaction.Result.QueryResult;
+import com.cosyan.db.model.ColumnMeta;
+import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.ColumnMeta.SharedColumn;
+import com.cosyan.db.model.Ident;
+import com.cosyan.db.model.TableContext;
+import com.cosyan.db.model.TableMeta;
+
+public class ExpressionOptimizerTest extends UnitTestBase {
+
+  private Parser parser = new Parser();
+  private Lexer lexer = new Lexer();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    UnitTestBase.setUp();
+    execute("create table t (a integer, b float, s varchar);");
+    execute("insert into t values (1, 1.5, 'x'), (2, 2.5, 'yy'), (3, 3.5, 'zzz');");
+  }
+
+  private ColumnMeta column(String expr, TableMeta table) throws Exception {
+    return parser.parseExpression(lexer.tokenize(expr + ";")).compileColumn(table);
+  }
+
+  private ColumnMeta column(String expr) throws Exception {
+    return column(expr, metaRepo.table(new Ident("t")).reader());
+  }
+
+  private void assertConstant(String expr, Object value) throws Exception {
+    ColumnMeta column = column(expr);
+    assertTrue(expr, column instanceof LiteralColumn);
+    assertEquals(expr, value, column.value(new Object[0], null, TableContext.EMPTY));
+  }
+
+  @Test
+  public void testConstantFolding() throws Exception {
+    assertConstant("10 * 60 * 1000", 600000L);
+    assertConstant("1 + 2.5", 3.5);
+    assertConstant("not (1 > 2)", true);
+    assertConstant("length('abc') + 1", 4L);
+    assertConstant("'ab'.concat('cd').upper()", "ABCD");
+    assertConstant("null is null", true);
+    assertConstant("case when 1 = 2 then 'a' when 1 = 1 then 'b' else 'c' end", "b");
+    assertConstant("case when 1 = 2 then 'a' else 'c' end", "c");
+  }
+
+  @Test
+  public void testNotFolded() throws Exception {
+    assertTrue(column("a * 60 * 1000") instanceof SharedColumn);
+    assertTrue(column("length(s)") instanceof SharedColumn);
+    // Errors are raised during execution.
+    assertFalse(column("1 / 0") instanceof LiteralColumn);
+  }
+
+  private void assertOperator(String expr, String operator) throws Exception {
+    ColumnMeta column = column(expr);
+    assertTrue(expr, column instanceof SharedColumn);
+    assertEquals(expr, operator, ((BinaryColumn) ((SharedColumn) column).column()).token().getString());
+  }
+
+  @Test
+  public void testAlwaysTrue() throws Exception {
+    assertOperator("true and a > 1", ">");
+    assertOperator("a > 1 and 1 = 1", ">");
+    assertOperator("1 = 2 or a < 1", "<");
+    assertOperator("a < 1 or false", "<");
+    assertOperator("a < 1 and a > 1", "and");
+    assertTrue(column("case when 1 = 1 then a else 0 end") instanceof IndexColumn);
+    assertTrue(column("case when 1 = 2 then 0 else a end") instanceof IndexColumn);
+  }
+
+  @Test
+  public void testCommonSubexpressions() throws Exception {
+    TableMeta table = metaRepo.table(new Ident("t")).reader();
+    ColumnMeta column = column("length(s) * length(s) + length(s)", table);
+    BinaryColumn plus = (BinaryColumn) ((SharedColumn) column).column();
+    BinaryColumn times = (BinaryColumn) ((SharedColumn) plus.leftColumn()).column();
+    assertSame(times.leftColumn(), times.rightColumn());
+    assertSame(times.leftColumn(), plus.rightColumn());
+    assertTrue(((SharedColumn) times.leftColumn()).isShared());
+    assertFalse(((SharedColumn) plus.leftColumn()).isShared());
+    assertEquals(12L, column.value(new Object[] { 1L, 1.5, "zzz" }, null, TableContext.EMPTY));
+    assertEquals(6L, column.value(new Object[] { 1L, 1.5, "yy" }, null, TableContext.EMPTY));
+
+    // Compiled against another table, nothing is shared.
+    ColumnMeta other = column("length(s)");
+    assertFalse(((SharedColumn) other).isShared());
+  }
+
+  @Test
+  public void testQueries() throws Exception {
+    QueryResult result = query("select a, length(s) * length(s) as l from t "
+        + "where length(s) > 1 and 10 * 10 > 99 order by a;");
+    assertEquals(2, result.getValues().size());
+    assertEquals(2L, result.getValues().get(0)[0]);
+    assertEquals(4L, result.getValues().get(0)[1]);
+    assertEquals(3L, result.getValues().get(1)[0]);
+    assertEquals(9L, result.getValues().get(1)[1]);
+
+    result = query("select count(1) as c from t where true;");
+    assertEquals(3L, result.getValues().get(0)[0]);
+
+    result = query("select case when 1 = 1 then a * 2 else 0 end as c from t order by c;");
+    assertEquals(2L, result.getValues().get(0)[0]);
+    assertEquals(6L, result.getValues().get(2)[0]);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.lang.sql;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cosyan.db.UnitTestBase;
+import com.cosyan.db.lang.transaction.Result.ErrorResult;
+import com.cosyan.db.lang.transaction.Result.StatementResult;
+import com.cosyan.db.meta.MaterializedTable;
+import com.cosyan.db.model.Ident;
+import com.cosyan.db.model.stat.ColumnStats;
+
+public class AnalyzeStatementTest extends UnitTestBase {
+
+  @Test
+  public void testAnalyzeTable() throws Exception {
+    execute("create table t1 (a varchar, b integer);");
+    for (int i = 0; i < 100; i++) {
+      execute("insert into t1 values ('x" + (i % 10) + "', " + (i % 5 == 0 ? "null" : i) + ");");
+    }
+    MaterializedTable table = metaRepo.table(new Ident("t1"));
+    assertNull(table.stats().columnStats("a"));
+
+    StatementResult result = statement("analyze t1;");
+    assertEquals(100L, result.getAffectedLines());
+    ColumnStats a = table.stats().columnStats("a");
+    assertEquals(10L, a.cardinality());
+    assertEquals("x0", a.min());
+    assertEquals("x9", a.max());
+    assertEquals(10.0, a.estimatedCount("x3"), 5.0);
+    ColumnStats b = table.stats().columnStats("b");
+    assertEquals(0.2, b.nullFraction(), 0.0);
+    assertEquals(99L, b.max());
+
+    table.loadStats();
+    assertEquals(100L, table.stats().rowCount());
+    assertEquals(10L, table.stats().columnStats("a").cardinality());
+    assertArrayEquals(a.histogram(), table.stats().columnStats("a").histogram());
+  }
+
+  @Test
+  public void testAnalyzeAllTables() throws Exception {
+    execute("create table t2 (a integer);");
+    execute("create table t3 (a integer);");
+    execute("insert into t2 values (1), (2);");
+    execute("insert into t3 values (3);");
+    statement("analyze;");
+    assertEquals(2L, metaRepo.table(new Ident("t2")).stats().columnStats("a").max());
+    assertEquals(3L, metaRepo.table(new Ident("t3")).stats().columnStats("a").min());
+  }
+
+  @Test
+  public void testStatsRefreshedAfterChanges() throws Exception {
+    execute("create table t5 (a integer);");
+    execute("insert into t5 values (1), (2), (3), (4), (5);");
+    statement("analyze t5;");
+    MaterializedTable table = metaRepo.table(new Ident("t5"));
+    assertEquals(5L, table.stats().columnStats("a").max());
+
+    execute("insert into t5 values (6), (7), (8), (9), (10);");
+    for (int i = 0; i < 100 && !table.stats().columnStats("a").max().equals(10L); i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(10L, table.stats().columnStats("a").max());
+  }
+
+  @Test
+  public void testAnalyzeMissingTable() throws Exception {
+    ErrorResult e = error("analyze t4;");
+    assertEquals("[8, 10]: Table 't4' does not exist.", e.getError().getMessage());
+  }
+}
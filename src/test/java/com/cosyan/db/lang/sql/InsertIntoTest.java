@@ -386,4 +386,30 @@ public class InsertIntoTest extends UnitTestBase {
     ErrorResult e1 = error("insert into t35 values ('201801');");
     assertError(RuleException.class, "Invalid timestamp '201801'.", e1);
   }
+
+  @Test
+  public void testReferencingRulesCheckedPerStatement() throws Exception {
+    execute("create table t36 (a varchar, constraint pk_a primary key (a));");
+    execute("create table t37 (a varchar, b integer, constraint fk_a foreign key (a) references t36(a));");
+    execute("alter table t36 add aggref s (select count(1) as c from rev_fk_a);");
+    execute("alter table t36 add constraint c_1 check (s.c <= 2);");
+    execute("insert into t36 values ('x');");
+
+    ErrorResult e1 = error("insert into t37 values ('x', 1); insert into t37 values ('x', 2); "
+        + "insert into t37 values ('x', 3);");
+    assertError(RuleException.class, "Referencing constraint check t36.c_1 failed.", e1);
+    assertValues(new Object[][] { { 0L } }, query("select count(1) as c from t37;"));
+
+    // A later statement does not fix the violation of an earlier one.
+    ErrorResult e2 = error("insert into t37 values ('x', 1), ('x', 2), ('x', 3); delete from t37 where b = 3;");
+    assertError(RuleException.class, "Referencing constraint check t36.c_1 failed.", e2);
+    assertValues(new Object[][] { { 0L } }, query("select count(1) as c from t37;"));
+
+    // The rule is checked once the statement is finished.
+    transaction("insert into t37 values ('x', 1), ('x', 2);");
+    assertValues(new Object[][] { { 2L } }, query("select count(1) as c from t37;"));
+
+    ErrorResult e3 = error("insert into t37 values ('x', 4);");
+    assertError(RuleException.class, "Referencing constraint check t36.c_1 failed.", e3);
+  }
 }
@@ -234,6 +234,25 @@ public class TableReaderTest extends UnitTestBase {
     assertArrayEquals(new Object[] { 1L }, result.getValues().get(3));
   }
 
+  @Test
+  public void testOrderByKeepsDuplicates() throws Exception {
+    QueryResult result = query("select a, b from large order by a desc;");
+    assertEquals(4, result.getValues().size());
+    assertArrayEquals(new Object[] { "b", 5L }, result.getValues().get(0));
+    assertArrayEquals(new Object[] { "b", 7L }, result.getValues().get(1));
+    assertArrayEquals(new Object[] { "a", 1L }, result.getValues().get(2));
+    assertArrayEquals(new Object[] { "a", 3L }, result.getValues().get(3));
+  }
+
+  @Test
+  public void testOrderByLimit() throws Exception {
+    QueryResult result = query("select a, b from large order by a desc limit 3;");
+    assertEquals(3, result.getValues().size());
+    assertArrayEquals(new Object[] { "b", 5L }, result.getValues().get(0));
+    assertArrayEquals(new Object[] { "b", 7L }, result.getValues().get(1));
+    assertArrayEquals(new Object[] { "a", 1L }, result.getValues().get(2));
+  }
+
   @Test
   public void testOrderByMultipleKeys() throws Exception {
     QueryResult result = query("select a, b from large order by a desc, b;");
@@ -344,6 +363,39 @@ public class TableReaderTest extends UnitTestBase {
     assertArrayEquals(new Object[] { "c", 5L }, result.getValues().get(2));
   }
 
+  @Test
+  public void testIndexLookupJoin() throws Exception {
+    execute("create table lookup1 (k varchar unique, v integer);");
+    execute("create table lookup2 (k varchar, v integer);");
+    execute("create index lookup2.k;");
+    for (int i = 0; i < 40; i++) {
+      execute("insert into lookup1 values ('k" + i + "', " + i + ");");
+      execute("insert into lookup2 values ('k" + (i % 20) + "', " + i + ");");
+    }
+    execute("create table probe (k varchar, w integer);");
+    execute("insert into probe values ('k3', 1), ('kx', 2), ('k3', 3), ('k25', 3);");
+    execute("insert into probe (w) values (4);");
+
+    QueryResult result = query("select p.k as pk, p.w, l.k as lk, l.v from probe as p left join lookup1 as l on p.k = l.k;");
+    assertEquals(5, result.getValues().size());
+    assertArrayEquals(new Object[] { "k3", 1L, "k3", 3L }, result.getValues().get(0));
+    assertArrayEquals(new Object[] { "kx", 2L, null, null }, result.getValues().get(1));
+    assertArrayEquals(new Object[] { "k3", 3L, "k3", 3L }, result.getValues().get(2));
+    assertArrayEquals(new Object[] { "k25", 3L, "k25", 25L }, result.getValues().get(3));
+    assertArrayEquals(new Object[] { null, 4L, null, null }, result.getValues().get(4));
+
+    result = query("select l.k, l.v, p.w from lookup2 as l inner join probe as p on l.k = p.k;");
+    assertEquals(4, result.getValues().size());
+    assertArrayEquals(new Object[] { "k3", 3L, 1L }, result.getValues().get(0));
+    assertArrayEquals(new Object[] { "k3", 23L, 1L }, result.getValues().get(1));
+    assertArrayEquals(new Object[] { "k3", 3L, 3L }, result.getValues().get(2));
+    assertArrayEquals(new Object[] { "k3", 23L, 3L }, result.getValues().get(3));
+
+    result = query("select p.w, l.v from probe as p inner join lookup2 as l on p.k = l.k and p.w = l.v;");
+    assertEquals(1, result.getValues().size());
+    assertArrayEquals(new Object[] { 3L, 3L }, result.getValues().get(0));
+  }
+
   @Test
   public void testReadLinesWithNull() throws Exception {
     QueryResult result = query("select * from null;");
@@ -377,9 +429,9 @@ public class TableReaderTest extends UnitTestBase {
   @Test
   public void testNullAsAggregationKey() throws Exception {
     QueryResult result = query("select a, sum(b) as b from null group by a;");
-    assertArrayEquals(new Object[] { "b", null }, result.getValues().get(0));
-    assertArrayEquals(new Object[] { "c", 5L }, result.getValues().get(1));
-    assertArrayEquals(new Object[] { null, 1L }, result.getValues().get(2));
+    assertArrayEquals(new Object[] { null, 1L }, result.getValues().get(0));
+    assertArrayEquals(new Object[] { "b", null }, result.getValues().get(1));
+    assertArrayEquals(new Object[] { "c", 5L }, result.getValues().get(2));
   }
 
   @Test
@@ -398,6 +450,21 @@ public class TableReaderTest extends UnitTestBase {
     assertArrayEquals(new Object[] { -0.493, 0.967, 1.619, 2.122 }, result.getValues().get(0));
   }
 
+  @Test
+  public void testApproxAggregators() throws Exception {
+    QueryResult result = query("select approx_count_distinct(a) as a, approx_median(b) as b, "
+        + "approx_percentile(c, 0.0) as c from large;");
+    assertArrayEquals(new Object[] { 2L, 3.0, 2.0 }, result.getValues().get(0));
+
+    ErrorResult e1 = error("select approx_percentile(b, c) from large;");
+    assertError(ModelException.class,
+        "[28, 29]: Parameters of aggregator 'approx_percentile' have to be constants.", e1);
+    ErrorResult e2 = error("select approx_percentile(b, 2) from large;");
+    assertError(ModelException.class, "[7, 24]: Invalid quantile '2', it has to be between 0 and 1.", e2);
+    ErrorResult e3 = error("select approx_median(a) from large;");
+    assertError(ModelException.class, "[7, 20]: Invalid argument type 'varchar' for aggregator 'approx_median'.", e3);
+  }
+
   @Test
   public void testOrderByNull() throws Exception {
     QueryResult result = query("select * from null order by b;");
@@ -442,6 +509,72 @@ public class TableReaderTest extends UnitTestBase {
     assertArrayEquals(new Object[] { "b" }, result.getValues().get(1));
   }
 
+  @Test
+  public void testDistinctSortedSubSelect() throws Exception {
+    QueryResult result = query("select distinct a from (select a, b from large order by a desc) as t;");
+    assertValues(new Object[][] { { "b" }, { "a" } }, result);
+
+    result = query("select distinct b, a from (select a, b from large order by a, b) as t;");
+    assertValues(new Object[][] { { 1L, "a" }, { 3L, "a" }, { 5L, "b" }, { 7L, "b" } }, result);
+
+    result = query("select distinct a from (select a, b from large order by b desc) as t;");
+    assertValues(new Object[][] { { "b" }, { "a" } }, result);
+  }
+
+  @Test
+  public void testMultipleBatches() throws Exception {
+    execute("create table batches (a varchar, b integer, c float);");
+    StringBuilder sb = new StringBuilder("insert into batches values ");
+    long sum = 0L;
+    long count = 0L;
+    for (int i = 0; i < 3000; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      String b = i % 7 == 0 ? "null" : String.valueOf(i);
+      sb.append("('x" + (i % 4) + "', " + b + ", " + (i / 2.0) + ")");
+      if (i % 7 != 0 && i % 3 == 0) {
+        sum += i * 2 + 1;
+        count++;
+      }
+    }
+    execute(sb.append(";").toString());
+    QueryResult result = query("select sum(b * 2 + 1) as s, count(1) as c from batches where b % 3 = 0;");
+    assertValues(new Object[][] { { sum, count } }, result);
+
+    result = query("select a, count(b) as b, sum(c * 2.0) as c from batches where c >= 1000.0 group by a;");
+    assertValues(new Object[][] {
+        { "x0", 214L, 624500.0 },
+        { "x1", 214L, 624750.0 },
+        { "x2", 214L, 625000.0 },
+        { "x3", 215L, 625250.0 } }, result);
+  }
+
+  @Test
+  public void testFunctionsOnBatches() throws Exception {
+    execute("create table func_batches (b integer, c float);");
+    StringBuilder sb = new StringBuilder("insert into func_batches values ");
+    double abs = 0.0;
+    long floor = 0L;
+    double pow = 0.0;
+    for (int i = 0; i < 2500; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      String b = i % 5 == 0 ? "null" : String.valueOf(i);
+      sb.append("(" + b + ", " + (i / 4.0) + ")");
+      if (i % 5 != 0) {
+        abs += Math.abs(i - 1000);
+        pow += Math.pow(i, 2.0);
+      }
+      floor += (long) Math.floor(i / 4.0);
+    }
+    execute(sb.append(";").toString());
+    QueryResult result = query("select sum(abs(b - 1000)) as a, sum(floor(c)) as f, sum(pow(b, 2)) as p "
+        + "from func_batches;");
+    assertValues(new Object[][] { { abs, floor, pow } }, result);
+  }
+
   @Test
   public void testCountDistinctGlobal() throws Exception {
     QueryResult result = query("select count(distinct a) as a, count(distinct b) as b from large;");
@@ -17,6 +17,7 @@ package com.cosyan.db.meta;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -31,6 +32,7 @@ import com.cosyan.db.DBApi;
 import com.cosyan.db.auth.Authenticator.Method;
 import com.cosyan.db.conf.Config;
 import com.cosyan.db.conf.Config.ConfigException;
+import com.cosyan.db.index.IndexLSN;
 import com.cosyan.db.io.Indexes.IndexReader;
 import com.cosyan.db.lang.transaction.Result;
 import com.cosyan.db.lang.transaction.Result.CrashResult;
@@ -38,6 +40,7 @@ import com.cosyan.db.lang.transaction.Result.ErrorResult;
 import com.cosyan.db.lang.transaction.Result.QueryResult;
 import com.cosyan.db.lang.transaction.Result.TransactionResult;
 import com.cosyan.db.model.Ident;
+import com.cosyan.db.model.TableUniqueIndex;
 import com.cosyan.db.session.Session;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -350,4 +353,53 @@ public class RestartDBTest {
       assertEquals("(fk1.b + 1) as x, (fk1.b + 2) as y;", t20.refs().get("s").getExpr());
     }
   }
+
+  @Test
+  public void testIndexesRebuiltAfterCrash() throws Exception {
+    DBApi dbApi = new DBApi(config);
+    dbApi.newAdminSession().execute("create table t21(a integer unique, b varchar);");
+    dbApi.newAdminSession().execute("create index t21.b;");
+    dbApi.newAdminSession().execute("insert into t21 values (1, 'x'), (2, 'y'), (3, 'x');");
+    // Simulate a crash after the table commit: index files are lost and indexes are dirty.
+    for (String index : ImmutableList.of("t21.a", "t21.b#index", "t21.b#chain")) {
+      new File(config.indexDir() + File.separator + index).delete();
+    }
+    new IndexLSN(config.indexDir() + File.separator + "t21.a").set(IndexLSN.DIRTY);
+    new IndexLSN(config.indexDir() + File.separator + "t21.b").set(IndexLSN.DIRTY);
+
+    dbApi = new DBApi(config);
+    ErrorResult e = (ErrorResult) dbApi.newAdminSession().execute("insert into t21 values (1, 'z');");
+    assertEquals("Key '1' already present in index.", e.getError().getMessage());
+    dbApi.getMetaRepo().awaitIndexRebuilds();
+    {
+      MaterializedTable t21 = dbApi.getMetaRepo().table("t21");
+      IndexReader index = dbApi.getMetaRepo().collectIndexReaders(t21).get("b");
+      assertEquals(2, index.get("x").length);
+      assertEquals(1, index.get("y").length);
+    }
+
+    dbApi = new DBApi(config);
+    QueryResult result = query("select a from t21 where b = 'x';", dbApi.newAdminSession());
+    assertEquals(2, result.getValues().size());
+  }
+
+  @Test
+  public void testIndexesNotRecoveredOnReload() throws Exception {
+    DBApi dbApi = new DBApi(config);
+    dbApi.newAdminSession().execute("create table t22(a integer unique);");
+    dbApi.newAdminSession().execute("insert into t22 values (1), (2);");
+    IndexReader liveIndex = dbApi.getMetaRepo()
+        .collectIndexReaders(dbApi.getMetaRepo().table("t22")).get("a");
+    // E.g. another transaction is committing the table, the index LSN is not yet updated.
+    ((TableUniqueIndex) liveIndex).lsn().set(IndexLSN.DIRTY);
+
+    dbApi.getMetaRepo().readTables();
+    dbApi.getMetaRepo().awaitIndexRebuilds();
+    MaterializedTable t22 = dbApi.getMetaRepo().table("t22");
+    IndexReader index = dbApi.getMetaRepo().collectIndexReaders(t22).get("a");
+    // The index in use is not dropped.
+    assertSame(liveIndex, index);
+    assertEquals(1, index.get(1L).length);
+    assertEquals(1, index.get(2L).length);
+  }
 }
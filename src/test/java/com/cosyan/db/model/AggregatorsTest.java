@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cosyan.db.model.Aggregators.Aggregator;
+import com.cosyan.db.model.BuiltinFunctions.AggrFunction;
+import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
+import com.cosyan.db.model.DataTypes.DataType;
+
+public class AggregatorsTest {
+
+  private Object[] values(int n) {
+    Object[] values = new Object[n];
+    for (int i = 0; i < n; i++) {
+      // Large offset to check numerical stability.
+      values[i] = i % 11 == 0 ? null : 1e9 + (i * 7919 % 101) + Math.sqrt(i);
+    }
+    return values;
+  }
+
+  private void assertMerge(AggrFunction function, DataType<?> type, Object[] values, int... splits) throws Exception {
+    TypedAggrFunction<?> typed = function.compile(null, type);
+    Aggregator<?, ?> serial = typed.create();
+    for (Object value : values) {
+      serial.add(value);
+    }
+    Aggregator<?, ?> merged = typed.create();
+    int from = 0;
+    for (int split : splits) {
+      Aggregator<?, ?> partial = typed.create();
+      for (int i = from; i < split; i++) {
+        partial.add(values[i]);
+      }
+      merged.merge(partial);
+      from = split;
+    }
+    Object expected = serial.finish();
+    Object actual = merged.finish();
+    if (expected instanceof Double) {
+      assertEquals((Double) expected, (Double) actual, Math.abs((Double) expected) * 1e-6);
+    } else if (expected instanceof Object[]) {
+      assertArrayEquals((Object[]) expected, (Object[]) actual);
+    } else {
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testMergeStats() throws Exception {
+    Object[] values = values(1000);
+    int[] splits = new int[] { 0, 1, 10, 500, 999, 1000 };
+    assertMerge(new StatAggregators.Sum(), DataTypes.DoubleType, values, splits);
+    assertMerge(new StatAggregators.Avg(), DataTypes.DoubleType, values, splits);
+    assertMerge(new StatAggregators.StdDev(), DataTypes.DoubleType, values, splits);
+    assertMerge(new StatAggregators.StdDevPop(), DataTypes.DoubleType, values, splits);
+    assertMerge(new StatAggregators.Skewness(), DataTypes.DoubleType, values, splits);
+    assertMerge(new StatAggregators.Kurtosis(), DataTypes.DoubleType, values, splits);
+  }
+
+  @Test
+  public void testMergeGeneral() throws Exception {
+    Object[] values = new Object[] { 3L, null, 1L, 3L, 7L, null, 2L, 1L };
+    int[] splits = new int[] { 2, 2, 5, 8 };
+    assertMerge(new Aggregators.Count(), DataTypes.LongType, values, splits);
+    assertMerge(new Aggregators.CountDistinct(), DataTypes.LongType, values, splits);
+    assertMerge(new Aggregators.Max(), DataTypes.LongType, values, splits);
+    assertMerge(new Aggregators.Min(), DataTypes.LongType, values, splits);
+    assertMerge(new ListAggregators.ListAggregator(), DataTypes.LongType, values, splits);
+    assertMerge(new ListAggregators.SetAggregator(), DataTypes.LongType, values, splits);
+    assertMerge(new Aggregators.Max(), DataTypes.LongType, new Object[] { null, null }, 1, 2);
+  }
+
+  @Test
+  public void testApproxAggregators() throws Exception {
+    Aggregator<?, ?> distinct = new Aggregators.ApproxCountDistinct().compile(null, DataTypes.LongType).create();
+    Aggregator<?, ?> partial = new Aggregators.ApproxCountDistinct().compile(null, DataTypes.LongType).create();
+    Aggregator<?, ?> median = new StatAggregators.ApproxMedian().compile(null, DataTypes.LongType).create();
+    for (long i = 0; i < 100000; i++) {
+      (i < 50000 ? distinct : partial).add(i % 20000);
+      median.add(i);
+    }
+    distinct.merge(partial);
+    assertEquals(20000.0, (Long) distinct.finish(), 20000 * 0.03);
+    assertEquals(50000.0, (Double) median.finish(), 100000 * 0.02);
+  }
+
+  @Test
+  public void testStableStdDev() throws Exception {
+    Aggregator<?, ?> stdDev = new StatAggregators.StdDev().compile(null, DataTypes.DoubleType).create();
+    for (int i = 0; i < 1000; i++) {
+      stdDev.add(1e9 + (i % 2));
+    }
+    assertEquals(0.5003, (Double) stdDev.finish(), 0.0001);
+  }
+}
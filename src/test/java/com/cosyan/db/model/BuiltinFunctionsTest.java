@@ -16,6 +16,7 @@
 package com.cosyan.db.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 
@@ -27,6 +28,7 @@ import com.cosyan.db.conf.Config.ConfigException;
 import com.cosyan.db.lang.transaction.Result.QueryResult;
 import com.cosyan.db.meta.MetaRepo.ModelException;
 import com.cosyan.db.session.IParser.ParserException;
+import com.google.common.collect.ImmutableList;
 
 public class BuiltinFunctionsTest extends UnitTestBase {
 
@@ -64,6 +66,39 @@ public class BuiltinFunctionsTest extends UnitTestBase {
     assertResult("last_index_of('aaa', 'a')", 2L);
   }
 
+  @Test
+  public void testRegexFunctions() throws Exception {
+    assertResult("matches(a, 'abc.*')", true);
+    assertResult("matches(a, '.*ABC')", true);
+    assertResult("matches(a, '.*cA.*')", true);
+    assertResult("matches(a, 'abcABC')", true);
+    assertResult("matches(a, 'abc')", false);
+    assertResult("matches(a, '[a-c]+[A-C]+')", true);
+    assertResult("matches(a, a)", true);
+    assertResult("matches(a, a.concat('.+'))", false);
+    assertResult("replace(a, 'bc', '.*')", "a.*ABC");
+    assertResult("replace(a, 'x', 'y')", "abcABC");
+    assertResult("replace('aaa', 'a', '$0')", "$0$0$0");
+    assertResult("replace('ab', '', '-')", "-a-b-");
+  }
+
+  @Test
+  public void testRegexMatcher() throws Exception {
+    assertEquals(true, RegexMatcher.compile("a.*").matches("abc"));
+    assertEquals(false, RegexMatcher.compile("a.*").matches("ba"));
+    assertEquals(true, RegexMatcher.compile(".*c").matches("abc"));
+    assertEquals(true, RegexMatcher.compile(".*b.*").matches("abc"));
+    assertEquals(false, RegexMatcher.compile(".*d.*").matches("abc"));
+    assertEquals(true, RegexMatcher.compile(".*").matches(""));
+    assertEquals(false, RegexMatcher.compile("a\\.c").matches("abc"));
+    assertEquals(true, RegexMatcher.compile("a\\.c").matches("a.c"));
+    // The dot does not match line terminators.
+    assertEquals(false, RegexMatcher.compile("a.*").matches("a\nb"));
+    assertEquals(false, RegexMatcher.compile(".*b.*").matches("a\nb"));
+    assertEquals(true, RegexMatcher.compile("a\nb").matches("a\nb"));
+    assertSame(RegexMatcher.cached("x+"), RegexMatcher.cached("x+"));
+  }
+
   @Test
   public void testMathFunctions() throws Exception {
     assertResult("pow(3.0, 2.0)", 9.0);
@@ -88,5 +123,18 @@ public class BuiltinFunctionsTest extends UnitTestBase {
   public void testImplicitLongToDoubleConversion() throws Exception {
     assertResult("pow(3, 2)", 9.0);
     assertResult("abs(-1)", 1.0);
+    assertResult("round(length(a))", 6L);
+    assertResult("round_to(length(a) / 4.0, 1)", 1.5);
+  }
+
+  @Test
+  public void testCallByArity() throws Exception {
+    assertEquals(Long.valueOf(6L), new StringFunctions.Length().call1("abcABC"));
+    assertEquals("axc", new StringFunctions.Replace().call3("abc", "b", "x"));
+    assertEquals(Double.valueOf(8.0), new MathFunctions.Power().call2(2L, 3.0));
+    assertEquals(8.0, new MathFunctions.Power().callDouble(2.0, 3.0), 0.0);
+    assertEquals(2L, new MathFunctions.Ceil().callLong(1.5));
+    assertEquals(true, new StringFunctions.Contains().call(ImmutableList.of("abc", "b")));
+    assertEquals("ab", new StringFunctions.Concat().call2("a", "b"));
   }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.cosyan.db.model.BuiltinFunctions.SimpleFunction;
+import com.google.common.collect.ImmutableList;
+
+public class DateFunctionsTest {
+
+  private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+  private static final ImmutableList<ZoneId> ZONES = ImmutableList.of(
+      ZoneId.of("UTC"),
+      ZoneId.of("America/New_York"),
+      ZoneId.of("Asia/Kolkata"),
+      ZoneOffset.ofHoursMinutes(5, 30),
+      ZoneId.systemDefault());
+
+  private long get(Date date, int unit, ZoneId zone) {
+    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(zone));
+    cal.setTime(date);
+    return cal.get(unit);
+  }
+
+  private Date add(Date date, long n, int unit, ZoneId zone) {
+    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(zone));
+    cal.setTime(date);
+    cal.add(unit, (int) n);
+    return cal.getTime();
+  }
+
+  /**
+   * Calendar resolves local times at daylight saving transitions differently.
+   */
+  private boolean atTransition(Date source, Date result, ZoneId zone) {
+    LocalDateTime local = LocalDateTime.of(
+        LocalDateTime.ofInstant(result.toInstant(), zone).toLocalDate(),
+        LocalDateTime.ofInstant(source.toInstant(), zone).toLocalTime());
+    return zone.getRules().getTransition(local) != null;
+  }
+
+  private void assertAdd(Date date, long n, int unit, Date actual, ZoneId zone) {
+    Date expected = add(date, n, unit, zone);
+    if (!atTransition(date, expected, zone)) {
+      assertEquals(zone + " " + date, expected, actual);
+    }
+  }
+
+  private Object call(SimpleFunction<?> function, Object... args) {
+    return args.length == 1 ? function.call1(args[0]) : function.call2(args[0], args[1]);
+  }
+
+  @Test
+  public void testSameAsCalendar() {
+    for (ZoneId zone : ZONES) {
+      DateFunctions.LocalCalendar calendar = new DateFunctions.LocalCalendar(zone);
+      Random random = new Random(1);
+      for (int i = 0; i < 10000; i++) {
+        Date date = new Date((long) ((random.nextDouble() - 0.5) * 100 * YEAR_MILLIS));
+        String msg = zone + " " + date;
+        assertEquals(msg, get(date, Calendar.YEAR, zone), calendar.year(date));
+        assertEquals(msg, get(date, Calendar.MONTH, zone) + 1, calendar.month(date));
+        assertEquals(msg, get(date, Calendar.WEEK_OF_YEAR, zone), calendar.weekOfYear(date));
+        assertEquals(msg, get(date, Calendar.WEEK_OF_MONTH, zone), calendar.weekOfMonth(date));
+        assertEquals(msg, get(date, Calendar.DAY_OF_MONTH, zone), calendar.day(date));
+        assertEquals(msg, get(date, Calendar.DAY_OF_YEAR, zone), calendar.dayOfYear(date));
+        assertEquals(msg, get(date, Calendar.DAY_OF_WEEK, zone), calendar.dayOfWeek(date));
+        assertEquals(msg, get(date, Calendar.HOUR, zone), calendar.hour(date));
+        assertEquals(msg, get(date, Calendar.MINUTE, zone), calendar.minute(date));
+        assertEquals(msg, get(date, Calendar.SECOND, zone), calendar.second(date));
+
+        long n = random.nextInt(40) - 20;
+        assertAdd(date, n, Calendar.YEAR, calendar.addLocal(date, n, ChronoUnit.YEARS), zone);
+        assertAdd(date, n, Calendar.MONTH, calendar.addLocal(date, n, ChronoUnit.MONTHS), zone);
+        assertAdd(date, n, Calendar.WEEK_OF_YEAR, calendar.addLocal(date, n, ChronoUnit.WEEKS), zone);
+        assertAdd(date, n, Calendar.DAY_OF_YEAR, calendar.addLocal(date, n, ChronoUnit.DAYS), zone);
+      }
+    }
+  }
+
+  @Test
+  public void testFunctionsUseDefaultZone() {
+    ZoneId zone = ZoneId.systemDefault();
+    Random random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      Date date = new Date((long) ((random.nextDouble() - 0.5) * 100 * YEAR_MILLIS));
+      String msg = date.toString();
+      assertEquals(msg, get(date, Calendar.YEAR, zone), call(new DateFunctions.GetYear(), date));
+      assertEquals(msg, get(date, Calendar.MONTH, zone) + 1, call(new DateFunctions.GetMonth(), date));
+      assertEquals(msg, get(date, Calendar.WEEK_OF_YEAR, zone), call(new DateFunctions.GetWeekOfYear(), date));
+      assertEquals(msg, get(date, Calendar.WEEK_OF_MONTH, zone), call(new DateFunctions.GetWeekOfMonth(), date));
+      assertEquals(msg, get(date, Calendar.DAY_OF_MONTH, zone), call(new DateFunctions.GetDay(), date));
+      assertEquals(msg, get(date, Calendar.DAY_OF_YEAR, zone), call(new DateFunctions.GetDayOfYear(), date));
+      assertEquals(msg, get(date, Calendar.DAY_OF_WEEK, zone), call(new DateFunctions.GetDayOfWeek(), date));
+      assertEquals(msg, get(date, Calendar.HOUR, zone), call(new DateFunctions.GetHour(), date));
+      assertEquals(msg, get(date, Calendar.MINUTE, zone), call(new DateFunctions.GetMinute(), date));
+      assertEquals(msg, get(date, Calendar.SECOND, zone), call(new DateFunctions.GetSecond(), date));
+
+      long n = random.nextInt(40) - 20;
+      assertAdd(date, n, Calendar.YEAR, (Date) call(new DateFunctions.AddYears(), date, n), zone);
+      assertAdd(date, n, Calendar.MONTH, (Date) call(new DateFunctions.AddMonths(), date, n), zone);
+      assertAdd(date, n, Calendar.WEEK_OF_YEAR, (Date) call(new DateFunctions.AddWeeks(), date, n), zone);
+      assertAdd(date, n, Calendar.DAY_OF_YEAR, (Date) call(new DateFunctions.AddDays(), date, n), zone);
+      assertEquals(msg, add(date, n, Calendar.HOUR, zone), call(new DateFunctions.AddHours(), date, n));
+      assertEquals(msg, add(date, n, Calendar.MINUTE, zone), call(new DateFunctions.AddMinutes(), date, n));
+      assertEquals(msg, add(date, n, Calendar.SECOND, zone), call(new DateFunctions.AddSeconds(), date, n));
+    }
+  }
+
+  @Test
+  public void testFormats() throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    assertEquals(sdf.parse("2018-03-04 05:06:07"), DateFunctions.convert("2018-03-04 05:06:07"));
+    assertEquals(sdf.parse("2018-03-04 00:00:00"), DateFunctions.convert("2018-03-04"));
+    assertEquals(sdf.parse("2018-03-04 00:00:00"), DateFunctions.convert("2018-3-4"));
+    assertNull(DateFunctions.convert("2018/03/04"));
+    assertEquals("2018-03-04 05:06:07", DateFunctions.sdf1.format(sdf.parse("2018-03-04 05:06:07")));
+    assertEquals(sdf.parse("2018-03-01 00:00:00"), DateFunctions.TimestampFormat.of("yyyy/MM").parse("2018/03"));
+  }
+
+  @Test
+  public void testConcurrentParsing() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final int day = t + 1;
+        futures.add(executor.submit(() -> {
+          SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+          String str = "2018-01-0" + day + " 10:20:30";
+          Date expected = sdf.parse(str);
+          for (int i = 0; i < 10000; i++) {
+            if (!expected.equals(DateFunctions.convert(str))) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        assertEquals(true, future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.cosyan.db.model.Aggregators.CountGroupAggregator;
+import com.cosyan.db.model.Aggregators.GroupAggregator;
+import com.cosyan.db.model.Aggregators.LongGroupAggregator;
+import com.cosyan.db.model.GroupHashTable.LongGroupHashTable;
+import com.cosyan.db.model.GroupHashTable.ObjectGroupHashTable;
+import com.cosyan.db.model.StatAggregators.AvgGroupAggregator;
+import com.google.common.collect.ImmutableList;
+
+public class GroupHashTableTest {
+
+  @Test
+  public void testCreate() {
+    assertTrue(GroupHashTable.create(ImmutableList.of(DataTypes.LongType)) instanceof LongGroupHashTable);
+    assertTrue(GroupHashTable.create(ImmutableList.of(DataTypes.StringType)) instanceof ObjectGroupHashTable);
+    assertTrue(GroupHashTable.create(
+        ImmutableList.of(DataTypes.LongType, DataTypes.LongType)) instanceof ObjectGroupHashTable);
+  }
+
+  @Test
+  public void testLongKeys() {
+    GroupHashTable table = new LongGroupHashTable();
+    Object[] key = new Object[1];
+    for (long i = 0; i < 10000; i++) {
+      key[0] = i % 1000 == 999 ? null : i % 1000;
+      assertEquals(i % 1000, table.group(key));
+    }
+    assertEquals(1000, table.size());
+    assertArrayEquals(new Object[] { 7L }, table.key(7));
+    assertArrayEquals(new Object[] { null }, table.key(999));
+    assertEquals(7, table.find(new Object[] { 7L }));
+    assertEquals(999, table.find(new Object[] { null }));
+    assertEquals(GroupHashTable.NONE, table.find(new Object[] { 1000L }));
+    assertEquals(1000, table.size());
+  }
+
+  @Test
+  public void testCompositeKeys() {
+    GroupHashTable table = new ObjectGroupHashTable(2);
+    Object[] key = new Object[2];
+    for (long i = 0; i < 1000; i++) {
+      key[0] = "a" + (i % 10);
+      key[1] = i % 3 == 0 ? null : i % 3;
+      table.group(key);
+    }
+    assertEquals(30, table.size());
+    assertArrayEquals(new Object[] { "a0", null }, table.key(0));
+    assertArrayEquals(new Object[] { "a1", 1L }, table.key(1));
+    assertEquals(1, table.group(new Object[] { "a1", 1L }));
+    assertEquals(30, table.size());
+    assertEquals(1, table.find(new Object[] { "a1", 1L }));
+    assertEquals(GroupHashTable.NONE, table.find(new Object[] { "a1", 5L }));
+    assertEquals(30, table.size());
+  }
+
+  @Test
+  public void testGroupAggregators() {
+    GroupAggregator count = new CountGroupAggregator();
+    GroupAggregator sum = new LongGroupAggregator(Long::sum);
+    GroupAggregator avg = new AvgGroupAggregator();
+    for (long i = 0; i < 100; i++) {
+      int group = (int) (i % 40);
+      Object value = group == 3 ? null : i;
+      count.add(group, value);
+      sum.add(group, value);
+      avg.add(group, value);
+    }
+    assertEquals(3L, count.finish(0));
+    assertEquals(0L + 40L + 80L, sum.finish(0));
+    assertEquals(40.0, avg.finish(0));
+    assertEquals(0L, count.finish(3));
+    assertNull(sum.finish(3));
+    assertNull(avg.finish(3));
+    assertEquals(2L, count.finish(39));
+    assertEquals(0L, count.finish(100));
+    assertNull(sum.finish(100));
+  }
+}
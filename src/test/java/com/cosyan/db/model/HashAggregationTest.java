@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cosyan.db.meta.MetaRepo.ModelException;
+import com.cosyan.db.model.Aggregators.GroupAggregator;
+import com.cosyan.db.model.BuiltinFunctions.TypedAggrFunction;
+import com.cosyan.db.model.DataTypes.DataType;
+import com.google.common.collect.ImmutableList;
+
+public class HashAggregationTest {
+
+  private static final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("hashaggr").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    executor.shutdown();
+  }
+
+  private TreeMap<String, String> aggregate(ImmutableList<DataType<?>> keyTypes, int n, int mod, long memoryBudget,
+      boolean expectSpill) throws IOException, ModelException {
+    return aggregate(keyTypes, n, mod, memoryBudget, 1, expectSpill);
+  }
+
+  private TreeMap<String, String> aggregate(ImmutableList<DataType<?>> keyTypes, int n, int mod, long memoryBudget,
+      int parallelism, boolean expectSpill) throws IOException, ModelException {
+    ImmutableList<TypedAggrFunction<?>> functions = ImmutableList.of(
+        new Aggregators.Count().compile(null, DataTypes.LongType),
+        new StatAggregators.Sum().compile(null, DataTypes.LongType),
+        new Aggregators.Max().compile(null, DataTypes.StringType),
+        new ListAggregators.SetAggregator().compile(null, DataTypes.LongType),
+        new StatAggregators.Avg().compile(null, DataTypes.LongType));
+    ImmutableList<DataType<?>> valueTypes = ImmutableList.of(
+        DataTypes.LongType, DataTypes.LongType, DataTypes.StringType, DataTypes.LongType, DataTypes.LongType);
+    TreeMap<String, String> result = new TreeMap<>();
+    try (HashAggregation aggregation = new HashAggregation(
+        keyTypes, valueTypes, functions, memoryBudget, tempDir.getPath(), executor, parallelism, new AtomicBoolean())) {
+      Object[] key = new Object[keyTypes.size()];
+      Object[] values = new Object[valueTypes.size()];
+      for (long i = 0; i < n; i++) {
+        long k = i % mod;
+        key[0] = k == 0 ? null : k;
+        if (key.length > 1) {
+          key[1] = "k" + (k % 3);
+        }
+        values[0] = i;
+        values[1] = i % 7 == 0 ? null : i;
+        values[2] = "v" + i;
+        values[3] = i % 5;
+        values[4] = i;
+        aggregation.add(key, values);
+      }
+      Object[] row;
+      while ((row = aggregation.next()) != null) {
+        String groupKey = Arrays.toString(Arrays.copyOf(row, key.length));
+        assertNull(result.put(groupKey, Arrays.deepToString(Arrays.copyOfRange(row, key.length, row.length))));
+      }
+      assertEquals(expectSpill, aggregation.spilled());
+    }
+    assertEquals(0, tempDir.list().length);
+    return result;
+  }
+
+  @Test
+  public void testSpilledAggregationEqualsInMemory() throws Exception {
+    ImmutableList<DataType<?>> keyTypes = ImmutableList.of(DataTypes.LongType);
+    TreeMap<String, String> inMemory = aggregate(keyTypes, 20000, 2000, Long.MAX_VALUE, false);
+    TreeMap<String, String> spilled = aggregate(keyTypes, 20000, 2000, 1000, true);
+    assertEquals(2000, inMemory.size());
+    assertEquals(inMemory, spilled);
+    assertEquals("[10, 76056, v8007, [2], 9007.0]", inMemory.get("[7]"));
+    assertEquals("[10, 76000, v8000, [0], 9000.0]", inMemory.get("[null]"));
+  }
+
+  @Test
+  public void testSpilledCompositeKeys() throws Exception {
+    ImmutableList<DataType<?>> keyTypes = ImmutableList.of(DataTypes.LongType, DataTypes.StringType);
+    TreeMap<String, String> inMemory = aggregate(keyTypes, 5000, 500, Long.MAX_VALUE, false);
+    TreeMap<String, String> spilled = aggregate(keyTypes, 5000, 500, 1000, true);
+    assertEquals(500, inMemory.size());
+    assertEquals(inMemory, spilled);
+  }
+
+  @Test
+  public void testParallelAggregationEqualsSerial() throws Exception {
+    ImmutableList<DataType<?>> keyTypes = ImmutableList.of(DataTypes.LongType);
+    TreeMap<String, String> serial = aggregate(keyTypes, 50000, 100, Long.MAX_VALUE, false);
+    assertEquals(serial, aggregate(keyTypes, 50000, 100, Long.MAX_VALUE, 4, false));
+    assertEquals(serial, aggregate(keyTypes, 50000, 100, 1000, 4, true));
+    // Every batch has new keys.
+    TreeMap<String, String> highCardinality = aggregate(keyTypes, 50000, 20000, Long.MAX_VALUE, false);
+    assertEquals(highCardinality, aggregate(keyTypes, 50000, 20000, 100000, 4, true));
+  }
+
+  private TreeMap<Long, String> aggregateList(long memoryBudget, int parallelism, boolean expectSpill)
+      throws IOException, ModelException {
+    ImmutableList<TypedAggrFunction<?>> functions = ImmutableList.of(
+        new ListAggregators.ListAggregator().compile(null, DataTypes.LongType));
+    TreeMap<Long, String> result = new TreeMap<>();
+    try (HashAggregation aggregation = new HashAggregation(ImmutableList.of(DataTypes.LongType),
+        ImmutableList.of(DataTypes.LongType), functions, memoryBudget, tempDir.getPath(), executor, parallelism,
+        new AtomicBoolean())) {
+      // Enough rows to merge batches before the end of the input.
+      for (long i = 0; i < 50000; i++) {
+        aggregation.add(new Object[] { (i / 3) % 5 }, new Object[] { i });
+      }
+      Object[] row;
+      while ((row = aggregation.next()) != null) {
+        Long[] values = (Long[]) row[1];
+        assertEquals((long) row[0] * 3, (long) values[0]);
+        for (int i = 1; i < values.length; i++) {
+          assertTrue(values[i - 1] < values[i]);
+        }
+        assertNull(result.put((Long) row[0], Arrays.toString(values)));
+      }
+      assertEquals(expectSpill, aggregation.spilled());
+    }
+    assertEquals(0, tempDir.list().length);
+    return result;
+  }
+
+  @Test
+  public void testParallelKeepsOrder() throws Exception {
+    TreeMap<Long, String> serial = aggregateList(Long.MAX_VALUE, 1, false);
+    assertEquals(5, serial.size());
+    assertEquals(serial, aggregateList(Long.MAX_VALUE, 4, false));
+  }
+
+  @Test
+  public void testParallelKeepsOrderWhenSpilled() throws Exception {
+    TreeMap<Long, String> serial = aggregateList(Long.MAX_VALUE, 1, false);
+    assertEquals(serial, aggregateList(100000, 1, true));
+    assertEquals(serial, aggregateList(100000, 4, true));
+  }
+
+  private TreeMap<Long, String> aggregateGrowing(long memoryBudget, boolean expectSpill)
+      throws IOException, ModelException {
+    ImmutableList<TypedAggrFunction<?>> functions = ImmutableList.of(
+        new ListAggregators.ListAggregator().compile(null, DataTypes.LongType),
+        new Aggregators.CountDistinct().compile(null, DataTypes.LongType),
+        new ListAggregators.SetAggregator().compile(null, DataTypes.LongType));
+    TreeMap<Long, String> result = new TreeMap<>();
+    try (HashAggregation aggregation = new HashAggregation(ImmutableList.of(DataTypes.LongType),
+        ImmutableList.of(DataTypes.LongType, DataTypes.LongType, DataTypes.LongType), functions, memoryBudget,
+        tempDir.getPath(), executor, 1, new AtomicBoolean())) {
+      for (long i = 0; i < 20000; i++) {
+        aggregation.add(new Object[] { i % 5 }, new Object[] { i, i, i });
+      }
+      Object[] row;
+      while ((row = aggregation.next()) != null) {
+        assertNull(result.put((Long) row[0], Arrays.deepToString(Arrays.copyOfRange(row, 1, row.length))));
+      }
+      assertEquals(expectSpill, aggregation.spilled());
+    }
+    assertEquals(0, tempDir.list().length);
+    return result;
+  }
+
+  @Test
+  public void testGrowingStateIsSpilled() throws Exception {
+    // Only a few groups, the memory is used by the state of the aggregators.
+    TreeMap<Long, String> inMemory = aggregateGrowing(Long.MAX_VALUE, false);
+    TreeMap<Long, String> spilled = aggregateGrowing(100000, true);
+    assertEquals(5, inMemory.size());
+    assertEquals(inMemory, spilled);
+    assertTrue(inMemory.get(3L).startsWith("[[3, 8, 13, "));
+  }
+
+  @Test
+  public void testAggregatorSize() throws Exception {
+    GroupAggregator countDistinct = new Aggregators.CountDistinct()
+        .compile(null, DataTypes.LongType).createGroupAggregator();
+    GroupAggregator median = new StatAggregators.ApproxMedian()
+        .compile(null, DataTypes.LongType).createGroupAggregator();
+    GroupAggregator count = new Aggregators.Count()
+        .compile(null, DataTypes.LongType).createGroupAggregator();
+    for (long i = 0; i < 100; i++) {
+      countDistinct.add(0, i % 50);
+      median.add(0, i);
+      count.add(0, i);
+    }
+    assertEquals(50 * (Aggregators.ENTRY_OVERHEAD + Aggregators.VALUE_OVERHEAD), countDistinct.size());
+    assertTrue(median.size() >= 100 * Double.BYTES);
+    assertEquals(0, count.size());
+  }
+}
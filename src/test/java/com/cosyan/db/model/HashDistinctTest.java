@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class HashDistinctTest {
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("hashdistinct").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  private List<String> distinct(List<Object[]> rows, long memoryBudget, boolean expectSpill) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (HashDistinct distinct = new HashDistinct(
+        ImmutableList.of(DataTypes.LongType, DataTypes.StringType),
+        memoryBudget, tempDir.getPath(), new AtomicBoolean())) {
+      for (Object[] row : rows) {
+        if (distinct.add(row)) {
+          result.add(Arrays.toString(row));
+        }
+      }
+      Object[] row;
+      while ((row = distinct.next()) != null) {
+        result.add(Arrays.toString(row));
+      }
+      assertEquals(expectSpill, distinct.spilled());
+    }
+    return result;
+  }
+
+  private List<Object[]> rows(int n, int mod) {
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      rows.add(new Object[] { i % mod == 0 ? null : (long) (i % mod), "v" + (i % 3) });
+    }
+    return rows;
+  }
+
+  @Test
+  public void testStreamsFirstOccurrences() throws IOException {
+    List<Object[]> rows = rows(1000, 10);
+    HashDistinct distinct = new HashDistinct(
+        ImmutableList.of(DataTypes.LongType, DataTypes.StringType),
+        Long.MAX_VALUE, tempDir.getPath(), new AtomicBoolean());
+    assertTrue(distinct.add(rows.get(0)));
+    assertTrue(distinct.add(rows.get(1)));
+    assertFalse(distinct.add(rows.get(30)));
+    distinct.close();
+
+    List<String> result = distinct(rows, Long.MAX_VALUE, false);
+    assertEquals(30, result.size());
+    assertEquals("[null, v0]", result.get(0));
+    assertEquals("[1, v1]", result.get(1));
+  }
+
+  @Test
+  public void testSpilledDistinctEqualsInMemoryDistinct() throws IOException {
+    List<Object[]> rows = rows(5000, 500);
+    List<String> inMemory = distinct(rows, Long.MAX_VALUE, false);
+    List<String> spilled = distinct(rows, 2000, true);
+    assertEquals(1500, inMemory.size());
+    assertEquals(inMemory.size(), spilled.size());
+    assertEquals(new TreeSet<>(inMemory), new TreeSet<>(spilled));
+    // Rows seen before the memory budget is exceeded are streamed in order.
+    assertEquals(inMemory.get(0), spilled.get(0));
+    assertEquals(0, tempDir.list().length);
+  }
+}
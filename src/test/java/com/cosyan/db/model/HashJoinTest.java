@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cosyan.db.model.HashJoin.KeyedRowReader;
+import com.cosyan.db.model.HashJoin.Side;
+import com.google.common.collect.ImmutableList;
+
+public class HashJoinTest {
+
+  private static final Side SIDE = new Side(
+      ImmutableList.of(DataTypes.LongType),
+      ImmutableList.of(DataTypes.LongType, DataTypes.StringType));
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("hashjoin").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  private KeyedRowReader reader(List<Object[]> rows) {
+    Iterator<Object[]> iterator = rows.iterator();
+    return new KeyedRowReader() {
+      private Object[] row;
+
+      @Override
+      public boolean next() {
+        row = iterator.hasNext() ? iterator.next() : null;
+        return row != null;
+      }
+
+      @Override
+      public Object[] key() {
+        return new Object[] { row[0] };
+      }
+
+      @Override
+      public Object[] row() {
+        return row;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  private TreeMap<String, Integer> join(List<Object[]> build, List<Object[]> probe, boolean innerJoin,
+      long memoryBudget, boolean expectSpill) throws IOException {
+    TreeMap<String, Integer> result = new TreeMap<>();
+    try (HashJoin join = new HashJoin(SIDE, SIDE, innerJoin, memoryBudget, tempDir.getPath(), new AtomicBoolean())) {
+      join.open(reader(build), reader(probe));
+      Object[][] pair;
+      while ((pair = join.next()) != null) {
+        String key = pair[0][1] + ":" + (pair[1] == null ? "null" : pair[1][1]);
+        result.merge(key, 1, Integer::sum);
+      }
+      assertEquals(expectSpill, join.spilled());
+    }
+    return result;
+  }
+
+  private List<Object[]> rows(String prefix, int n, int mod) {
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      rows.add(new Object[] { i % mod == 0 ? null : (long) (i % mod), prefix + (i % mod) });
+    }
+    return rows;
+  }
+
+  @Test
+  public void testSpilledJoinEqualsInMemoryJoin() throws IOException {
+    List<Object[]> build = rows("b", 2000, 100);
+    List<Object[]> probe = rows("p", 3000, 150);
+    TreeMap<String, Integer> inMemory = join(build, probe, true, Long.MAX_VALUE, false);
+    TreeMap<String, Integer> spilled = join(build, probe, true, 1000, true);
+    assertEquals(inMemory, spilled);
+    // 99 matching keys, 20 build rows and 20 probe rows per key.
+    assertEquals(99, inMemory.size());
+    assertEquals(Integer.valueOf(400), inMemory.get("p7:b7"));
+    assertEquals(0, tempDir.list().length);
+  }
+
+  @Test
+  public void testSpilledOuterJoin() throws IOException {
+    List<Object[]> build = rows("b", 2000, 100);
+    List<Object[]> probe = rows("p", 3000, 150);
+    TreeMap<String, Integer> inMemory = join(build, probe, false, Long.MAX_VALUE, false);
+    TreeMap<String, Integer> spilled = join(build, probe, false, 1000, true);
+    assertEquals(inMemory, spilled);
+    assertEquals(Integer.valueOf(20), inMemory.get("p120:null"));
+    assertEquals(Integer.valueOf(20), inMemory.get("p0:null"));
+  }
+
+  @Test
+  public void testSkewedPartition() throws IOException {
+    List<Object[]> build = rows("b", 1000, 2);
+    List<Object[]> probe = rows("p", 10, 2);
+    TreeMap<String, Integer> spilled = join(build, probe, true, 1000, true);
+    assertEquals(Integer.valueOf(2500), spilled.get("p1:b1"));
+    assertEquals(0, tempDir.list().length);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cosyan.db.model.DataTypes.DataType;
+import com.cosyan.db.model.JoinHashTable.LongJoinHashTable;
+import com.cosyan.db.model.JoinHashTable.ObjectJoinHashTable;
+import com.google.common.collect.ImmutableList;
+
+public class JoinHashTableTest {
+
+  private List<Object[]> matches(JoinHashTable table, Object... key) {
+    List<Object[]> result = new ArrayList<>();
+    for (int i = table.first(key); i != JoinHashTable.NONE; i = table.next(i)) {
+      result.add(table.row(i));
+    }
+    return result;
+  }
+
+  @Test
+  public void testCreate() {
+    ImmutableList<DataType<?>> longs = ImmutableList.of(DataTypes.LongType);
+    ImmutableList<DataType<?>> strings = ImmutableList.of(DataTypes.StringType);
+    assertTrue(JoinHashTable.create(longs, longs) instanceof LongJoinHashTable);
+    assertTrue(JoinHashTable.create(strings, strings) instanceof ObjectJoinHashTable);
+    assertTrue(JoinHashTable.create(longs, ImmutableList.of(DataTypes.DoubleType)) instanceof ObjectJoinHashTable);
+  }
+
+  @Test
+  public void testLongKeys() {
+    JoinHashTable table = new LongJoinHashTable();
+    for (long i = 0; i < 10000; i++) {
+      table.put(new Object[] { i % 1000 }, new Object[] { i });
+    }
+    table.put(new Object[] { null }, new Object[] { -1L });
+    assertEquals(10000, table.size());
+
+    List<Object[]> rows = matches(table, 7L);
+    assertEquals(10, rows.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(7L + i * 1000, rows.get(i)[0]);
+    }
+    assertEquals(0, matches(table, 1000L).size());
+    assertEquals(0, matches(table, (Object) null).size());
+  }
+
+  @Test
+  public void testCompositeKeys() {
+    JoinHashTable table = new ObjectJoinHashTable(2);
+    Object[] key = new Object[2];
+    for (long i = 0; i < 1000; i++) {
+      key[0] = "a" + (i % 10);
+      key[1] = i % 3;
+      table.put(key, new Object[] { i });
+    }
+    List<Object[]> rows = matches(table, "a1", 1L);
+    assertEquals(34, rows.size());
+    assertEquals(1L, rows.get(0)[0]);
+    assertEquals(31L, rows.get(1)[0]);
+    assertEquals(0, matches(table, "a1", 5L).size());
+    assertEquals(0, matches(table, "a1", null).size());
+  }
+}
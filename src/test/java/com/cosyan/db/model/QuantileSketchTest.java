@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+  private static final int N = 100000;
+
+  private void assertQuantiles(QuantileSketch sketch) {
+    for (double q = 0.0; q <= 1.0; q += 0.1) {
+      assertEquals(q * N, sketch.quantile(q), N * 0.02);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+  }
+
+  @Test
+  public void testExact() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 1; i <= 5; i++) {
+      sketch.add(i);
+    }
+    assertEquals(3.0, sketch.quantile(0.5), 0.0);
+    assertEquals(1.0, sketch.quantile(0.0), 0.0);
+    assertEquals(5.0, sketch.quantile(1.0), 0.0);
+  }
+
+  @Test
+  public void testRankError() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < N; i++) {
+      // Permutation of 0 .. N - 1.
+      sketch.add((i * 7919L) % N);
+    }
+    assertEquals(N, sketch.count());
+    assertQuantiles(sketch);
+  }
+
+  @Test
+  public void testMerge() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int part = 0; part < 10; part++) {
+      QuantileSketch partial = new QuantileSketch();
+      for (int i = part; i < N; i += 10) {
+        partial.add(i);
+      }
+      sketch.merge(partial);
+    }
+    assertEquals(N, sketch.count());
+    assertQuantiles(sketch);
+  }
+}
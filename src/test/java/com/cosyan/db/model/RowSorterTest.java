@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cosyan.db.meta.Dependencies.TableDependencies;
+import com.cosyan.db.model.ColumnMeta.IndexColumn;
+import com.cosyan.db.model.ColumnMeta.OrderColumn;
+import com.cosyan.db.model.RowSorter.RowIterator;
+import com.cosyan.db.model.RowSorter.TopN;
+import com.google.common.collect.ImmutableList;
+
+public class RowSorterTest {
+
+  private static final ImmutableList<OrderColumn> KEYS = ImmutableList.of(
+      new OrderColumn(new IndexColumn(null, 0, DataTypes.StringType, new TableDependencies()), true),
+      new OrderColumn(new IndexColumn(null, 1, DataTypes.LongType, new TableDependencies()), false));
+
+  private File tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("sort").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  private List<Object[]> sort(List<Object[]> rows, long memoryBudget, boolean expectSpill) throws IOException {
+    List<Object[]> result = new ArrayList<>();
+    try (RowSorter sorter = new RowSorter(KEYS, ImmutableList.of(
+        DataTypes.StringType, DataTypes.LongType, DataTypes.LongType), memoryBudget, tempDir.getPath())) {
+      for (Object[] row : rows) {
+        sorter.add(new Object[] { row[0], row[1] }, row);
+      }
+      RowIterator iterator = sorter.sorted();
+      Object[] row;
+      while ((row = iterator.next()) != null) {
+        result.add(row);
+      }
+      assertEquals(expectSpill, sorter.spilled());
+    }
+    assertEquals(0, tempDir.list().length);
+    return result;
+  }
+
+  private List<Object[]> rows() {
+    List<Object[]> rows = new ArrayList<>();
+    for (long i = 0; i < 1000; i++) {
+      rows.add(new Object[] { i % 7 == 0 ? null : "k" + (i % 5), i % 3, i });
+    }
+    return rows;
+  }
+
+  private void assertSorted(List<Object[]> rows) {
+    assertEquals(1000, rows.size());
+    for (int i = 1; i < rows.size(); i++) {
+      Object[] x = rows.get(i - 1);
+      Object[] y = rows.get(i);
+      int result = RowSorter.keyComparator(KEYS).compare(x, y);
+      assertTrue(result <= 0);
+      if (result == 0) {
+        // Stable: equal keys keep the order of insertion.
+        assertTrue((Long) x[2] < (Long) y[2]);
+      }
+    }
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+    List<Object[]> sorted = sort(rows(), Long.MAX_VALUE, false);
+    assertSorted(sorted);
+    assertNull(sorted.get(0)[0]);
+    assertEquals(2L, sorted.get(0)[1]);
+    assertEquals("k4", sorted.get(999)[0]);
+    assertEquals(0L, sorted.get(999)[1]);
+  }
+
+  @Test
+  public void testSpilled() throws IOException {
+    List<Object[]> inMemory = sort(rows(), Long.MAX_VALUE, false);
+    List<Object[]> spilled = sort(rows(), 2000, true);
+    assertSorted(spilled);
+    for (int i = 0; i < inMemory.size(); i++) {
+      assertArrayEquals(inMemory.get(i), spilled.get(i));
+    }
+  }
+
+  @Test
+  public void testTopN() throws IOException {
+    List<Object[]> sorted = sort(rows(), Long.MAX_VALUE, false);
+    for (int n : new int[] { 0, 1, 10, 999, 1000, 2000 }) {
+      TopN topN = new TopN(KEYS, n);
+      for (Object[] row : rows()) {
+        topN.add(new Object[] { row[0], row[1] }, row);
+      }
+      RowIterator iterator = topN.sorted();
+      for (int i = 0; i < Math.min(n, 1000); i++) {
+        assertArrayEquals(sorted.get(i), iterator.next());
+      }
+      assertNull(iterator.next());
+    }
+  }
+}
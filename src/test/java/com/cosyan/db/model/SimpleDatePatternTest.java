@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Gergely Svigruha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cosyan.db.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.cosyan.db.model.DateFunctions.TimestampFormat;
+import com.google.common.collect.ImmutableList;
+
+public class SimpleDatePatternTest {
+
+  private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+  private static final ImmutableList<String> PATTERNS = ImmutableList.of(
+      "yyyy-MM-dd HH:mm:ss",
+      "yyyyMMddHHmmssSSS",
+      "yy/M/d H:m:s",
+      "dd.MM.yyyy hh:mm:ss.S a",
+      "EEE, d MMM yyyy HH:mm:ss.SSS Z",
+      "EEEE, MMMM d, yyyy G k:mm",
+      "yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+      "[yyyy] D u F K 'o''clock'",
+      "YYYY-'W'ww-u W");
+
+  private static final ImmutableList<String> PARSED_PATTERNS = ImmutableList.of(
+      "yyyy-MM-dd HH:mm:ss",
+      "yyyyMMddHHmmssSSS",
+      "yy/M/d H:m:s",
+      "dd.MM.yyyy hh:mm:ss.S a",
+      "EEE, d MMM yyyy HH:mm:ss.SSS Z",
+      "yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+      "[yyyy] D HH:mm 'o''clock'",
+      "YYYY-'W'ww-u HH:mm");
+
+  private Date randomDate(Random random) {
+    // Between 1960 and 2040, far from the pivot of two digit years.
+    return new Date((long) ((random.nextDouble() * 0.8 - 0.1) * 100 * YEAR_MILLIS));
+  }
+
+  @Test
+  public void testFormatSameAsSimpleDateFormat() {
+    for (String pattern : PATTERNS) {
+      SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+      TimestampFormat format = TimestampFormat.of(pattern);
+      Random random = new Random(1);
+      for (int i = 0; i < 1000; i++) {
+        Date date = randomDate(random);
+        assertEquals(pattern, sdf.format(date), format.format(date));
+      }
+    }
+  }
+
+  @Test
+  public void testParseSameAsSimpleDateFormat() throws Exception {
+    for (String pattern : PARSED_PATTERNS) {
+      SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+      TimestampFormat format = TimestampFormat.of(pattern);
+      Random random = new Random(1);
+      for (int i = 0; i < 1000; i++) {
+        String string = sdf.format(randomDate(random));
+        assertEquals(pattern + " " + string, sdf.parse(string), format.parse(string));
+      }
+    }
+  }
+
+  @Test
+  public void testLegacyLetters() throws Exception {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    Date date = sdf.parse("2018-03-04 05:06:07.008");
+    // Day of week, Sunday is 7.
+    assertEquals("7", TimestampFormat.of("u").format(date));
+    // Milliseconds instead of the fraction of the second.
+    assertEquals("8", TimestampFormat.of("S").format(date));
+    assertEquals(date, TimestampFormat.of("yyyy-MM-dd HH:mm:ss.S").parse("2018-03-04 05:06:07.8"));
+    // Brackets are literals.
+    assertEquals("[2018]", TimestampFormat.of("[yyyy]").format(date));
+    // Two digit years are within 80 years before and 20 years after now.
+    assertEquals(sdf.parse("2018-03-04 00:00:00.000"), TimestampFormat.of("yy/MM/dd").parse("18/03/04"));
+    assertEquals(new SimpleDateFormat("yy").parse("90"), TimestampFormat.of("yy").parse("90"));
+    // More than two digits are taken literally.
+    assertEquals(sdf.parse("1918-01-01 00:00:00.000"), TimestampFormat.of("yy").parse("1918"));
+  }
+}
@@ -17,8 +17,15 @@ package com.cosyan.db.model.stat;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
 import org.junit.Test;
 
+import com.cosyan.db.model.DataTypes;
+
 public class ColumnStatsTest {
 
   @Test
@@ -76,4 +83,62 @@ public class ColumnStatsTest {
     }
     assertEquals(15L, s1.cardinality(), 1);
   }
+
+  @Test
+  public void testEstimatedCount() {
+    ColumnStats s1 = new ColumnStats();
+    for (int i = 0; i < 10000; i++) {
+      s1.add("abc");
+      s1.add("xyz" + i);
+    }
+    assertEquals(10000.0, s1.estimatedCount("abc"), 500.0);
+    assertEquals(1.0, s1.estimatedCount("xyz1"), 1.0);
+    assertEquals(0.0, new ColumnStats().estimatedCount("abc"), 0.0);
+  }
+
+  @Test
+  public void testNullsAndMinMax() {
+    ColumnStats s1 = new ColumnStats();
+    for (long i = 0; i < 100; i++) {
+      s1.add(i % 4 == 0 ? null : i);
+    }
+    assertEquals(0.25, s1.nullFraction(), 0.0);
+    assertEquals(1L, s1.min());
+    assertEquals(99L, s1.max());
+  }
+
+  @Test
+  public void testHistogramEstimatedCount() {
+    ColumnStats s1 = new ColumnStats();
+    for (long i = 0; i < 1000; i++) {
+      s1.add(i < 500 ? 0L : i);
+    }
+    Object[] histogram = new Object[10];
+    for (int i = 0; i < 10; i++) {
+      histogram[i] = i < 5 ? 0L : (i + 1) * 100L - 1;
+    }
+    s1.setHistogram(histogram);
+    assertEquals(500.0, s1.estimatedCount(0L), 100.0);
+    assertEquals(1.0, s1.estimatedCount(777L), 1.0);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ColumnStats s1 = new ColumnStats();
+    for (int i = 0; i < 1000; i++) {
+      s1.add(i % 10 == 0 ? null : "xyz" + (i % 100));
+    }
+    s1.setHistogram(new Object[] { "xyz1", "xyz5", "xyz99" });
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    s1.write(DataTypes.StringType, new DataOutputStream(bytes));
+    ColumnStats s2 = ColumnStats.read(
+        DataTypes.StringType, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(s1.notNull(), s2.notNull());
+    assertEquals(s1.nullFraction(), s2.nullFraction(), 0.0);
+    assertEquals(s1.cardinality(), s2.cardinality());
+    assertEquals(s1.min(), s2.min());
+    assertEquals(s1.max(), s2.max());
+    assertArrayEquals(s1.histogram(), s2.histogram());
+    assertEquals(s1.estimatedCount("xyz5"), s2.estimatedCount("xyz5"), 0.0);
+  }
 }